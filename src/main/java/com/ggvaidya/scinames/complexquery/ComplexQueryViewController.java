@@ -321,7 +321,7 @@ public class ComplexQueryViewController implements Initializable {
 		// And add tablecolumns for the rest.
 		dataTableView.getColumns().clear();
 		dataTableView.getColumns().addAll(
-			createTableColumnFromChange("id", ch -> ch.getId().toString()),
+			createTableColumnFromChange("id", ch -> String.valueOf(ch.getId())),
 			createTableColumnFromChange("dataset", ch -> ch.getDataset().getName()),			
 			createTableColumnFromChange("type", ch -> ch.getType().getType()),
 			createTableColumnFromChange("from", ch -> ch.getFromString()),
@@ -370,7 +370,7 @@ public class ComplexQueryViewController implements Initializable {
 		// And add tablecolumns for the rest.
 		dataTableView.getColumns().clear();
 		dataTableView.getColumns().addAll(
-			createTableColumnFromChange("id", ch -> ch.getId().toString()),
+			createTableColumnFromChange("id", ch -> String.valueOf(ch.getId())),
 			createTableColumnFromChange("dataset", ch -> ch.getDataset().getName()),			
 			createTableColumnFromChange("type", ch -> ch.getType().getType()),
 			createTableColumnFromChange("from", ch -> ch.getFromString()),
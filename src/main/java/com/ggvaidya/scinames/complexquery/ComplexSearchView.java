@@ -29,6 +29,8 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.ggvaidya.scinames.model.Change;
+import com.ggvaidya.scinames.model.Name;
+import com.ggvaidya.scinames.model.NameIndex;
 import com.ggvaidya.scinames.model.Project;
 import com.ggvaidya.scinames.ui.ProjectView;
 
@@ -95,19 +97,23 @@ public final class ComplexSearchView {
 		
 		LOGGER.info("Names to match against changes: " + names);
 		
+		// We only need to match each distinct name once: the name index can tell us
+		// which changes refer to it.
+		NameIndex index = project.getNameIndex();
+		Set<Name> indexedNames = index.getNames();
+		
 		// treat newlines as ORs.
 		return names.stream().flatMap(nameRegexLine -> {
 			String nameRegex = nameRegexLine.replaceAll("^\\s*-\\s*", "");
 		
 			// Yes, we want to use getAllChanges() here, so we can search for names 
-			return project.getDatasets().stream().flatMap(ds -> ds.getAllChanges()).filter(
-				ch -> ch.getAllNames().stream()
-					.anyMatch(name -> 
-						name.getFullName().startsWith(nameRegex)
-						|| name.getFullName().matches(nameRegex)
-					)
-				);
-		});
+			return indexedNames.stream()
+				.filter(name -> 
+					name.getFullName().startsWith(nameRegex)
+					|| name.getFullName().matches(nameRegex)
+				)
+				.flatMap(name -> index.getAllChanges(name).stream());
+		}).distinct();
 	}
 	
 	/*
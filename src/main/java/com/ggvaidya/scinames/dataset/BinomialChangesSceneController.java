@@ -1219,10 +1219,7 @@ public class BinomialChangesSceneController {
 		
 		Map<Name, List<Change>> map = new HashMap<>();
 		for(Name n: names) {
-			map.put(n,  proj.getDatasets().stream()
-				.flatMap(ds -> ds.getAllChanges())
-				.filter(ch -> ch.getAllNames().contains(n))
-				.collect(Collectors.toList()));
+			map.put(n, proj.getNameIndex().getAllChanges(n));
 		}
 		
 		List<TableColumn<Change, String>> cols = new ArrayList<>();
@@ -48,6 +48,7 @@ import com.ggvaidya.scinames.model.change.ChangeTypeStringConverter;
 import com.ggvaidya.scinames.model.change.NameSetStringConverter;
 import com.ggvaidya.scinames.model.filters.ChangeFilter;
 import com.ggvaidya.scinames.tabulardata.TabularDataViewController;
+import com.ggvaidya.scinames.util.RowPin;
 
 import javafx.beans.Observable;
 import javafx.beans.property.ReadOnlyStringWrapper;
@@ -531,11 +532,15 @@ public class DatasetSceneController {
 		
 		// TODO: modify this so we can edit that data, too!
 		tdvc.getHeaderTextProperty().set("Data contained in dataset " + dataset); // TODO we can search for names here, dude.
+		
+		// Keep the rows loaded for as long as they're on display.
+		RowPin pin = dataset.pinRows();
 		fillTableViewWithDatasetRows(tdvc.getTableView());
 		
 		Stage stage = new Stage();
 		stage.setTitle("Rows from " + dataset.asTitle());
 		stage.setScene(tdvc.getScene());
+		stage.setOnHidden(e -> pin.close());
 		stage.show();
 	}
 	
@@ -1048,10 +1053,7 @@ public class DatasetSceneController {
 		
 		Map<Name, List<Change>> map = new HashMap<>();
 		for(Name n: names) {
-			map.put(n,  proj.getDatasets().stream()
-				.flatMap(ds -> ds.getAllChanges())
-				.filter(ch -> ch.getAllNames().contains(n))
-				.collect(Collectors.toList()));
+			map.put(n, proj.getNameIndex().getAllChanges(n));
 		}
 		
 		List<TableColumn<Change, String>> cols = new ArrayList<>();
@@ -20,17 +20,24 @@ import java.net.URL;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -62,65 +69,110 @@ import javafx.collections.ObservableSet;
  * @author Gaurav Vaidya <gaurav@ggvaidya.com>
  */
 public class Change {
+	/* Change IDs are handed out in sequence, and are only unique within a session. */
+	private static final AtomicLong lastId = new AtomicLong();
+	
 	/* Private variables and properties */
-	private UUID id = UUID.randomUUID();
+	private final long id = lastId.incrementAndGet();
 	private Logger LOGGER = Logger.getLogger(Change.class.getSimpleName());
 	
 	/** The dataset this change is located in. */
 	private Dataset dataset;
 	
-	/** 
-	 * The ChangeType of this change. Note that this is not enforced here: ADDITIONs may have
-	 * delete taxa, for instance!
-	 */
-	private ObjectProperty<ChangeType> typeProperty = new SimpleObjectProperty<>();
+	/** If this is an implicit change, the implicit changes it is one of. */
+	ImplicitChanges implicitIn = null;
 	
-	/** The names in the 'from' slot. */
-	private SetProperty<Name> from = new SimpleSetProperty<>(FXCollections.observableSet());
+	/*
+	 * Until somebody asks for them, a change only knows its type and names, and has no
+	 * citations or properties. The observable properties used to display and edit it
+	 * are created the first time they're needed (see getObservableState()), so the 
+	 * many implicit changes that are never looked at individually stay small.
+	 */
+	private final ChangeType initialType;
+	private final Set<Name> initialFrom;
+	private final Set<Name> initialTo;
+	private boolean registeredToDataset = false;
+	private volatile ObservableState state = null;
 	
-	/** The names in the 'to' slot. */
-	private SetProperty<Name> to = new SimpleSetProperty<>(FXCollections.observableSet());
+	/**
+	 * The observable properties of a change.
+	 */
+	private final class ObservableState {
+		/** 
+		 * The ChangeType of this change. Note that this is not enforced here: ADDITIONs may have
+		 * delete taxa, for instance!
+		 */
+		private final ObjectProperty<ChangeType> typeProperty = new SimpleObjectProperty<>(initialType);
+		
+		/** The names in the 'from' slot. */
+		private final SetProperty<Name> from = new SimpleSetProperty<>(FXCollections.observableSet(new HashSet<>(initialFrom)));
+		
+		/** The names in the 'to' slot. */
+		private final SetProperty<Name> to = new SimpleSetProperty<>(FXCollections.observableSet(new HashSet<>(initialTo)));
+		
+		/** Citations associated with this change. */
+		private final SetProperty<Citation> citations = new SimpleSetProperty<>(FXCollections.observableSet());
 	
-	/** Citations associated with this change. */
-	private SetProperty<Citation> citations = new SimpleSetProperty<>(FXCollections.observableSet());
-
-	/** Properties associated with this change. */
-	private MapProperty<String, String> properties = new SimpleMapProperty<>(FXCollections.observableHashMap());
+		/** Properties associated with this change. */
+		private final MapProperty<String, String> properties = new SimpleMapProperty<>(FXCollections.observableHashMap());
+		
+		/** When was this Change last changed? */
+		private final ModificationTimeProperty lastModified = new ModificationTimeProperty();
+		
+		{
+			/* If any of our properties change, we've changed. */
+			typeProperty.addListener((a, b, c) -> lastModified.modified());
+			from.addListener((a, b, c) -> lastModified.modified());
+			to.addListener((a, b, c) -> lastModified.modified());
+			citations.addListener((a, b, c) -> lastModified.modified());
+			properties.addListener((MapChangeListener<String, String>) a -> lastModified.modified());
+		}
+	}
 	
-	/** When was this Change last changed? */
-	private ModificationTimeProperty lastModified = new ModificationTimeProperty();
-		
-	{
-		/* If any of our properties change, we've changed. */
-		this.typeProperty.addListener((a, b, c) -> lastModified.modified());
-		this.from.addListener((a, b, c) -> lastModified.modified());
-		this.to.addListener((a, b, c) -> lastModified.modified());
-		this.citations.addListener((a, b, c) -> lastModified.modified());
-		this.properties.addListener((MapChangeListener<String, String>) a -> lastModified.modified());
+	private ObservableState getObservableState() {
+		ObservableState current = state;
+		if(current != null)
+			return current;
+		
+		synchronized(this) {
+			if(state == null) {
+				state = new ObservableState();
+				if(registeredToDataset)
+					state.lastModified.addListener(registerToDatasetListener);
+			}
+			return state;
+		}
 	}
 	
 	/* Accessors */
-	public UUID getId() { return id; }
+	public long getId() { return id; }
 	public Dataset getDataset() { return dataset; }
-	public ChangeType getType() { return typeProperty.getValue(); }
-	public ObjectProperty<ChangeType> typeProperty() { return typeProperty; }
-	public Set<Name> getFrom() { return from.get(); }
-	public Set<Name> getTo() { return to.get(); }
-	public SetProperty<Name> fromProperty() { return from; }
-	public SetProperty<Name> toProperty() { return to; }
-	public Stream<Name> getFromStream() { return from.stream(); }
-	public Stream<Name> getToStream() { return to.stream(); }
-	public ObservableSet<Citation> getCitations() { return citations.get(); }
-	public Stream<Citation> getCitationStream() { return citations.stream(); }
-	public SetProperty<Citation> citationsProperty() { return citations; }
-	public ModificationTimeProperty lastModifiedProperty() { return lastModified; }
-	public ObservableMap<String, String> getProperties() { return properties.get(); }
-	public MapProperty<String, String> propertiesProperty() { return properties; }	
+	public ChangeType getType() { ObservableState st = state; return (st == null) ? initialType : st.typeProperty.getValue(); }
+	public ObjectProperty<ChangeType> typeProperty() { return getObservableState().typeProperty; }
+	public Set<Name> getFrom() { return getObservableState().from.get(); }
+	public Set<Name> getTo() { return getObservableState().to.get(); }
+	public SetProperty<Name> fromProperty() { return getObservableState().from; }
+	public SetProperty<Name> toProperty() { return getObservableState().to; }
+	public Stream<Name> getFromStream() { ObservableState st = state; return (st == null) ? initialFrom.stream() : st.from.stream(); }
+	public Stream<Name> getToStream() { ObservableState st = state; return (st == null) ? initialTo.stream() : st.to.stream(); }
+	public ObservableSet<Citation> getCitations() { return getObservableState().citations.get(); }
+	public Stream<Citation> getCitationStream() { ObservableState st = state; return (st == null) ? Stream.empty() : st.citations.stream(); }
+	public SetProperty<Citation> citationsProperty() { return getObservableState().citations; }
+	public ModificationTimeProperty lastModifiedProperty() { return getObservableState().lastModified; }
+	public ObservableMap<String, String> getProperties() { return getObservableState().properties.get(); }
+	public MapProperty<String, String> propertiesProperty() { return getObservableState().properties; }	
+	
+	/** @return The properties of this change, without creating any if it has none. */
+	private Map<String, String> getPropertiesIfAny() {
+		ObservableState st = state;
+		return (st == null) ? Collections.emptyMap() : st.properties.get();
+	}
 	
 	/* Higher-level accessors */
 	
 	/** Checks whether a property is set to 'true'. Currently, we code 'true' as 'yes'. */
 	public boolean isPropertySetTrue(String propName) {
+		Map<String, String> properties = getPropertiesIfAny();
 		if(!properties.containsKey(propName))
 			return false;
 		
@@ -153,7 +205,7 @@ public class Change {
 			@Override
 			public void set(String value) {
 				change.getProperties().put("note", value);
-				change.lastModified.modified();
+				change.lastModifiedProperty().modified();
 			}
 		};
 	}
@@ -162,7 +214,7 @@ public class Change {
 	 * Return the note as an optional string.
 	 */
 	public Optional<String> getNote() {
-		String note = properties.getOrDefault("note", null);
+		String note = getPropertiesIfAny().getOrDefault("note", null);
 		if(note == null || note.equals("")) return Optional.empty();
 		else return Optional.of(note);
 	}
@@ -188,7 +240,7 @@ public class Change {
 		}
 		
 		// Add tags in citations.
-		citations.stream().flatMap(cit -> cit.getTags().stream()).forEach(tag -> {
+		getCitationStream().flatMap(cit -> cit.getTags().stream()).forEach(tag -> {
 			tags.add(tag);
 		});
 		
@@ -223,24 +275,22 @@ public class Change {
 	
 	/** @return 'from' names as a set of names separated by ' and '. */
 	public String getFromString() {
-		return String.join(" and ", from.stream().map(n -> n.getFullName()).collect(Collectors.toList()));
+		return String.join(" and ", getFromStream().map(n -> n.getFullName()).collect(Collectors.toList()));
 	}
 	
 	/** @return 'to' names as a set of names separated by ' and '. */
 	public String getToString() {
-		return String.join(" and ", to.stream().map(n -> n.getFullName()).collect(Collectors.toList()));
+		return String.join(" and ", getToStream().map(n -> n.getFullName()).collect(Collectors.toList()));
 	}
 	
 	/** @return all unique names in both 'from' and 'to' slots. */
 	public Set<Name> getAllNames() {
-		Set<Name> all = new HashSet<>(from.get());
-		all.addAll(to.get());
-		return all;
+		return Stream.concat(getFromStream(), getToStream()).collect(Collectors.toSet());
 	}
 	
 	/** Add a single citation to this Change. */
 	void addCitation(Citation citation) {
-		citations.add(citation);
+		getCitations().add(citation);
 	}
 	
 	/** @return A string representation of the important information: from, to, type and dataset. */
@@ -249,11 +299,11 @@ public class Change {
 		// (from 1) + (from 2) -> (to 1) + (to 2) [type, dataset]
 		StringBuilder response = new StringBuilder();	
 		
-		ChangeType type = typeProperty.getValue();
-		if(type.equals(ChangeType.ADDITION) && getFrom().isEmpty())
+		ChangeType type = getType();
+		if(type.equals(ChangeType.ADDITION) && !getFromStream().findAny().isPresent())
 			response.append("added ").append(getToStream().map(n -> n.getFullName()).collect(Collectors.joining(" + ")));
 		
-		else if(type.equals(ChangeType.DELETION) && getTo().isEmpty())
+		else if(type.equals(ChangeType.DELETION) && !getToStream().findAny().isPresent())
 			response.append("deleted ").append(getFromStream().map(n -> n.getFullName()).collect(Collectors.joining(" + ")));
 		
 		else
@@ -281,21 +331,33 @@ public class Change {
 	 * @param registerToDataset Should we let the dataset know when we change?
 	 */
 	public Change(Dataset d, ChangeType type, Stream<Name> from, Stream<Name> to, boolean registerToDataset) {
+		this(d, type, from.collect(Collectors.toSet()), to.collect(Collectors.toSet()), registerToDataset);
+	}
+	
+	/**
+	 * Create a Change from sets of names, which will be used as-is until this change 
+	 * needs to be displayed or edited, and so must not be modified after this.
+	 */
+	Change(Dataset d, ChangeType type, Set<Name> from, Set<Name> to, boolean registerToDataset) {
 		dataset = d;
-		this.typeProperty.setValue(type);
-		this.from.addAll(from.collect(Collectors.toSet()));
-		this.to.addAll(to.collect(Collectors.toSet()));
+		initialType = type;
+		initialFrom = from;
+		initialTo = to;
 		
 		if(registerToDataset)
 			registerToDataset();
 	}
 	
-	private ChangeListener registerToDatasetListener = (a, b, c) -> dataset.onChangeChanged(dataset.getProject(), this);
-	public void registerToDataset() {
-		this.lastModified.addListener(registerToDatasetListener);
+	private ChangeListener<Instant> registerToDatasetListener = (a, b, c) -> dataset.onChangeChanged(dataset.getProject(), this);
+	public synchronized void registerToDataset() {
+		registeredToDataset = true;
+		if(state != null)
+			state.lastModified.addListener(registerToDatasetListener);
 	}
-	public void unregisterFromDataset() {
-		this.lastModified.removeListener(registerToDatasetListener);
+	public synchronized void unregisterFromDataset() {
+		registeredToDataset = false;
+		if(state != null)
+			state.lastModified.removeListener(registerToDatasetListener);
 	}
 	
 	public Change(Dataset d, ChangeType type, Stream<Name> from, Stream<Name> to) {
@@ -334,15 +396,7 @@ public class Change {
 	 * @param to_str The and-string of output names.
 	 */
 	public Change(Dataset d, ChangeType type, String from_str, String to_str) throws IllegalStateException {
-		Stream<Name> from_stream = convertAndStringToNames(from_str);
-		Stream<Name> to_stream = convertAndStringToNames(to_str);
-		
-		dataset = d;
-		this.typeProperty.setValue(type);
-		this.from.addAll(from_stream.collect(Collectors.toSet()));
-		this.to.addAll(to_stream.collect(Collectors.toSet()));
-		
-		this.lastModified.addListener((a, b, c) -> dataset.onChangeChanged(d.getProject(), this));
+		this(d, type, convertAndStringToNames(from_str), convertAndStringToNames(to_str), true);
 	}
 	
 	/* Serialization */
@@ -451,11 +505,11 @@ public class Change {
 	 */
 	public Element serializeToElement(Document doc) {
 		Element element = doc.createElement("change");
-		element.setAttribute("type", typeProperty.getValue().getType());
+		element.setAttribute("type", getType().getType());
 		
 		// Save from-names.
 		Element fromElement = doc.createElement("from");
-		for(Name n: from) {
+		for(Name n: (Iterable<Name>) getFromStream()::iterator) {
 			Element nameElement = n.serializeToElement(doc);
 			
 			fromElement.appendChild(nameElement);
@@ -464,7 +518,7 @@ public class Change {
 		
 		// Save to-names.
 		Element toElement = doc.createElement("to");
-		for(Name n: to) {
+		for(Name n: (Iterable<Name>) getToStream()::iterator) {
 			Element nameElement = n.serializeToElement(doc);
 			
 			toElement.appendChild(nameElement);
@@ -472,6 +526,7 @@ public class Change {
 		element.appendChild(toElement);
 		
 		// Save properties.
+		Map<String, String> properties = getPropertiesIfAny();
 		Element propElement = doc.createElement("properties");
 		properties.keySet().forEach((String propName) -> {
 			Element prop = doc.createElement("property");
@@ -484,7 +539,7 @@ public class Change {
 		
 		// Save citations.
 		Element citationsElement = doc.createElement("citations");
-		citations.get().forEach((Citation citation) -> {
+		getCitationStream().forEach((Citation citation) -> {
 			Element citationElement = citation.serializeToElement(doc);
 			citationsElement.appendChild(citationElement);
 		});
@@ -493,4 +548,55 @@ public class Change {
 		
 		return element;
 	}
+	
+	/**
+	 * Write this Change to an XML stream, as the same element that serializeToElement()
+	 * would create.
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @throws XMLStreamException If the change could not be written.
+	 */
+	public void serializeToXMLStream(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement("change");
+		writer.writeAttribute("type", getType().getType());
+		
+		// Save from-names.
+		writer.writeStartElement("from");
+		for(Name n: (Iterable<Name>) getFromStream()::iterator) {
+			n.serializeToXMLStream(writer);
+		}
+		writer.writeEndElement();
+		
+		// Save to-names.
+		writer.writeStartElement("to");
+		for(Name n: (Iterable<Name>) getToStream()::iterator) {
+			n.serializeToXMLStream(writer);
+		}
+		writer.writeEndElement();
+		
+		// Save properties.
+		Map<String, String> properties = getPropertiesIfAny();
+		if(!properties.isEmpty()) {
+			writer.writeStartElement("properties");
+			for(String propName: properties.keySet()) {
+				writer.writeStartElement("property");
+				writer.writeAttribute("name", propName);
+				writer.writeCharacters(properties.get(propName));
+				writer.writeEndElement();
+			}
+			writer.writeEndElement();
+		}
+		
+		// Save citations.
+		List<Citation> citations = getCitationStream().collect(Collectors.toList());
+		if(!citations.isEmpty()) {
+			writer.writeStartElement("citations");
+			for(Citation citation: citations) {
+				citation.serializeToXMLStream(writer);
+			}
+			writer.writeEndElement();
+		}
+		
+		writer.writeEndElement();
+	}
 }
\ No newline at end of file
@@ -1,11 +1,11 @@
 package com.ggvaidya.scinames.model;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** 
  * Type of change. This is pretty disconnected from the rest of Change, i.e. an ChangeType.ADDITION
@@ -14,7 +14,8 @@ import java.util.Set;
  */
 public final class ChangeType implements Comparable<ChangeType> {
 	/** Stores singletons of ChangeTypes */
-	private static Map<String, ChangeType> singletons = new HashMap<>();
+	/* Projects are loaded on several threads at once, so this needs to be thread-safe. */
+	private static Map<String, ChangeType> singletons = new ConcurrentHashMap<>();
 	
 	/* Recognized ChangeTypes to be used in SciNames. */
 	public static final ChangeType ADDITION = of("added");
@@ -41,12 +42,7 @@ public final class ChangeType implements Comparable<ChangeType> {
 	 * @return ChangeType corresponding to the string representation.
 	 */
 	public static ChangeType of(String text) {
-		text = text.toLowerCase();
-		
-		if(!singletons.containsKey(text))
-			singletons.put(text, new ChangeType(text));
-			
-		return singletons.get(text);
+		return singletons.computeIfAbsent(text.toLowerCase(), ChangeType::new);
 	}
 	
 	/* Non-static object begins here. */
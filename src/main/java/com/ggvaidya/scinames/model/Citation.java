@@ -20,6 +20,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -116,6 +119,34 @@ public class Citation implements Citable {
 		return e;
 	}
 	
+	public void serializeToXMLStream(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement("citation");
+		date.writeDateAttributes(writer);
+		
+		writer.writeStartElement("cite");
+		writer.writeCharacters(getCitation());
+		writer.writeEndElement();
+		
+		writer.writeStartElement("properties");
+		for(String propKey: properties.keySet()) {
+			writer.writeStartElement("property");
+			writer.writeAttribute("name", propKey);
+			writer.writeCharacters(properties.get(propKey));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		
+		writer.writeStartElement("tags");
+		for(Tag tag: tags) {
+			writer.writeStartElement("tag");
+			writer.writeCharacters(tag.getName());
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		
+		writer.writeEndElement();
+	}
+	
 	public static Citation serializeFromNode(Node n) throws SAXException {
 		throw new UnsupportedOperationException("Serializing citations from XML using SAX is no longer supported.");
 		
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage for the rows of a dataset. Instead of every row keeping its own
+ * map of values, each DatasetColumn has a single int array with one code per row. 
+ * Codes index into a per-column dictionary of distinct values, so a value repeated 
+ * on many rows (such as a family or genus) is only stored once.
+ * 
+ * DatasetRows are views onto a single row index in a ColumnStore.
+ * 
+ * Writes are synchronized. Reads aren't, so any number of threads can read rows
+ * concurrently (e.g. while extracting names). The code and dictionary arrays are
+ * volatile, and columns are added by replacing the map and list of columns rather
+ * than modifying them, so rows can be read safely while new rows or columns are 
+ * being written.
+ * 
+ * Rows are never removed from a store. Once most of the rows in a dataset's store
+ * are no longer in the dataset, the dataset copies the rows it still has into a new
+ * store (see copyRowFrom()) and stops using the old one.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class ColumnStore {
+	/* Codes used in each column's codes array. Codes above zero index into the dictionary. */
+	private static final int ABSENT = 0;
+	private static final int NULL_VALUE = -1;
+	
+	/**
+	 * The values of a single column.
+	 */
+	private static final class Column {
+		private final DatasetColumn column;
+		private volatile int[] codes = new int[0];
+		
+		// dictionary[code - 1] is the value for that code.
+		private volatile String[] dictionary = new String[0];
+		private int dictionarySize = 0;
+		private final Map<String, Integer> codesByValue = new HashMap<>();
+		
+		public Column(DatasetColumn col) {
+			column = col;
+		}
+		
+		public int getCode(int row) {
+			int[] c = codes;
+			return (row < c.length) ? c[row] : ABSENT;
+		}
+		
+		public String getValue(int code) {
+			String[] d = dictionary;
+			return (code > 0) ? d[code - 1] : null;
+		}
+		
+		public int encode(String value) {
+			if(value == null)
+				return NULL_VALUE;
+			
+			Integer code = codesByValue.get(value);
+			if(code != null)
+				return code;
+			
+			String[] d = dictionary;
+			if(dictionarySize == d.length) {
+				d = Arrays.copyOf(d, Math.max(16, dictionarySize * 2));
+				d[dictionarySize++] = value;
+				dictionary = d;
+			} else {
+				d[dictionarySize++] = value;
+			}
+			
+			codesByValue.put(value, dictionarySize);
+			return dictionarySize;
+		}
+		
+		public void setCode(int row, int code) {
+			int[] c = codes;
+			if(row >= c.length) {
+				if(code == ABSENT) return;
+				c = Arrays.copyOf(c, Math.max(row + 1, Math.max(16, c.length * 2)));
+				c[row] = code;
+				codes = c;
+			} else {
+				c[row] = code;
+			}
+		}
+	}
+	
+	/* Internal variables */
+	private volatile Map<DatasetColumn, Column> columns = Collections.emptyMap();	// Replaced, never modified.
+	private volatile List<Column> columnsInOrder = Collections.emptyList();		// Replaced, never modified.
+	private int rowCount = 0;
+	private long modificationCount = 0;
+	
+	public ColumnStore() {
+		// Empty!
+	}
+	
+	/**
+	 * Create an empty store to replace a previous store. Its modification count
+	 * carries on from the previous store's, so that replacing a store doesn't look
+	 * like an edit.
+	 * 
+	 * @param previous The store being replaced.
+	 */
+	public ColumnStore(ColumnStore previous) {
+		modificationCount = previous.getModificationCount();
+	}
+	
+	/**
+	 * Allocate a new, empty row.
+	 * 
+	 * @return The index of the new row.
+	 */
+	public synchronized int addRow() {
+		return rowCount++;
+	}
+	
+	/**
+	 * @return The number of rows allocated in this store, including rows that 
+	 * 	are no longer in the dataset.
+	 */
+	public synchronized int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @return The number of times a value has been put into or removed from this
+	 * 	store. Datasets use this to tell whether their rows have been edited.
+	 */
+	public synchronized long getModificationCount() {
+		return modificationCount;
+	}
+	
+	/* Reading values */
+	
+	public String get(int row, DatasetColumn col) {
+		Column column = columns.get(col);
+		if(column == null) return null;
+		
+		return column.getValue(column.getCode(row));
+	}
+	
+	public boolean has(int row, DatasetColumn col) {
+		Column column = columns.get(col);
+		return column != null && column.getCode(row) != ABSENT;
+	}
+	
+	/**
+	 * @return The columns that have a value in a row, in the order they were first used.
+	 */
+	public List<DatasetColumn> getColumns(int row) {
+		List<DatasetColumn> results = new ArrayList<>();
+		for(Column column: columnsInOrder) {
+			if(column.getCode(row) != ABSENT)
+				results.add(column.column);
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns every distinct non-null value stored in a column. This doesn't
+	 * look at any rows, so it's much faster than checking every row.
+	 * 
+	 * Note that values which used to be in a column but have since been overwritten
+	 * will still be returned.
+	 * 
+	 * @param col The column to look up.
+	 * @return The distinct values of that column.
+	 */
+	public synchronized List<String> getDistinctValues(DatasetColumn col) {
+		Column column = columns.get(col);
+		if(column == null) return Collections.emptyList();
+		
+		return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(column.dictionary, column.dictionarySize)));
+	}
+	
+	/* Writing values */
+	
+	/**
+	 * Make sure this store has a column, even if no values have been put into it yet.
+	 * 
+	 * @param col The column to add.
+	 */
+	public synchronized void addColumn(DatasetColumn col) {
+		getOrAddColumn(col);
+	}
+	
+	private Column getOrAddColumn(DatasetColumn col) {
+		Column column = columns.get(col);
+		if(column == null) {
+			column = new Column(col);
+			
+			Map<DatasetColumn, Column> newColumns = new HashMap<>(columns);
+			newColumns.put(col, column);
+			List<Column> newColumnsInOrder = new ArrayList<>(columnsInOrder);
+			newColumnsInOrder.add(column);
+			
+			columns = newColumns;
+			columnsInOrder = newColumnsInOrder;
+		}
+		return column;
+	}
+	
+	/**
+	 * Allocate a new row in this store with the same values as a row in another 
+	 * store. This doesn't count as a modification of this store.
+	 * 
+	 * @param source The store to copy from.
+	 * @param sourceRow The row in that store to copy.
+	 * @return The index of the new row in this store.
+	 */
+	public synchronized int copyRowFrom(ColumnStore source, int sourceRow) {
+		int row = rowCount++;
+		for(Column sourceColumn: source.columnsInOrder) {
+			int code = sourceColumn.getCode(sourceRow);
+			if(code == ABSENT) continue;
+			
+			Column column = getOrAddColumn(sourceColumn.column);
+			column.setCode(row, column.encode(sourceColumn.getValue(code)));
+		}
+		return row;
+	}
+	
+	public synchronized void put(int row, DatasetColumn col, String value) {
+		Column column = getOrAddColumn(col);
+		column.setCode(row, column.encode(value));
+		modificationCount++;
+	}
+	
+	public synchronized void remove(int row, DatasetColumn col) {
+		Column column = columns.get(col);
+		if(column != null)
+			column.setCode(row, ABSENT);
+		modificationCount++;
+	}
+	
+	/**
+	 * Remove every row and column from this store. Any DatasetRows created on this
+	 * store must not be used afterwards, as their indexes will be reused.
+	 */
+	public synchronized void clear() {
+		columns = Collections.emptyMap();
+		columnsInOrder = Collections.emptyList();
+		rowCount = 0;
+		modificationCount++;
+	}
+}
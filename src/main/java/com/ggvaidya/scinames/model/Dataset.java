@@ -16,15 +16,14 @@
  */
 package com.ggvaidya.scinames.model;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -32,22 +31,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.io.input.BOMInputStream;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import com.ggvaidya.scinames.model.filters.ChangeFilter;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractor;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorDetector;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractorFactory;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractorParseException;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.Dependency;
 import com.ggvaidya.scinames.util.ExcelImporter;
 import com.ggvaidya.scinames.util.ModificationTimeProperty;
+import com.ggvaidya.scinames.util.RowPin;
 import com.ggvaidya.scinames.util.SimplifiedDate;
 
 import javafx.beans.Observable;
@@ -98,35 +105,129 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	// Data in this dataset.
 	private ObservableList<DatasetColumn> columns = FXCollections.observableArrayList();
 	private ObservableList<DatasetRow> rows = FXCollections.observableList(new LinkedList<>());
+	private volatile ColumnStore columnStore = new ColumnStore();	// Values for every DatasetRow in this dataset; replaced when compacted.
 	private ObservableList<Change> explicitChanges = FXCollections.observableList(new LinkedList<>());
-	private ObservableList<Change> implicitChanges = FXCollections.observableList(new LinkedList<>());
+	private ImplicitChanges implicitChanges = ImplicitChanges.none(this);	// Replaced whenever they're recalculated.
 	private ObservableMap<String, String> properties = FXCollections.observableHashMap();
 	
+	/*
+	 * Dependencies.
+	 * 
+	 * What we work out from this dataset, and what each of those things is worked out
+	 * from. Editing our name, date, note or other properties doesn't invalidate any of 
+	 * these, so nothing needs to be recalculated.
+	 */
+	private final Dependency rowsDependency = new Dependency("rows");	// Including columns and the values in each row.
+	private final Dependency nameExtractorsDependency = new Dependency("name extractors");
+	private final Dependency typeDependency = new Dependency("type");
+	private final Dependency explicitChangesDependency = new Dependency("explicit changes");
+	private final Dependency namesDependency = new Dependency("names in rows", rowsDependency, nameExtractorsDependency);
+	private final Dependency implicitChangesDependency = new Dependency("implicit changes", namesDependency, explicitChangesDependency, typeDependency);
+	private final Dependency changesDependency = new Dependency("changes", explicitChangesDependency);
+	private final Dependency referencedNamesDependency = new Dependency("referenced names", namesDependency, changesDependency);
+	
+	// Also depends on the names recognized by the previous dataset and on the project's
+	// change filter; see setPreviousDataset().
+	private final Dependency recognizedNamesDependency = new Dependency("recognized names", changesDependency);
+	
 	{
-		/* Make sure that certain changes trigger modifications. */
-		nameProperty.addListener(c -> lastModified.modified());
-		dateProperty.addListener(c -> lastModified.modified());
-		typeProperty.addListener(c -> lastModified.modified());
-		columns.addListener((Observable c) -> lastModified.modified());
-		rows.addListener((Observable c) -> lastModified.modified());
-		explicitChanges.addListener((Observable o) -> lastModified.modified());
-		properties.addListener((Observable c) -> lastModified.modified());
+		/* 
+		 * Make sure that certain changes trigger modifications. Changes that invalidate
+		 * what we've worked out from them do so first, so that anybody listening for
+		 * modifications sees what has been invalidated.
+		 */
+		// Invalidation listeners on these wouldn't hear about a second edit until somebody
+		// read the first one, so listen for changes instead.
+		nameProperty.addListener((obs, oldValue, newValue) -> modified());
+		dateProperty.addListener((obs, oldValue, newValue) -> modified());
+		typeProperty.addListener((obs, oldValue, newValue) -> { typeDependency.invalidate(); modified(); });
+		columns.addListener((Observable c) -> { namesChanged(); modified(); });
+		rows.addListener((Observable c) -> rowsChanged());
+		rows.addListener((ListChangeListener<DatasetRow>) this::updateColumnStore);
+		explicitChanges.addListener((Observable o) -> { explicitChangesDependency.invalidate(); modified(); });
+		properties.addListener((Observable c) -> modified());
+		
+		namesDependency.addListener(this::clearNamesCaches);
+	}
+	
+	/* Bulk updates */
+	
+	// While a bulk update is open, we note what changed instead of firing 
+	// modification events and resetting caches for every row or change added.
+	private int bulkUpdateDepth = 0;
+	private boolean modifiedDuringBulkUpdate = false;
+	private boolean namesChangedDuringBulkUpdate = false;
+	
+	/**
+	 * Start a bulk update on this dataset. Until the bulk update is closed, adding
+	 * or changing rows, columns or explicit changes won't fire modification events
+	 * or invalidate the names in our rows; closing it will do this once for all the 
+	 * changes made. Name caches are therefore out of date until the bulk update is 
+	 * closed.
+	 * 
+	 * @return A bulk update to close once you're done.
+	 */
+	public BulkUpdate beginBulkUpdate() {
+		bulkUpdateDepth++;
+		return this::endBulkUpdate;
+	}
+	
+	public boolean isInBulkUpdate() {
+		return bulkUpdateDepth > 0;
+	}
+	
+	private void endBulkUpdate() {
+		if(bulkUpdateDepth == 0)
+			throw new IllegalStateException("Bulk update on " + this + " closed more often than it was opened");
+		
+		bulkUpdateDepth--;
+		if(bulkUpdateDepth > 0)
+			return;
+		
+		boolean namesChanged = namesChangedDuringBulkUpdate;
+		boolean modified = modifiedDuringBulkUpdate;
+		namesChangedDuringBulkUpdate = false;
+		modifiedDuringBulkUpdate = false;
+		
+		if(namesChanged)
+			rowsDependency.invalidate();
+		if(namesChanged || modified)
+			lastModified.modified();
+	}
+	
+	private void modified() {
+		if(bulkUpdateDepth > 0)
+			modifiedDuringBulkUpdate = true;
+		else
+			lastModified.modified();
+	}
+	
+	private void namesChanged() {
+		if(bulkUpdateDepth > 0)
+			namesChangedDuringBulkUpdate = true;
+		else
+			rowsDependency.invalidate();
 	}
 	
 	/* Accessors */
 	public Optional<Project> getProject() { return Optional.ofNullable(project); }
-	public void setProject(Project p) { project = p; lastModified.modified(); }
+	public void setProject(Project p) { setUpstream(p, prevDataset); lastModified.modified(); }
 	public StringProperty nameProperty() { return nameProperty; }
 	public String getName() { return nameProperty.get(); }
 	public void setName(String n) { nameProperty.set(n); }
 	public ObjectProperty<SimplifiedDate> dateProperty() { return dateProperty; }
 	public SimplifiedDate getDate() { return dateProperty.getValue(); }
 	public ModificationTimeProperty lastModifiedProperty() { return lastModified; }
+	public Dependency getNamesDependency() { return namesDependency; }
+	public Dependency getChangesDependency() { return changesDependency; }
+	public Dependency getReferencedNamesDependency() { return referencedNamesDependency; }
+	public Dependency getRecognizedNamesDependency() { return recognizedNamesDependency; }
 	public ObservableList<DatasetColumn> getColumns() { return columns; }
-	public ObservableList<DatasetRow> rowsProperty() { return rows; }
+	public ObservableList<DatasetRow> rowsProperty() { ensureRowsLoaded(); return rows; }
+	public ColumnStore getColumnStore() { return columnStore; }
 	public ObservableList<Change> explicitChangesProperty() { return explicitChanges; }
-	public int getRowCount() { return rows.size(); }
-	public Stream<DatasetRow> getRowsAsStream() { return rows.stream(); }
+	public int getRowCount() { return rowsPagedOut ? pagedRowCount : rows.size(); }
+	public Stream<DatasetRow> getRowsAsStream() { ensureRowsLoaded(); return rows.stream(); }
 	public StringProperty typeProperty() { return typeProperty; }
 	public String getType() { return typeProperty.getValue(); }
 	public boolean isChecklist() { return getType().equals(TYPE_CHECKLIST); }
@@ -138,11 +239,17 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		return implicitChanges.contains(ch);
 	}
 	
+	/** @return The names added or deleted by our implicit changes, without creating those changes. */
+	Stream<Name> getImplicitlyChangedNames() {
+		ImplicitChanges current = implicitChanges;
+		return Stream.concat(current.getAddedNames(), current.getDeletedNames());
+	}
+	
 	public void makeChangeExplicit(Change ch) {
 		// Only do this if the change is implicit!
 		if(isChangeImplicit(ch)) {
+			removeImplicitChange(ch);
 			explicitChanges.add(ch);
-			implicitChanges.remove(ch);
 			
 			LOGGER.info("Before setPreviousDataset(" + project + ", " + prevDataset + ")\n - Explicit changes: " + explicitChanges + "\n - Implicit changes: " + implicitChanges);
 			
@@ -217,11 +324,8 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	}
 	
 	public Set<DatasetRow> getRowsByName(Name name) {
-		// Make sure that our caches have been built.
-		getNamesByRow();
-		
-		// And then use them caches.
-		Set<DatasetRow> rows = rowsByName.get(name);
+		// Make sure that our caches have been built, and then use them caches.
+		Set<DatasetRow> rows = getExtractedNames().rowsByName.get(name);
 		if(rows == null) return new HashSet<>();
 		return rows;
 		
@@ -250,22 +354,22 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	 * 		the first checklist.
 	 */
 	public void setPreviousDataset(Optional<Project> proj, Optional<Dataset> tp) {
-		project = proj.orElse(null);
-		prevDataset = tp.orElse(null);
+		setUpstream(proj.orElse(null), tp.orElse(null));
 		
-		implicitChanges.clear();	
+		Set<Name> prevNames;
+		if(proj.isPresent() && tp.isPresent()) {
+			prevNames = proj.get().getRecognizedNameSet(prevDataset);
+		} else {
+			prevNames = new HashSet<>();
+		}
+		
+		Set<Name> added = new HashSet<>();
+		Set<Name> deleted = new HashSet<>();
 		if(isChecklist()) {
 			// Implicit changes don't exist for non-checklists. If we're a checklist, figure out what
 			// names are new or have been removed in this checklist.
 			
 			Set<Name> names = getNamesInAllRows();
-			Set<Name> prevNames;
-
-			if(proj.isPresent() && tp.isPresent()) {
-				prevNames = prevDataset.getRecognizedNames(proj.get()).collect(Collectors.toSet());
-			} else {
-				prevNames = new HashSet<>();
-			}
 			
 			/*
 			 * Logically, at this point, we need to apply the change filter so that changes that
@@ -282,16 +386,91 @@ public class Dataset implements Citable, Comparable<Dataset> {
 			Set<Name> deletedByExplicitChanges = explicitChanges.stream().flatMap(ch -> ch.getFromStream()).collect(Collectors.toSet());		
 						
 			// Calculate implicit changes that can't be explained by an explicit change.
-			Stream<Change> additions = names.stream()
+			names.stream()
 				.filter(n -> !prevNames.contains(n) && !addedByExplicitChanges.contains(n))
-				.map(n -> new Change(this, ChangeType.ADDITION, Stream.empty(), Stream.of(n)));
-			Stream<Change> deletions = prevNames.stream()
+				.forEach(added::add);
+			prevNames.stream()
 				.filter(n -> !names.contains(n) && !deletedByExplicitChanges.contains(n))
-				.map(n -> new Change(this, ChangeType.DELETION, Stream.of(n), Stream.empty()));
-			
-			implicitChanges.addAll(additions.collect(Collectors.toList()));
-			implicitChanges.addAll(deletions.collect(Collectors.toList()));
+				.forEach(deleted::add);
+		}
+		
+		// If our implicit changes are the same as before, keep the ones we have, since
+		// somebody might already be using them.
+		if(!implicitChanges.hasNames(added, deleted)) {
+			implicitChanges = new ImplicitChanges(this, added, deleted);
+			changesDependency.invalidate();
 		}
+		
+		implicitChangesPrevNames = prevNames;
+		implicitChangesVersion = implicitChangesDependency.getVersion();
+		implicitChangesRecalculations++;
+	}
+	
+	/**
+	 * Set our project and previous dataset, and make the names we recognize depend
+	 * on the names they recognize and on the project's change filter.
+	 */
+	private void setUpstream(Project proj, Dataset tp) {
+		boolean changed = (proj != project || tp != prevDataset);
+		
+		if(prevDataset != null && prevDataset != tp)
+			recognizedNamesDependency.stopDependingOn(prevDataset.recognizedNamesDependency);
+		if(project != null && project != proj)
+			recognizedNamesDependency.stopDependingOn(project.getChangeFilterDependency());
+		
+		project = proj;
+		prevDataset = tp;
+		
+		if(prevDataset != null)
+			recognizedNamesDependency.dependOn(prevDataset.recognizedNamesDependency);
+		if(project != null)
+			recognizedNamesDependency.dependOn(project.getChangeFilterDependency());
+		
+		if(changed)
+			recognizedNamesDependency.invalidate();
+	}
+	
+	private void removeImplicitChange(Change ch) {
+		implicitChanges = implicitChanges.without(ch);
+		changesDependency.invalidate();
+	}
+	
+	/*
+	 * What our implicit changes were last calculated from. If neither of these have
+	 * changed, neither have our implicit changes nor the names we recognize.
+	 */
+	private Set<Name> implicitChangesPrevNames = null;
+	private long implicitChangesVersion = -1;
+	private long implicitChangesRecalculations = 0;
+	
+	/** @return How many times our implicit changes have been calculated. */
+	long getImplicitChangesRecalculations() { return implicitChangesRecalculations; }
+	
+	/**
+	 * Set the previous dataset, but only recalculate implicit changes if something they
+	 * depend on has changed since they were last calculated: the project, the previous 
+	 * dataset, the names in our rows, our explicit changes, our type or -- if 
+	 * prevNamesMayHaveChanged is set -- the names recognized by the previous dataset.
+	 * 
+	 * @param proj The project this dataset is a part of.
+	 * @param tp The previous dataset, or null if we're the first dataset.
+	 * @param prevNamesMayHaveChanged If false, the names recognized by the previous dataset
+	 * 		are assumed not to have changed.
+	 * @return True if implicit changes were recalculated, in which case the names we 
+	 * 		recognize may have changed as well.
+	 */
+	public boolean updatePreviousDataset(Project proj, Dataset tp, boolean prevNamesMayHaveChanged) {
+		boolean upToDate = (
+			project == proj
+			&& prevDataset == tp
+			&& implicitChangesVersion == implicitChangesDependency.getVersion()
+		);
+		
+		if(upToDate && (!prevNamesMayHaveChanged || proj.getRecognizedNameSet(tp).equals(implicitChangesPrevNames)))
+			return false;
+		
+		setPreviousDataset(Optional.of(proj), Optional.ofNullable(tp));
+		return true;
 	}
 	
 	/* Names management */
@@ -309,24 +488,18 @@ public class Dataset implements Citable, Comparable<Dataset> {
 			  don't waste any more time.
 	*/
 	
-	private Map<DatasetRow, Set<Name>> namesByRow = null;
-	private Map<Name, Set<DatasetRow>> rowsByName = null;
-	private Set<Name> namesInRows = null;
+	// The names in our rows, indexed every way we need them. This is replaced as a whole,
+	// so anybody who has read it sees a consistent set of caches, even if our rows are
+	// paged out in the meantime.
+	private volatile ExtractedNames extractedNames = null;
 	
-	/*
-	 * Tracks when the namesByRow was last modified. For some reason, we have two systems to
-	 * track this: you can look at namesByRow or namesByRowLastModified. getNamesByRow() looks
-	 * at both.
-	 */
-	private ModificationTimeProperty namesByRowLastModified = new ModificationTimeProperty();
+	// The modification count of our column store when names were last extracted, so that
+	// we can tell if any values in our rows have been edited since.
+	private long namesColumnStoreModifications = -1;
 	
-	{
-		// If the columns or rows change, we need to reparse ALL names.
-		columns.addListener((ListChangeListener.Change<? extends DatasetColumn> c) -> resetNamesCaches());
-		rows.addListener((ListChangeListener.Change<? extends DatasetRow> c) -> resetNamesCaches());
-		
-		lastModified.addListener((a, b, c) -> namesByRowLastModified.modified());
-	}
+	// The names in our rows the last time we knew them. Unlike our caches, this isn't 
+	// cleared when our rows are edited or paged out (see getKnownReferencedNames()).
+	private volatile Set<Name> lastKnownNamesInRows = null;
 	
 	public void deleteChange(Change ch) {
 		if(isChangeImplicit(ch)) {
@@ -346,72 +519,226 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		}
 	}
 	
-	private void resetNamesCaches() {
-		LOGGER.entering(Dataset.class.getSimpleName(), "resetNamesCaches");
-		namesByRow = null;
-		namesInRows = null;
-		rowsByName = null;
+	/**
+	 * Called when the names in our rows are invalidated. Anything worked out from
+	 * them is invalidated along with them (see namesDependency), so we only need to 
+	 * throw away our own caches.
+	 */
+	private void clearNamesCaches() {
+		LOGGER.entering(Dataset.class.getSimpleName(), "clearNamesCaches");
+		extractedNames = null;
+		pagedNamesInRows = null;
+	}
+	
+	/** Datasets with at least this many rows have their names extracted in parallel. */
+	public static final int PARALLEL_EXTRACTION_MIN_ROWS = 4096;
+	
+	/** Each parallel extraction task handles at most this many rows. */
+	private static final int EXTRACTION_PARTITION_SIZE = 1024;
+	
+	/**
+	 * The names extracted from a range of rows, indexed by row, by name and as a 
+	 * set of all the names in those rows.
+	 */
+	static class ExtractedNames {
+		private final Map<DatasetRow, Set<Name>> namesByRow = new HashMap<>();
+		private final Map<Name, Set<DatasetRow>> rowsByName = new HashMap<>();
+		private final Set<Name> namesInRows = new HashSet<>();
 		
-		// If this is being reset, we've probably been updated.
-		lastModified.modified();
+		public void add(DatasetRow row, Set<Name> names) {
+			namesByRow.put(row, names);
+			namesInRows.addAll(names);
+			
+			for(Name n: names) {
+				rowsByName.computeIfAbsent(n, k -> new HashSet<>()).add(row);
+			}
+		}
 		
-		// And if we don't know our names, neither should you.
-		if(project != null)
-			project.clearRecognizedNamesCache();
+		/** Merge the names extracted from another range of rows into ours. */
+		public ExtractedNames merge(ExtractedNames other) {
+			namesByRow.putAll(other.namesByRow);
+			namesInRows.addAll(other.namesInRows);
+			
+			other.rowsByName.forEach((name, rows) -> rowsByName.merge(name, rows, (a, b) -> {
+				if(a.size() < b.size()) {
+					b.addAll(a);
+					return b;
+				}
+				a.addAll(b);
+				return a;
+			}));
+			
+			return this;
+		}
 	}
 	
 	/**
-	 * The workhorse method for name parsing.
+	 * Extracts names from a range of rows, splitting it into smaller ranges to be
+	 * extracted concurrently on the ForkJoin pool.
+	 */
+	private static class NameExtractionTask extends RecursiveTask<ExtractedNames> {
+		private static final long serialVersionUID = -2318405770160942516L;
+		
+		private final List<NameExtractor> extractors;
+		private final DatasetRow[] rows;
+		private final int from;
+		private final int to;
+		
+		public NameExtractionTask(List<NameExtractor> extractors, DatasetRow[] rows, int from, int to) {
+			this.extractors = extractors;
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected ExtractedNames compute() {
+			if(to - from <= EXTRACTION_PARTITION_SIZE) {
+				ExtractedNames results = new ExtractedNames();
+				for(int x = from; x < to; x++) {
+					results.add(rows[x], NameExtractorFactory.extractNamesUsingExtractors(extractors, rows[x]));
+				}
+				return results;
+			}
+			
+			int mid = (from + to) >>> 1;
+			NameExtractionTask left = new NameExtractionTask(extractors, rows, from, mid);
+			NameExtractionTask right = new NameExtractionTask(extractors, rows, mid, to);
+			
+			left.fork();
+			ExtractedNames rightResults = right.compute();
+			return left.join().merge(rightResults);
+		}
+	}
+	
+	/**
+	 * Extract names from some rows of a dataset. Importers use this to extract names 
+	 * from the rows they've already read while the rest of the file is still being
+	 * read; see primeNamesCache().
+	 * 
+	 * @param extractors The name extractors to use.
+	 * @param rowsToExtract The rows to extract names from.
+	 * @return The names extracted from those rows.
+	 */
+	static ExtractedNames extractNames(List<NameExtractor> extractors, List<DatasetRow> rowsToExtract) {
+		ExtractedNames extracted = new ExtractedNames();
+		for(DatasetRow row: rowsToExtract) {
+			if(extractors == null || extractors.isEmpty())
+				extracted.add(row, new HashSet<>());
+			else
+				extracted.add(row, NameExtractorFactory.extractNamesUsingExtractors(extractors, row));
+		}
+		return extracted;
+	}
+	
+	/**
+	 * Use names that have already been extracted from every row in this dataset, so
+	 * getNamesByRow() doesn't need to extract them again. We only do this if the names
+	 * were extracted using our current name extractors and this dataset isn't in the
+	 * middle of a bulk update.
+	 * 
+	 * @param extractors The name extractors used to extract these names.
+	 * @param extracted The names extracted from every row in this dataset.
+	 * @return True if the names caches were primed, false if they were ignored.
+	 */
+	boolean primeNamesCache(List<NameExtractor> extractors, ExtractedNames extracted) {
+		if(extractors != nameExtractors || isInBulkUpdate() || extracted.namesByRow.size() != rows.size())
+			return false;
+		
+		namesColumnStoreModifications = columnStore.getModificationCount();
+		extractedNames = extracted;
+		lastKnownNamesInRows = extracted.namesInRows;
+		
+		return true;
+	}
+	
+	/**
+	 * Extract names from every row in a dataset, in parallel if there are at least
+	 * PARALLEL_EXTRACTION_MIN_ROWS rows.
+	 * 
+	 * @param extractors The name extractors to use.
+	 * @param allRows All the rows in the dataset.
+	 * @return The names extracted from those rows.
+	 */
+	private static ExtractedNames extractNamesFromAllRows(List<NameExtractor> extractors, List<DatasetRow> allRows) {
+		if(extractors == null || extractors.isEmpty() || allRows.size() < PARALLEL_EXTRACTION_MIN_ROWS)
+			return extractNames(extractors, allRows);
+		
+		DatasetRow[] rowArray = allRows.toArray(new DatasetRow[allRows.size()]);
+		return ForkJoinPool.commonPool().invoke(new NameExtractionTask(extractors, rowArray, 0, rowArray.length));
+	}
+	
+	/**
+	 * The workhorse method for name parsing. Datasets with more than PARALLEL_EXTRACTION_MIN_ROWS
+	 * rows are split up and extracted concurrently.
 	 * 
 	 * @return Map of rows in this dataset against all the names in each row.
 	 */
 	public Map<DatasetRow, Set<Name>> getNamesByRow() {
 		LOGGER.entering(Dataset.class.getSimpleName(), "getNamesByRow");
+		return getExtractedNames().namesByRow;
+	}
+	
+	/**
+	 * @return The names in our rows, extracting them if we need to.
+	 */
+	private ExtractedNames getExtractedNames() {
+		ensureRowsLoaded();
+		
+		// Values in our rows can be edited without telling us, so check whether they have been.
+		if(extractedNames != null && namesColumnStoreModifications != columnStore.getModificationCount())
+			rowsDependency.invalidate();
 		
-		if(namesByRow == null || namesByRowLastModified.isModified()) {
+		ExtractedNames names = extractedNames;
+		while(names == null) {
+			// Our rows might be paged out while we extract names, so work from a copy.
+			List<DatasetRow> currentRows;
+			long columnStoreModifications;
+			synchronized(rowsLock) {
+				ensureRowsLoaded();
+				
+				// Paging our rows in might have extracted their names already.
+				names = extractedNames;
+				if(names != null)
+					break;
+				
+				currentRows = new ArrayList<>(rows);
+				columnStoreModifications = columnStore.getModificationCount();
+			}
+			
 			LOGGER.log(Level.FINE, "Recalculating names using extractors: {0}", 
 				NameExtractorFactory.serializeExtractorsToString(getNameExtractors()));
 			
 			long startTime = System.nanoTime();
 			
 			// Recalculate all.
-			resetNamesCaches();
+			boolean parallel = currentRows.size() >= PARALLEL_EXTRACTION_MIN_ROWS;
+			names = extractNamesFromAllRows(getNameExtractors(), currentRows);
 			
-			namesByRow = new HashMap<>();
-			namesInRows = new HashSet<>();
-			rowsByName = new HashMap<>();
-			
-			for(DatasetRow row: rows) {
-				Set<Name> names = new HashSet<>();
-				if(getNameExtractors() != null && getNameExtractors().size() > 0)
-					names = NameExtractorFactory.extractNamesUsingExtractors(getNameExtractors(), row);
-				namesByRow.put(row, names);
-				namesInRows.addAll(names);
-				
-				for(Name n: names) {
-					if(!rowsByName.containsKey(n))
-						rowsByName.put(n, new HashSet<>());
-					
-					rowsByName.get(n).add(row);
-				}
-			}
-			namesByRowLastModified.saved();
+			namesColumnStoreModifications = columnStoreModifications;
+			extractedNames = names;
+			lastKnownNamesInRows = names.namesInRows;
 			
 			// Report on how long this took.
 			double timeTaken = (System.nanoTime() - startTime)/1e6d;
 			double timePerRow  = 0;
-			if(rows.size() > 0)
-				timePerRow = timeTaken/rows.size();
+			double rowsPerSecond = 0;
+			if(currentRows.size() > 0)
+				timePerRow = timeTaken/currentRows.size();
+			if(timeTaken > 0)
+				rowsPerSecond = currentRows.size()/(timeTaken/1000);
 			
-			LOGGER.log(Level.FINE, "getNamesByRow() extracted {0} in {1} seconds ({2} seconds/row) on dataset {3}", 
+			LOGGER.log(Level.FINE, "getNamesByRow() extracted {0} in {1} ms ({2} ms/row, {3} rows/second{4}) on dataset {5}", 
 				new Object[]{
-					namesInRows.size(), 
+					names.namesInRows.size(), 
 					timeTaken, 
 					timePerRow, 
+					rowsPerSecond,
+					parallel ? ", in parallel" : "",
 					this});
 		}
 		
-		return namesByRow;
+		return names;
 	}
 	
 	public Set<Name> getNamesInRow(DatasetRow row) {
@@ -434,11 +761,13 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	 * @return The set of all names recorded in the rows of this dataset.
 	 */
 	public Set<Name> getNamesInAllRows() {
-		// Make sure our caches are up to date.
-		getNamesByRow();
+		// If our rows are paged out, we might already know which names they contain.
+		Set<Name> pagedNames = pagedNamesInRows;
+		if(rowsPagedOut && pagedNames != null)
+			return pagedNames;
 		
-		// At this point, they should be!
-		return namesInRows;
+		// Make sure our caches are up to date.
+		return getExtractedNames().namesInRows;
 	}
 	
 	/**
@@ -446,10 +775,285 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	 */
 	public Map<Name, Set<DatasetRow>> getRowsByName() {
 		// Make sure our caches are up to date.
-		getNamesByRow();
+		return getExtractedNames().rowsByName;
+	}
+	
+	/*
+	 * Paged rows.
+	 * 
+	 * Datasets loaded from a project snapshot don't read their rows until something 
+	 * asks for them: until then, we know how many rows they have and which names
+	 * those rows contain, which is all that most views need. Rows that haven't been
+	 * modified since they were loaded can be paged out again when memory runs low
+	 * (see RowPager), and will be reloaded from their source the next time they're
+	 * needed. Views that display rows should pin them with pinRows() so they stay 
+	 * loaded while the view is open.
+	 */
+	
+	private final Object rowsLock = new Object();
+	private DatasetRowSource rowSource = null;
+	private volatile boolean rowsPagedOut = false;
+	private int pagedRowCount = 0;
+	private volatile Set<Name> pagedNamesInRows = null;
+	
+	// Paging rows in or out doesn't modify this dataset, so we don't fire any events while we do it.
+	private boolean pagingRows = false;
+	
+	// Rows can only be paged out if they haven't been modified since they were loaded.
+	private boolean rowsModifiedSinceLoad = false;
+	private long columnStoreModificationsAtLoad = 0;
+	private int rowPins = 0;
+	private volatile long rowsLastUsed = System.currentTimeMillis();
+	
+	// Edits to our rows or columns, not counting edits made since our rows were last loaded.
+	private long rowEdits = 0;
+	
+	{
+		columns.addListener((Observable c) -> { rowsModifiedSinceLoad = true; rowEdits++; });
+	}
+	
+	private void rowsChanged() {
+		if(pagingRows)
+			return;
+		
+		rowsModifiedSinceLoad = true;
+		rowEdits++;
+		namesChanged();
+		modified();
+	}
+	
+	/** Once our column store has this many rows and at least half of them aren't ours, we compact it. */
+	public static final int COMPACT_COLUMN_STORE_MIN_ROWS = 1024;
+	
+	/**
+	 * Keep our rows in our column store. Rows created for this dataset but added after
+	 * we replaced our store are moved into it. Rows are never removed from a store, so
+	 * once most of the rows in our store are no longer in this dataset (e.g. after
+	 * setAll() replaces them), we move the rows we still have into a new store and let
+	 * the old one be garbage collected. Rows we no longer have stay in the old store.
+	 */
+	private void updateColumnStore(ListChangeListener.Change<? extends DatasetRow> c) {
+		if(pagingRows)
+			return;
+		
+		ColumnStore store = columnStore;
+		int allocated = store.getRowCount();
+		
+		synchronized(store) {
+			if(allocated >= COMPACT_COLUMN_STORE_MIN_ROWS && allocated >= 2 * rows.size()) {
+				ColumnStore compacted = new ColumnStore(store);
+				for(DatasetRow row: rows) {
+					if(row.getDataset() == this)
+						row.moveTo(compacted);
+				}
+				columnStore = compacted;
+				
+				LOGGER.log(Level.FINE, "Compacted column store for {0} from {1} to {2} rows", new Object[] { this, allocated, compacted.getRowCount() });
+				return;
+			}
+			
+			while(c.next()) {
+				for(DatasetRow row: c.getAddedSubList()) {
+					if(row.getDataset() == this && row.getStore() != store)
+						row.moveTo(store);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Page the rows of this dataset in from a row source only when they're first needed.
+	 * Until then, this dataset will report the row count and names provided here. This
+	 * should only be called on a dataset without any rows.
+	 * 
+	 * @param source The source to load rows from.
+	 * @param rowCount The number of rows the source will provide.
+	 * @param namesInAllRows The names in those rows, as extracted with our current name 
+	 * 	extractors.
+	 */
+	public void pageRowsFrom(DatasetRowSource source, int rowCount, Set<Name> namesInAllRows) {
+		synchronized(rowsLock) {
+			if(!rows.isEmpty())
+				throw new IllegalStateException("Cannot page rows into " + this + ", which already has " + rows.size() + " rows");
+			
+			rowSource = source;
+			pagedRowCount = rowCount;
+			pagedNamesInRows = namesInAllRows;
+			lastKnownNamesInRows = namesInAllRows;
+			rowsModifiedSinceLoad = false;
+			rowsPagedOut = true;
+		}
+	}
+	
+	/**
+	 * Change where our rows will be reloaded from if they're paged out. Our rows are 
+	 * assumed to be identical to the rows in the new source, so if they're paged out,
+	 * they stay that way; they're only loaded if there's no new source.
+	 * 
+	 * @param source The new row source, or null if our rows should never be paged out.
+	 */
+	public void setRowSource(DatasetRowSource source) {
+		synchronized(rowsLock) {
+			if(source == null)
+				ensureRowsLoaded();
+			
+			rowSource = source;
+			if(rowsPagedOut)
+				return;
+			
+			rowsModifiedSinceLoad = false;
+			rowEdits += columnStore.getModificationCount() - columnStoreModificationsAtLoad;
+			columnStoreModificationsAtLoad = columnStore.getModificationCount();
+		}
+	}
+	
+	/**
+	 * @return A count that goes up whenever our rows or columns are edited. Paging 
+	 * 	rows in or out doesn't change it.
+	 */
+	public long getRowsModificationCount() {
+		synchronized(rowsLock) {
+			if(rowsPagedOut)
+				return rowEdits;
+			
+			return rowEdits + columnStore.getModificationCount() - columnStoreModificationsAtLoad;
+		}
+	}
+	
+	public Optional<DatasetRowSource> getRowSource() { return Optional.ofNullable(rowSource); }
+	public boolean areRowsLoaded() { return !rowsPagedOut; }
+	public long getRowsLastUsed() { return rowsLastUsed; }
+	
+	private void ensureRowsLoaded() {
+		rowsLastUsed = System.currentTimeMillis();
+		if(!rowsPagedOut)
+			return;
 		
-		// At this point, they should be!
-		return rowsByName;
+		synchronized(rowsLock) {
+			if(!rowsPagedOut)
+				return;
+			
+			long startTime = System.nanoTime();
+			List<DatasetRow> loadedRows;
+			try {
+				loadedRows = rowSource.loadRows(this);
+			} catch(IOException ex) {
+				throw new UncheckedIOException("Could not load rows for " + this + " from " + rowSource + ": " + ex, ex);
+			}
+			
+			pagingRows = true;
+			try {
+				rows.setAll(loadedRows);
+			} finally {
+				pagingRows = false;
+			}
+			columnStoreModificationsAtLoad = columnStore.getModificationCount();
+			rowsModifiedSinceLoad = false;
+			pagedNamesInRows = null;
+			rowsPagedOut = false;
+			
+			// Extract names right away, so we don't need to reset our names caches
+			// (and look modified) the first time they're needed.
+			List<NameExtractor> extractors = nameExtractors;
+			primeNamesCache(extractors, extractNamesFromAllRows(extractors, rows));
+			
+			LOGGER.log(Level.FINE, "Paged in {0} rows for {1} in {2} ms", new Object[] {
+				rows.size(),
+				this,
+				(System.nanoTime() - startTime)/1e6d
+			});
+		}
+		
+		RowPager.rowsLoaded(this);
+	}
+	
+	/**
+	 * Page out the rows of this dataset, so they can be garbage collected. This only 
+	 * works if our rows came from a row source, haven't been modified since and 
+	 * aren't pinned.
+	 * 
+	 * @return True if our rows are now paged out, false if they couldn't be.
+	 */
+	public boolean pageOutRows() {
+		synchronized(rowsLock) {
+			if(rowsPagedOut)
+				return true;
+			
+			if(rowSource == null || rowPins > 0 || rowsModifiedSinceLoad || isInBulkUpdate() 
+				|| columnStore.getModificationCount() != columnStoreModificationsAtLoad)
+				return false;
+			
+			// Remember which names our rows contain.
+			ExtractedNames extracted = extractedNames;
+			Set<Name> names = (extracted != null) ? extracted.namesInRows : getNamesInAllRows();
+			
+			pagedRowCount = rows.size();
+			pagedNamesInRows = names;
+			rowsPagedOut = true;
+			
+			pagingRows = true;
+			try {
+				rows.clear();
+			} finally {
+				pagingRows = false;
+			}
+			extractedNames = null;
+			
+			// Rows that are still being used elsewhere can still be read from our old
+			// column store; rows paged in later will use a new one.
+			columnStore = new ColumnStore(columnStore);
+			
+			LOGGER.log(Level.FINE, "Paged out {0} rows from {1}", new Object[] { pagedRowCount, this });
+			return true;
+		}
+	}
+	
+	/**
+	 * If our rows are paged out, read them from our row source without paging them in.
+	 * The rows returned aren't in this dataset, and can be garbage collected as soon 
+	 * as the caller is done with them.
+	 * 
+	 * @return The rows in our row source, or null if our rows aren't paged out.
+	 * @throws IOException If the rows could not be read.
+	 */
+	private List<DatasetRow> readPagedOutRows() throws IOException {
+		synchronized(rowsLock) {
+			if(!rowsPagedOut)
+				return null;
+			
+			List<DatasetRow> loadedRows = rowSource.loadRows(this);
+			
+			// Leave these rows behind in the column store they were created in.
+			columnStore = new ColumnStore(columnStore);
+			return loadedRows;
+		}
+	}
+	
+	/**
+	 * Load our rows (if they're paged out) and keep them loaded until the returned 
+	 * pin is closed. Views that display our rows should pin them while they're open.
+	 * 
+	 * @return A pin to close once our rows are no longer needed.
+	 */
+	public RowPin pinRows() {
+		synchronized(rowsLock) {
+			rowPins++;
+		}
+		ensureRowsLoaded();
+		
+		return new RowPin() {
+			private boolean closed = false;
+			
+			@Override
+			public void close() {
+				synchronized(rowsLock) {
+					if(closed) return;
+					closed = true;
+					rowPins--;
+				}
+				rowsLastUsed = System.currentTimeMillis();
+			}
+		};
 	}
 	
 	/*
@@ -479,7 +1083,8 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		LOGGER.log(Level.FINE, 
 			"setNameExtractorsString() called, extractors now set to {0}", 
 			NameExtractorFactory.serializeExtractorsToString(nameExtractors));
-		resetNamesCaches();
+		nameExtractorsDependency.invalidate();
+		modified();
 	}
 	
 	/**
@@ -495,6 +1100,26 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		
 		return Stream.concat(namesFromData, namesFromChanges).distinct();
 	}
+	
+	/**
+	 * Returns the names referenced from this dataset that are already known, without
+	 * extracting names from our rows (or paging them in) to find them. Names from our
+	 * rows are those found the last time they were extracted, even if our rows have 
+	 * been edited since; if they've never been extracted, no Names have been created
+	 * for them, so there's nothing to return.
+	 * 
+	 * This may be called from a background thread, but will fail (usually with a 
+	 * ConcurrentModificationException) if our explicit changes are edited while it runs.
+	 * 
+	 * @return A Stream of the names known to be referenced from this dataset.
+	 */
+	Stream<Name> getKnownReferencedNames() {
+		Set<Name> namesInRows = lastKnownNamesInRows;
+		Stream<Name> namesFromData = (namesInRows == null) ? Stream.empty() : namesInRows.stream();
+		Stream<Name> namesFromChanges = explicitChanges.stream().flatMap(ch -> ch.getAllNames().stream());
+		
+		return Stream.concat(namesFromData, namesFromChanges).distinct();
+	}
 
 	/**
 	 * Returns a Stream of all distinct names recognized at the end of this checklist.
@@ -510,32 +1135,38 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	 * @return A Stream of recognized names as at the end of this checklist.
 	 */
 	public Stream<Name> getRecognizedNames(Project proj) {
+		return getRecognizedNameSet(proj).stream();
+	}
+	
+	/**
+	 * Calculates the set of names recognized at the end of this dataset, by applying
+	 * the changes in this dataset to the names recognized at the end of the previous
+	 * dataset. The set returned shares all unchanged names with the previous dataset's
+	 * set, so this takes time (and memory) proportional to the number of changes. 
+	 * 
+	 * Please use Project.getRecognizedNames(), which caches these sets, instead of
+	 * calling this directly.
+	 * 
+	 * @param proj Required for filtering changes
+	 * @return An immutable set of recognized names as at the end of this checklist.
+	 */
+	PersistentNameSet getRecognizedNameSet(Project proj) {
+		PersistentNameSet prevNames = proj.getRecognizedNameSet(prevDataset);
+		
 		// Start with names we explicitly add.
-		Set<Name> addedNames = getChanges(proj)
+		List<Change> changes = getFilteredChanges(proj);
+		Set<Name> addedNames = changes.stream()
 			.flatMap(ch -> ch.getToStream())
 			.collect(Collectors.toSet());
-		Set<Name> initialNames = new HashSet<>(addedNames);
 		
-		// If this is not a checklist, then pass through previously recognized names.
-		if(prevDataset != null)
-			initialNames.addAll(proj.getRecognizedNames(prevDataset));
-		
-		// Delete names we explicitly delete.
-		Set<Name> deletedNames = getChanges(proj)
+		// Delete names we explicitly delete, EXCEPT those that have been explicitly 
+		// added (such as in a lump or split).
+		Set<Name> deletedNames = changes.stream()
 			.flatMap(ch -> ch.getFromStream())
+			.filter(n -> !addedNames.contains(n))
 			.collect(Collectors.toSet());
 		
-		Set<Name> finalList = initialNames.stream().filter(n -> {
-			// Filter out names that have been deleted, EXCEPT those that
-			// have been explicitly added (such as in a lump or split).
-			if(deletedNames.contains(n)) {
-				if(addedNames.contains(n))
-					return true; // don't filter
-				else
-					return false; // do filter
-			} else 
-				return true; // don't filter
-		}).collect(Collectors.toSet());
+		PersistentNameSet finalList = prevNames.withChanges(addedNames, deletedNames);
 		
 		// This should be the same as the names in a checklist!
 		// Double-check!
@@ -557,16 +1188,16 @@ public class Dataset implements Citable, Comparable<Dataset> {
 			LOGGER.warning("Discrepency in calculating recognized names for " + this + ":\n"
 				+ "\t - Final list but not in rows: " + finalListButNotInRows + "\n"
 				+ "\t - Rows but not in final list: " + rowNamesButNotFinalList + "\n"
-				+ "\t - Name count: " + initialNames.size() + " + " + addedNames.size() + " - " + deletedNames.size() + " = " + 
-					(initialNames.size() + addedNames.size() - deletedNames.size())
+				+ "\t - Name count: " + prevNames.size() + " + " + addedNames.size() + " - " + deletedNames.size() + " = " + 
+					(prevNames.size() + addedNames.size() - deletedNames.size())
 				+ " (but should be " + finalList.size() + ")\n"
 				+ "Species in the rows but not in final count will be added to the list of recognized names."
 			);
 			
-			finalList.addAll(rowNamesButNotFinalList);
+			finalList = finalList.withChanges(rowNamesButNotFinalList, Collections.emptySet());
 		}
 		
-		return finalList.stream();
+		return finalList;
 	}
 	
 	/* Display options: provides information on what happened in this dataset for UI purposes */
@@ -656,6 +1287,10 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	public synchronized void onChangeChanged(Optional<Project> project, Change change) {
 		LOGGER.entering(Dataset.class.getSimpleName(), "project = " + project + ", change = " + change);
 		
+		// Editing a change might change whether it's filtered, and the implicit 
+		// changes we work out from our explicit changes.
+		explicitChangesDependency.invalidate();
+		
 		if(explicitChanges.contains(change)) {
 			// Explicit changes affect how implicit changes are processed;
 			// so if explicit changes change, then we need to recalculate
@@ -664,7 +1299,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		} else if(implicitChanges.contains(change)) {
 			// It's an implicit change? Well, it just got promoted to 
 			// an explicit change.
-			implicitChanges.remove(change);
+			removeImplicitChange(change);
 			explicitChanges.add(change);
 		} else {
 			// We don't know about this change? Add it now!
@@ -679,12 +1314,95 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		lastModified.modified();
 	}
 	
+	/*
+	 * Filtered changes.
+	 * 
+	 * The project's change filter is applied to every change in this dataset the 
+	 * first time they're asked for, and we remember which changes it accepted. These 
+	 * results are reused until our changes, the filter chain or anything the filters
+	 * depend on change. Whether our changes have changed is tracked by changesDependency.
+	 */
+	
+	private volatile FilteredChanges filteredChanges = null;
+	
+	/**
+	 * Which of our changes a change filter accepted, and what that depended on.
+	 */
+	private static final class FilteredChanges {
+		private final ChangeFilter filter;
+		private final long filterVersion;
+		private final long changesVersion;
+		private final List<Change> changes;
+		private final int explicitCount;
+		private final BitSet accepted;
+		private final List<Change> acceptedChanges;
+		
+		public FilteredChanges(ChangeFilter filter, long filterVersion, long changesVersion, List<Change> changes, int explicitCount) {
+			this.filter = filter;
+			this.filterVersion = filterVersion;
+			this.changesVersion = changesVersion;
+			this.changes = changes;
+			this.explicitCount = explicitCount;
+			
+			accepted = new BitSet(changes.size());
+			List<Change> acceptedList = new ArrayList<>();
+			for(int x = 0; x < changes.size(); x++) {
+				Change ch = changes.get(x);
+				if(filter.test(ch)) {
+					accepted.set(x);
+					acceptedList.add(ch);
+				}
+			}
+			acceptedChanges = Collections.unmodifiableList(acceptedList);
+		}
+		
+		public boolean isValidFor(ChangeFilter currentFilter, long currentFilterVersion, long currentChangesVersion) {
+			return filter == currentFilter && filterVersion == currentFilterVersion && changesVersion == currentChangesVersion;
+		}
+		
+		public Stream<Change> getAccepted(int from, int to) {
+			return accepted.get(from, to).stream().mapToObj(x -> changes.get(from + x));
+		}
+	}
+	
+	private FilteredChanges getFilteredChangesFor(Project project) {
+		ChangeFilter filter = project.getChangeFilter();
+		
+		// Read the versions before filtering, so if anything changes while we're 
+		// filtering, we'll filter again next time.
+		long filterVersion = filter.getVersion();
+		long version = changesDependency.getVersion();
+		
+		FilteredChanges cached = filteredChanges;
+		if(cached != null && cached.isValidFor(filter, filterVersion, version))
+			return cached;
+		
+		List<Change> changes = new ArrayList<>(explicitChanges);
+		int explicitCount = changes.size();
+		changes.addAll(implicitChanges);
+		
+		FilteredChanges results = new FilteredChanges(filter, filterVersion, version, changes, explicitCount);
+		filteredChanges = results;
+		return results;
+	}
+	
+	/**
+	 * @param project The project whose change filter should be applied.
+	 * @return Every change in this dataset (explicit changes first) accepted by the 
+	 * 	project's change filter. This list can't be modified.
+	 */
+	public List<Change> getFilteredChanges(Project project) {
+		return getFilteredChangesFor(project).acceptedChanges;
+	}
+	
 	public Stream<Change> getExplicitChanges(Project p) {
-		return explicitChanges.stream().filter(p.getChangeFilter());
+		FilteredChanges results = getFilteredChangesFor(p);
+		return results.getAccepted(0, results.explicitCount);
 	}
 	
 	public Stream<Change> getImplicitChanges(Project p) {
-		return implicitChanges.stream().filter(p.getChangeFilter());
+		FilteredChanges results = getFilteredChangesFor(p);
+		return results.getAccepted(results.explicitCount, results.changes.size());
 	}
 	
 	public String getChangesCountSummary(Project p) {
@@ -707,10 +1425,11 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	}
 	
 	public String getExplicitChangesCountSummary(Project p) {
-		if(getExplicitChanges(p).count() == 0)
+		List<Change> changes = getExplicitChanges(p).collect(Collectors.toList());
+		if(changes.isEmpty())
 			return "None";
 		
-		Map<ChangeType,Long> changeCounts = getExplicitChanges(p)
+		Map<ChangeType,Long> changeCounts = changes.stream()
 			.collect(Collectors.groupingBy(Change::getType, Collectors.counting()));
 		
 		String changes_by_type = changeCounts.entrySet().stream()
@@ -718,14 +1437,15 @@ public class Dataset implements Citable, Comparable<Dataset> {
 				.map(e -> e.getValue() + " " + e.getKey())
 				.collect(Collectors.joining(", "));
 		
-		return getExplicitChanges(p).count() + " explicit changes (" + changes_by_type + ")";
+		return changes.size() + " explicit changes (" + changes_by_type + ")";
 	}
 	
 	public String getImplicitChangesCountSummary(Project p) {
-		if(getImplicitChanges(p).count() == 0)
+		List<Change> changes = getImplicitChanges(p).collect(Collectors.toList());
+		if(changes.isEmpty())
 			return "None";
 		
-		Map<ChangeType,Long> implicitChangeCounts = getImplicitChanges(p)
+		Map<ChangeType,Long> implicitChangeCounts = changes.stream()
 			.collect(Collectors.groupingBy(Change::getType, Collectors.counting()));
 		
 		String implicit_changes_by_type = implicitChangeCounts.entrySet().stream()
@@ -733,7 +1453,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 			.map(e -> e.getValue() + " " + e.getKey())
 			.collect(Collectors.joining(", "));
 		
-		return getImplicitChanges(p).count() + " implicit changes (" + implicit_changes_by_type + ")";
+		return changes.size() + " implicit changes (" + implicit_changes_by_type + ")";
 	}
 
 	/**
@@ -754,7 +1474,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	}
 	
 	public Stream<Change> getChanges(Project project) {
-		return getAllChanges().filter(project.getChangeFilter());
+		return getFilteredChanges(project).stream();
 	}
 	
 	@Override
@@ -770,7 +1490,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	public String asTitle() {
 		return getType() + " " + getName() 
 			+ " (" + getDate()  + ": " 
-			+ rows.size() + " rows, " + getReferencedNames().count() + " referenced names, " 
+			+ getRowCount() + " rows, " + getReferencedNames().count() + " referenced names, " 
 			+ explicitChanges.size() + " explicit changes, "
 			+ implicitChanges.size() + " implicit changes)";
 	}
@@ -780,7 +1500,8 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	/**
 	 * Attempt to load a dataset from a file. We use regular expressions to try to guess the file type,
 	 * and then delegate the job out. Rather cleverly, we try extracting the names using every extractor
-	 * this project knows about, and then pick the one that gives us the most number of names.
+	 * this project knows about, and then pick the one that gives us the most number of names (see
+	 * NameExtractorDetector).
 	 * 
 	 * @param proj The project doing the loading, used to get the name extractors.
 	 * @param f The file to open.
@@ -793,7 +1514,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		// Excel file? Handle separately!
 		String fileName = f.getName().toLowerCase();
 		if(fileName.endsWith(".xlsx") || fileName.endsWith(".xls")) {
-			ds = new ExcelImporter(f).asDataset(0);
+			ds = ExcelImporter.loadDataset(f, 0);
 		} else if(fileName.endsWith(".csv") || fileName.endsWith(".tsv")) {
 			CSVFormat csvFormat = CSVFormat.DEFAULT;
 			if(fileName.endsWith(".tsv"))
@@ -822,29 +1543,24 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		
 		// If we're here, we need name extractors.
 			
-		// Try all name extractors, see which one matches the most names.
-		Set<List<NameExtractor>> allAvailableNameExtractors = proj.getNameExtractors();
-		allAvailableNameExtractors.add(NameExtractorFactory.getDefaultExtractors());
+		// Pick the name extractors that match the most names. The defaults win ties.
+		List<List<NameExtractor>> candidates = new LinkedList<>();
+		candidates.add(NameExtractorFactory.getDefaultExtractors());
+		candidates.addAll(proj.getNameExtractors());
 
-		LOGGER.info("Starting name extractor comparisons");
-		List<NameExtractor> bestExtractor = null;
-		long bestExtractorCount = Long.MIN_VALUE;
-		for(List<NameExtractor> extractor: allAvailableNameExtractors) {
-			long count = ds.rows.stream().flatMap(
-					row -> NameExtractorFactory.extractNamesUsingExtractors(extractor, row).stream()
-			).distinct().count();
-
-			if(count > bestExtractorCount) {
-				bestExtractorCount = count;
-				bestExtractor = extractor;
-			}
-		}
-		LOGGER.info("Finished name extractor comparisons: best extractor at " + bestExtractorCount + " names was " + NameExtractorFactory.serializeExtractorsToString(bestExtractor));
+		LOGGER.info("Starting name extractor detection");
+		String bestExtractor = NameExtractorFactory.serializeExtractorsToString(
+			NameExtractorDetector.detect(ds, candidates)
+		);
+		LOGGER.info("Finished name extractor detection: best extractor was " + bestExtractor);
 		
-		try {
-			ds.setNameExtractorsString(NameExtractorFactory.serializeExtractorsToString(bestExtractor));
-		} catch(NameExtractorParseException ex) {
-			// Forget about it. We'll go with the default.
+		// Changing the name extractors resets the names cache, so only do that if we need to.
+		if(!bestExtractor.equals(ds.getNameExtractorsAsString())) {
+			try {
+				ds.setNameExtractorsString(bestExtractor);
+			} catch(NameExtractorParseException ex) {
+				// Forget about it. We'll go with the default.
+			}
 		}
 		
 		return ds;		
@@ -866,56 +1582,17 @@ public class Dataset implements Citable, Comparable<Dataset> {
 	
 	/**
 	 * Load this dataset from a CSV file. We load the entire CSV file, except
-	 * for blank cells.
+	 * for blank cells. The file is streamed in chunks, and names are extracted
+	 * while it is being read; see DelimitedFileImporter for details, or use it
+	 * directly to track progress.
 	 * 
-	 * @param project The project to which the resulting Dataset should belong
 	 * @param csvFormat The CSV format of the input file.
 	 * @param csvFile The input file to load.
-	 * @param renamedColumns Rename these columns on the fly.
-	 * @return
-	 * @throws IOException 
+	 * @return The dataset loaded from this file.
+	 * @throws IOException If the file could not be read.
 	 */
 	public static Dataset fromCSV(CSVFormat csvFormat, File csvFile) throws IOException {
-		Dataset dataset = new Dataset(csvFile.getName(), new SimplifiedDate(), Dataset.TYPE_CHECKLIST);
-		
-		// Get ready to filter input files.
-		InputStream ins = new FileInputStream(csvFile);
-		
-		// Look for BOMs and discard!
-		ins = new BOMInputStream(ins, false);
-		
-		// Convert into a Reader.
-		Reader reader = new BufferedReader(new InputStreamReader(ins));
-		
-		// Load CSV
-		CSVParser parser = csvFormat.withHeader().parse(reader);
-		Map<String, Integer> headerMap = parser.getHeaderMap();
-		
-		dataset.setColumns(headerMap.entrySet().stream().sorted((Object o1, Object o2) -> {
-			Map.Entry<String, Integer> e1 = (Map.Entry) o1;
-			Map.Entry<String, Integer> e2 = (Map.Entry) o2;
-			
-			return e1.getValue().compareTo(e2.getValue());
-		}).map(e -> e.getKey())
-		.map(colName -> DatasetColumn.of(colName))
-		/*
-		.map(col -> {
-			// Rename any renamedColumns.
-			if(renamedColumns.containsKey(col))
-				return renamedColumns.get(col);
-			else
-				return col;
-		})*/
-		.collect(Collectors.toList()));
-		
-		dataset.rows.clear();
-		dataset.rows.addAll(
-			parser.getRecords().stream()
-				.map(record -> {  DatasetRow row = new DatasetRow(dataset); row.putAll(record.toMap()); return row;})
-				.collect(Collectors.toList())
-		);
-		
-		return dataset;
+		return new DelimitedFileImporter(csvFormat, csvFile).importDataset();
 	}
 	
 	public Element serializeToElement(Document doc) {
@@ -952,7 +1629,7 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		datasetElement.appendChild(columnsElement);
 		
 		Element rowsElement = doc.createElement("rows");
-		for(DatasetRow row: rows) {
+		for(DatasetRow row: rowsProperty()) {
 			Element rowElement = doc.createElement("row");
 			
 			for(DatasetColumn col: row.getColumns()) {
@@ -974,6 +1651,88 @@ public class Dataset implements Citable, Comparable<Dataset> {
 		return datasetElement;
 	}
 	
+	/**
+	 * Write this dataset to an XML stream, as the same element that serializeToElement()
+	 * would create. Unlike serializeToElement(), we don't build a DOM of our rows: each
+	 * row is written out as soon as it's read from the column store. If our rows are 
+	 * paged out, they're read from our row source just to be written out, and stay 
+	 * paged out.
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @throws XMLStreamException If the dataset could not be written.
+	 */
+	public void serializeToXMLStream(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement("dataset");
+		
+		writer.writeAttribute("name", getName());
+		writer.writeAttribute("type", getType());
+		dateProperty.getValue().writeDateAttributes(writer);
+		writer.writeAttribute("nameExtractors", getNameExtractorsAsString());
+		
+		// Properties
+		writer.writeStartElement("properties");
+		for(String key: getProperties().keySet()) {
+			writer.writeStartElement("property");
+			writer.writeAttribute("name", key);
+			writer.writeCharacters(getProperties().get(key));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		
+		writer.writeStartElement("changes");
+		for(Change ch: explicitChanges) {
+			ch.serializeToXMLStream(writer);
+		}
+		writer.writeEndElement();
+		
+		writer.writeStartElement("columns");
+		for(DatasetColumn col: columns) {
+			writer.writeEmptyElement("column");
+			writer.writeAttribute("name", col.getName());
+		}
+		writer.writeEndElement();
+		
+		List<DatasetRow> rowsToWrite;
+		RowPin pin = null;
+		try {
+			rowsToWrite = readPagedOutRows();
+		} catch(IOException ex) {
+			throw new XMLStreamException("Could not read rows for " + this + " from " + rowSource + ": " + ex, ex);
+		}
+		if(rowsToWrite == null) {
+			// Make sure our rows aren't paged out while we write them.
+			pin = pinRows();
+			rowsToWrite = rows;
+		}
+		
+		writer.writeStartElement("rows");
+		try {
+			for(DatasetRow row: rowsToWrite) {
+				writer.writeStartElement("row");
+				
+				for(DatasetColumn col: row.getColumns()) {
+					// Ignore elements without a value.
+					String val = row.get(col);
+					if(val == null || val.equals(""))
+						continue;
+					
+					writer.writeStartElement("key");
+					writer.writeAttribute("name", col.getName());
+					writer.writeCharacters(val);
+					writer.writeEndElement();
+				}
+				
+				writer.writeEndElement();
+			}
+		} finally {
+			if(pin != null)
+				pin.close();
+		}
+		writer.writeEndElement();
+		
+		writer.writeEndElement();
+	}
+	
 	/*
 	public static Dataset serializeFromNode(Project p, Node node) throws SAXException {
 		
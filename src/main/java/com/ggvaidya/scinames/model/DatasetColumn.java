@@ -23,8 +23,8 @@
 
 package com.ggvaidya.scinames.model;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A class for dataset columns.
@@ -38,7 +38,8 @@ import java.util.Map;
  */
 public class DatasetColumn implements Comparable<DatasetColumn> {
 	/* All identically named columns as the same. */
-	private static Map<String, DatasetColumn> singletons = new HashMap<>();
+	/* Names are extracted from rows concurrently, so this needs to be thread-safe. */
+	private static ConcurrentMap<String, DatasetColumn> singletons = new ConcurrentHashMap<>();
 	private boolean isFake = false;
 	
 	/**
@@ -52,10 +53,7 @@ public class DatasetColumn implements Comparable<DatasetColumn> {
 		if(colName == null) throw new IllegalArgumentException("Column name cannot be null");
 		if(colName.equals("")) throw new IllegalArgumentException("Column name cannot be blank");
 
-		if(!singletons.containsKey(colName))
-			singletons.put(colName, new DatasetColumn(colName));
-			
-		return singletons.get(colName);
+		return singletons.computeIfAbsent(colName, DatasetColumn::new);
 	}
 	
 	/**
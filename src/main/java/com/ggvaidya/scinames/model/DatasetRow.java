@@ -23,7 +23,8 @@
 
 package com.ggvaidya.scinames.model;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,17 +32,41 @@ import java.util.Set;
  * A dataset row consists of a series of DatasetColumn-String pairs that represent a row
  * of information in a dataset. Values can be retrieved by DatasetColumn or by the column
  * name.
+ * 
+ * Values are not stored in the row itself, but in its dataset's ColumnStore; a
+ * DatasetRow is just a view onto one row index in that store. When a dataset 
+ * replaces its store, it moves its rows to the new store: rows that are no longer
+ * in the dataset stay in the old store, and can still be read.
  *
  * @author Gaurav Vaidya <gaurav@ggvaidya.com>
  */
 public class DatasetRow {
-	private Dataset dataset;
-	private Map<DatasetColumn, String> data = new HashMap<>();
+	private final Dataset dataset;
+	private volatile Position position;
 	
-	public DatasetRow(Dataset ds) { dataset = ds; }
-	public DatasetRow(Dataset ds, Map<DatasetColumn, String> entries) {
+	/**
+	 * Where a row's values are stored. A row's store and index are replaced together,
+	 * so readers never see one without the other.
+	 */
+	private static final class Position {
+		private final ColumnStore store;
+		private final int index;
+		
+		public Position(ColumnStore store, int index) {
+			this.store = store;
+			this.index = index;
+		}
+	}
+	
+	public DatasetRow(Dataset ds) { 
 		dataset = ds;
-		data.putAll(entries);
+		ColumnStore store = (ds == null) ? new ColumnStore() : ds.getColumnStore();
+		position = new Position(store, store.addRow());
+	}
+	
+	public DatasetRow(Dataset ds, Map<DatasetColumn, String> entries) {
+		this(ds);
+		entries.forEach((col, val) -> put(col, val));
 	}
 	
 	public void putAll(Map<String, String> map) {
@@ -50,19 +75,60 @@ public class DatasetRow {
 		}
 	}
 	
+	/**
+	 * @return A map of all the values in this row.
+	 */
+	public Map<DatasetColumn, String> asMap() {
+		Position p = position;
+		Map<DatasetColumn, String> map = new LinkedHashMap<>();
+		for(DatasetColumn col: p.store.getColumns(p.index)) {
+			map.put(col, p.store.get(p.index, col));
+		}
+		return map;
+	}
+	
+	/** @return The store this row's values are currently in. */
+	ColumnStore getStore() {
+		return position.store;
+	}
+	
+	/**
+	 * Copy this row's values into another store, and read and write them there from
+	 * now on. Callers should hold the lock on this row's current store, so that no 
+	 * values are written to it while they're being copied.
+	 * 
+	 * @param store The store to move to.
+	 */
+	void moveTo(ColumnStore store) {
+		Position p = position;
+		position = new Position(store, store.copyRowFrom(p.store, p.index));
+	}
+	
+	private void write(DatasetColumn col, String val, boolean remove) {
+		// If we're moved to another store while writing, write to that store as well.
+		Position p;
+		do {
+			p = position;
+			if(remove)
+				p.store.remove(p.index, col);
+			else
+				p.store.put(p.index, col, val);
+		} while(p != position);
+	}
+	
 	@Override
 	public String toString() {
-		return data.toString();
+		return asMap().toString();
 	}
 
 	public Dataset getDataset()						{ return dataset; }
-	public String get(DatasetColumn col)			{ return data.get(col); }
-	public String get(String colName)				{ return data.get(DatasetColumn.of(colName)); }	
-	public void put(DatasetColumn col, String val)	{ data.put(col, val); }	
-	public void put(String colName, String val)		{ data.put(DatasetColumn.of(colName), val); }	
-	public void remove(DatasetColumn col)			{ data.remove(col); }
-	public void remove(String colName)				{ data.remove(DatasetColumn.of(colName)); }
-	public Set<DatasetColumn> getColumns()			{ return data.keySet(); }
-	public boolean hasColumn(DatasetColumn col)		{ return data.containsKey(col); }
-	public boolean hasColumn(String colName)		{ return data.containsKey(DatasetColumn.of(colName)); }	
+	public String get(DatasetColumn col)			{ Position p = position; return p.store.get(p.index, col); }
+	public String get(String colName)				{ return get(DatasetColumn.of(colName)); }	
+	public void put(DatasetColumn col, String val)	{ write(col, val, false); }	
+	public void put(String colName, String val)		{ put(DatasetColumn.of(colName), val); }	
+	public void remove(DatasetColumn col)			{ write(col, null, true); }
+	public void remove(String colName)				{ remove(DatasetColumn.of(colName)); }
+	public Set<DatasetColumn> getColumns()			{ Position p = position; return new LinkedHashSet<>(p.store.getColumns(p.index)); }
+	public boolean hasColumn(DatasetColumn col)		{ Position p = position; return p.store.has(p.index, col); }
+	public boolean hasColumn(String colName)		{ return hasColumn(DatasetColumn.of(colName)); }	
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A source that the rows of a Dataset can be loaded from, and reloaded from 
+ * after they've been paged out. See Dataset.pageRowsFrom().
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public interface DatasetRowSource {
+	/**
+	 * Load the rows of a dataset. Rows should be created on the dataset (i.e. with
+	 * new DatasetRow(dataset)), but not added to it.
+	 * 
+	 * @param dataset The dataset to load rows for.
+	 * @return The rows loaded, in order.
+	 * @throws IOException If the rows could not be loaded.
+	 */
+	public List<DatasetRow> loadRows(Dataset dataset) throws IOException;
+}
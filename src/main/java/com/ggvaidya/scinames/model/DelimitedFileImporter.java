@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.ggvaidya.scinames.model.rowextractors.NameExtractor;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.SimplifiedDate;
+
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+
+/**
+ * A streaming importer for CSV and tab-delimited files.
+ * 
+ * Instead of parsing the entire file into records and then converting them into
+ * rows, we read the file a chunk of records at a time. Chunks are handed to the
+ * ForkJoin pool to be parsed (for files without quotes, such as the AmphibiaWeb
+ * TSV files, which we can split into fields ourselves) and, once they've been 
+ * added to the dataset, to have their names extracted. Only a limited number of 
+ * chunks may be in flight at any one time: once that limit is reached, reading
+ * waits for the oldest chunk to be finished. This keeps memory use proportional 
+ * to the chunk size rather than to the size of the file.
+ * 
+ * Progress is reported through progressProperty() and rowsReadProperty(). Note 
+ * that these are updated on the thread doing the import, so UI code should
+ * observe them through Platform.runLater().
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class DelimitedFileImporter {
+	private static final Logger LOGGER = Logger.getLogger(DelimitedFileImporter.class.getSimpleName());
+	
+	/** The default number of records in each chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 2048;
+	
+	/** The default number of chunks that may be parsed or extracted at the same time. */
+	public static final int DEFAULT_MAX_CHUNKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+	
+	private final CSVFormat csvFormat;
+	private final File file;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int maxChunksInFlight = DEFAULT_MAX_CHUNKS_IN_FLIGHT;
+	
+	private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(0);
+	private final ReadOnlyIntegerWrapper rowsRead = new ReadOnlyIntegerWrapper(0);
+	
+	/* Accessors */
+	public File getFile() { return file; }
+	public CSVFormat getFormat() { return csvFormat; }
+	public int getChunkSize() { return chunkSize; }
+	public int getMaxChunksInFlight() { return maxChunksInFlight; }
+	
+	/** @return The fraction of the file read so far, from 0 to 1. */
+	public ReadOnlyDoubleProperty progressProperty() { return progress.getReadOnlyProperty(); }
+	
+	/** @return The number of rows added to the dataset so far. */
+	public ReadOnlyIntegerProperty rowsReadProperty() { return rowsRead.getReadOnlyProperty(); }
+	
+	public void setChunkSize(int size) {
+		if(size < 1) throw new IllegalArgumentException("Chunk size must be at least 1, not " + size);
+		chunkSize = size;
+	}
+	
+	/**
+	 * Set the number of chunks that may be in flight at the same time. Reading waits 
+	 * once this many chunks are being parsed or having their names extracted.
+	 * 
+	 * @param max The maximum number of chunks in flight.
+	 */
+	public void setMaxChunksInFlight(int max) {
+		if(max < 1) throw new IllegalArgumentException("Maximum chunks in flight must be at least 1, not " + max);
+		maxChunksInFlight = max;
+	}
+	
+	public DelimitedFileImporter(CSVFormat csvFormat, File file) {
+		this.csvFormat = csvFormat;
+		this.file = file;
+	}
+	
+	/**
+	 * Can we split records on the delimiter ourselves? Only if nothing in the format
+	 * can make a delimiter or a newline mean anything else.
+	 * 
+	 * @return True if records in this format can be parsed in parallel.
+	 */
+	public boolean canParseInParallel() {
+		return csvFormat.getQuoteCharacter() == null
+			&& csvFormat.getEscapeCharacter() == null
+			&& !csvFormat.isCommentMarkerSet()
+			&& csvFormat.getNullString() == null;
+	}
+	
+	/**
+	 * Import the file as a new dataset.
+	 * 
+	 * @return The dataset loaded from the file.
+	 * @throws IOException If the file could not be read.
+	 */
+	public Dataset importDataset() throws IOException {
+		Dataset dataset = new Dataset(file.getName(), new SimplifiedDate(), Dataset.TYPE_CHECKLIST);
+		long startTime = System.nanoTime();
+		long fileLength = file.length();
+		
+		progress.set(0);
+		rowsRead.set(0);
+		
+		try (
+			CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+			
+			// Look for BOMs and discard!
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new BOMInputStream(counter, false)))
+		) {
+			Pipeline pipeline = new Pipeline(dataset, () -> {
+				if(fileLength > 0)
+					progress.set(Math.min(1.0, (double) counter.getByteCount() / fileLength));
+			});
+			
+			BulkUpdate bulk = dataset.beginBulkUpdate();
+			try {
+				if(canParseInParallel())
+					readUnquoted(reader, pipeline);
+				else
+					readWithParser(reader, pipeline);
+				
+				pipeline.finish();
+			} finally {
+				bulk.close();
+			}
+			
+			// Now that the bulk update is closed, we can reuse the names we extracted.
+			pipeline.primeNamesCache();
+		}
+		
+		progress.set(1.0);
+		
+		LOGGER.log(Level.INFO, "Imported {0} rows from {1} in {2} ms{3}", new Object[] {
+			dataset.getRowCount(),
+			file,
+			(System.nanoTime() - startTime)/1e6d,
+			canParseInParallel() ? ", parsing in parallel" : ""
+		});
+		
+		return dataset;
+	}
+	
+	/* Reading */
+	
+	/**
+	 * Read a file without quotes, splitting each chunk of lines into fields on the
+	 * ForkJoin pool.
+	 */
+	private void readUnquoted(BufferedReader reader, Pipeline pipeline) throws IOException {
+		Pattern delimiter = Pattern.compile(Pattern.quote(String.valueOf(csvFormat.getDelimiter())));
+		boolean trim = csvFormat.getIgnoreSurroundingSpaces();
+		boolean ignoreEmptyLines = csvFormat.getIgnoreEmptyLines();
+		
+		String headerLine;
+		do {
+			headerLine = reader.readLine();
+		} while(headerLine != null && ignoreEmptyLines && headerLine.trim().isEmpty());
+		
+		if(headerLine == null) {
+			pipeline.setHeader(new String[0]);
+			return;
+		}
+		pipeline.setHeader(splitLine(delimiter, headerLine, trim));
+		
+		List<String> lines = new ArrayList<>(chunkSize);
+		String line;
+		while((line = reader.readLine()) != null) {
+			if(ignoreEmptyLines && line.trim().isEmpty())
+				continue;
+			
+			lines.add(line);
+			if(lines.size() >= chunkSize) {
+				List<String> chunk = lines;
+				pipeline.submit(() -> splitLines(delimiter, chunk, trim));
+				lines = new ArrayList<>(chunkSize);
+			}
+		}
+		
+		if(!lines.isEmpty()) {
+			List<String> chunk = lines;
+			pipeline.submit(() -> splitLines(delimiter, chunk, trim));
+		}
+	}
+	
+	private static List<String[]> splitLines(Pattern delimiter, List<String> lines, boolean trim) {
+		List<String[]> records = new ArrayList<>(lines.size());
+		for(String line: lines) {
+			records.add(splitLine(delimiter, line, trim));
+		}
+		return records;
+	}
+	
+	private static String[] splitLine(Pattern delimiter, String line, boolean trim) {
+		String[] fields = delimiter.split(line, -1);
+		if(trim) {
+			for(int x = 0; x < fields.length; x++) {
+				fields[x] = fields[x].trim();
+			}
+		}
+		return fields;
+	}
+	
+	/**
+	 * Read a file that might contain quotes or escapes with commons-csv. Parsing 
+	 * happens on this thread, but we still only hold a chunk of records at a time,
+	 * and extract names from earlier chunks while later ones are being parsed.
+	 */
+	private void readWithParser(Reader reader, Pipeline pipeline) throws IOException {
+		CSVParser parser = csvFormat.withHeader().parse(reader);
+		
+		String[] header = new String[parser.getHeaderMap().size()];
+		parser.getHeaderMap().forEach((colName, index) -> header[index] = colName);
+		pipeline.setHeader(header);
+		
+		List<String[]> records = new ArrayList<>(chunkSize);
+		Iterator<CSVRecord> iter = parser.iterator();
+		while(iter.hasNext()) {
+			CSVRecord record = iter.next();
+			
+			String[] values = new String[record.size()];
+			for(int x = 0; x < values.length; x++) {
+				values[x] = record.get(x);
+			}
+			records.add(values);
+			
+			if(records.size() >= chunkSize) {
+				List<String[]> chunk = records;
+				pipeline.submit(() -> chunk);
+				records = new ArrayList<>(chunkSize);
+			}
+		}
+		
+		if(!records.isEmpty()) {
+			List<String[]> chunk = records;
+			pipeline.submit(() -> chunk);
+		}
+	}
+	
+	/**
+	 * Turns chunks of records into rows of a dataset, in the order in which they
+	 * were read, and extracts names from them as they come in.
+	 */
+	private class Pipeline {
+		private final Dataset dataset;
+		private final Runnable onProgress;
+		private final List<NameExtractor> extractors;
+		private DatasetColumn[] columns;
+		
+		private final Deque<CompletableFuture<List<String[]>>> parsing = new ArrayDeque<>();
+		private final Deque<CompletableFuture<Dataset.ExtractedNames>> extracting = new ArrayDeque<>();
+		private Dataset.ExtractedNames extracted = new Dataset.ExtractedNames();
+		
+		public Pipeline(Dataset dataset, Runnable onProgress) {
+			this.dataset = dataset;
+			this.onProgress = onProgress;
+			this.extractors = dataset.getNameExtractors();
+		}
+		
+		/**
+		 * Set up the columns for this dataset. Column names are interned through
+		 * DatasetColumn, so every row shares the same column objects.
+		 */
+		public void setHeader(String[] header) {
+			Set<String> seen = new HashSet<>();
+			columns = new DatasetColumn[header.length];
+			
+			for(int x = 0; x < header.length; x++) {
+				if(!seen.add(header[x]))
+					throw new IllegalArgumentException("The header contains a duplicate name: \"" + header[x] + "\" in " + String.join(", ", header));
+				
+				columns[x] = DatasetColumn.of(header[x]);
+				
+				// Names are extracted from rows while we write more of them, so all 
+				// columns need to exist before we start.
+				dataset.getColumnStore().addColumn(columns[x]);
+			}
+			
+			dataset.setColumns(Arrays.asList(columns));
+		}
+		
+		/**
+		 * Submit a chunk to be parsed. If there are already too many chunks in flight,
+		 * wait for the oldest ones to finish first.
+		 */
+		public void submit(Supplier<List<String[]>> chunk) {
+			while(parsing.size() + extracting.size() >= maxChunksInFlight) {
+				if(!parsing.isEmpty())
+					addRows(join(parsing.removeFirst()));
+				else
+					extracted.merge(join(extracting.removeFirst()));
+			}
+			
+			parsing.addLast(CompletableFuture.supplyAsync(chunk, ForkJoinPool.commonPool()));
+			onProgress.run();
+		}
+		
+		/** Wait for every chunk in flight to be added and extracted. */
+		public void finish() {
+			while(!parsing.isEmpty()) {
+				addRows(join(parsing.removeFirst()));
+			}
+			
+			while(!extracting.isEmpty()) {
+				extracted.merge(join(extracting.removeFirst()));
+			}
+		}
+		
+		public void primeNamesCache() {
+			if(!dataset.primeNamesCache(extractors, extracted))
+				LOGGER.log(Level.FINE, "Names extracted during import of {0} could not be reused", dataset);
+			
+			extracted = null;
+		}
+		
+		private void addRows(List<String[]> records) {
+			List<DatasetRow> rows = new ArrayList<>(records.size());
+			
+			for(String[] values: records) {
+				DatasetRow row = new DatasetRow(dataset);
+				
+				// Like CSVRecord.toMap(), we ignore values that don't have a column
+				// and skip columns that don't have a value.
+				int count = Math.min(values.length, columns.length);
+				for(int x = 0; x < count; x++) {
+					row.put(columns[x], values[x]);
+				}
+				
+				rows.add(row);
+			}
+			
+			dataset.rowsProperty().addAll(rows);
+			rowsRead.set(rowsRead.get() + rows.size());
+			
+			extracting.addLast(CompletableFuture.supplyAsync(
+				() -> Dataset.extractNames(extractors, rows), 
+				ForkJoinPool.commonPool()
+			));
+		}
+		
+		private <T> T join(CompletableFuture<T> future) {
+			try {
+				return future.join();
+			} catch(CompletionException ex) {
+				if(ex.getCause() instanceof RuntimeException)
+					throw (RuntimeException) ex.getCause();
+				throw ex;
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The implicit changes in a dataset: the names added since the previous dataset and
+ * the names deleted since then that none of its explicit changes account for. 
+ * 
+ * We only store these as two arrays of names. The Change for each implicit change 
+ * is created the first time it is asked for, and reused after that. Implicit changes
+ * never change: once edited, they become explicit changes (see Dataset.onChangeChanged()),
+ * and a dataset gets a new ImplicitChanges whenever they are recalculated.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+final class ImplicitChanges extends AbstractList<Change> implements RandomAccess {
+	private static final Name[] NO_NAMES = new Name[0];
+	
+	private final Dataset dataset;
+	private final Name[] added;
+	private final Name[] deleted;
+	private Change[] changes = null;	// Created when the first change is asked for.
+	
+	/**
+	 * @param ds The dataset these are the implicit changes of.
+	 * @param added The names added in this dataset.
+	 * @param deleted The names deleted in this dataset.
+	 */
+	public ImplicitChanges(Dataset ds, Collection<Name> added, Collection<Name> deleted) {
+		dataset = ds;
+		this.added = added.toArray(NO_NAMES);
+		this.deleted = deleted.toArray(NO_NAMES);
+	}
+	
+	/**
+	 * @param ds The dataset these are the implicit changes of.
+	 * @return No implicit changes.
+	 */
+	public static ImplicitChanges none(Dataset ds) {
+		return new ImplicitChanges(ds, Collections.emptyList(), Collections.emptyList());
+	}
+	
+	@Override
+	public int size() {
+		return added.length + deleted.length;
+	}
+	
+	public Stream<Name> getAddedNames() { return Arrays.stream(added); }
+	public Stream<Name> getDeletedNames() { return Arrays.stream(deleted); }
+	
+	/**
+	 * Get an implicit change, creating it if it hasn't been asked for before.
+	 */
+	@Override
+	public synchronized Change get(int index) {
+		if(index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size() + " implicit changes");
+		
+		if(changes == null)
+			changes = new Change[size()];
+		
+		Change ch = changes[index];
+		if(ch == null) {
+			if(index < added.length)
+				ch = new Change(dataset, ChangeType.ADDITION, Collections.emptySet(), Collections.singleton(added[index]), true);
+			else
+				ch = new Change(dataset, ChangeType.DELETION, Collections.singleton(deleted[index - added.length]), Collections.emptySet(), true);
+			
+			ch.implicitIn = this;
+			changes[index] = ch;
+		}
+		
+		return ch;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		return (o instanceof Change) && ((Change) o).implicitIn == this;
+	}
+	
+	@Override
+	public int indexOf(Object o) {
+		if(!contains(o))
+			return -1;
+		
+		synchronized(this) {
+			for(int x = 0; x < changes.length; x++) {
+				if(changes[x] == o)
+					return x;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+	
+	/**
+	 * @return True if these implicit changes add and delete exactly these names.
+	 */
+	public boolean hasNames(Set<Name> addedNames, Set<Name> deletedNames) {
+		return added.length == addedNames.size() && deleted.length == deletedNames.size()
+			&& addedNames.containsAll(Arrays.asList(added))
+			&& deletedNames.containsAll(Arrays.asList(deleted));
+	}
+	
+	/**
+	 * Make a copy of these implicit changes without one of them. Changes that have 
+	 * already been created are moved to the copy.
+	 * 
+	 * @param ch The change to leave out. It will no longer be an implicit change.
+	 * @return The implicit changes without this change, or these changes if it isn't one of them.
+	 */
+	public synchronized ImplicitChanges without(Change ch) {
+		int index = indexOf(ch);
+		if(index == -1)
+			return this;
+		
+		ImplicitChanges result = new ImplicitChanges(
+			dataset,
+			(index < added.length) ? remove(added, index) : Arrays.asList(added),
+			(index < added.length) ? Arrays.asList(deleted) : remove(deleted, index - added.length)
+		);
+		
+		result.changes = new Change[result.size()];
+		for(int x = 0, y = 0; x < changes.length; x++) {
+			if(x == index) continue;
+			
+			result.changes[y] = changes[x];
+			if(changes[x] != null)
+				changes[x].implicitIn = result;
+			y++;
+		}
+		ch.implicitIn = null;
+		
+		return result;
+	}
+	
+	private static List<Name> remove(Name[] names, int index) {
+		List<Name> list = new ArrayList<>(Arrays.asList(names));
+		list.remove(index);
+		return list;
+	}
+}
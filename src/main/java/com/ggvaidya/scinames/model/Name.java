@@ -16,21 +16,20 @@
  */
 package com.ggvaidya.scinames.model;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -40,16 +39,23 @@ import org.xml.sax.SAXException;
  * A scientific name.
  * 
  * These are implemented as singletons: the same full name should be represented by the
- * same Name object. This should simplify renames eventually.
+ * same Name object. This should simplify renames eventually. Singletons are managed by
+ * the NamePool, which also gives each Name an integer ID.
  * 
  * @author Gaurav Vaidya <gaurav@ggvaidya.com>
  */
 public class Name implements Comparable<Name> {
 	private static final Logger LOGGER = Logger.getLogger(Name.class.getSimpleName());
 	
+	/* Used by names without infraspecific epithets; must be initialized before EMPTY. */
+	private static final InfraspecificEpithet[] NO_EPITHETS = new InfraspecificEpithet[0];
+	
 	/** Denotes an empty name. */
 	public static final Name EMPTY = new Name();
 	
+	/** The ID of a name that isn't (or is no longer) in the NamePool. */
+	public static final int NO_ID = -1;
+	
 	/** What string is used to separate name components? */
 	public static final String SEPARATOR = " ";
         
@@ -66,11 +72,22 @@ public class Name implements Comparable<Name> {
     /* 
      * Internal variables 
      * 
-     * Note that 'genus' is guaranteed to be set, but all of the other variables may be null.
+     * Note that 'genus' is guaranteed to be set, but specificEpithet may be null.
+     * 
+     * Names are immutable, so we calculate the full name, the comparable name and the
+     * hash code once, when the name is created: they're used every time a name goes
+     * into a set or map, or is sorted.
      */
-	private String genus;
-	private String specificEpithet;
-	private List<InfraspecificEpithet> infraspecificEpithets = new LinkedList<>();
+	private final String genus;
+	private final String specificEpithet;
+	private final InfraspecificEpithet[] infraspecificEpithets;
+	private final String infraspecificEpithetsAsString;
+	private final String fullName;
+	private final String comparableName;
+	private final int hash;
+	
+	/* The ID assigned to us by the NamePool. */
+	private volatile int id = NO_ID;
 	
 	/**
 	 * InfraspecificEpithet wraps up the idea that infraspecific epithets can be
@@ -81,13 +98,13 @@ public class Name implements Comparable<Name> {
 	 * allows us to do all this.
 	 */
 	public static class InfraspecificEpithet {
-		private String name = null;
-		private String value = "";		
+		private final String name;
+		private final String value;
 		
 		public Optional<String> getName() { return Optional.ofNullable(name); }
 		public String getValue() { return value; }
 		
-		public InfraspecificEpithet(String val)			{ value = val; }
+		public InfraspecificEpithet(String val)			{ name = null; value = val; }
 		public InfraspecificEpithet(String n, String v) { name = n; value = v; }
 		public String getCombination() {
 			if(name == null) return value;
@@ -115,6 +132,24 @@ public class Name implements Comparable<Name> {
 		"undetermined",
 		"undifferentiated"
 	));
+	private static final int MAX_FAKE_GENUS_LENGTH = generaThatArentRealLowercase.stream().mapToInt(String::length).max().getAsInt();
+	
+	/**
+	 * Equivalent to PATTERN_SPECIFICEPITHET.matcher(str).matches(), but without
+	 * creating a Matcher for every name.
+	 */
+	private static boolean isLowercaseEpithet(String str) {
+		if(str.isEmpty()) return false;
+		
+		int x = 0;
+		while(x < str.length()) {
+			int cp = str.codePointAt(x);
+			if(!Character.isLowerCase(cp) && cp != '-')
+				return false;
+			x += Character.charCount(cp);
+		}
+		return true;
+	}
 	
 	/* 
 	 * Name constructors. These should not be used outside this object: instead,
@@ -123,55 +158,107 @@ public class Name implements Comparable<Name> {
 	
 	private Name() {
 		// Create an empty name.
-		this.genus = "(empty name)";
+		this("(empty name)", null, NO_EPITHETS);
+		this.id = NamePool.EMPTY_ID;
 	}
 
 	private Name(String genus) {
-		this.genus = genus;
+		this(genus, null, NO_EPITHETS);
 	}
 	
 	private Name(String genus, String specificEpithet) {
-		this.genus = genus;
-		this.specificEpithet = specificEpithet; // may be null
+		this(genus, specificEpithet, NO_EPITHETS);
 	}
 	
 	/**
 	 * Create a new name with a genus, specific epithet and a subspecific epithet.
 	 */
 	public Name(String genus, String specificEpithet, String subspecificEpithets) {
-		this(genus, specificEpithet);
+		this(genus, specificEpithet, parseInfraspecificEpithets(subspecificEpithets));
+	}
+	
+	private Name(String genus, String specificEpithet, InfraspecificEpithet[] infraspecificEpithets) {
+		this.genus = genus;
+		this.specificEpithet = specificEpithet; // may be null
+		this.infraspecificEpithets = infraspecificEpithets;
+		
+		// Precalculate everything we can.
+		StringBuilder epithets = new StringBuilder();
+		for(InfraspecificEpithet epithet: infraspecificEpithets) {
+			if(epithets.length() > 0) epithets.append(SEPARATOR);
+			epithets.append(epithet.getCombination());
+		}
+		this.infraspecificEpithetsAsString = epithets.toString();
+		
+		if(specificEpithet == null) {
+			// Genus name only.
+			if(infraspecificEpithets.length == 0)
+				this.fullName = genus;
+			else
+				this.fullName = genus + SEPARATOR + GENUS_SP + SEPARATOR + infraspecificEpithetsAsString;
+		} else if(infraspecificEpithets.length == 0) {
+			// Genus and specific epithet, but no infraspecific epithets.
+			this.fullName = genus + SEPARATOR + specificEpithet;
+		} else {
+			// Genus, specific epithet and infraspecific epithets.
+			this.fullName = genus + SEPARATOR + specificEpithet + SEPARATOR + infraspecificEpithetsAsString;
+		}
 		
+		this.comparableName = fullName.toLowerCase();
+		this.hash = 71 * 5 + fullName.hashCode();
+	}
+	
+	/**
+	 * Split subspecific epithets at whitespace, and pair them up as (name, value),
+	 * with a final unpaired value if there is one.
+	 */
+	private static InfraspecificEpithet[] parseInfraspecificEpithets(String subspecificEpithets) {
 		if(subspecificEpithets == null || subspecificEpithets.trim().equals(""))
-			return;
-		
-		String[] otherEpithets = subspecificEpithets.split("\\s+");
-		List<String> filteredOtherEpithets = Stream.of(otherEpithets)
-			.filter(epi -> (epi != null && !epi.equals("")))
-			.collect(Collectors.toList());
-		
-		if(!filteredOtherEpithets.isEmpty()) {		
-			int x;
-			for(x = 0; x < filteredOtherEpithets.size(); x += 2) {
-				if(x + 1 == filteredOtherEpithets.size()) continue;
-				
-				String name = filteredOtherEpithets.get(x);
-				String value = filteredOtherEpithets.get(x + 1);
-				infraspecificEpithets.add(new InfraspecificEpithet(name, value));
-			}
-
-			if(x > filteredOtherEpithets.size()) {
-				// This will only happen if we 'jump' over the ending.
-				infraspecificEpithets.add(new InfraspecificEpithet(filteredOtherEpithets.get(filteredOtherEpithets.size() - 1)));
-			}
+			return NO_EPITHETS;
+		
+		List<String> otherEpithets = new ArrayList<>();
+		int x = 0;
+		int length = subspecificEpithets.length();
+		while(x < length) {
+			while(x < length && NameParser.isWhitespace(subspecificEpithets.charAt(x))) x++;
+			
+			int start = x;
+			while(x < length && !NameParser.isWhitespace(subspecificEpithets.charAt(x))) x++;
+			
+			if(x > start)
+				otherEpithets.add(subspecificEpithets.substring(start, x));
+		}
+		
+		InfraspecificEpithet[] epithets = new InfraspecificEpithet[(otherEpithets.size() + 1) / 2];
+		int y;
+		for(y = 0; y + 1 < otherEpithets.size(); y += 2) {
+			epithets[y / 2] = new InfraspecificEpithet(otherEpithets.get(y), otherEpithets.get(y + 1));
+		}
+		
+		if(y < otherEpithets.size()) {
+			epithets[y / 2] = new InfraspecificEpithet(otherEpithets.get(y));
 		}
+		
+		return epithets;
 	}
 	
 	/*
-	 * We provide singletons for provided names. This is how we do it.
+	 * We provide singletons for provided names. The NamePool does the actual work.
 	 */
 	
-	private static Map<String, Name> namesByFullName = new HashMap<>();
-	private static Map<String, Name> namesByBinomial = new HashMap<>(); // TODO delete
+	/**
+	 * Returns the ID of this name in the NamePool. IDs are small non-negative integers,
+	 * suitable for indexing arrays or BitSets.
+	 * 
+	 * @return The ID of this name, or NO_ID if it has been reclaimed from the pool.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	void setId(int newId) {
+		id = newId;
+	}
 	
 	/**
 	 * Return a singleton Name object corresponding to a genus/specificEpithet/subspecificEpithets combination.
@@ -197,7 +284,7 @@ public class Name implements Comparable<Name> {
 		}
 		
 		// What if the genus is a fake genus (like "null"?)
-		if(generaThatArentRealLowercase.contains(genus.toLowerCase())) {
+		if(genus.length() <= MAX_FAKE_GENUS_LENGTH && generaThatArentRealLowercase.contains(genus.toLowerCase())) {
 			if(specificEpithet != null) {
 				// Demote specific epithet to a subspecific epithet.
 				subspecificEpithets = specificEpithet + SEPARATOR + subspecificEpithets;
@@ -217,8 +304,8 @@ public class Name implements Comparable<Name> {
 		
 		// Is the specificEpithet a real specific epithet?
 		if(specificEpithet != null) {
-			if(!PATTERN_SPECIFICEPITHET.matcher(specificEpithet).matches()
-				|| specificEpithetsThatArentLowercase.contains(specificEpithet.toLowerCase())) {
+			if(!isLowercaseEpithet(specificEpithet)
+				|| specificEpithetsThatArentLowercase.contains(specificEpithet)) {
 				if(subspecificEpithets == null) {
 					subspecificEpithets = specificEpithet;
 					specificEpithet = null;
@@ -247,12 +334,7 @@ public class Name implements Comparable<Name> {
 		
 		// We have a prospective new name. But is it unique? If not,
 		// return the indexed name.
-		String fullName = newName.getFullName();
-		if(namesByFullName.containsKey(fullName))
-			return namesByFullName.get(fullName);
-		
-		namesByFullName.put(fullName, newName);
-		return newName;
+		return NamePool.getDefault().intern(newName);
 	}
 
 	public static Name get(String genus, String specificEpithet) {
@@ -265,54 +347,14 @@ public class Name implements Comparable<Name> {
 	
 	/**
 	 * Attempts to parse the full name in the provided string. Returns
-	 * Optional.empty() if the name couldn't be parsed.
+	 * Optional.empty() if the name couldn't be parsed. See NameParser for
+	 * the details.
 	 * 
 	 * @param name Name to parse
 	 * @return Name object resulting from the parse.
 	 */
 	public static Optional<Name> getFromFullName(String name) {
-        if(name == null || name.equals("")) return Optional.empty();
-		
-        name = name.trim();
-        
-        // If there are quotes around the whole thing, we can ignore them.
-        Pattern surroundedByQuotes = Pattern.compile("^(['\"])\\s*(.*)\\s*\\1$");
-        Matcher matcherSurroundedByQuotes = surroundedByQuotes.matcher(name);
-        
-        if(matcherSurroundedByQuotes.matches()) {
-        	name = matcherSurroundedByQuotes.group(2);
-        }
-		
-		String[] components = name.split("\\s+");
-		
-		// The first name should be alphabetic, otherwise we fail right away.
-		if(components.length > 0 && !components[0].matches("^[\\p{IsAlphabetic}_\\.]+$")) {
-			return Optional.empty();
-		}
-		
-		if(components.length > 3) {
-			String infraspecificEpithets = Arrays.asList(components)
-				.subList(2, components.length)						// Ignore the first two components, which are
-																	// the genus and specificEpithet.
-				.stream().collect(Collectors.joining(SEPARATOR)) 	// Join with 'SEPARATOR'
-				.trim();											// Get rid of trailing spaces.
-                        
-			return Optional.ofNullable(Name.get(components[0], components[1], infraspecificEpithets));
-			
-		} else if(components.length == 3) {
-			return Optional.ofNullable(Name.get(components[0], components[1], components[2]));
-			
-		} else if(components.length == 2) {
-			return Optional.ofNullable(Name.get(components[0], components[1]));
-			
-		} else if(components.length == 1) {
-			return Optional.ofNullable(Name.getFromGenus(components[0]));
-			
-		} else {
-			LOGGER.warning("Name '" + name + "' could not be parsed into a Name.");
-			return Optional.empty();
-			
-		}
+		return NameParser.getFromFullName(name);
 	}
 	
 	/**
@@ -352,29 +394,15 @@ public class Name implements Comparable<Name> {
 	}	
 	
 	public String getInfraspecificEpithetsAsString() {
-		return infraspecificEpithets.stream().map(ep -> ep.getCombination()).collect(Collectors.joining(SEPARATOR));
+		return infraspecificEpithetsAsString;
 	}
 	
 	public String getFullName() {
-		if(specificEpithet == null) {
-			// Genus name only.
-			
-			if(infraspecificEpithets.isEmpty())
-				return genus;
-			else
-				return genus + SEPARATOR + GENUS_SP + SEPARATOR + getInfraspecificEpithetsAsString();
-		}
-		
-		// Genus and specific epithet, but no infraspecific epithets.
-		if(infraspecificEpithets.isEmpty())
-			return genus + SEPARATOR + specificEpithet;
-		
-		// Genus, specific epithet and infraspecific epithets.
-		return genus + SEPARATOR + specificEpithet + SEPARATOR + getInfraspecificEpithetsAsString();
+		return fullName;
 	}
 	
 	public String getComparableName() {
-		return getFullName().toLowerCase();
+		return comparableName;
 	}
 	
 	public String getGenus() {
@@ -393,15 +421,15 @@ public class Name implements Comparable<Name> {
 	}
 	
 	public List<InfraspecificEpithet> getInfraspecificEpithets() {
-		return infraspecificEpithets;
+		return Collections.unmodifiableList(Arrays.asList(infraspecificEpithets));
 	}
 	
 	public boolean hasSubgenericEpithet() {
-		return (genus != null && (specificEpithet != null || !infraspecificEpithets.isEmpty()));
+		return (genus != null && (specificEpithet != null || infraspecificEpithets.length > 0));
 	}
 	
 	public boolean hasSubspecificEpithet() {
-		return (genus != null && specificEpithet != null && !infraspecificEpithets.isEmpty());
+		return (genus != null && specificEpithet != null && infraspecificEpithets.length > 0);
 	}
 	
 	@Override
@@ -409,22 +437,35 @@ public class Name implements Comparable<Name> {
 		return getFullName();
 	}
 
+	/**
+	 * Names are singletons, so identical names are usually the same object. But names
+	 * may be reclaimed from the NamePool while someone still holds on to them, so we
+	 * compare full names as well.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) return true;
+		if(!(obj instanceof Name)) return false;
+		
+		Name other = (Name)obj;
+		return hash == other.hash && fullName.equals(other.fullName);
+	}
+
 	@Override
 	public int hashCode() {
-		int hash = 5;
-		hash = 71 * hash + Objects.hashCode(getFullName());
 		return hash;
 	}
 
 	public int compareTo(Name n) {
 		if(n == null || n == Name.EMPTY) return -1;
+		if(n == this) return 0;
 		
-		int c = this.getComparableName().compareTo(n.getComparableName());
+		int c = comparableName.compareTo(n.comparableName);
 		if(c != 0) return c;
 		
 		// If they have identical full names -- included subspecific epithets
 		// -- then they are in fact identical.
-		return this.getFullName().compareTo(n.getFullName());
+		return fullName.compareTo(n.fullName);
 	}
 	
 	public Element serializeToElement(Document doc) {
@@ -434,7 +475,7 @@ public class Name implements Comparable<Name> {
 		if(hasSpecificEpithet())
 			nameElement.setAttribute("specificEpithet", getSpecificEpithet());
 		
-		if(!infraspecificEpithets.isEmpty()) {
+		if(infraspecificEpithets.length > 0) {
 			nameElement.setAttribute("infraspecificEpithets", getInfraspecificEpithetsAsString());
 		}
 			
@@ -443,6 +484,21 @@ public class Name implements Comparable<Name> {
 		return nameElement;
 	}
 	
+	public void serializeToXMLStream(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement("name");
+		
+		writer.writeAttribute("genus", getGenus());
+		if(hasSpecificEpithet())
+			writer.writeAttribute("specificEpithet", getSpecificEpithet());
+		
+		if(infraspecificEpithets.length > 0) {
+			writer.writeAttribute("infraspecificEpithets", getInfraspecificEpithetsAsString());
+		}
+		
+		writer.writeCharacters(getFullName());
+		writer.writeEndElement();
+	}
+	
 	public static Name serializeFromNode(Node nameNode) throws SAXException {
 		throw new UnsupportedOperationException("Serializing Name to Node is no longer supported");
 		/*
@@ -19,6 +19,7 @@ package com.ggvaidya.scinames.model;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -32,6 +33,7 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javafx.beans.Observable;
 import javafx.beans.property.ReadOnlySetWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableSet;
@@ -54,6 +56,13 @@ public class NameCluster {
 	// i.e. contains genus-only names.
 	private boolean containsSuperspecificNames = false;
 	
+	// The earliest dataset in foundIn, or null if it needs to be worked out again.
+	private Dataset earliestTimepoint = null;
+	
+	{
+		foundIn.addListener((Observable o) -> earliestTimepoint = null);
+	}
+	
 	// Check equality with another name cluster.
 	public boolean equals(NameCluster cluster) {
 		return 
@@ -102,6 +111,11 @@ public class NameCluster {
 		return Optional.ofNullable(binomialNameByDataset.get(ds));
 	}
 	
+	/** The binomial name per dataset, for NameClusterManager to merge clusters with. */
+	Map<Dataset, Name> getBinomialNamesByDataset() {
+		return binomialNameByDataset;
+	}
+	
 	public ObservableSet<Name> getNames() { return new ReadOnlySetWrapper<>(names); }
 	
 	
@@ -122,14 +136,8 @@ public class NameCluster {
 			return true;
 		
 		//  - OR any of the changes involving this cluster involves a lump.
-		return foundIn.stream()
-			// Get all lumps
-			.flatMap(ds -> ds.getChanges(p)
-				.filter(ch -> ch.getType().equals(ChangeType.LUMP))
-			)
-			// Get those associated with names in this cluster.
-			.anyMatch(ch -> ch.getAllNames().stream().anyMatch(n -> names.contains(n)))
-		;
+		return p.getNameIndex().getChanges(names).stream()
+			.anyMatch(ch -> ch.getType().equals(ChangeType.LUMP));
 	}
 	
 	@Override
@@ -313,7 +321,12 @@ public class NameCluster {
 	}
 
 	public Dataset getEarliestTimepoint() {
-		return getFoundInSorted().get(0);
+		Dataset earliest = earliestTimepoint;
+		if(earliest == null) {
+			earliest = Collections.min(foundIn);
+			earliestTimepoint = earliest;
+		}
+		return earliest;
 	}
 	
 	/* Manage taxon concepts */
@@ -345,9 +358,7 @@ public class NameCluster {
 				
 				// However, let's make sure that initial event isn't 
 				// filtered out!
-				List<Change> changes = ds.getChanges(p)
-					.filter(ch -> ch.getAllNames().stream().anyMatch(n -> contains(n)))
-					.collect(Collectors.toList());
+				List<Change> changes = p.getNameIndex().getChanges(ds, this);
 				
 				if(changes.isEmpty()) {
 					continue;
@@ -362,19 +373,14 @@ public class NameCluster {
 			}
 			
 			// Find all names in this cluster that's also in this dataset.
-			Set<Name> namesFromThisDataset = ds.getReferencedNames()
-				.filter(n -> contains(n))
-				.collect(Collectors.toSet());
+			Set<Name> namesFromThisDataset = p.getNameIndex().getNames(ds, this);
 			current.addNames(ds, new ArrayList<>(namesFromThisDataset));
 			
 			//if(contains(Name.get("Chordeiles", "acutipennis")))
 			//	LOGGER.info(" - Added names to " + current + " for " + ds + ": " + namesFromThisDataset);
 			
 			// Then filter that down to just the lumps and splits.
-			List<Change> splumps = ds.getChanges(p)
-				.filter(ch -> ch.getAllNames().stream().anyMatch(
-					n -> contains(n)
-				))
+			List<Change> splumps = p.getNameIndex().getChanges(ds, this).stream()
 				.filter(ch -> ch.getType().equals(ChangeType.LUMP) || ch.getType().equals(ChangeType.SPLIT))
 				.collect(Collectors.toList());
 			
@@ -419,4 +425,16 @@ public class NameCluster {
 	public NameCluster() {
 		// Empty!
 	}
+	
+	/**
+	 * Create a name cluster directly from its contents. Used by NameClusterManager to
+	 * build views of the clusters it maintains.
+	 */
+	NameCluster(Collection<Name> names, Collection<Dataset> foundIn, Dataset earliestFoundIn, Map<Dataset, Name> binomialNameByDataset, boolean containsSuperspecificNames) {
+		this.names.addAll(names);
+		this.foundIn.addAll(foundIn);
+		this.earliestTimepoint = earliestFoundIn;
+		this.binomialNameByDataset.putAll(binomialNameByDataset);
+		this.containsSuperspecificNames = containsSuperspecificNames;
+	}
 }
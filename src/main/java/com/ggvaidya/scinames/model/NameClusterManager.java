@@ -16,18 +16,22 @@
  */
 package com.ggvaidya.scinames.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableMap;
-import javafx.collections.ObservableSet;
 
 /**
  * The Name Cluster Manager manages name clusters: it accepts statements of
@@ -40,6 +44,21 @@ import javafx.collections.ObservableSet;
  * 		associated with a name, but only after ALL the names and synonymies
  * 		have been loaded in.
  * 
+ * Internally, clusters are stored as a disjoint-set forest (union-find) indexed
+ * by name ID (see NamePool), with path compression and union by rank. The contents
+ * of each cluster -- its names, the datasets it was found in and its binomial name
+ * per dataset -- are stored on the root of each set; when two sets are merged, the
+ * smaller contents are copied into the larger. Each root also keeps track of the
+ * earliest dataset its cluster was found in, so that doesn't need to be worked out
+ * by sorting. NameCluster objects are only built when asked for, and are cached 
+ * until that cluster changes again.
+ * 
+ * Names and renames added through updateDatasetNames() and updateDatasetRenames()
+ * are remembered per dataset, so
+ * that when a dataset changes only the clusters affected by that change need to be
+ * recalculated. Names and clusters added directly through addNames(), addSynonymy()
+ * or addCluster() are not tracked in this way.
+ * 
  * Usage:
  * 	1. Enter all synonymies into the cluster manager.
  * 	2. For a given Name, translate it into a NameCluster that represents
@@ -50,17 +69,278 @@ import javafx.collections.ObservableSet;
 public class NameClusterManager {
 	private static final Logger LOGGER = Logger.getLogger(NameClusterManager.class.getSimpleName());
 	
-	private final ObservableMap<Name, NameCluster> clustersByName = FXCollections.observableMap(new HashMap<>());
-	private final ObservableSet<NameCluster> clusters = FXCollections.observableSet(new HashSet<>());
+	/** Value in parent[] for name IDs that aren't in any cluster. */
+	private static final int ABSENT = -1;
+	
+	private final NamePool namePool = NamePool.getDefault();
+	
+	/* The disjoint-set forest: parent[id] is the parent of each name ID, or ABSENT. */
+	private int[] parent = new int[0];
+	private byte[] rank = new byte[0];
+	
+	/* Cluster contents, indexed by the ID of the root of each set; null everywhere else. */
+	private ClusterContents[] contents = new ClusterContents[0];
+	private int clusterCount = 0;
+	
+	/* Goes up whenever a name joins or leaves a cluster, or a cluster's earliest dataset changes. */
+	private long modificationCount = 0;
+	
+	/* The names and renames each tracked dataset contributed, in the order they were first added. */
+	private final Map<Dataset, Set<Name>> namesByDataset = new LinkedHashMap<>();
+	private final Map<Dataset, Set<Rename>> renamesByDataset = new HashMap<>();
+	
+	/**
+	 * A single rename from one name to another.
+	 */
+	private static final class Rename {
+		private final Name from;
+		private final Name to;
+		
+		public Rename(Name from, Name to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Rename)) return false;
+			
+			Rename r = (Rename) obj;
+			return from.equals(r.from) && to.equals(r.to);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(from, to);
+		}
+	}
+	
+	/**
+	 * The contents of a single cluster, stored on its root.
+	 */
+	private static class ClusterContents {
+		private final List<Name> names = new ArrayList<>();
+		private final Set<Dataset> foundIn = new HashSet<>();
+		private final Map<Dataset, Name> binomialNameByDataset = new HashMap<>();
+		private boolean containsSuperspecificNames = false;
+		
+		// The earliest dataset in foundIn, or null if foundIn is empty.
+		private Dataset earliestFoundIn = null;
+		
+		// The NameCluster view of these contents, or null if it needs to be rebuilt.
+		private NameCluster view = null;
+		
+		public int size() {
+			return names.size() + foundIn.size() + binomialNameByDataset.size();
+		}
+		
+		/** Returns true if the earliest dataset changed. */
+		public boolean addFoundIn(Dataset ds) {
+			foundIn.add(ds);
+			if(earliestFoundIn == null || ds.compareTo(earliestFoundIn) < 0) {
+				earliestFoundIn = ds;
+				return true;
+			}
+			return false;
+		}
+		
+		/** Work out the earliest dataset again, such as when a dataset's date changes. Returns true if it changed. */
+		public boolean recalculateEarliestFoundIn() {
+			Dataset earliest = foundIn.isEmpty() ? null : Collections.min(foundIn);
+			boolean changed = (earliest != earliestFoundIn);
+			earliestFoundIn = earliest;
+			return changed;
+		}
+		
+		/** Merge another cluster's contents into ours. Our binomial names take precedence. */
+		public void mergeFrom(ClusterContents other) {
+			names.addAll(other.names);
+			foundIn.addAll(other.foundIn);
+			if(other.earliestFoundIn != null && (earliestFoundIn == null || other.earliestFoundIn.compareTo(earliestFoundIn) < 0))
+				earliestFoundIn = other.earliestFoundIn;
+			other.binomialNameByDataset.forEach(binomialNameByDataset::putIfAbsent);
+			containsSuperspecificNames |= other.containsSuperspecificNames;
+			view = null;
+		}
+		
+		public NameCluster getView() {
+			if(view == null)
+				view = new NameCluster(names, foundIn, earliestFoundIn, binomialNameByDataset, containsSuperspecificNames);
+			return view;
+		}
+	}
+	
+	/* Union-find operations */
+	
+	private void ensureCapacity(int id) {
+		if(id < parent.length) return;
+		
+		int newLength = Math.max(id + 1, Math.max(16, parent.length * 2));
+		int oldLength = parent.length;
+		
+		parent = Arrays.copyOf(parent, newLength);
+		Arrays.fill(parent, oldLength, newLength, ABSENT);
+		rank = Arrays.copyOf(rank, newLength);
+		contents = Arrays.copyOf(contents, newLength);
+	}
+	
+	/** Find the root of the set containing id, compressing the path as we go. */
+	private int find(int id) {
+		int root = id;
+		while(parent[root] != root)
+			root = parent[root];
+		
+		while(parent[id] != root) {
+			int next = parent[id];
+			parent[id] = root;
+			id = next;
+		}
+		
+		return root;
+	}
+	
+	/** Returns the ID of the root of the cluster containing this name, or ABSENT. */
+	private int findRoot(Name n) {
+		int id = namePool.idOf(n);
+		if(id >= parent.length || parent[id] == ABSENT)
+			return ABSENT;
+		
+		return find(id);
+	}
+	
+	/** Returns the root of the cluster containing this name, creating a new cluster if needed. */
+	private int makeSet(Name n) {
+		int id = namePool.idOf(n);
+		ensureCapacity(id);
+		
+		if(parent[id] == ABSENT) {
+			parent[id] = id;
+			rank[id] = 0;
+			
+			ClusterContents cc = new ClusterContents();
+			cc.names.add(n);
+			contents[id] = cc;
+			clusterCount++;
+			modificationCount++;
+			
+			return id;
+		}
+		
+		return find(id);
+	}
+	
+	/** Merge the sets rooted at a and b, returning the new root. */
+	private int union(int a, int b) {
+		if(a == b) return a;
+		
+		// Union by rank.
+		int root = a;
+		int child = b;
+		if(rank[a] < rank[b]) {
+			root = b;
+			child = a;
+		} else if(rank[a] == rank[b]) {
+			rank[a]++;
+		}
+		parent[child] = root;
+		
+		// Copy the smaller contents into the larger, and store the result on the new root.
+		ClusterContents larger = contents[root];
+		ClusterContents smaller = contents[child];
+		if(larger.size() < smaller.size()) {
+			ClusterContents tmp = larger;
+			larger = smaller;
+			smaller = tmp;
+		}
+		larger.mergeFrom(smaller);
+		contents[root] = larger;
+		contents[child] = null;
+		clusterCount--;
+		modificationCount++;
+		
+		return root;
+	}
+	
+	/**
+	 * Remove every cluster containing any of these names.
+	 * 
+	 * @return All the names that were in the removed clusters.
+	 */
+	private Set<Name> removeClusters(Collection<Name> names) {
+		Set<Name> removed = new HashSet<>();
+		
+		for(Name n: names) {
+			int root = findRoot(n);
+			if(root == ABSENT) continue;
+			
+			for(Name member: contents[root].names) {
+				parent[namePool.idOf(member)] = ABSENT;
+				removed.add(member);
+			}
+			contents[root] = null;
+			clusterCount--;
+			modificationCount++;
+		}
+		
+		return removed;
+	}
+	
+	/** Add a name found in a dataset, returning the root of its cluster. */
+	private int add(Name n, Dataset ds) {
+		int root = makeSet(n);
+		
+		// Since these are species name clusters, every name is clustered
+		// with its binomial form (see NameCluster.addName()).
+		Name binomial = null;
+		for(Name b: n.asBinomial().collect(Collectors.toList())) {
+			root = union(root, makeSet(b));
+			binomial = b;
+		}
+		
+		ClusterContents cc = contents[root];
+		if(!n.hasSpecificEpithet())
+			cc.containsSuperspecificNames = true;
+		if(binomial != null)
+			cc.binomialNameByDataset.putIfAbsent(ds, binomial);
+		if(cc.addFoundIn(ds))
+			modificationCount++;
+		cc.view = null;
+		
+		return root;
+	}
+	
+	/* Accessors */
+	
+	public synchronized Stream<NameCluster> getClusters() {
+		List<NameCluster> views = new ArrayList<>(clusterCount);
+		for(ClusterContents cc: contents) {
+			if(cc != null)
+				views.add(cc.getView());
+		}
+		return views.stream();
+	}
+	
+	/**
+	 * @return The number of clusters in this manager.
+	 */
+	public synchronized int getClusterCount() {
+		return clusterCount;
+	}
 	
-	public Stream<NameCluster> getClusters() {
-		return clusters.stream();
+	/**
+	 * @return A number that goes up whenever a name joins or leaves a cluster, or
+	 * 	the earliest dataset a cluster was found in changes. Other changes, such as
+	 * 	a cluster being found in another dataset that isn't its earliest, don't
+	 * 	change this count.
+	 */
+	public synchronized long getModificationCount() {
+		return modificationCount;
 	}
 	
 	@Override
 	public String toString() {
-		return "NameClusterManager containing " + clusters.size() + " clusters: " + 
-			clusters.stream().map(cl -> cl.toString()).collect(Collectors.joining(", "));
+		return "NameClusterManager containing " + getClusterCount() + " clusters: " + 
+			getClusters().map(cl -> cl.toString()).collect(Collectors.joining(", "));
 	}
 	
 	/**
@@ -81,12 +361,33 @@ public class NameClusterManager {
 			.filter(cluster -> cluster.getFoundInAfterFiltering(project).size() > 0);
 	}
 	
-	public boolean hasCluster(Name n) {
-		return clustersByName.containsKey(n);
+	public synchronized boolean hasCluster(Name n) {
+		return findRoot(n) != ABSENT;
+	}
+	
+	public synchronized Optional<NameCluster> getCluster(Name name) {
+		int root = findRoot(name);
+		if(root == ABSENT)
+			return Optional.empty();
+		
+		return Optional.of(contents[root].getView());
 	}
 	
-	public Optional<NameCluster> getCluster(Name name) {
-		return Optional.ofNullable(clustersByName.get(name));
+	/**
+	 * Find the earliest dataset the cluster containing a name was found in. This is 
+	 * kept up to date as clusters change, so it's much quicker than looking up the 
+	 * cluster and sorting the datasets it was found in.
+	 * 
+	 * @param name The name to look up.
+	 * @return The earliest dataset the cluster containing this name was found in, or
+	 * 	empty if we don't have a cluster for this name.
+	 */
+	public synchronized Optional<Dataset> getEarliestTimepoint(Name name) {
+		int root = findRoot(name);
+		if(root == ABSENT)
+			return Optional.empty();
+		
+		return Optional.ofNullable(contents[root].earliestFoundIn);
 	}
 	
 	/**
@@ -98,10 +399,160 @@ public class NameClusterManager {
 	 * @param allNames Names to query.
 	 * @return List of all NameClusters corresponding to the provided names.
 	 */
-	public List<NameCluster> getClusters(Collection<Name> allNames) {
-		return allNames.stream()
-			.map(n -> clustersByName.get(n))
-			.collect(Collectors.toList());
+	public synchronized List<NameCluster> getClusters(Collection<Name> allNames) {
+		List<NameCluster> results = new ArrayList<>(allNames.size());
+		for(Name n: allNames) {
+			int root = findRoot(n);
+			results.add(root == ABSENT ? null : contents[root].getView());
+		}
+		return results;
+	}
+	
+	/* Adding names and synonymies */
+	
+	/**
+	 * Add names found in a dataset. This is equivalent to adding a NameCluster
+	 * for each name, but doesn't need to create those clusters.
+	 * 
+	 * @param ds The dataset these names were found in.
+	 * @param names The names to add.
+	 */
+	public synchronized void addNames(Dataset ds, Collection<Name> names) {
+		for(Name n: names) {
+			add(n, ds);
+		}
+	}
+	
+	/**
+	 * Add a synonymy between two names found in a dataset. This is equivalent to
+	 * adding a Synonymy, but doesn't need to create it.
+	 * 
+	 * @param from The name being synonymized.
+	 * @param to The name it is being synonymized with.
+	 * @param ds The dataset this synonymy was found in.
+	 */
+	public synchronized void addSynonymy(Name from, Name to, Dataset ds) {
+		union(add(from, ds), add(to, ds));
+	}
+	
+	/**
+	 * Set the names referenced in a dataset. The first time this is called for a
+	 * dataset, this is equivalent to calling addNames(). After that, only the
+	 * differences are applied: added names are merged into the existing clusters,
+	 * while the clusters containing any removed names are recalculated from the
+	 * names and renames of all tracked datasets.
+	 * 
+	 * @param ds The dataset that changed.
+	 * @param referencedNames All the names referenced in this dataset.
+	 */
+	public synchronized void updateDatasetNames(Dataset ds, Collection<Name> referencedNames) {
+		Set<Name> newNames = new HashSet<>(referencedNames);
+		Set<Name> oldNames = namesByDataset.getOrDefault(ds, new HashSet<>());
+		
+		namesByDataset.put(ds, newNames);
+		renamesByDataset.putIfAbsent(ds, new HashSet<>());
+		
+		// If any names were removed, recalculate the clusters they were in.
+		Set<Name> touched = new HashSet<>(oldNames);
+		touched.removeAll(newNames);
+		recalculateClusters(touched);
+		
+		// Add the new names.
+		for(Name n: newNames) {
+			if(!oldNames.contains(n))
+				add(n, ds);
+		}
+		
+		// The dataset itself might have changed (e.g. its date), so rebuild the views
+		// of every cluster it's found in, and work out which dataset comes first again.
+		Set<ClusterContents> clusters = Collections.newSetFromMap(new IdentityHashMap<>());
+		for(Name n: newNames) {
+			clusters.add(contents[findRoot(n)]);
+		}
+		for(ClusterContents cc: clusters) {
+			if(cc.recalculateEarliestFoundIn())
+				modificationCount++;
+			cc.view = null;
+		}
+	}
+	
+	/**
+	 * Set the renames found in a dataset. The first time this is called for a
+	 * dataset, this is equivalent to calling addSynonymy() for each rename. After
+	 * that, only the differences are applied: added renames are merged into the
+	 * existing clusters, while the clusters containing any removed renames are
+	 * recalculated from the names and renames of all tracked datasets.
+	 * 
+	 * @param ds The dataset that changed.
+	 * @param renames All the renames in this dataset.
+	 */
+	public synchronized void updateDatasetRenames(Dataset ds, Collection<Change> renames) {
+		Set<Rename> newRenames = new HashSet<>();
+		for(Change ch: renames) {
+			for(Name from: ch.getFrom()) {
+				for(Name to: ch.getTo()) {
+					newRenames.add(new Rename(from, to));
+				}
+			}
+		}
+		Set<Rename> oldRenames = renamesByDataset.getOrDefault(ds, new HashSet<>());
+		
+		namesByDataset.putIfAbsent(ds, new HashSet<>());
+		renamesByDataset.put(ds, newRenames);
+		
+		// If any renames were removed, recalculate the clusters they were in.
+		Set<Name> touched = new HashSet<>();
+		for(Rename r: oldRenames) {
+			if(!newRenames.contains(r)) {
+				touched.add(r.from);
+				touched.add(r.to);
+			}
+		}
+		recalculateClusters(touched);
+		
+		// Add the new renames.
+		for(Rename r: newRenames) {
+			if(!oldRenames.contains(r))
+				union(add(r.from, ds), add(r.to, ds));
+		}
+	}
+	
+	/**
+	 * Remove all the names and renames found in a dataset; the clusters they were in
+	 * will be recalculated.
+	 * 
+	 * @param ds The dataset to remove.
+	 */
+	public synchronized void removeDataset(Dataset ds) {
+		updateDatasetRenames(ds, new ArrayList<>());
+		updateDatasetNames(ds, new ArrayList<>());
+		
+		namesByDataset.remove(ds);
+		renamesByDataset.remove(ds);
+	}
+	
+	/**
+	 * Remove the clusters containing these names, and recalculate them from the
+	 * names and renames of all tracked datasets.
+	 */
+	private void recalculateClusters(Collection<Name> touched) {
+		if(touched.isEmpty())
+			return;
+		
+		Set<Name> members = removeClusters(touched);
+		LOGGER.fine("Recalculating clusters for " + members.size() + " names.");
+		
+		namesByDataset.forEach((dataset, names) -> {
+			for(Name n: names) {
+				if(members.contains(n))
+					add(n, dataset);
+			}
+			
+			for(Rename r: renamesByDataset.get(dataset)) {
+				if(members.contains(r.from) || members.contains(r.to))
+					union(add(r.from, dataset), add(r.to, dataset));
+			}
+		});
 	}
 	
 	/**
@@ -109,67 +560,37 @@ public class NameClusterManager {
 	 * name clusters in this manager, so you should include all renames FIRST
 	 * before making any other changes anywhere.
 	 * 
-	 * TODO We might want to turn this into a factory method that returns a NameClusterState,
-	 * which is then unmodifiable except by adding a namecluster to produce ANOTHER NameClusterState.
+	 * Note that the cluster itself is not stored: its contents are merged into
+	 * the clusters we already have, and getCluster() will return a new NameCluster
+	 * representing the merged cluster.
 	 * 
 	 * @param newCluster The new cluster to add.
 	 */
-	public void addCluster(NameCluster newCluster) {
-		// debugging; leaving in in case I need it.
-		//if(newCluster.contains(Name.get("Chordeiles", "acutipennis"))) {
-		//	LOGGER.info(" - Cluster for 'Chordeiles acutipennis' query: " + newCluster);
-		//}
-		
-		// Are any of these names already known to us? If so, we need to merge
-		// them.
+	public synchronized void addCluster(NameCluster newCluster) {
 		Set<Name> names = newCluster.getNames();
-
-		if(!names.stream().anyMatch(n -> clustersByName.keySet().contains(n))) {
-			LOGGER.finest("New cluster " + newCluster + " has no overlap with existing clusters.");
-			newCluster.getNames().forEach(n -> clustersByName.put(n, newCluster));
-			clusters.add(newCluster);
-			
-			//if(newCluster.contains(Name.get("Chordeiles", "acutipennis"))) {
-			//	LOGGER.info(" - Cluster for 'Chordeiles acutipennis' added: " + newCluster);
-			//}
-			
+		if(names.isEmpty())
 			return;
-		}
 		
-		// Identify ALL matching names. This may correspond to multiple existing clusters.
-		Set<Name> matchingNames = names.stream().filter(n -> clustersByName.keySet().contains(n)).collect(Collectors.toSet());
-		Set<NameCluster> matchingClusters = matchingNames.stream().map(n -> clustersByName.get(n)).distinct().collect(Collectors.toSet());
-
-		// For each matching cluster, combine it with the cluster we have now.
-		matchingClusters.forEach(cluster -> {
-			LOGGER.finest("New cluster " + newCluster + " overlaps with existing cluster " + cluster + ", merging.");
-			
-			// Remove each of the names of this cluster from clustersByName, and remove this cluster from the
-			// clusters list.
-			cluster.getNames().forEach(n -> clustersByName.remove(n));
-			clusters.remove(cluster);
-			
-			//if(cluster.contains(Name.get("Chordeiles", "acutipennis"))) {
-			//	LOGGER.info(" - Found old cluster for 'Chordeiles acutipennis': " + cluster + ", found in: " + cluster.getFoundIn());
-			//}
-			
-			// Now that we've "unindexed" that cluster, add all of its names and timepoints into
-			// our new merged cluster.
-			newCluster.addAll(cluster);
-			
-			//if(newCluster.contains(Name.get("Chordeiles", "acutipennis"))) {
-			//	LOGGER.info(" - Old cluster merged with new cluster for 'Chordeiles acutipennis': " + newCluster + ", found in: " + newCluster.getFoundIn());
-			//}
-		});
+		// Merge every name in this cluster into a single set.
+		int root = ABSENT;
+		for(Name n: names) {
+			int nameRoot = makeSet(n);
+			root = (root == ABSENT) ? nameRoot : union(root, nameRoot);
+		}
 		
-		// debugging; leaving in just in case I need it.
-		//if(newCluster.contains(Name.get("Chordeiles", "acutipennis"))) {
-		//	LOGGER.info(" - Cluster for 'Chordeiles acutipennis' result: " + newCluster);
-		//}
+		// Add this cluster's information; where we already have a binomial
+		// name for a dataset, we keep it.
+		ClusterContents cc = contents[root];
+		for(Dataset ds: newCluster.getFoundIn()) {
+			if(cc.addFoundIn(ds))
+				modificationCount++;
+		}
+		newCluster.getBinomialNamesByDataset().forEach(cc.binomialNameByDataset::putIfAbsent);
+		if(newCluster.containsSuperspecificNames())
+			cc.containsSuperspecificNames = true;
+		cc.view = null;
 		
-		// Now index the merged cluster.
-		newCluster.getNames().forEach(n -> clustersByName.put(n, newCluster));
-		clusters.add(newCluster);
+		LOGGER.finest("Added cluster " + newCluster + ", now " + clusterCount + " clusters.");
 	}
 	
 	/**
@@ -178,4 +599,3 @@ public class NameClusterManager {
 	public NameClusterManager() {
 	}
 }
-
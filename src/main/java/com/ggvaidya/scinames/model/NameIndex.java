@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An index from each name to the datasets, rows and changes in a project that refer 
+ * to it. Project keeps one of these up to date: whenever a dataset's names or changes
+ * change, it tells us, and we re-index only that dataset the next time we're asked
+ * for anything.
+ * 
+ * Within each dataset, we only work out which changes refer to which names the first
+ * time that dataset's changes are asked for. Changes accepted by the project's change
+ * filter are indexed separately, and re-indexed whenever the filter changes.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NameIndex {
+	public static final Logger LOGGER = Logger.getLogger(NameIndex.class.getSimpleName());
+	
+	private final Project project;
+	
+	// Datasets that might refer to each name. This includes datasets that only refer
+	// to a name by one of its trinomials, so always check the dataset's entry as well.
+	private final Map<Name, Set<Dataset>> datasetsByName = new HashMap<>();
+	private final Map<Dataset, Entry> entries = new HashMap<>();
+	
+	// Datasets that have changed since they were last indexed.
+	private final Set<Dataset> datasetsChanged = new LinkedHashSet<>();
+	
+	public NameIndex(Project p) {
+		project = p;
+	}
+	
+	/**
+	 * Note that the names or changes in a dataset may have changed, or that it has
+	 * been added to or removed from the project. It will be re-indexed the next time
+	 * the index is used.
+	 * 
+	 * @param ds The dataset that changed.
+	 */
+	public synchronized void datasetChanged(Dataset ds) {
+		datasetsChanged.add(ds);
+	}
+	
+	/* Querying the index */
+	
+	/**
+	 * @return Every name referred to by a row or a change in this project.
+	 */
+	public synchronized Set<Name> getNames() {
+		update();
+		return entries.values().stream().flatMap(e -> e.names.stream()).collect(Collectors.toSet());
+	}
+	
+	/**
+	 * @param n The name to look up.
+	 * @return The datasets whose rows or changes refer to this name, in project order.
+	 */
+	public synchronized List<Dataset> getDatasets(Name n) {
+		update();
+		return getCandidateDatasets(n).stream().filter(ds -> entries.get(ds).names.contains(n)).collect(Collectors.toList());
+	}
+	
+	/**
+	 * @param n The name to look up.
+	 * @return The rows in this project containing this name, with the datasets they are found in.
+	 */
+	public synchronized Map<DatasetRow, Set<Dataset>> getRows(Name n) {
+		update();
+		
+		Map<DatasetRow, Set<Dataset>> results = new HashMap<>();
+		for(Dataset ds: getCandidateDatasets(n)) {
+			if(!entries.get(ds).rowNames.contains(n))
+				continue;
+			
+			for(DatasetRow row: ds.getRowsByName(n)) {
+				if(!results.containsKey(row))
+					results.put(row, new HashSet<>());
+				
+				results.get(row).add(ds);
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * @param n The name to look up.
+	 * @return Every change in this project that refers to this name, whether or not
+	 * 	the project's change filter accepts it.
+	 */
+	public synchronized List<Change> getAllChanges(Name n) {
+		update();
+		return getCandidateDatasets(n).stream()
+			.flatMap(ds -> entries.get(ds).getAllChanges(ds).select(Collections.singleton(n)).stream())
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * @param n The name to look up.
+	 * @return The changes accepted by the project's change filter that refer to this name.
+	 */
+	public synchronized List<Change> getChanges(Name n) {
+		return getChanges(Collections.singleton(n));
+	}
+	
+	/**
+	 * @param names The names to look up.
+	 * @return The changes accepted by the project's change filter that refer to any of
+	 * 	these names, in project order.
+	 */
+	public synchronized List<Change> getChanges(Collection<Name> names) {
+		update();
+		
+		Set<Dataset> candidates = names.stream()
+			.flatMap(n -> datasetsByName.getOrDefault(n, Collections.emptySet()).stream())
+			.collect(Collectors.toSet());
+		
+		return inProjectOrder(candidates).stream()
+			.flatMap(ds -> entries.get(ds).getAcceptedChanges(ds).select(names).stream())
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * @param ds The dataset to look in.
+	 * @param names The names to look up.
+	 * @return The changes in this dataset accepted by the project's change filter that 
+	 * 	refer to any of these names.
+	 */
+	public synchronized List<Change> getChanges(Dataset ds, Collection<Name> names) {
+		update();
+		
+		Entry entry = entries.get(ds);
+		if(entry == null)
+			return Collections.emptyList();
+		
+		return entry.getAcceptedChanges(ds).select(names);
+	}
+	
+	/**
+	 * Roll up the changes for a name cluster. Just like NameCluster.contains(Name), 
+	 * this includes changes to trinomials whose binomial name is in the cluster.
+	 * 
+	 * @param ds The dataset to look in.
+	 * @param cluster The name cluster to look up.
+	 * @return The changes in this dataset accepted by the project's change filter that 
+	 * 	refer to any name in this cluster.
+	 */
+	public synchronized List<Change> getChanges(Dataset ds, NameCluster cluster) {
+		update();
+		
+		Entry entry = entries.get(ds);
+		if(entry == null)
+			return Collections.emptyList();
+		
+		return entry.getAcceptedChanges(ds).select(entry.getNamesIn(cluster, entry.names));
+	}
+	
+	/**
+	 * @param ds The dataset to look in.
+	 * @param cluster The name cluster to look up.
+	 * @return The names referenced by this dataset (see Dataset.getReferencedNames()) 
+	 * 	that are in this cluster.
+	 */
+	public synchronized Set<Name> getNames(Dataset ds, NameCluster cluster) {
+		update();
+		
+		Entry entry = entries.get(ds);
+		if(entry == null)
+			return Collections.emptySet();
+		
+		return entry.getNamesIn(cluster, entry.referencedNames);
+	}
+	
+	/* Maintaining the index */
+	
+	private List<Dataset> getCandidateDatasets(Name n) {
+		return inProjectOrder(datasetsByName.getOrDefault(n, Collections.emptySet()));
+	}
+	
+	private List<Dataset> inProjectOrder(Set<Dataset> datasets) {
+		if(datasets.isEmpty())
+			return Collections.emptyList();
+		
+		return project.getDatasets().stream().filter(ds -> datasets.contains(ds)).collect(Collectors.toList());
+	}
+	
+	private void update() {
+		if(datasetsChanged.isEmpty())
+			return;
+		
+		// Indexing a dataset might modify it again, so work from a copy.
+		List<Dataset> changed = new ArrayList<>(datasetsChanged);
+		datasetsChanged.clear();
+		
+		for(Dataset ds: changed) {
+			Entry old = entries.remove(ds);
+			if(old != null) {
+				for(Name n: old.keys) {
+					Set<Dataset> datasets = datasetsByName.get(n);
+					datasets.remove(ds);
+					if(datasets.isEmpty())
+						datasetsByName.remove(n);
+				}
+			}
+			
+			if(!project.getDatasets().contains(ds))
+				continue;
+			
+			Entry entry = new Entry(ds);
+			entries.put(ds, entry);
+			for(Name n: entry.keys)
+				datasetsByName.computeIfAbsent(n, k -> new HashSet<>()).add(ds);
+		}
+		
+		LOGGER.fine("Re-indexed " + changed.size() + " datasets; " + datasetsByName.size() + " names now indexed.");
+	}
+	
+	/**
+	 * What we know about the names in a single dataset.
+	 */
+	private final class Entry {
+		private final Set<Name> rowNames;
+		private final Set<Name> referencedNames = new HashSet<>();	// Names in rows or explicit changes.
+		private final Set<Name> names = new HashSet<>();			// Names in rows or any changes.
+		private final Set<Name> keys = new HashSet<>();		// Those names and their binomials.
+		private final Map<Name, Set<Name>> trinomialsByBinomial = new HashMap<>();
+		
+		private ChangesByName allChanges = null;
+		private ChangesByName acceptedChanges = null;
+		private long filterVersion;
+		private long changesVersion;
+		
+		public Entry(Dataset ds) {
+			rowNames = new HashSet<>(ds.getNamesInAllRows());
+			
+			referencedNames.addAll(rowNames);
+			ds.explicitChangesProperty().forEach(ch -> referencedNames.addAll(ch.getAllNames()));
+			
+			names.addAll(referencedNames);
+			ds.getImplicitlyChangedNames().forEach(n -> names.add(n));
+			
+			keys.addAll(names);
+			for(Name n: names) {
+				if(!n.hasSubspecificEpithet())
+					continue;
+				
+				n.asBinomial().forEach(binomial -> {
+					keys.add(binomial);
+					trinomialsByBinomial.computeIfAbsent(binomial, k -> new HashSet<>()).add(n);
+				});
+			}
+		}
+		
+		/**
+		 * @return The names in this set that are in this cluster, including trinomials 
+		 * 	whose binomial name is in this cluster.
+		 */
+		public Set<Name> getNamesIn(NameCluster cluster, Set<Name> from) {
+			Set<Name> results = new HashSet<>();
+			for(Name n: cluster.getNames()) {
+				if(from.contains(n))
+					results.add(n);
+				
+				for(Name trinomial: trinomialsByBinomial.getOrDefault(n, Collections.emptySet())) {
+					if(from.contains(trinomial))
+						results.add(trinomial);
+				}
+			}
+			return results;
+		}
+		
+		public ChangesByName getAllChanges(Dataset ds) {
+			if(allChanges == null)
+				allChanges = new ChangesByName(ds.getAllChangesAsList());
+			return allChanges;
+		}
+		
+		public ChangesByName getAcceptedChanges(Dataset ds) {
+			// Read the versions before filtering, so if anything changes while we're
+			// filtering, we'll index these changes again next time.
+			long currentFilterVersion = project.getChangeFilterDependency().getVersion();
+			long currentChangesVersion = ds.getChangesDependency().getVersion();
+			
+			if(acceptedChanges == null || filterVersion != currentFilterVersion || changesVersion != currentChangesVersion) {
+				acceptedChanges = new ChangesByName(ds.getFilteredChanges(project));
+				filterVersion = currentFilterVersion;
+				changesVersion = currentChangesVersion;
+			}
+			return acceptedChanges;
+		}
+	}
+	
+	/**
+	 * A list of changes, with the positions of the changes referring to each name.
+	 */
+	private static final class ChangesByName {
+		private final List<Change> changes;
+		private final Map<Name, BitSet> positions = new HashMap<>();
+		
+		public ChangesByName(List<Change> changes) {
+			this.changes = new ArrayList<>(changes);
+			
+			for(int x = 0; x < this.changes.size(); x++) {
+				final int position = x;
+				Change ch = this.changes.get(x);
+				Stream.concat(ch.getFromStream(), ch.getToStream()).forEach(n -> 
+					positions.computeIfAbsent(n, k -> new BitSet()).set(position)
+				);
+			}
+		}
+		
+		/**
+		 * @return The changes referring to any of these names, in the order they're in.
+		 */
+		public List<Change> select(Collection<Name> names) {
+			BitSet selected = new BitSet(changes.size());
+			for(Name n: names) {
+				BitSet bits = positions.get(n);
+				if(bits != null)
+					selected.or(bits);
+			}
+			
+			return selected.stream().mapToObj(x -> changes.get(x)).collect(Collectors.toList());
+		}
+	}
+}
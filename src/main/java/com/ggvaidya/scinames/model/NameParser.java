@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A single-pass parser for full scientific names, used by Name.getFromFullName().
+ * 
+ * This replaces a regular expression-based parser, which compiled a new Pattern and
+ * split the input into several intermediate strings on every call. We scan the input
+ * once, recording where each whitespace-separated component starts and ends, and only
+ * create strings for the components we pass on to Name.get().
+ * 
+ * Since the same names are repeated across many rows and datasets, we also memoize
+ * the result of parsing each input string. The memo is cleared whenever the NamePool
+ * reclaims names, and whenever it grows larger than MAX_MEMO_SIZE.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NameParser {
+	/** The maximum number of input strings we memoize before starting over. */
+	public static final int MAX_MEMO_SIZE = 1 << 18;
+	
+	private static final ConcurrentMap<String, Optional<Name>> memo = new ConcurrentHashMap<>();
+	
+	/**
+	 * Parse a full name, using a previously memoized result if possible.
+	 * 
+	 * @param name Name to parse
+	 * @return Name object resulting from the parse, or Optional.empty() if it couldn't be parsed.
+	 */
+	public static Optional<Name> getFromFullName(String name) {
+		if(name == null || name.isEmpty()) return Optional.empty();
+		
+		Optional<Name> result = memo.get(name);
+		if(result != null) return result;
+		
+		result = parse(name);
+		if(memo.size() >= MAX_MEMO_SIZE)
+			memo.clear();
+		memo.put(name, result);
+		
+		return result;
+	}
+	
+	/**
+	 * Forget all memoized parses. This needs to be called whenever names are
+	 * removed from the NamePool.
+	 */
+	public static void clearMemo() {
+		memo.clear();
+	}
+	
+	/**
+	 * Parse a full name without consulting the memo.
+	 * 
+	 * The rules are:
+	 * 	1.	Whitespace around the name is ignored.
+	 * 	2.	If the entire name is surrounded by matching single or double quotes,
+	 * 		they are ignored, along with any whitespace just inside them.
+	 * 	3.	The name is split into components at whitespace. The first component
+	 * 		(the genus) must consist only of letters, underscores and periods.
+	 * 	4.	The first two components are used as the genus and specific epithet,
+	 * 		and any other components are treated as infraspecific epithets. Name.get()
+	 * 		decides what to do with them from there.
+	 * 
+	 * @param name Name to parse
+	 * @return Name object resulting from the parse, or Optional.empty() if it couldn't be parsed.
+	 */
+	public static Optional<Name> parse(String name) {
+		if(name == null || name.isEmpty()) return Optional.empty();
+		
+		// Trim, exactly as String.trim() would.
+		int start = 0;
+		int end = name.length();
+		while(start < end && name.charAt(start) <= ' ') start++;
+		while(end > start && name.charAt(end - 1) <= ' ') end--;
+		
+		// If there are quotes around the whole thing, we can ignore them.
+		if(end - start >= 2) {
+			char quote = name.charAt(start);
+			if((quote == '\'' || quote == '"') && name.charAt(end - 1) == quote) {
+				int innerStart = start + 1;
+				int innerEnd = end - 1;
+				
+				while(innerStart < innerEnd && isWhitespace(name.charAt(innerStart))) innerStart++;
+				
+				// The quoted content can't span lines, except for whitespace
+				// just before the closing quote.
+				int lineEnd = innerStart;
+				while(lineEnd < innerEnd && !isLineTerminator(name.charAt(lineEnd))) lineEnd++;
+				
+				int trailing = lineEnd;
+				while(trailing < innerEnd && isWhitespace(name.charAt(trailing))) trailing++;
+				
+				if(trailing == innerEnd) {
+					start = innerStart;
+					end = lineEnd;
+				}
+			}
+		}
+		
+		// Find the first two components; everything after that is passed on
+		// as infraspecific epithets.
+		int genusEnd = scanComponent(name, start, end);
+		if(genusEnd == start || !isGenus(name, start, genusEnd)) return Optional.empty();
+		String genus = name.substring(start, genusEnd);
+		
+		int epithetStart = skipWhitespace(name, genusEnd, end);
+		if(epithetStart == end)
+			return Optional.of(Name.getFromGenus(genus));
+		
+		int epithetEnd = scanComponent(name, epithetStart, end);
+		String specificEpithet = name.substring(epithetStart, epithetEnd);
+		
+		int restStart = skipWhitespace(name, epithetEnd, end);
+		if(restStart == end)
+			return Optional.of(Name.get(genus, specificEpithet));
+		
+		return Optional.of(Name.get(genus, specificEpithet, joinComponents(name, restStart, end)));
+	}
+	
+	/**
+	 * Join the components in a region of a string with single spaces. In the common case
+	 * where they are already separated by single spaces, this is just a substring.
+	 */
+	private static String joinComponents(String str, int start, int end) {
+		// Ignore trailing whitespace.
+		while(end > start && isWhitespace(str.charAt(end - 1))) end--;
+		
+		boolean normalized = true;
+		for(int x = start; x < end; x++) {
+			char ch = str.charAt(x);
+			if(isWhitespace(ch) && (ch != ' ' || isWhitespace(str.charAt(x + 1)))) {
+				normalized = false;
+				break;
+			}
+		}
+		
+		if(normalized)
+			return str.substring(start, end);
+		
+		StringBuilder builder = new StringBuilder(end - start);
+		int x = start;
+		while(x < end) {
+			int componentEnd = scanComponent(str, x, end);
+			if(builder.length() > 0) builder.append(Name.SEPARATOR);
+			builder.append(str, x, componentEnd);
+			x = skipWhitespace(str, componentEnd, end);
+		}
+		return builder.toString();
+	}
+	
+	/* Character classes */
+	
+	/** Whitespace, as matched by '\s' in a regular expression. */
+	static boolean isWhitespace(char ch) {
+		return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+	}
+	
+	/** Line terminators, as excluded by '.' in a regular expression. */
+	private static boolean isLineTerminator(char ch) {
+		return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029';
+	}
+	
+	/** @return The index of the first whitespace character at or after start. */
+	private static int scanComponent(String str, int start, int end) {
+		int x = start;
+		while(x < end && !isWhitespace(str.charAt(x))) x++;
+		return x;
+	}
+	
+	/** @return The index of the first non-whitespace character at or after start. */
+	private static int skipWhitespace(String str, int start, int end) {
+		int x = start;
+		while(x < end && isWhitespace(str.charAt(x))) x++;
+		return x;
+	}
+	
+	/** A genus may only contain letters, underscores and periods. */
+	private static boolean isGenus(String str, int start, int end) {
+		int x = start;
+		while(x < end) {
+			int cp = str.codePointAt(x);
+			if(!Character.isAlphabetic(cp) && cp != '_' && cp != '.')
+				return false;
+			x += Character.charCount(cp);
+		}
+		return true;
+	}
+}
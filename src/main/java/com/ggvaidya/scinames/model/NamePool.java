@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The NamePool interns Names, so that the same full name is always represented by
+ * the same Name object. It replaces the static HashMap that Name used to use for this.
+ * 
+ * Three things make it different from that map:
+ * 	1.	It is thread-safe, so names can be extracted from several rows at once.
+ * 	2.	Every Name in the pool gets a dense integer ID (see Name.getId()), so downstream
+ * 		indices can use arrays and BitSets instead of HashSet<Name>. IDs are reused
+ * 		once the name they were assigned to has been reclaimed.
+ * 	3.	Projects register themselves with the pool, and reclaim() will drop every name
+ * 		that none of the registered projects still use. Projects are held weakly,
+ * 		so a project that has been garbage collected no longer holds on to its names.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NamePool {
+	private static final Logger LOGGER = Logger.getLogger(NamePool.class.getSimpleName());
+	
+	/** ID 0 is reserved for Name.EMPTY, which is never reclaimed. */
+	public static final int EMPTY_ID = 0;
+	
+	/** The pool used by Name.get() and friends. */
+	private static final NamePool DEFAULT = new NamePool();
+	public static NamePool getDefault() { return DEFAULT; }
+	
+	/* Internal variables */
+	private final ConcurrentMap<String, Name> namesByFullName = new ConcurrentHashMap<>();
+	
+	// Guarded by 'this'. Readers only ever see the volatile reference, and the array
+	// is only replaced (never shrunk) while holding the lock.
+	private volatile AtomicReferenceArray<Name> namesById = new AtomicReferenceArray<>(1024);
+	private int nextId = EMPTY_ID + 1;
+	private final Deque<Integer> freeIds = new ArrayDeque<>();
+	
+	// Projects whose names should not be reclaimed.
+	private final Set<Project> projects = Collections.newSetFromMap(new WeakHashMap<>());
+	
+	/**
+	 * Create an empty pool. Everything except tests should use getDefault().
+	 */
+	NamePool() {
+	}
+	
+	/* Accessors */
+	
+	/** @return The number of names currently in this pool. */
+	public int size() { return namesByFullName.size(); }
+	
+	/** 
+	 * @return One more than the largest ID currently handed out. Arrays and BitSets indexed
+	 * 		by name ID need to be at least this large.
+	 */
+	public synchronized int getIdCapacity() { return nextId; }
+	
+	/**
+	 * Look up a name by its ID.
+	 * 
+	 * @param id The ID to look up.
+	 * @return The Name with that ID, or null if there isn't one (or if it has been reclaimed).
+	 */
+	public Name getById(int id) {
+		if(id == EMPTY_ID) return Name.EMPTY;
+		
+		AtomicReferenceArray<Name> array = namesById;
+		if(id < 0 || id >= array.length()) return null;
+		return array.get(id);
+	}
+	
+	/**
+	 * Look up a name by its full name, without creating it.
+	 * 
+	 * @param fullName The full name to look up, as produced by Name.getFullName().
+	 * @return The interned Name, or null if no such name is in the pool.
+	 */
+	public Name getByFullName(String fullName) {
+		return namesByFullName.get(fullName);
+	}
+	
+	/**
+	 * Return the ID of a name, adding it back into the pool if it had been reclaimed.
+	 * Use this rather than Name.getId() when indexing by name ID.
+	 * 
+	 * @param n The name to look up.
+	 * @return The ID of this name (or of the pooled name with the same full name).
+	 */
+	public int idOf(Name n) {
+		int id = n.getId();
+		if(id != Name.NO_ID) return id;
+		
+		return intern(n).getId();
+	}
+	
+	/**
+	 * Intern a name. If a name with the same full name is already in the pool, that name is
+	 * returned and the candidate is discarded; otherwise the candidate is assigned an ID and
+	 * added to the pool.
+	 * 
+	 * @param candidate A newly constructed Name.
+	 * @return The singleton Name with the candidate's full name.
+	 */
+	Name intern(Name candidate) {
+		String fullName = candidate.getFullName();
+		
+		// Most names we see have already been interned, so try a lock-free lookup first.
+		Name existing = namesByFullName.get(fullName);
+		if(existing != null) return existing;
+		
+		return namesByFullName.computeIfAbsent(fullName, k -> {
+			candidate.setId(allocateId(candidate));
+			return candidate;
+		});
+	}
+	
+	private synchronized int allocateId(Name name) {
+		int id;
+		if(!freeIds.isEmpty())
+			id = freeIds.pop();
+		else
+			id = nextId++;
+		
+		AtomicReferenceArray<Name> array = namesById;
+		if(id >= array.length()) {
+			AtomicReferenceArray<Name> larger = new AtomicReferenceArray<>(Math.max(id + 1, array.length() * 2));
+			for(int x = 0; x < array.length(); x++) {
+				larger.set(x, array.get(x));
+			}
+			namesById = array = larger;
+		}
+		
+		array.set(id, name);
+		return id;
+	}
+	
+	private synchronized void releaseId(Name name) {
+		int id = name.getId();
+		if(id <= EMPTY_ID) return;
+		
+		namesById.compareAndSet(id, name, null);
+		name.setId(Name.NO_ID);
+		freeIds.push(id);
+	}
+	
+	/* Project registration */
+	
+	/**
+	 * Register a project with this pool: names used by this project will not be reclaimed
+	 * until it is unregistered (or garbage collected).
+	 */
+	public void register(Project p) {
+		synchronized(projects) {
+			projects.add(p);
+		}
+	}
+	
+	/**
+	 * Unregister a project with this pool: its names may be reclaimed the next time
+	 * reclaim() is called.
+	 */
+	public void unregister(Project p) {
+		synchronized(projects) {
+			projects.remove(p);
+		}
+	}
+	
+	/**
+	 * Reclaim every name that isn't used by a registered project. A name is used by a
+	 * project if it is referenced by any of its datasets (in rows or in explicit changes);
+	 * we also keep the binomial and genus forms of those names, since they are recreated
+	 * constantly. We don't extract names from rows to find out which names they contain 
+	 * (see Dataset.getKnownReferencedNames()), so this can be called from a background 
+	 * thread without paging in every dataset.
+	 * 
+	 * Reclaimed names are given the ID Name.NO_ID, and their IDs will be handed out to new
+	 * names. Names are compared by full name, so a reclaimed name is still equal to its
+	 * replacement; but it shouldn't be used in indices keyed by name ID.
+	 * 
+	 * This should only be called when no project is being loaded, such as after a
+	 * project has been closed. If a project is edited while we read it, nothing is
+	 * reclaimed.
+	 * 
+	 * @return The number of names reclaimed.
+	 */
+	public int reclaim() {
+		List<Project> liveProjects;
+		synchronized(projects) {
+			liveProjects = new ArrayList<>(projects);
+		}
+		
+		Set<Name> inUse = new HashSet<>();
+		try {
+			for(Project p: liveProjects) {
+				for(Dataset ds: p.getDatasets()) {
+					ds.getKnownReferencedNames().forEach(n -> {
+						inUse.add(n);
+						n.asBinomial().forEach(inUse::add);
+						n.asGenus().forEach(inUse::add);
+					});
+				}
+			}
+		} catch(RuntimeException ex) {
+			// A project was edited while we were reading it, so we can't tell which
+			// names are in use. Reclaiming nothing is always safe.
+			LOGGER.log(Level.INFO, "Projects were edited while reclaiming names; no names were reclaimed", ex);
+			return 0;
+		}
+		
+		// Memoized parses may refer to names we're about to reclaim.
+		NameParser.clearMemo();
+		
+		int reclaimed = 0;
+		for(Name n: namesByFullName.values()) {
+			if(inUse.contains(n)) continue;
+			
+			if(namesByFullName.remove(n.getFullName(), n)) {
+				releaseId(n);
+				reclaimed++;
+			}
+		}
+		
+		LOGGER.info("Reclaimed " + reclaimed + " names; " + size() + " names remain in use by " + liveProjects.size() + " projects");
+		return reclaimed;
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of names, stored as a bitset keyed by name ID (see NamePool).
+ * 
+ * The bitset is a persistent tree: leaves hold 2048 bits each, and each internal
+ * node has 32 children. Adding or removing names with withChanges() creates a new
+ * set that copies only the nodes on the path to the changed bits, and shares the
+ * rest with the original set. This lets every dataset in a project hold its own set
+ * of recognized names while only paying for the names that changed since the
+ * previous dataset.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public final class PersistentNameSet extends AbstractSet<Name> {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+	
+	/** Each leaf is WIDTH longs, i.e. 2^11 bits. */
+	private static final int LEAF_BITS = BITS + 6;
+	
+	/** Once we're this deep, every non-negative int fits. */
+	private static final int MAX_SHIFT = 31 - LEAF_BITS;
+	
+	private static final PersistentNameSet EMPTY = new PersistentNameSet(null, 0, 0);
+	
+	/* Internal variables */
+	
+	// Either a long[] leaf (if shift is zero) or an Object[] of children. null if empty.
+	private final Object root;
+	
+	// Number of ID bits handled by internal nodes; the tree holds IDs up to 1 << (LEAF_BITS + shift).
+	private final int shift;
+	private final int size;
+	
+	private PersistentNameSet(Object root, int shift, int size) {
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+	}
+	
+	/**
+	 * @return The empty set of names.
+	 */
+	public static PersistentNameSet empty() {
+		return EMPTY;
+	}
+	
+	/**
+	 * Create a set containing these names.
+	 */
+	public static PersistentNameSet of(Collection<Name> names) {
+		return EMPTY.withChanges(names, Collections.emptySet());
+	}
+	
+	/**
+	 * Create a new set by removing and then adding names to this set. This set is
+	 * not modified.
+	 * 
+	 * @param added Names to add.
+	 * @param removed Names to remove. Names that are also in 'added' will be added.
+	 * @return A set with these changes applied, sharing structure with this one.
+	 */
+	public PersistentNameSet withChanges(Collection<Name> added, Collection<Name> removed) {
+		if(added.isEmpty() && removed.isEmpty())
+			return this;
+		
+		Edit edit = new Edit(this);
+		for(Name n: removed) {
+			edit.set(idOf(n), false);
+		}
+		for(Name n: added) {
+			edit.set(NamePool.getDefault().idOf(n), true);
+		}
+		
+		if(edit.root == root)
+			return this;
+		return new PersistentNameSet(edit.root, edit.shift, edit.size);
+	}
+	
+	/**
+	 * A single set of changes. Nodes created during an edit aren't shared with any
+	 * other set yet, so they can be modified in place.
+	 */
+	private static class Edit {
+		private Object root;
+		private int shift;
+		private int size;
+		private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		public Edit(PersistentNameSet set) {
+			root = set.root;
+			shift = set.shift;
+			size = set.size;
+		}
+		
+		public void set(int id, boolean value) {
+			if(id < 0) return;
+			
+			if((id >>> (LEAF_BITS + shift)) != 0) {
+				// Not in the tree, so nothing to remove.
+				if(!value) return;
+				
+				// Grow the tree until this ID fits.
+				while(shift < MAX_SHIFT && (id >>> (LEAF_BITS + shift)) != 0) {
+					if(root != null) {
+						Object[] newRoot = new Object[WIDTH];
+						newRoot[0] = root;
+						owned.add(newRoot);
+						root = newRoot;
+					}
+					shift += BITS;
+				}
+			}
+			
+			root = set(root, shift, id, value);
+		}
+		
+		private Object set(Object node, int level, int id, boolean value) {
+			if(level == 0) {
+				long[] leaf = (long[]) node;
+				int word = (id >>> 6) & MASK;
+				long bit = 1L << id;
+				
+				boolean present = (leaf != null) && (leaf[word] & bit) != 0;
+				if(present == value) return node;
+				
+				if(leaf == null || !owned.contains(leaf)) {
+					leaf = (leaf == null) ? new long[WIDTH] : leaf.clone();
+					owned.add(leaf);
+				}
+				
+				if(value) {
+					leaf[word] |= bit;
+					size++;
+				} else {
+					leaf[word] &= ~bit;
+					size--;
+				}
+				return leaf;
+			}
+			
+			Object[] children = (Object[]) node;
+			int index = (id >>> (LEAF_BITS + level - BITS)) & MASK;
+			Object child = (children == null) ? null : children[index];
+			
+			Object newChild = set(child, level - BITS, id, value);
+			if(newChild == child) return node;
+			
+			if(children == null || !owned.contains(children)) {
+				children = (children == null) ? new Object[WIDTH] : children.clone();
+				owned.add(children);
+			}
+			children[index] = newChild;
+			return children;
+		}
+	}
+	
+	/* Lookups */
+	
+	/** The ID of a name, or -1 if it isn't in the pool at all. */
+	private static int idOf(Object o) {
+		if(!(o instanceof Name)) return -1;
+		
+		Name n = (Name) o;
+		int id = n.getId();
+		if(id != Name.NO_ID) return id;
+		
+		// A name that has been reclaimed; see if an equivalent name is in the pool.
+		Name pooled = NamePool.getDefault().getByFullName(n.getFullName());
+		return (pooled == null) ? -1 : pooled.getId();
+	}
+	
+	private boolean containsId(int id) {
+		if(id < 0 || (id >>> (LEAF_BITS + shift)) != 0)
+			return false;
+		
+		Object node = root;
+		for(int level = shift; level > 0; level -= BITS) {
+			if(node == null) return false;
+			node = ((Object[]) node)[(id >>> (LEAF_BITS + level - BITS)) & MASK];
+		}
+		if(node == null) return false;
+		
+		return (((long[]) node)[(id >>> 6) & MASK] & (1L << id)) != 0;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		return containsId(idOf(o));
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(o instanceof PersistentNameSet && ((PersistentNameSet) o).root == root)
+			return true;
+		return super.equals(o);
+	}
+	
+	@Override
+	public int hashCode() {
+		return super.hashCode();
+	}
+	
+	/**
+	 * Iterates over names in order of their IDs.
+	 */
+	@Override
+	public Iterator<Name> iterator() {
+		return new Iterator<Name>() {
+			// The path from the root to the current leaf, and our position at each level.
+			private final Object[][] path = new Object[shift / BITS][];
+			private final int[] positions = new int[shift / BITS];
+			private int depth = -1;
+			
+			private long[] leaf = null;
+			private int leafBase = 0;
+			private int word = 0;
+			private long remaining = 0;
+			
+			private Name next = null;
+			
+			{
+				if(root instanceof long[]) {
+					leaf = (long[]) root;
+					remaining = leaf[0];
+				} else if(root != null) {
+					depth = 0;
+					path[0] = (Object[]) root;
+					positions[0] = -1;
+				}
+				advance();
+			}
+			
+			/** Find the next leaf in the tree, or set leaf to null if there isn't one. */
+			private void nextLeaf() {
+				leaf = null;
+				while(depth >= 0) {
+					int pos = ++positions[depth];
+					if(pos >= WIDTH) {
+						depth--;
+						continue;
+					}
+					
+					Object child = path[depth][pos];
+					if(child == null) continue;
+					
+					if(depth == path.length - 1) {
+						leaf = (long[]) child;
+						
+						leafBase = 0;
+						for(int d = 0; d <= depth; d++) {
+							leafBase = (leafBase << BITS) | positions[d];
+						}
+						leafBase <<= LEAF_BITS;
+						
+						word = 0;
+						remaining = leaf[0];
+						return;
+					}
+					
+					depth++;
+					path[depth] = (Object[]) child;
+					positions[depth] = -1;
+				}
+			}
+			
+			private void advance() {
+				next = null;
+				while(next == null) {
+					if(leaf == null) {
+						if(depth < 0) return;
+						nextLeaf();
+						continue;
+					}
+					
+					if(remaining == 0) {
+						if(++word < WIDTH) {
+							remaining = leaf[word];
+						} else if(depth >= 0) {
+							nextLeaf();
+						} else {
+							leaf = null;
+						}
+						continue;
+					}
+					
+					int bit = Long.numberOfTrailingZeros(remaining);
+					remaining &= remaining - 1;
+					
+					// Skip names that have been reclaimed since this set was built.
+					next = NamePool.getDefault().getById(leafBase + (word << 6) + bit);
+				}
+			}
+			
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			@Override
+			public Name next() {
+				if(next == null)
+					throw new NoSuchElementException();
+				
+				Name result = next;
+				advance();
+				return result;
+			}
+		};
+	}
+}
@@ -16,16 +16,22 @@
  */
 package com.ggvaidya.scinames.model;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,7 +41,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.xml.namespace.NamespaceContext;
@@ -46,9 +51,11 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.Location;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLReporter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -63,9 +70,15 @@ import org.w3c.dom.Element;
 
 import com.ggvaidya.scinames.model.filters.ChangeFilter;
 import com.ggvaidya.scinames.model.filters.ChangeFilterFactory;
+import com.ggvaidya.scinames.model.io.BlockGzipInputStream;
+import com.ggvaidya.scinames.model.io.BlockGzipOutputStream;
+import com.ggvaidya.scinames.model.io.ProjectJournal;
+import com.ggvaidya.scinames.model.io.ProjectSnapshot;
 import com.ggvaidya.scinames.model.io.ProjectXMLReader;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractor;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractorFactory;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.Dependency;
 import com.ggvaidya.scinames.util.ModificationTimeProperty;
 
 import javafx.beans.Observable;
@@ -75,6 +88,7 @@ import javafx.beans.property.SimpleListProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
@@ -98,30 +112,213 @@ public class Project {
 	private ObservableMap<String, String> properties = FXCollections.observableHashMap();
 	private ObjectProperty<ChangeFilter> changeFilterProperty = new SimpleObjectProperty<ChangeFilter>(ChangeFilterFactory.getNullChangeFilter());
 	private NameClusterManager nameClusterManager = null;
+	private final NameIndex nameIndex = new NameIndex(this);
 	private ListProperty<Dataset> datasets = new SimpleListProperty<>(FXCollections.observableList(new LinkedList<Dataset>()));
 	private ModificationTimeProperty lastModified = new ModificationTimeProperty();
+	private Map<Dataset, Runnable> datasetListenerRemovers = new HashMap<>();	// Removes the listeners we've added to each dataset.
+	
+	/* Dependencies */
+	
+	// Invalidated whenever a dataset's names or renames change, and again if
+	// updating the name clusters changed which names are clustered together or
+	// when each cluster was first found.
+	private final Dependency nameClustersDependency = new Dependency("name clusters");
+	
+	// Invalidated whenever the change filter is replaced, or it or anything it depends on changes.
+	private final Dependency changeFilterDependency = new Dependency("project change filter");
+	
+	{
+		changeFilterDependency.dependOn(changeFilterProperty.get().getDependency());
+		changeFilterProperty.addListener((a, oldFilter, newFilter) -> {
+			if(oldFilter != null)
+				changeFilterDependency.stopDependingOn(oldFilter.getDependency());
+			if(newFilter != null)
+				changeFilterDependency.dependOn(newFilter.getDependency());
+			changeFilterDependency.invalidate();
+		});
+	}
+	
+	public Dependency getNameClustersDependency() { return nameClustersDependency; }
+	public Dependency getChangeFilterDependency() { return changeFilterDependency; }
 	
 	{	
 		datasets.addListener((ListChangeListener<Dataset>) chl -> {
-			// Rearrange all those prevDataset relationships.
+			while(chl.next()) {
+				// Datasets removed from this project shouldn't be in its name clusters,
+				// and we shouldn't listen to them any longer.
+				for(Dataset ds: chl.getRemoved()) {
+					nameClustersChanged(ds);
+					nameIndex.datasetChanged(ds);
+					
+					if(!datasets.contains(ds)) {
+						Runnable remover = datasetListenerRemovers.remove(ds);
+						if(remover != null)
+							remover.run();
+					}
+				}
+				
+				// Listen to datasets added to this project, but only once.
+				for(Dataset ds: chl.getAddedSubList()) {
+					if(!datasetListenerRemovers.containsKey(ds))
+						datasetListenerRemovers.put(ds, listenToDataset(ds));
+				}
+			}
+			
+			// During a bulk update, we'll do this once at the end.
+			if(isInBulkUpdate()) {
+				datasetsChangedDuringBulkUpdate = true;
+				return;
+			}
+			
+			datasetsChanged();
+		});
+	}
+	
+	/**
+	 * Called whenever datasets are added, removed or rearranged.
+	 */
+	private void datasetsChanged() {
+		// Rearrange those prevDataset relationships that have changed.
+		updateImplicitChanges();
+		
+		// Fire modified.
+		lastModified.modified();
+	}
+	
+	/**
+	 * Listen to a dataset that has been added to this project.
+	 * 
+	 * @return A runnable that stops listening to it.
+	 */
+	private Runnable listenToDataset(Dataset ds) {
+		// If a dataset changes in any way, we should notify ourselves and update
+		// implicit changes for this dataset and those after it. During a bulk update, 
+		// this is done once the bulk update is closed.
+		ChangeListener<Instant> modifiedListener = (a, b, c) -> {
+			modified();
+			
+			if(!isInBulkUpdate())
+				updateImplicitChanges();
+		};
+		
+		// If its names or changes change, its name clusters and its entries in the
+		// name index need to be updated.
+		Runnable referencedNamesListener = () -> {
+			nameClustersChanged(ds);
+			nameIndex.datasetChanged(ds);
+		};
+		
+		// If the names it recognizes change, forget them.
+		Runnable recognizedNamesListener = () -> forgetRecognizedNames(ds);
+		
+		ds.lastModifiedProperty().addListener(modifiedListener);
+		ds.getReferencedNamesDependency().addListener(referencedNamesListener);
+		ds.getRecognizedNamesDependency().addListener(recognizedNamesListener);
+		nameIndex.datasetChanged(ds);
+		
+		return () -> {
+			ds.lastModifiedProperty().removeListener(modifiedListener);
+			ds.getReferencedNamesDependency().removeListener(referencedNamesListener);
+			ds.getRecognizedNamesDependency().removeListener(recognizedNamesListener);
+			
+			// Only stop depending on this project and the previous dataset: the names
+			// the dataset recognizes still depend on its own changes.
+			Dependency recognizedNamesDependency = ds.getRecognizedNamesDependency();
+			recognizedNamesDependency.stopDependingOn(getChangeFilterDependency());
+			ds.getPreviousDataset().ifPresent(prev -> recognizedNamesDependency.stopDependingOn(prev.getRecognizedNamesDependency()));
+			forgetRecognizedNames(ds);
+			nameIndex.datasetChanged(ds);
+		};
+	}
+	
+	private boolean updatingImplicitChanges = false;
+	
+	/**
+	 * Make sure that every dataset knows its previous dataset and that its implicit
+	 * changes are up to date. Implicit changes are only recalculated for datasets that
+	 * have been moved or modified, and for those datasets after them whose previous 
+	 * dataset now recognizes a different set of names. Inserting or editing a dataset
+	 * will therefore usually only recalculate it and the next checklist.
+	 */
+	public void updateImplicitChanges() {
+		// Recalculating implicit changes may modify datasets, which will call us again.
+		if(updatingImplicitChanges)
+			return;
+		
+		updatingImplicitChanges = true;
+		try {
+			int recalculated = 0;
+			boolean prevNamesMayHaveChanged = false;
 			Dataset prevDataset = null;
-			for(Dataset ds: chl.getList()) {
-				ds.setPreviousDataset(Optional.of(this), Optional.ofNullable(prevDataset));
+			for(Dataset ds: datasets) {
+				prevNamesMayHaveChanged = ds.updatePreviousDataset(this, prevDataset, prevNamesMayHaveChanged);
+				if(prevNamesMayHaveChanged)
+					recalculated++;
 				prevDataset = ds;
-				
-				// If a dataset changes, we should:
-				ds.lastModifiedProperty().addListener(obs -> {
-					// 1. Notify ourselves.
-					lastModified.modified();
-					
-					// 2. Blow away the NameClusterManager.
-					resetNameClusterManager();
-				});
 			}
 			
-			// Fire modified.
+			if(recalculated > 0)
+				LOGGER.info("Recalculated implicit changes for " + recalculated + " of " + datasets.size() + " datasets");
+		} finally {
+			updatingImplicitChanges = false;
+		}
+	}
+	
+	/* Bulk updates */
+	
+	// While a bulk update is open, we note what changed instead of rearranging
+	// datasets and firing modification events every time a dataset is added.
+	private int bulkUpdateDepth = 0;
+	private boolean datasetsChangedDuringBulkUpdate = false;
+	private boolean modifiedDuringBulkUpdate = false;
+	
+	/**
+	 * Start a bulk update on this project. This also starts a bulk update on every
+	 * dataset currently in the project. Until the bulk update is closed, adding datasets
+	 * won't recalculate the previous dataset of every dataset, and changes to this
+	 * project or its datasets won't fire modification events. Closing the bulk update
+	 * will close the dataset bulk updates and then do all of this once.
+	 * 
+	 * @return A bulk update to close once you're done.
+	 */
+	public BulkUpdate beginBulkUpdate() {
+		List<BulkUpdate> datasetUpdates = new ArrayList<>();
+		for(Dataset ds: datasets) {
+			datasetUpdates.add(ds.beginBulkUpdate());
+		}
+		bulkUpdateDepth++;
+		
+		return () -> {
+			datasetUpdates.forEach(update -> update.close());
+			endBulkUpdate();
+		};
+	}
+	
+	public boolean isInBulkUpdate() {
+		return bulkUpdateDepth > 0;
+	}
+	
+	private void endBulkUpdate() {
+		bulkUpdateDepth--;
+		if(bulkUpdateDepth > 0)
+			return;
+		
+		boolean datasetsChanged = datasetsChangedDuringBulkUpdate;
+		boolean modified = modifiedDuringBulkUpdate;
+		datasetsChangedDuringBulkUpdate = false;
+		modifiedDuringBulkUpdate = false;
+		
+		// datasetsChanged() also marks us as modified, and datasets modified during
+		// the bulk update need their implicit changes updated.
+		if(datasetsChanged || modified)
+			datasetsChanged();
+	}
+	
+	private void modified() {
+		if(bulkUpdateDepth > 0)
+			modifiedDuringBulkUpdate = true;
+		else
 			lastModified.modified();
-		});
 	}
 	
 	private ObservableMap<Name, List<Dataset>> timepointsByName = FXCollections.observableMap(new HashMap<>());
@@ -130,10 +327,10 @@ public class Project {
 	
 	/* Accessors */
 	public String getName() { return projectName.getValue(); }
-	public void setName(String newProjectName) { projectName.setValue(newProjectName); lastModified.modified(); }	
+	public void setName(String newProjectName) { projectName.setValue(newProjectName); modified(); }	
 	public StringProperty projectNameProperty() { return projectName; }	
 	public File getFile() { return projectFile.getValue(); }	
-	public void setFile(File f) { projectFile.setValue(f); lastModified.modified(); }
+	public void setFile(File f) { projectFile.setValue(f); modified(); }
 	public ObjectProperty<File> projectFileProperty() { return projectFile; }
 	public boolean isModified() { return lastModified.isModified(); }
 	public ListProperty<Dataset> datasetsProperty() { return datasets; }
@@ -143,8 +340,9 @@ public class Project {
 	public ObservableSet<Name> binomialNamesProperty() { return binomialNames; }	
 	public ObservableMap<Name, List<Dataset>> timepointsByNameProperty() { return timepointsByName; }
 	public ObservableMap<String, String> propertiesProperty() { return properties; }
-	public Stream<NameCluster> getSpeciesNameClusters() { return nameClusterManager.getSpeciesClustersAfterFiltering(this); }
+	public Stream<NameCluster> getSpeciesNameClusters() { return getNameClusterManager().getSpeciesClustersAfterFiltering(this); }
 	public ObjectProperty<ChangeFilter> changeFilterProperty() { return changeFilterProperty; }
+	public NameIndex getNameIndex() { return nameIndex; }
 	public ChangeFilter getChangeFilter() { return changeFilterProperty.get(); }
 	
 	public List<Dataset> getChecklists() {
@@ -176,37 +374,59 @@ public class Project {
 	
 	// getRecognizedNames() is one of the most expensive methods we have.
 	// SO: if you call it through Project(), it gets cached for later use.
-	// and telling the project its modified (through lastModified) blows
-	// away the cache.
-	private Map<Dataset, Set<Name>> recognizedNamesCache = new HashMap<>();
-	{
-		lastModified.addListener(chl -> clearRecognizedNamesCache());
-	}
+	// Each dataset's entry is forgotten when its recognized names dependency 
+	// is invalidated, i.e. when its changes, the change filter or the names
+	// recognized by the previous dataset change. Each dataset's set shares 
+	// structure with the previous dataset's set (see PersistentNameSet), so 
+	// the cache only costs as much memory as the changes between datasets.
+	private Map<Dataset, PersistentNameSet> recognizedNamesCache = new HashMap<>();
 	
 	public synchronized void clearRecognizedNamesCache() {
 		LOGGER.info("Clearing recognized names cache");
 		recognizedNamesCache.clear();
 	}
 	
+	private synchronized void forgetRecognizedNames(Dataset ds) {
+		recognizedNamesCache.remove(ds);
+	}
+	
 	/**
 	 * Get all the recognized names at the end of a particular dataset.
 	 * We memoize this with a cache, so this is more efficient than
-	 * calling Dataset.getRecognizedName(Dataset). Given that implicit and
-	 * explicit changes are cached now, though, it might not be *much* more
-	 * efficient.
+	 * calling Dataset.getRecognizedName(Dataset). 
+	 * 
+	 * The set returned is immutable and shared with other callers, so
+	 * please copy it if you need to change it.
 	 * 
 	 * @param d The dataset you want recognized names from.
 	 * @return The set of names recognized at the end of this dataset.
 	 */
-	public synchronized Set<Name> getRecognizedNames(Dataset d) {
+	public Set<Name> getRecognizedNames(Dataset d) {
+		return getRecognizedNameSet(d);
+	}
+	
+	synchronized PersistentNameSet getRecognizedNameSet(Dataset d) {
 		// A null dataset has no recognized names.
-		if(d == null) return new HashSet<>();
+		if(d == null) return PersistentNameSet.empty();
+		
+		PersistentNameSet names = recognizedNamesCache.get(d);
+		if(names != null)
+			return names;
 		
-		if(recognizedNamesCache.containsKey(d))
-			return new HashSet<>(recognizedNamesCache.get(d));
+		// Calculate every uncached dataset from the earliest one onwards, so that
+		// each one only needs to apply its own changes to the previous one's names.
+		Deque<Dataset> toCalculate = new LinkedList<>();
+		for(Dataset ds = d; ds != null && !recognizedNamesCache.containsKey(ds); ds = ds.getPreviousDataset().orElse(null)) {
+			toCalculate.push(ds);
+		}
 		
-		recognizedNamesCache.put(d, d.getRecognizedNames(this).collect(Collectors.toSet()));
-		return new HashSet<>(recognizedNamesCache.get(d));
+		while(!toCalculate.isEmpty()) {
+			Dataset ds = toCalculate.pop();
+			names = ds.getRecognizedNameSet(this);
+			recognizedNamesCache.put(ds, names);
+		}
+		
+		return names;
 	}
 	
 	
@@ -254,24 +474,7 @@ public class Project {
 	 * @return A Map<DatasetRow, Set<Dataset>> indicating rows to be returned.
 	 */
 	public Map<DatasetRow, Set<Dataset>> getRowsForName(Name n) {
-		Map<Dataset, Set<DatasetRow>> timepointsPerRow = getDatasets().stream().collect(Collectors.toMap(
-			tp -> tp,
-			tp -> tp.getRowsByName(n)
-		));
-		
-		final Map<DatasetRow, Set<Dataset>> results = new HashMap<>();
-		for(Dataset tp: timepointsPerRow.keySet()) {
-			Set<DatasetRow> rowsForTP = timepointsPerRow.get(tp);
-			
-			rowsForTP.forEach(r -> {
-				if(!results.containsKey(r))
-					results.put(r, new HashSet<>());
-				
-				results.get(r).add(tp);
-			});
-		}
-		
-		return results;
+		return nameIndex.getRows(n);
 	}
 	
 	/**
@@ -337,20 +540,12 @@ public class Project {
 	 * @param ds Dataset to add.
 	 */
 	public void addDataset(Dataset ds) {
-		Dataset prev = null;
-		
-		// Blow away the name cluster manager.
-		resetNameClusterManager();
-		
-		if(!datasets.isEmpty())
-			prev = datasets.get(datasets.size() - 1);
-		
-		// Add dataset to list of datasets.
+		// Add dataset to list of datasets. This tells the dataset who its previous 
+		// submitter is; during a bulk update, this is done for all datasets when the
+		// bulk update is closed.
 		datasets.add(ds);
-		
-		// Tell dataset who its previous submitter is.
-		ds.setPreviousDataset(Optional.of(this), Optional.ofNullable(prev));
-		lastModified.modified();
+		nameClustersChanged(ds);
+		modified();
 		
 		// Debugging code!
 		//if(ds.getName().startsWith("aou_1_07"))
@@ -384,15 +579,33 @@ public class Project {
 			timepointsByName.get(n).add(ds);
 		});
 		
-		// Finally, changes in the new dataset should change this database.
-		ds.lastModifiedProperty().addListener((a, b, c) -> lastModified.modified());
-		
 		// LOGGER.fine("After adding " + ds + ", name clusters look like this: " + getNameClusterManager().toString());
 	}	
 	
 	/* Name cluster manager! */
+	
+	// Datasets which have changed since the name cluster manager was last updated.
+	private Set<Dataset> datasetsChangedSinceClustering = new LinkedHashSet<>();
+	
+	/**
+	 * Blow away the name cluster manager, so that it will be recalculated from scratch.
+	 */
 	public synchronized void resetNameClusterManager() {
 		nameClusterManager = null;
+		datasetsChangedSinceClustering.clear();
+		nameClustersDependency.invalidate();
+	}
+	
+	/**
+	 * Note that the names or renames in a dataset may have changed. The name cluster
+	 * manager will be updated for only this dataset the next time it is needed.
+	 * 
+	 * @param ds The dataset that changed.
+	 */
+	public synchronized void nameClustersChanged(Dataset ds) {
+		if(nameClusterManager != null)
+			datasetsChangedSinceClustering.add(ds);
+		nameClustersDependency.invalidate();
 	}
 	
 	public synchronized NameClusterManager getNameClusterManager() {
@@ -401,26 +614,41 @@ public class Project {
 
 			// Recreate a name cluster manager based on all the renames in the project.
 			nameClusterManager = new NameClusterManager();
+			datasetsChangedSinceClustering.clear();
+			datasetsChangedSinceClustering.addAll(getDatasets());
+		}
+		
+		if(!datasetsChangedSinceClustering.isEmpty()) {
+			LOGGER.info("Updating name clusters for " + datasetsChangedSinceClustering.size() + " datasets.");
 			
-			for(Dataset ds: getDatasets()) {
-				
-				// Add all referenced names so they'll show up at least once.
-				for(Name n: ds.getReferencedNames().collect(Collectors.toList())) {
-					nameClusterManager.addCluster(new NameCluster(ds, n));
+			// Updating a dataset might modify it again, so work from a copy.
+			List<Dataset> changed = new ArrayList<>(datasetsChangedSinceClustering);
+			datasetsChangedSinceClustering.clear();
+			long modificationCount = nameClusterManager.getModificationCount();
+			
+			for(Dataset ds: changed) {
+				if(!datasets.contains(ds)) {
+					nameClusterManager.removeDataset(ds);
+					continue;
 				}
+				
+				// Add all referenced names so they'll show up at least once. Change
+				// filters may need these clusters, so add them before reading changes.
+				nameClusterManager.updateDatasetNames(ds, ds.getReferencedNames().collect(Collectors.toList()));
 			
 				// Add all renames as synonymies, building up clusters as we go.
-				List<Change> renames = ds.getChanges(this).filter(ch -> ch.getType().equals(ChangeType.RENAME)).collect(Collectors.toList());
-				for(Change ch: renames) {
-					for(Name from: ch.getFrom()) {
-						for(Name to: ch.getTo()) {
-							nameClusterManager.addCluster(new Synonymy(from, to, ch.getDataset()));
-						}
-					}
-				}
+				nameClusterManager.updateDatasetRenames(ds, 
+					ds.getChanges(this).filter(ch -> ch.getType().equals(ChangeType.RENAME)).collect(Collectors.toList())
+				);
 			}
 			
-			LOGGER.info("New name cluster manager calculation completed.");
+			// Anything worked out from the clusters while we were updating them
+			// may be out of date, but only if the clusters actually changed: most
+			// edits don't move any names between clusters.
+			if(nameClusterManager.getModificationCount() != modificationCount)
+				nameClustersDependency.invalidate();
+			
+			LOGGER.info("Name cluster manager calculation completed.");
 		}
 		
 		return nameClusterManager; 
@@ -431,12 +659,43 @@ public class Project {
 	public Project(String projectName, File projectFile) {
 		this.projectName = new SimpleStringProperty(projectName);
 		this.projectFile = new SimpleObjectProperty<>(projectFile);
+		
+		// Make sure our names aren't reclaimed while we're using them.
+		NamePool.getDefault().register(this);
 	}
 	
 	public Project() {
 		this("Unnamed project", null);
 	}
 	
+	/**
+	 * Record the name extractors used in this project as a property, so they can
+	 * be offered for new datasets once the project is reloaded.
+	 */
+	private void updateNameExtractorsProperty() {
+		properties.put(PROP_NAME_EXTRACTORS, 
+			getNameExtractors().stream().map(lne -> 
+				NameExtractorFactory.serializeExtractorsToString(lne)).distinct()
+					.sorted().collect(Collectors.joining("; "))
+		);
+	}
+	
+	/**
+	 * @return The change filters in this project, innermost first, so they'll be 
+	 * 	recreated the right way around when the project is loaded. Null filters
+	 * 	are skipped.
+	 */
+	public Deque<ChangeFilter> getChangeFiltersToSerialize() {
+		Deque<ChangeFilter> changeFilters = new LinkedList<>();
+		ChangeFilter cf = getChangeFilter();
+		while(cf != null) {
+			if(!cf.getShortName().equals("null"))
+				changeFilters.addLast(cf);
+			cf = cf.getPrevChangeFilter();
+		}
+		return changeFilters;
+	}
+	
 	public void serializeToDocument(Document doc) {
 		// Add top-level element.
 		Element project = doc.createElement("project");
@@ -444,11 +703,7 @@ public class Project {
 		doc.appendChild(project);
 		
 		// Set up some properties.
-		properties.put(PROP_NAME_EXTRACTORS, 
-			getNameExtractors().stream().map(lne -> 
-				NameExtractorFactory.serializeExtractorsToString(lne)).distinct()
-					.sorted().collect(Collectors.joining("; "))
-		);
+		updateNameExtractorsProperty();
 		
 		// Write out properties.
 		Element propertiesElement = doc.createElement("properties");
@@ -462,22 +717,7 @@ public class Project {
 		
 		// Add filters.
 		Element filtersElement = doc.createElement("filters");
-		Deque<ChangeFilter> changeFilters = new LinkedList<>();
-		{
-			// We need to read the filters inside-out, so they'll be recreated
-			// the right way around.
-			ChangeFilter cf = getChangeFilter();
-			while(cf != null) {
-				changeFilters.addLast(cf);
-				cf = cf.getPrevChangeFilter();
-			}
-		}
-		changeFilters.forEach(cf -> {
-			// Skip any nulls.
-			if(cf.getShortName().equals("null")) return;
-			
-			filtersElement.appendChild(cf.serializeToElement(doc));
-		});
+		getChangeFiltersToSerialize().forEach(cf -> filtersElement.appendChild(cf.serializeToElement(doc)));
 		
 		project.appendChild(filtersElement);
 		
@@ -490,6 +730,77 @@ public class Project {
 		project.appendChild(timepointsElement);
 	}
 	
+	/**
+	 * Write this project to an XML stream. This produces the same XML as
+	 * serializeToDocument(), but writes every dataset, row and change out as
+	 * it goes instead of building the whole document in memory first.
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @throws XMLStreamException If the project could not be written.
+	 */
+	public void serializeToXMLStream(XMLStreamWriter writer) throws XMLStreamException {
+		serializeToXMLStream(writer, ds -> {});
+	}
+	
+	/**
+	 * Called before each dataset is written to an XML stream.
+	 */
+	@FunctionalInterface
+	public interface DatasetBoundaryListener {
+		public void beforeDataset(Dataset ds) throws XMLStreamException;
+	}
+	
+	/**
+	 * Write this project to an XML stream, letting a listener know before each 
+	 * dataset is written (e.g. to start a new compressed block).
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @param listener Called before each dataset is written.
+	 * @throws XMLStreamException If the project could not be written.
+	 */
+	public void serializeToXMLStream(XMLStreamWriter writer, DatasetBoundaryListener listener) throws XMLStreamException {
+		writer.writeStartElement("project");
+		writer.writeAttribute("name", getName());
+		
+		// Write out properties.
+		updateNameExtractorsProperty();
+		writer.writeStartElement("properties");
+		for(String key: properties.keySet()) {
+			writer.writeStartElement("property");
+			writer.writeAttribute("name", key);
+			writer.writeCharacters(properties.get(key));
+			writer.writeEndElement();
+		}
+		writer.writeEndElement();
+		
+		// Add filters. These are created as DOM elements, so we need a document for them.
+		writer.writeStartElement("filters");
+		Deque<ChangeFilter> changeFilters = getChangeFiltersToSerialize();
+		if(!changeFilters.isEmpty()) {
+			Document doc;
+			try {
+				doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			} catch(ParserConfigurationException ex) {
+				throw new XMLStreamException("Could not create document for change filters: " + ex, ex);
+			}
+			
+			for(ChangeFilter cf: changeFilters) {
+				cf.serializeToXMLStream(writer, doc);
+			}
+		}
+		writer.writeEndElement();
+		
+		// List all timepoints.
+		writer.writeStartElement("datasets");
+		for(Dataset tp: getDatasets()) {
+			listener.beforeDataset(tp);
+			tp.serializeToXMLStream(writer);
+		}
+		writer.writeEndElement();
+		
+		writer.writeEndElement();
+	}
+	
 	/*
 	public static Project serializeFromDocument(Document doc, File file) throws SAXException, IllegalStateException {
 		NodeList projects = doc.getElementsByTagName("project");
@@ -584,9 +895,30 @@ public class Project {
 		return newProject;
 	}*/
 	
+	/**
+	 * Load a project from a file. If there's an up-to-date snapshot of this file
+	 * (see ProjectSnapshot), we load that instead, since it's much faster.
+	 * 
+	 * @param loadFromFile The project file to load.
+	 * @return The project loaded from that file.
+	 * @throws IOException If the project could not be loaded.
+	 */
 	public static Project loadFromFile(File loadFromFile) throws IOException {
 		Project project = null;
 		
+		if(ProjectSnapshot.hasUpToDateSnapshot(loadFromFile)) {
+			try {
+				project = ProjectSnapshot.read(loadFromFile);
+				project.setFile(loadFromFile);
+				project.lastModifiedProperty().saved();
+				project.startJournal(true);
+				
+				return project;
+			} catch(IOException | RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "Could not read snapshot of project '" + loadFromFile + "', loading from XML instead", ex);
+			}
+		}
+		
 		XMLInputFactory factory = XMLInputFactory.newFactory();
 		factory.setXMLReporter(new XMLReporter() {
 			@Override
@@ -600,8 +932,9 @@ public class Project {
 			}
 		});
 		
-		try {
-			XMLEventReader reader = factory.createXMLEventReader(new XmlStreamReader(new GZIPInputStream(new FileInputStream(loadFromFile))));
+		// Project files may be block-gzipped, which lets us inflate them in parallel.
+		try (InputStream input = BlockGzipInputStream.open(loadFromFile)) {
+			XMLEventReader reader = factory.createXMLEventReader(new XmlStreamReader(input));
 			
 			project = ProjectXMLReader.read(reader);
 			project.setFile(loadFromFile);
@@ -609,6 +942,8 @@ public class Project {
 			
 			reader.close();
 			
+			project.startJournal(true);
+			
 		} catch (XMLStreamException ex) {
 			throw new IOException("Could not read project from XML file '" + loadFromFile + "': " + ex, ex);
 		}
@@ -649,32 +984,165 @@ public class Project {
 		*/
 	}
 	
+	/**
+	 * Save this project to its project file as gzipped XML. We stream the project 
+	 * out with an XMLStreamWriter; if that fails for any reason, we fall back to 
+	 * building a DOM document and writing that out instead.
+	 * 
+	 * @throws IOException If the project could not be saved.
+	 */
 	public void saveToFile() throws IOException {
 		File saveToFile = projectFile.getValue();
 		
 		if(saveToFile == null)
 			throw new IOException("Project file not set: nowhere to save to!");
 		
-		/*
-		XMLOutputFactory factory = XMLOutputFactory.newFactory();
+		try {
+			saveToFileUsingXMLStream(saveToFile);
+		} catch(XMLStreamException | RuntimeException ex) {
+			LOGGER.log(Level.WARNING, "Could not stream project to '" + saveToFile + "', falling back to DOM", ex);
+			saveToFileUsingDOM(saveToFile);
+		}
 		
+		// Rebuild the snapshot for quicker loading. If this fails, the XML file 
+		// is still fine, so just log it.
 		try {
-			XMLStreamWriter writer = factory.createXMLStreamWriter(new FileWriter(saveToFile));
-			
-			writer.writeStartDocument();
-			
-			serializeToXMLStream(writer);
+			ProjectSnapshot.write(this, saveToFile);
+		} catch(IOException | RuntimeException ex) {
+			LOGGER.log(Level.WARNING, "Could not write snapshot of project '" + saveToFile + "'", ex);
+		}
+		
+		// Success! The journal's edits are all in the project file now.
+		lastModified.saved();
+		startJournal(false);
+	}
+	
+	/* Journaling */
+	
+	/** Journals longer than this are compacted into the project file by autosave(). */
+	public static final long MAX_JOURNAL_LENGTH = 4 * 1024 * 1024;
+	
+	// Read by writeJournal(), which may be called from a background thread.
+	private volatile ProjectJournal journal = null;
+	
+	/**
+	 * @return The journal recording edits to this project since it was last saved, 
+	 * 	if this project has been loaded from or saved to a file.
+	 */
+	public Optional<ProjectJournal> getJournal() { return Optional.ofNullable(journal); }
+	
+	/**
+	 * Start journaling edits to this project, which has just been loaded from or
+	 * saved to its project file.
+	 * 
+	 * @param replay If true, replay the edits in an existing journal first; otherwise,
+	 * 	discard it.
+	 */
+	private void startJournal(boolean replay) {
+		File file = projectFile.getValue();
+		if(journal != null && !journal.getFile().equals(ProjectJournal.getJournalFile(file))) {
+			journal.detach();
+			journal = null;
+		}
+		
+		if(journal == null)
+			journal = new ProjectJournal(this, file);
+		
+		if(!replay) {
+			journal.discard();
+		} else {
+			try {
+				// Replayed edits haven't been saved to the project file yet.
+				if(journal.replay() > 0)
+					lastModified.modified();
+			} catch(IOException ex) {
+				LOGGER.log(Level.WARNING, "Could not replay journal for project '" + file + "'", ex);
+			}
+		}
+		journal.attach();
+	}
+	
+	/**
+	 * Save the edits made to this project since it was last saved. If we can, we 
+	 * append them to this project's journal, which is much quicker than saving 
+	 * the whole project; otherwise (or once the journal gets too long) we save 
+	 * the whole project to its file.
+	 * 
+	 * This is prepareAutosave() followed by writeJournal(), so it must be called on
+	 * the thread that edits this project.
+	 * 
+	 * @throws IOException If the project could not be saved.
+	 */
+	public void autosave() throws IOException {
+		if(prepareAutosave())
+			writeJournal();
+	}
+	
+	/**
+	 * Work out what autosave() needs to save. If the edits made to this project can
+	 * be journaled, they are recorded in memory, ready to be written out by 
+	 * writeJournal(); otherwise, the whole project is saved to its file right away.
+	 * This reads the whole project, so it must be called on the thread that edits 
+	 * it (usually the JavaFX application thread).
+	 * 
+	 * @return True if edits were recorded and need to be written out with 
+	 * 	writeJournal(); false if the project was saved in full.
+	 * @throws IOException If the project could not be saved.
+	 */
+	public boolean prepareAutosave() throws IOException {
+		if(projectFile.getValue() == null)
+			throw new IOException("Project file not set: nowhere to save to!");
+		
+		if(journal == null || journal.getLength() > MAX_JOURNAL_LENGTH || !journal.prepareFlush()) {
+			saveToFile();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Write the edits recorded by prepareAutosave() to this project's journal. This
+	 * doesn't read the project, so it can be called from a background thread.
+	 * 
+	 * @throws IOException If the journal could not be written.
+	 */
+	public void writeJournal() throws IOException {
+		ProjectJournal j = journal;
+		if(j != null)
+			j.writePrepared();
+	}
+	
+	private void saveToFileUsingXMLStream(File saveToFile) throws IOException, XMLStreamException {
+		XMLOutputFactory factory = XMLOutputFactory.newFactory();
+		
+		// Write the project as a block-gzipped file, with every dataset starting
+		// a new block, so it can be compressed and inflated in parallel.
+		BlockGzipOutputStream blocks = new BlockGzipOutputStream(new FileOutputStream(saveToFile));
+		try (Writer output = new BufferedWriter(new OutputStreamWriter(blocks, StandardCharsets.UTF_8))) {
+			XMLStreamWriter writer = factory.createXMLStreamWriter(output);
 			
+			writer.writeStartDocument("UTF-8", "1.0"); // Do NOT change to 1.1 -- this leads to complex problems!
+			serializeToXMLStream(writer, ds -> {
+				// Writing some whitespace makes sure the previous tag has been closed.
+				writer.writeCharacters("\n");
+				writer.flush();
+				
+				try {
+					output.flush();
+					blocks.markEntry();
+				} catch(IOException ex) {
+					throw new XMLStreamException("Could not start a new block for " + ds + ": " + ex, ex);
+				}
+			});
 			writer.writeEndDocument();
-			writer.flush();
-			
-			// Success!
-			lastModified.saved();
 			
-		} catch (XMLStreamException ex) {
-			throw new IOException("Could not write project to XML file '" + saveToFile + "': " + ex);
-		}*/
-		
+			writer.flush();
+			writer.close();
+		}
+	}
+	
+	private void saveToFileUsingDOM(File saveToFile) throws IOException {
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		
 		// Create a document representation of this project.
@@ -685,15 +1153,13 @@ public class Project {
 			serializeToDocument(docProject);
 			
 		} catch (ParserConfigurationException ex) {
-			Logger.getLogger(Project.class.getName()).log(Level.SEVERE, null, ex);
-			return;
+			throw new IOException("Could not create XML document for '" + saveToFile + "': " + ex);
 		}
 		
 		// Write the document representation of this project
 		// as XML.
 		TransformerFactory tfc = TransformerFactory.newInstance();
-		try {
-			OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(saveToFile));
+		try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(saveToFile))) {
 			StreamResult res = new StreamResult(outputStream);
 			
 			Transformer t = tfc.newTransformer();
@@ -706,10 +1172,6 @@ public class Project {
 			t.setOutputProperty(OutputKeys.INDENT, "yes");
 			t.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
 			t.transform(ds, res);
-			
-			// Success!
-			lastModified.saved();
-			outputStream.close();
 		} catch (TransformerConfigurationException ex) {
 			throw new IOException("Could not write out XML to '" + saveToFile + "': " + ex);
 		} catch (TransformerException ex) {
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.NotificationEmitter;
+
+import javafx.application.Platform;
+
+/**
+ * Pages out the rows of datasets that haven't been used recently when memory runs
+ * low. Datasets register themselves here whenever they page their rows in; we 
+ * watch the heap with a collection usage threshold, and when the heap is still 
+ * more than MEMORY_PRESSURE_THRESHOLD full after a garbage collection, we page out
+ * every dataset whose rows haven't been used in the last STALE_AFTER_MS 
+ * milliseconds, least recently used first.
+ * 
+ * Memory notifications arrive on a JMX thread, but our rows lists are observed 
+ * by the user interface, so we page out rows on the JavaFX application thread 
+ * (or right away, if JavaFX isn't running).
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class RowPager {
+	private static final Logger LOGGER = Logger.getLogger(RowPager.class.getSimpleName());
+	
+	/** We start paging out rows when the heap is this full after a garbage collection. */
+	public static final double MEMORY_PRESSURE_THRESHOLD = 0.75;
+	
+	/** Rows that have been used within this many milliseconds are never paged out. */
+	public static final long STALE_AFTER_MS = 60 * 1000;
+	
+	// Datasets with rows paged in. We don't want to keep them alive ourselves.
+	private static final Set<Dataset> datasetsWithRows = Collections.newSetFromMap(new WeakHashMap<>());
+	private static boolean watchingMemory = false;
+	
+	/**
+	 * Called by a dataset once it has paged its rows in.
+	 * 
+	 * @param ds The dataset whose rows were paged in.
+	 */
+	static synchronized void rowsLoaded(Dataset ds) {
+		datasetsWithRows.add(ds);
+		
+		if(!watchingMemory) {
+			watchingMemory = true;
+			watchMemory();
+		}
+	}
+	
+	/**
+	 * Page out the rows of every dataset that hasn't used them recently. This clears
+	 * their rows lists, so it should be called on the JavaFX application thread if
+	 * JavaFX is running.
+	 * 
+	 * @param staleAfterMs Only page out rows that haven't been used in this many milliseconds.
+	 * @return The number of datasets whose rows were paged out.
+	 */
+	public static int pageOutStaleRows(long staleAfterMs) {
+		List<Dataset> datasets;
+		synchronized(RowPager.class) {
+			datasets = new ArrayList<>(datasetsWithRows);
+		}
+		
+		// Least recently used first.
+		datasets.sort(Comparator.comparingLong(Dataset::getRowsLastUsed));
+		
+		long now = System.currentTimeMillis();
+		int pagedOut = 0;
+		for(Dataset ds: datasets) {
+			if(now - ds.getRowsLastUsed() < staleAfterMs)
+				break;
+			
+			if(ds.pageOutRows()) {
+				pagedOut++;
+				synchronized(RowPager.class) {
+					datasetsWithRows.remove(ds);
+				}
+			}
+		}
+		
+		LOGGER.log(Level.INFO, "Paged out rows from {0} of {1} datasets", new Object[] { pagedOut, datasets.size() });
+		return pagedOut;
+	}
+	
+	private static void watchMemory() {
+		boolean thresholdSet = false;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported())
+				continue;
+			
+			long max = pool.getUsage().getMax();
+			if(max <= 0)
+				continue;
+			
+			pool.setCollectionUsageThreshold((long)(max * MEMORY_PRESSURE_THRESHOLD));
+			thresholdSet = true;
+		}
+		
+		if(!thresholdSet) {
+			LOGGER.warning("Could not watch memory usage: rows will not be paged out when memory runs low");
+			return;
+		}
+		
+		NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+		emitter.addNotificationListener((notification, handback) -> {
+			if(notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED))
+				runOnFXThread(() -> pageOutStaleRows(STALE_AFTER_MS));
+		}, null, null);
+	}
+	
+	private static void runOnFXThread(Runnable runnable) {
+		try {
+			Platform.runLater(runnable);
+		} catch(IllegalStateException ex) {
+			// JavaFX hasn't been started, so nobody's observing our rows lists.
+			runnable.run();
+		}
+	}
+}
@@ -16,8 +16,8 @@
  */
 package com.ggvaidya.scinames.model;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A tag is a keyword that can be associated with a Taggable object.
@@ -31,7 +31,8 @@ import java.util.Map;
  * @author Gaurav Vaidya <gaurav@ggvaidya.com>
  */
 public class Tag implements Comparable<Tag> {
-	private static final Map<String, Tag> tags = new HashMap<>();
+	/* Projects are loaded on several threads at once, so this needs to be thread-safe. */
+	private static final Map<String, Tag> tags = new ConcurrentHashMap<>();
 	private final String name;
 	
 	public static final Tag NONE = Tag.fromName("(none)");
@@ -46,12 +47,7 @@ public class Tag implements Comparable<Tag> {
 	
 	public static Tag fromName(String name) {
 		if(name == null) return NONE;
-		String name_lc = name.toLowerCase();
-		
-		if(!tags.containsKey(name_lc))
-			tags.put(name, new Tag(name_lc));
-		
-		return tags.get(name_lc);
+		return tags.computeIfAbsent(name.toLowerCase(), Tag::new);
 	}
 	
 	public int hashCode() {
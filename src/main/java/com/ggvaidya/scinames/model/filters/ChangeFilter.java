@@ -18,16 +18,18 @@ package com.ggvaidya.scinames.model.filters;
 
 import com.ggvaidya.scinames.model.Change;
 import com.ggvaidya.scinames.model.ChangeType;
+import com.ggvaidya.scinames.util.Dependency;
 
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableSet;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 
 /**
  * ChangeFilter is a filter for changes. These can be nested within each
@@ -38,32 +40,162 @@ import org.w3c.dom.Element;
 public abstract class ChangeFilter implements Predicate<Change> {
 	// All ChangeFilters can be active or not.
 	private boolean active = false;
-	public void setActive(boolean b) { active = b; }
+	public void setActive(boolean b) { active = b; configurationChanged(); }
 	public boolean isActive() { return active; }
 	
-	// Let's track what this cluster is doing.
-	private ObservableSet<Change> changesFiltered = FXCollections.observableSet(new HashSet<>());
-	public ObservableSet<Change> changesFilteredProperty() { return changesFiltered; }
-	public void addFilteredChange(Change ch) {
-		changesFiltered.add(ch);
+	// Incremented whenever this filter is reconfigured.
+	private long configurationVersion = 0;
+	
+	// Invalidated whenever this filter, the filters it encloses or anything they
+	// depend on changes.
+	private final Dependency dependency = new Dependency("change filter");
+	public Dependency getDependency() { return dependency; }
+	
+	/**
+	 * Let this filter know that its configuration has changed, so results cached
+	 * from it are no longer valid.
+	 */
+	protected void configurationChanged() {
+		configurationVersion++;
+		dependency.invalidate();
+	}
+	
+	/**
+	 * @return A number that changes whenever this filter or the filters it encloses
+	 * 	are reconfigured.
+	 */
+	private long getConfigurationVersion() {
+		return (prev == null) ? configurationVersion : configurationVersion + prev.getConfigurationVersion();
 	}
-	public int getChangesFilteredCount() { return changesFiltered.size(); }
+	
+	/**
+	 * Filters whose verdicts depend on more than the change being filtered should
+	 * make getDependency() depend on those things, so that results cached from this 
+	 * filter chain are invalidated when they change.
+	 * 
+	 * @return A number that changes whenever the verdicts of this filter chain might.
+	 */
+	public long getVersion() {
+		return dependency.getVersion();
+	}
+	
+	// Let's track what this filter is doing. These are updated from the filtering
+	// hot path, possibly on several threads at once, so they don't lock or notify.
+	// We only count the changes we reject, rather than holding on to them.
+	private final Map<ChangeType, LongAdder> rejectedCountsByType = new ConcurrentHashMap<>();
+	private final LongAdder acceptedCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final LongAdder filterTimeNanos = new LongAdder();
+	
+	/** @return How many times this filter has rejected a change, counted by change type. */
+	public int getChangesFilteredCount() { 
+		return (int) rejectedCountsByType.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+	
+	/** @return How many times this filter has rejected a change of each type. */
 	public Map<ChangeType, Long> getChangesFilteredByType() { 
-		return changesFiltered.stream().map(ch -> ch.getType()).collect(
-				Collectors.groupingBy(
-						Function.identity(),
-						Collectors.counting()
-				)
-		);
+		Map<ChangeType, Long> counts = new HashMap<>();
+		rejectedCountsByType.forEach((type, count) -> {
+			long sum = count.sum();
+			if(sum > 0)
+				counts.put(type, sum);
+		});
+		return counts;
+	}
+	
+	/** @return How many times this filter has accepted a change. */
+	public long getAcceptedCount() { return acceptedCount.sum(); }
+	
+	/** @return How many times this filter has rejected a change. */
+	public long getRejectedCount() { return rejectedCount.sum(); }
+	
+	/** @return How long this filter has spent filtering changes, in nanoseconds. */
+	public long getFilterTimeNanos() { return filterTimeNanos.sum(); }
+	
+	/** @return The average time this filter has taken per change, in nanoseconds. */
+	public double getMeanFilterTimeNanos() {
+		long count = getAcceptedCount() + getRejectedCount();
+		return (count == 0) ? 0 : (double) getFilterTimeNanos() / count;
+	}
+	
+	/**
+	 * Record this filter's verdict on a change. Called by ChangeFilterPipeline.
+	 * 
+	 * @param ch The change filtered.
+	 * @param accepted Whether this filter accepted it.
+	 * @param nanos How long it took to filter it.
+	 */
+	void recordVerdict(Change ch, boolean accepted, long nanos) {
+		if(accepted) {
+			acceptedCount.increment();
+		} else {
+			rejectedCount.increment();
+			
+			// Most rejections are of a type we've rejected before, so don't lock unless we need to.
+			ChangeType type = ch.getType();
+			LongAdder count = rejectedCountsByType.get(type);
+			if(count == null)
+				count = rejectedCountsByType.computeIfAbsent(type, t -> new LongAdder());
+			count.increment();
+		}
+		filterTimeNanos.add(nanos);
+	}
+	
+	/**
+	 * Forget every verdict this filter has recorded.
+	 */
+	public void resetStatistics() {
+		rejectedCountsByType.values().forEach(LongAdder::reset);
+		acceptedCount.reset();
+		rejectedCount.reset();
+		filterTimeNanos.reset();
+	}
+	
+	/**
+	 * Filters are run cheapest first (see ChangeFilterPipeline), so that expensive 
+	 * filters only see the changes that cheap filters let through. Filters that need
+	 * more than the change itself to reach a verdict should return a higher cost.
+	 * 
+	 * @return A rough, relative cost of filtering a single change.
+	 */
+	public int getCost() {
+		return 1;
 	}
 	
 	private ChangeFilter prev = null;
 	public ChangeFilter getPrevChangeFilter() { return prev; }
 	
 	public abstract String getShortName();
+	
+	/**
+	 * Decide whether a single change should be kept. This doesn't need to consider
+	 * enclosed filters, or record its verdict: test() takes care of both.
+	 * 
+	 * @param ch The change to filter.
+	 * @return True to keep the change, false to filter it out.
+	 */
 	public abstract boolean filter(Change ch);
 	public abstract Element serializeToElement(Document doc);	
 	
+	/**
+	 * Write this filter to an XML stream. Filters are stored as a single element
+	 * with a few attributes, so we just write out whatever serializeToElement() 
+	 * creates.
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @param doc A document to create the filter element in.
+	 * @throws XMLStreamException If the filter could not be written.
+	 */
+	public void serializeToXMLStream(XMLStreamWriter writer, Document doc) throws XMLStreamException {
+		Element filter = serializeToElement(doc);
+		
+		writer.writeEmptyElement(filter.getTagName());
+		NamedNodeMap attributes = filter.getAttributes();
+		for(int x = 0; x < attributes.getLength(); x++) {
+			writer.writeAttribute(attributes.item(x).getNodeName(), attributes.item(x).getNodeValue());
+		}
+	}
+	
 	public String getDescription() {
 		if(prev == null)
 			return getShortName() + " filter";
@@ -72,10 +204,13 @@ public abstract class ChangeFilter implements Predicate<Change> {
 	}
 	
 	public void addChangeFilter(ChangeFilter cf) {
-		if(prev == null)
+		if(prev == null) {
 			prev = cf;
-		else
+			dependency.dependOn(cf.getDependency());
+		} else
 			prev.addChangeFilter(cf);
+		
+		configurationChanged();
 	}
 	
 	@Override
@@ -83,13 +218,29 @@ public abstract class ChangeFilter implements Predicate<Change> {
 		return "ChangeFilter: " + getDescription();
 	}
 
+	/* The pipeline compiled from this filter and the filters it encloses. */
+	private volatile ChangeFilterPipeline pipeline = null;
+	
+	/**
+	 * @return This filter and the filters it encloses, compiled into a pipeline. This is
+	 * 	compiled again whenever any of them are reconfigured.
+	 */
+	public ChangeFilterPipeline getPipeline() {
+		ChangeFilterPipeline compiled = pipeline;
+		long version = getConfigurationVersion();
+		
+		if(compiled == null || compiled.getConfigurationVersion() != version) {
+			compiled = new ChangeFilterPipeline(this, version);
+			pipeline = compiled;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Test a change against this filter and every filter it encloses.
+	 */
 	@Override
 	public boolean test(Change t) {
-		if(prev != null) {
-			if(prev.test(t))
-				return filter(t);
-			else
-				return false;
-		} else return filter(t);
+		return getPipeline().test(t);
 	}
 }
@@ -45,6 +45,11 @@ public class ChangeFilterFactory {
 			public boolean filter(Change ch) {
 				return true;
 			}
+			
+			@Override
+			public int getCost() {
+				return 0;
+			}
 
 			@Override
 			public Element serializeToElement(Document doc) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.ggvaidya.scinames.model.Change;
+
+/**
+ * A chain of change filters compiled into a flat array, ordered from cheapest to
+ * most expensive. Since a change has to be accepted by every filter in the chain, 
+ * the order doesn't change which changes are accepted; running cheap filters first
+ * means expensive filters only see changes the cheap filters didn't reject. Filters
+ * with the same cost run innermost first, as they did in the original chain.
+ * 
+ * Every filter's verdicts and timings are recorded on that filter (see 
+ * ChangeFilter.getAcceptedCount() and friends). A change rejected by one filter
+ * isn't seen by the filters after it.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public final class ChangeFilterPipeline implements Predicate<Change> {
+	private final ChangeFilter[] stages;
+	private final long configurationVersion;
+	
+	/**
+	 * Compile a chain of filters.
+	 * 
+	 * @param outermost The outermost filter in the chain.
+	 * @param configurationVersion The configuration version of the chain being compiled.
+	 */
+	ChangeFilterPipeline(ChangeFilter outermost, long configurationVersion) {
+		this.configurationVersion = configurationVersion;
+		
+		List<ChangeFilter> filters = new ArrayList<>();
+		for(ChangeFilter cf = outermost; cf != null; cf = cf.getPrevChangeFilter()) {
+			filters.add(cf);
+		}
+		Collections.reverse(filters);
+		
+		// Costs might change as filters are reconfigured, so read each one once.
+		ChangeFilter[] ordered = filters.toArray(new ChangeFilter[filters.size()]);
+		int[] costs = new int[ordered.length];
+		for(int x = 0; x < ordered.length; x++) {
+			costs[x] = ordered[x].getCost();
+		}
+		Integer[] order = new Integer[ordered.length];
+		for(int x = 0; x < order.length; x++) {
+			order[x] = x;
+		}
+		Arrays.sort(order, Comparator.comparingInt(x -> costs[x]));
+		
+		stages = new ChangeFilter[ordered.length];
+		for(int x = 0; x < order.length; x++) {
+			stages[x] = ordered[order[x]];
+		}
+	}
+	
+	long getConfigurationVersion() { return configurationVersion; }
+	
+	/**
+	 * @return The filters in this pipeline, in the order they're run.
+	 */
+	public List<ChangeFilter> getStages() {
+		return Collections.unmodifiableList(Arrays.asList(stages));
+	}
+
+	@Override
+	public boolean test(Change ch) {
+		for(ChangeFilter stage: stages) {
+			long startTime = System.nanoTime();
+			boolean accepted = stage.filter(ch);
+			stage.recordVerdict(ch, accepted, System.nanoTime() - startTime);
+			
+			if(!accepted)
+				return false;
+		}
+		return true;
+	}
+}
@@ -46,7 +46,6 @@ public class IgnoreErrorChangeTypeFilter extends ChangeFilter {
 		if(ch.getType().equals(ChangeType.ERROR)) {
 			// System.err.println(" - ignoreErrorChangeType filter ignored: " + ch);
 			
-			addFilteredChange(ch);
 			return false;
 		}
 		
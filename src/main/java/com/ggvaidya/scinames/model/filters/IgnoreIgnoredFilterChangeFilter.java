@@ -46,7 +46,6 @@ public class IgnoreIgnoredFilterChangeFilter extends ChangeFilter {
 		if (!ignored) {
 			return true;
 		}
-		addFilteredChange(ch);
 		return false;
 	}
 
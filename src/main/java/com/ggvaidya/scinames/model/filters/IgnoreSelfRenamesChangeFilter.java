@@ -47,7 +47,6 @@ public class IgnoreSelfRenamesChangeFilter extends ChangeFilter {
 		if(ch.getType().equals(ChangeType.RENAME) && ch.getFromString().equals(ch.getToString())) {
 			// System.err.println(" - ignoreSelfRenames filter ignored: " + ch);
 			
-			addFilteredChange(ch);
 			return false;
 		}
 		
@@ -17,12 +17,11 @@
 package com.ggvaidya.scinames.model.filters;
 
 import com.ggvaidya.scinames.model.Change;
-import com.ggvaidya.scinames.model.NameCluster;
+import com.ggvaidya.scinames.model.Name;
 import com.ggvaidya.scinames.model.NameClusterManager;
 import com.ggvaidya.scinames.model.Project;
 import com.ggvaidya.scinames.model.Dataset;
 import java.time.Year;
-import java.util.List;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -39,6 +38,25 @@ public class SkipChangesUnlessAddedBeforeChangeFilter extends ChangeFilter {
 		filterAfterDate = Year.of(year);
 		setActive(active);
 	}
+	
+	@Override
+	public void setActive(boolean b) {
+		// We depend on when each name cluster was first found, but only while
+		// we're active: otherwise every edit to the name clusters would
+		// invalidate every dataset's filtered changes for nothing.
+		if(b)
+			getDependency().dependOn(project.getNameClustersDependency());
+		else
+			getDependency().stopDependingOn(project.getNameClustersDependency());
+		
+		super.setActive(b);
+	}
+
+	@Override
+	public int getCost() {
+		// We look up the name cluster of every name in the change.
+		return 100;
+	}
 
 	@Override
 	public String getShortName() {
@@ -51,41 +69,26 @@ public class SkipChangesUnlessAddedBeforeChangeFilter extends ChangeFilter {
 			return true;
 		
 		NameClusterManager nameClusterManager = project.getNameClusterManager();
-		List<NameCluster> nameClusters = nameClusterManager.getClusters(ch.getAllNames());
-		
-		// What if we have no name clusters?
-		if(nameClusters.contains(null))
-			throw new RuntimeException("One or more names from " + ch.getAllNames() + " have not been added to the name clusters yet: " + nameClusters);
 		
 		// As long as one of the name clusters date from before the date, we keep the change.
-		boolean filter = !nameClusters.stream().anyMatch((NameCluster nc) -> {
-			if (nc == null)
-				throw new RuntimeException("eh null what");
-			
-			Dataset tp = nc.getEarliestTimepoint();
-			boolean nameAddedBeforeDate = tp.getDate().compareTo(filterAfterDate) < 0;
-			
-			/*
-			System.err.println(
-				" - " + 
-				(nameAddedAfterDate ? "Added after date" : "Added before date") +
-				" name cluster " + nc + " as it has timepoint at " + tp.getDate() + " later than " + filterAfterDate
+		// The name cluster manager knows when each cluster was first found, so we don't
+		// need to look up (or sort) the clusters themselves.
+		boolean filter = true;
+		for(Name n: ch.getAllNames()) {
+			Dataset tp = nameClusterManager.getEarliestTimepoint(n).orElseThrow(() -> 
+				new RuntimeException("Name " + n + " from " + ch.getAllNames() + " has not been added to the name clusters yet")
 			);
-			*/
 			
-			return nameAddedBeforeDate;
-		});
-		/*
-		if (filter) {
-			System.err.println("Filtering out change " + ch.getFromString() + " -> " + ch.getToString());
-		} else {
-			System.err.println("Allowing change " + ch.getFromString() + " -> " + ch.getToString());
-		}*/
+			if(tp.getDate().compareTo(filterAfterDate) < 0) {
+				filter = false;
+				break;
+			}
+		}
+		
 		if (!filter) {
 			return true;
 		}
 		
-		addFilteredChange(ch);
 		return false;
 	}
 
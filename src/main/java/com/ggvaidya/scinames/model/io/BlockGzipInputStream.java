@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a block-gzipped file written by BlockGzipOutputStream. Compressed blocks
+ * are read in order, but inflated in parallel on the ForkJoin pool. Reading can 
+ * start at any block, such as one of the entries listed in the file's index (see
+ * readIndex()).
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class BlockGzipInputStream extends InputStream {
+	/** The most blocks we'll inflate ahead of the one being read. */
+	public static final int DEFAULT_MAX_BLOCKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+	
+	private static final byte[] EMPTY = new byte[0];
+	
+	/**
+	 * An entry in the index of a block-gzipped file.
+	 */
+	public static final class IndexEntry {
+		private final long compressedOffset;
+		private final long uncompressedOffset;
+		
+		public IndexEntry(long compressedOffset, long uncompressedOffset) {
+			this.compressedOffset = compressedOffset;
+			this.uncompressedOffset = uncompressedOffset;
+		}
+		
+		/** @return The offset of the block this entry starts, in the file itself. */
+		public long getCompressedOffset() { return compressedOffset; }
+		
+		/** @return The offset of this entry in the uncompressed data. */
+		public long getUncompressedOffset() { return uncompressedOffset; }
+		
+		@Override
+		public String toString() {
+			return "entry at " + compressedOffset + " (uncompressed " + uncompressedOffset + ")";
+		}
+	}
+	
+	/** A single gzip member, read but not inflated. */
+	private static final class Block {
+		private final byte[] extra;
+		private final byte[] payload;	// The deflated data, CRC and uncompressed size.
+		
+		public Block(byte[] extra, byte[] payload) {
+			this.extra = extra;
+			this.payload = payload;
+		}
+	}
+	
+	private final DataInputStream in;
+	private final int maxBlocksInFlight;
+	private final Deque<CompletableFuture<byte[]>> inflating = new ArrayDeque<>();
+	private boolean endOfFile = false;
+	private byte[] current = EMPTY;
+	private int position = 0;
+	
+	/**
+	 * Open a block-gzipped file if it is one, or an ordinary gzip file if it isn't.
+	 * 
+	 * @param file The file to open.
+	 * @return A stream of the uncompressed contents of the file.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public static InputStream open(File file) throws IOException {
+		if(isBlockGzipped(file))
+			return new BlockGzipInputStream(file, 0, DEFAULT_MAX_BLOCKS_IN_FLIGHT);
+		
+		return new GZIPInputStream(new FileInputStream(file), 65536);
+	}
+	
+	/**
+	 * @param file A file.
+	 * @return True if this file starts with a gzip member with a 'BC' subfield.
+	 */
+	public static boolean isBlockGzipped(File file) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			Block block = readBlock(in);
+			return block != null && findSubfield(block.extra, BlockGzipOutputStream.SUBFIELD_BLOCK_SIZE) >= 0;
+		} catch(IOException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Read the index of a block-gzipped file.
+	 * 
+	 * @param file The file to read.
+	 * @return Every entry marked in this file, in order, or an empty list if the 
+	 * 	file doesn't have an index.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static List<IndexEntry> readIndex(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long locatorOffset = raf.length() - BlockGzipOutputStream.EOF_BLOCK.length - BlockGzipOutputStream.LOCATOR_LENGTH;
+			if(locatorOffset < 0)
+				return Collections.emptyList();
+			
+			// Files that aren't block-gzipped won't have a locator block.
+			Block locator;
+			try {
+				raf.seek(locatorOffset);
+				locator = readBlock(raf);
+			} catch(IOException ex) {
+				return Collections.emptyList();
+			}
+			int pos = (locator == null) ? -1 : findSubfield(locator.extra, BlockGzipOutputStream.SUBFIELD_LOCATOR);
+			if(pos < 0)
+				return Collections.emptyList();
+			
+			long indexOffset = getLong(locator.extra, pos);
+			if(indexOffset < 0 || indexOffset > locatorOffset)
+				throw new IOException("Block-gzipped file '" + file + "' has an index at an invalid offset: " + indexOffset);
+			
+			List<IndexEntry> entries = new ArrayList<>();
+			raf.seek(indexOffset);
+			while(raf.getFilePointer() < locatorOffset) {
+				Block block = readBlock(raf);
+				if(block == null)
+					throw new EOFException("Block-gzipped file '" + file + "' ended in its index");
+				
+				pos = findSubfield(block.extra, BlockGzipOutputStream.SUBFIELD_INDEX);
+				if(pos < 0)
+					throw new IOException("Block-gzipped file '" + file + "' has an unexpected block in its index");
+				
+				int length = getShort(block.extra, pos - 2);
+				for(int x = pos; x < pos + length; x += BlockGzipOutputStream.INDEX_ENTRY_LENGTH) {
+					entries.add(new IndexEntry(getLong(block.extra, x), getLong(block.extra, x + 8)));
+				}
+			}
+			
+			return entries;
+		}
+	}
+	
+	/**
+	 * Read a block-gzipped file, starting at the block at a particular offset.
+	 * 
+	 * @param file The file to read.
+	 * @param compressedOffset The offset of the first block to read (e.g. from an IndexEntry).
+	 * @param maxBlocksInFlight The most blocks to inflate ahead of the one being read.
+	 * @throws IOException If the file could not be opened.
+	 */
+	public BlockGzipInputStream(File file, long compressedOffset, int maxBlocksInFlight) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			fis.getChannel().position(compressedOffset);
+		} catch(IOException ex) {
+			fis.close();
+			throw ex;
+		}
+		
+		this.in = new DataInputStream(new BufferedInputStream(fis, 65536));
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(!ensureAvailable())
+			return -1;
+		
+		return current[position++] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!ensureAvailable())
+			return -1;
+		
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, count);
+		position += count;
+		return count;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return current.length - position;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		inflating.forEach(future -> future.cancel(false));
+		inflating.clear();
+		in.close();
+	}
+	
+	/** Make sure there's something left to read in the current block, if there's anything left at all. */
+	private boolean ensureAvailable() throws IOException {
+		while(position >= current.length) {
+			// Keep the pool busy with the blocks that follow.
+			while(!endOfFile && inflating.size() < maxBlocksInFlight) {
+				Block block = readBlock(in);
+				if(block == null) {
+					endOfFile = true;
+					break;
+				}
+				inflating.addLast(CompletableFuture.supplyAsync(() -> inflate(block), ForkJoinPool.commonPool()));
+			}
+			
+			if(inflating.isEmpty())
+				return false;
+			
+			current = join(inflating.removeFirst());
+			position = 0;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Read a single gzip member with a 'BC' subfield.
+	 * 
+	 * @return The block, or null if we're at the end of the file.
+	 */
+	private static Block readBlock(DataInput in) throws IOException {
+		byte[] header = new byte[12];
+		try {
+			in.readFully(header, 0, 1);
+		} catch(EOFException ex) {
+			return null;
+		}
+		in.readFully(header, 1, header.length - 1);
+		
+		if((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 0x08 || (header[3] & 0x04) == 0)
+			throw new IOException("Not a block-gzipped block");
+		
+		byte[] extra = new byte[getShort(header, 10)];
+		in.readFully(extra);
+		
+		int pos = findSubfield(extra, BlockGzipOutputStream.SUBFIELD_BLOCK_SIZE);
+		if(pos < 0)
+			throw new IOException("Block is missing its block size");
+		
+		int payloadLength = getShort(extra, pos) + 1 - header.length - extra.length;
+		if(payloadLength < BlockGzipOutputStream.TRAILER_LENGTH)
+			throw new IOException("Block has an invalid block size");
+		
+		byte[] payload = new byte[payloadLength];
+		in.readFully(payload);
+		return new Block(extra, payload);
+	}
+	
+	private static byte[] inflate(Block block) {
+		byte[] payload = block.payload;
+		int deflatedLength = payload.length - BlockGzipOutputStream.TRAILER_LENGTH;
+		int expectedCRC = getInt(payload, deflatedLength);
+		int size = getInt(payload, deflatedLength + 4);
+		
+		if(size == 0)
+			return EMPTY;
+		
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(payload, 0, deflatedLength);
+			if(inflater.inflate(data) != size)
+				throw new IllegalStateException("Block inflated to fewer bytes than expected");
+		} catch(DataFormatException ex) {
+			throw new IllegalStateException("Could not inflate block: " + ex, ex);
+		} finally {
+			inflater.end();
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if((int) crc.getValue() != expectedCRC)
+			throw new IllegalStateException("Block failed its CRC check");
+		
+		return data;
+	}
+	
+	private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			throw new IOException("Could not read block-gzipped file: " + ex.getCause(), ex.getCause());
+		}
+	}
+	
+	/**
+	 * Find a subfield in the extra field of a gzip header.
+	 * 
+	 * @return The position of the subfield's data, or -1 if it's not present.
+	 */
+	private static int findSubfield(byte[] extra, int id) {
+		int pos = 0;
+		while(pos + 4 <= extra.length) {
+			int subfieldId = ((extra[pos] & 0xff) << 8) | (extra[pos + 1] & 0xff);
+			int length = getShort(extra, pos + 2);
+			
+			if(subfieldId == id)
+				return pos + 4;
+			pos += 4 + length;
+		}
+		return -1;
+	}
+	
+	/* Gzip is little-endian throughout. */
+	
+	private static int getShort(byte[] b, int pos) {
+		return (b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8);
+	}
+	
+	private static int getInt(byte[] b, int pos) {
+		return getShort(b, pos) | (getShort(b, pos + 2) << 16);
+	}
+	
+	private static long getLong(byte[] b, int pos) {
+		return (getInt(b, pos) & 0xffffffffL) | ((long) getInt(b, pos + 4) << 32);
+	}
+}
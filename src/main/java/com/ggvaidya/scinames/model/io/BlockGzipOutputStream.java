@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a block-gzipped file: a series of independently compressed gzip members,
+ * each holding at most BLOCK_SIZE bytes, in the style of BGZF. Each member records
+ * its compressed size in a 'BC' subfield of its gzip header, so readers can find
+ * the next block without inflating this one. Since every member is a complete gzip
+ * stream, ordinary gzip tools (and GZIPInputStream) read the file as if it were 
+ * a single gzip stream.
+ * 
+ * Blocks are compressed in parallel on the ForkJoin pool, and written out in order.
+ * 
+ * Callers can mark entries in the file (e.g. where each dataset starts) with 
+ * markEntry(), which ends the current block so that the entry starts at the 
+ * beginning of a new one. When the file is closed, we write:
+ *  - Index blocks: empty gzip members whose 'SI' subfields list the compressed and
+ *    uncompressed offset of every entry.
+ *  - A locator block: an empty gzip member whose 'SL' subfield contains the 
+ *    compressed offset of the first index block. It's always LOCATOR_LENGTH bytes
+ *    long, so it can be found from the end of the file.
+ *  - The standard BGZF end-of-file block.
+ * 
+ * See BlockGzipInputStream to read these files.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class BlockGzipOutputStream extends OutputStream {
+	/** The most uncompressed bytes in a block (the same as BGZF). */
+	public static final int BLOCK_SIZE = 0xff00;
+	
+	/** The most bytes a single compressed block may take up, headers and all. */
+	static final int MAX_BLOCK_LENGTH = 0x10000;
+	
+	/** The length of a gzip header with a 'BC' subfield, and of the trailing CRC and size. */
+	static final int HEADER_LENGTH = 18;
+	static final int TRAILER_LENGTH = 8;
+	
+	/** Subfield identifiers. */
+	static final int SUBFIELD_BLOCK_SIZE = ('B' << 8) | 'C';
+	static final int SUBFIELD_INDEX = ('S' << 8) | 'I';
+	static final int SUBFIELD_LOCATOR = ('S' << 8) | 'L';
+	
+	/** Each entry in an index block is two longs. */
+	static final int INDEX_ENTRY_LENGTH = 16;
+	static final int ENTRIES_PER_INDEX_BLOCK = 4000;
+	
+	/** A locator block: a header with BC and SL subfields, an empty deflate stream and a trailer. */
+	static final int LOCATOR_LENGTH = 12 + 6 + 4 + 8 + 2 + TRAILER_LENGTH;
+	
+	/** The BGZF end-of-file marker: an empty block. */
+	static final byte[] EOF_BLOCK = {
+		0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+		0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+	};
+	
+	/** An empty raw deflate stream. */
+	private static final byte[] EMPTY_DEFLATE = { 0x03, 0x00 };
+	
+	/** The most blocks we'll compress ahead of the ones that have been written out. */
+	public static final int DEFAULT_MAX_BLOCKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+	
+	private final OutputStream out;
+	private final int level;
+	private final int maxBlocksInFlight;
+	
+	private byte[] buffer = new byte[BLOCK_SIZE];
+	private int buffered = 0;
+	private final Deque<CompletableFuture<byte[]>> compressing = new ArrayDeque<>();
+	private long blocksSubmitted = 0;
+	private long blocksWritten = 0;
+	private long compressedOffset = 0;
+	private long uncompressedOffset = 0;
+	private boolean closed = false;
+	
+	// Entries whose compressed offsets we'll only know once their first block has been written.
+	private final List<long[]> pendingEntries = new ArrayList<>();	// { block number, uncompressed offset }
+	private final List<long[]> entries = new ArrayList<>();			// { compressed offset, uncompressed offset }
+	
+	public BlockGzipOutputStream(OutputStream out) {
+		this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_BLOCKS_IN_FLIGHT);
+	}
+	
+	public BlockGzipOutputStream(OutputStream out, int level, int maxBlocksInFlight) {
+		this.out = out;
+		this.level = level;
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+	
+	/**
+	 * @return The number of uncompressed bytes written so far.
+	 */
+	public long getUncompressedOffset() {
+		return uncompressedOffset;
+	}
+	
+	/**
+	 * Mark an entry at the current position. The current block is ended, so the
+	 * entry will start at the beginning of the next block.
+	 * 
+	 * @throws IOException If the current block could not be written.
+	 */
+	public void markEntry() throws IOException {
+		endBlock();
+		pendingEntries.add(new long[] { blocksSubmitted, uncompressedOffset });
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if(buffered == BLOCK_SIZE)
+			endBlock();
+		
+		buffer[buffered++] = (byte) b;
+		uncompressedOffset++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(buffered == BLOCK_SIZE)
+				endBlock();
+			
+			int count = Math.min(len, BLOCK_SIZE - buffered);
+			System.arraycopy(b, off, buffer, buffered, count);
+			buffered += count;
+			uncompressedOffset += count;
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Blocks can only be written once they're complete, so this only flushes the
+	 * blocks that have already been compressed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while(!compressing.isEmpty() && compressing.peekFirst().isDone()) {
+			writeBlock(join(compressing.removeFirst()));
+		}
+		out.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		
+		try {
+			endBlock();
+			while(!compressing.isEmpty()) {
+				writeBlock(join(compressing.removeFirst()));
+			}
+			
+			// Entries marked at the very end point to the index.
+			resolveEntries(Long.MAX_VALUE);
+			
+			writeIndex();
+			out.write(EOF_BLOCK);
+		} finally {
+			compressing.forEach(future -> future.cancel(false));
+			out.close();
+		}
+	}
+	
+	private void endBlock() throws IOException {
+		if(buffered == 0)
+			return;
+		
+		while(compressing.size() >= maxBlocksInFlight) {
+			writeBlock(join(compressing.removeFirst()));
+		}
+		
+		byte[] data = buffer;
+		int length = buffered;
+		compressing.addLast(CompletableFuture.supplyAsync(() -> compress(data, 0, length, level), ForkJoinPool.commonPool()));
+		blocksSubmitted++;
+		
+		buffer = new byte[BLOCK_SIZE];
+		buffered = 0;
+	}
+	
+	private void writeBlock(byte[] block) throws IOException {
+		resolveEntries(blocksWritten);
+		
+		out.write(block);
+		compressedOffset += block.length;
+		blocksWritten++;
+	}
+	
+	private void resolveEntries(long blockNumber) {
+		while(!pendingEntries.isEmpty() && pendingEntries.get(0)[0] <= blockNumber) {
+			long[] pending = pendingEntries.remove(0);
+			entries.add(new long[] { compressedOffset, pending[1] });
+		}
+	}
+	
+	private void writeIndex() throws IOException {
+		long indexOffset = compressedOffset;
+		
+		for(int start = 0; start < entries.size(); start += ENTRIES_PER_INDEX_BLOCK) {
+			List<long[]> chunk = entries.subList(start, Math.min(entries.size(), start + ENTRIES_PER_INDEX_BLOCK));
+			
+			byte[] subfield = new byte[chunk.size() * INDEX_ENTRY_LENGTH];
+			int pos = 0;
+			for(long[] entry: chunk) {
+				pos = putLong(subfield, pos, entry[0]);
+				pos = putLong(subfield, pos, entry[1]);
+			}
+			writeEmptyBlock(SUBFIELD_INDEX, subfield);
+		}
+		
+		byte[] locator = new byte[8];
+		putLong(locator, 0, indexOffset);
+		writeEmptyBlock(SUBFIELD_LOCATOR, locator);
+	}
+	
+	private void writeEmptyBlock(int subfieldId, byte[] subfield) throws IOException {
+		int extraLength = 6 + 4 + subfield.length;
+		byte[] block = new byte[12 + extraLength + EMPTY_DEFLATE.length + TRAILER_LENGTH];
+		
+		int pos = putHeader(block, extraLength, block.length);
+		block[pos++] = (byte) (subfieldId >> 8);
+		block[pos++] = (byte) subfieldId;
+		pos = putShort(block, pos, subfield.length);
+		System.arraycopy(subfield, 0, block, pos, subfield.length);
+		pos += subfield.length;
+		
+		// An empty deflate stream, with a CRC and size of zero.
+		System.arraycopy(EMPTY_DEFLATE, 0, block, pos, EMPTY_DEFLATE.length);
+		
+		out.write(block);
+		compressedOffset += block.length;
+	}
+	
+	/**
+	 * Compress some data into one or more gzip members. If the data doesn't compress
+	 * well enough to fit into a single block, it's split in two.
+	 */
+	private static byte[] compress(byte[] data, int offset, int length, int level) {
+		byte[] block = new byte[MAX_BLOCK_LENGTH];
+		
+		Deflater deflater = new Deflater(level, true);
+		int deflatedLength;
+		boolean finished;
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			deflatedLength = deflater.deflate(block, HEADER_LENGTH, MAX_BLOCK_LENGTH - HEADER_LENGTH - TRAILER_LENGTH);
+			finished = deflater.finished();
+		} finally {
+			deflater.end();
+		}
+		
+		if(!finished) {
+			int half = length / 2;
+			byte[] first = compress(data, offset, half, level);
+			byte[] second = compress(data, offset + half, length - half, level);
+			
+			byte[] both = Arrays.copyOf(first, first.length + second.length);
+			System.arraycopy(second, 0, both, first.length, second.length);
+			return both;
+		}
+		
+		int blockLength = HEADER_LENGTH + deflatedLength + TRAILER_LENGTH;
+		putHeader(block, 6, blockLength);
+		
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		int pos = putInt(block, HEADER_LENGTH + deflatedLength, (int) crc.getValue());
+		putInt(block, pos, length);
+		
+		return Arrays.copyOf(block, blockLength);
+	}
+	
+	/**
+	 * Write a gzip header with a 'BC' subfield into the start of a block.
+	 * 
+	 * @return The position just after the 'BC' subfield.
+	 */
+	private static int putHeader(byte[] block, int extraLength, int blockLength) {
+		block[0] = 0x1f;
+		block[1] = (byte) 0x8b;
+		block[2] = 0x08;			// Deflate
+		block[3] = 0x04;			// FEXTRA
+		// Modification time and extra flags are zero.
+		block[9] = (byte) 0xff;		// Unknown OS
+		int pos = putShort(block, 10, extraLength);
+		block[pos++] = 'B';
+		block[pos++] = 'C';
+		pos = putShort(block, pos, 2);
+		return putShort(block, pos, blockLength - 1);
+	}
+	
+	/* Gzip is little-endian throughout. */
+	
+	private static int putShort(byte[] b, int pos, int value) {
+		b[pos] = (byte) value;
+		b[pos + 1] = (byte) (value >>> 8);
+		return pos + 2;
+	}
+	
+	private static int putInt(byte[] b, int pos, int value) {
+		pos = putShort(b, pos, value);
+		return putShort(b, pos, value >>> 16);
+	}
+	
+	private static int putLong(byte[] b, int pos, long value) {
+		pos = putInt(b, pos, (int) value);
+		return putInt(b, pos, (int) (value >>> 32));
+	}
+	
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw ex;
+		}
+	}
+}
@@ -0,0 +1,996 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.ggvaidya.scinames.model.Change;
+import com.ggvaidya.scinames.model.ChangeType;
+import com.ggvaidya.scinames.model.Citation;
+import com.ggvaidya.scinames.model.Dataset;
+import com.ggvaidya.scinames.model.DatasetColumn;
+import com.ggvaidya.scinames.model.DatasetRow;
+import com.ggvaidya.scinames.model.Name;
+import com.ggvaidya.scinames.model.Project;
+import com.ggvaidya.scinames.model.Tag;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorParseException;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.SimplifiedDate;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+
+/**
+ * An append-only journal of the edits made to a project since it was last saved,
+ * stored next to its project file. Writing out a few edits is much quicker than 
+ * rewriting the entire project, so autosaves go to the journal (see flush()); the
+ * journal is replayed when the project is next loaded, and is discarded once the
+ * project has been saved in full.
+ * 
+ * A journal consists of:
+ *  - A header: the magic number, the format version, and the length and modification
+ *    time of the project file it applies to. Journals that don't match their project 
+ *    file are ignored.
+ *  - A series of records, each written as its length, a CRC32 checksum and then the
+ *    record itself. Replay stops at the first incomplete or corrupt record, so a crash
+ *    while writing the journal only loses the edits being written at the time.
+ * 
+ * Records refer to datasets and changes by their index in the project and in their
+ * dataset's explicit changes. We record changes being added, removed, reordered 
+ * or edited; dataset names, dates, types, name extractors and properties; project 
+ * names and properties; and the rows and columns of datasets whose rows have been
+ * edited, which are recorded in their entirety. Adding, removing or rearranging
+ * datasets or changing the project's change filters can't be journaled, and 
+ * requires a full save.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class ProjectJournal {
+	private static final Logger LOGGER = Logger.getLogger(ProjectJournal.class.getSimpleName());
+	
+	private static final long MAGIC = 0x53434E4A524E4C31L; // "SCNJRNL1"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 8 + 4 + 8 + 8;
+	
+	/** Records longer than this are assumed to be corrupt. */
+	private static final int MAX_RECORD_LENGTH = 1 << 30;
+	
+	/** Journal files are named after the project file, with this suffix. */
+	public static final String JOURNAL_SUFFIX = ".journal";
+	
+	/* Record types */
+	private static final byte RECORD_PROJECT = 1;
+	private static final byte RECORD_DATASET = 2;
+	private static final byte RECORD_CHANGE_ADDED = 3;
+	private static final byte RECORD_CHANGE_REMOVED = 4;
+	private static final byte RECORD_CHANGES_REORDERED = 5;
+	private static final byte RECORD_CHANGE_EDITED = 6;
+	private static final byte RECORD_ROWS = 7;
+	
+	private final Project project;
+	private final File projectFile;
+	private final File journalFile;
+	
+	// How much of the journal file holds complete records, or -1 if it needs to be started afresh.
+	private long journalLength = -1;
+	
+	// Records that have been framed by prepareFlush() but not yet written to the journal file.
+	private final ByteArrayOutputStream unwrittenRecords = new ByteArrayOutputStream();
+	private int unwrittenRecordCount = 0;
+	
+	// Held while the journal file is written to or deleted. Always taken before 'this'.
+	private final Object fileLock = new Object();
+	
+	// Edits that haven't been written to the journal yet.
+	private final List<Record> pendingRecords = new ArrayList<>();
+	private final Set<Change> changesAdded = new LinkedHashSet<>();
+	private final Set<Change> changesEdited = new LinkedHashSet<>();
+	private final Set<Dataset> datasetsEdited = new LinkedHashSet<>();
+	private boolean projectEdited = false;
+	private boolean fullSaveRequired = false;
+	
+	// What we've recorded so far, so we can tell when it changes.
+	private final Map<Dataset, Long> rowsModificationCounts = new HashMap<>();
+	private final Map<Dataset, String> nameExtractors = new HashMap<>();
+	
+	// Listeners we need to remove when we're detached, or when the dataset or change
+	// they're listening to is removed.
+	private final List<Runnable> detachers = new ArrayList<>();
+	private final Map<Dataset, List<Runnable>> datasetDetachers = new HashMap<>();
+	private final Map<Change, InvalidationListener> changeListeners = new HashMap<>();
+	private boolean attached = false;
+	
+	/**
+	 * @param projectFile A project file.
+	 * @return The journal file for that project file. It may not exist.
+	 */
+	public static File getJournalFile(File projectFile) {
+		return new File(projectFile.getPath() + JOURNAL_SUFFIX);
+	}
+	
+	/**
+	 * Create a journal for a project. It won't record anything until attach() is called.
+	 * 
+	 * @param project The project to journal.
+	 * @param projectFile The file the project was last loaded from or saved to.
+	 */
+	public ProjectJournal(Project project, File projectFile) {
+		this.project = project;
+		this.projectFile = projectFile;
+		this.journalFile = getJournalFile(projectFile);
+	}
+	
+	public File getFile() { return journalFile; }
+	
+	/** @return The number of bytes of records in the journal file. */
+	public synchronized long getLength() { return Math.max(0, journalLength - HEADER_LENGTH); }
+	
+	/** @return True if edits have been made that the journal can't record. */
+	public synchronized boolean isFullSaveRequired() { return fullSaveRequired; }
+	
+	/* Recording edits */
+	
+	/**
+	 * Start recording the edits made to our project. Any edits made before this is
+	 * called are not recorded.
+	 */
+	public synchronized void attach() {
+		if(attached)
+			return;
+		attached = true;
+		
+		InvalidationListener projectListener = obs -> projectEdited();
+		project.projectNameProperty().addListener(projectListener);
+		project.propertiesProperty().addListener(projectListener);
+		detachers.add(() -> project.projectNameProperty().removeListener(projectListener));
+		detachers.add(() -> project.propertiesProperty().removeListener(projectListener));
+		
+		InvalidationListener fullSaveListener = obs -> fullSaveRequired();
+		project.datasetsProperty().addListener(fullSaveListener);
+		project.changeFilterProperty().addListener(fullSaveListener);
+		detachers.add(() -> project.datasetsProperty().removeListener(fullSaveListener));
+		detachers.add(() -> project.changeFilterProperty().removeListener(fullSaveListener));
+		
+		// Datasets added after we attach need a full save anyway, which starts a new
+		// journal, so we only need to stop listening to datasets that are removed.
+		ListChangeListener<Dataset> datasetsListener = c -> datasetsChanged(c);
+		project.datasetsProperty().addListener(datasetsListener);
+		detachers.add(() -> project.datasetsProperty().removeListener(datasetsListener));
+		
+		for(Dataset ds: project.getDatasets()) {
+			attachToDataset(ds);
+		}
+	}
+	
+	/**
+	 * Stop recording edits made to our project. Edits that haven't been written out
+	 * are forgotten.
+	 */
+	public void detach() {
+		synchronized(fileLock) {
+			synchronized(this) {
+				detachers.forEach(Runnable::run);
+				detachers.clear();
+				datasetDetachers.values().forEach(list -> list.forEach(Runnable::run));
+				datasetDetachers.clear();
+				changeListeners.forEach((ch, listener) -> removeChangeListener(ch, listener));
+				changeListeners.clear();
+				forgetPendingEdits();
+				forgetUnwrittenRecords();
+				attached = false;
+			}
+		}
+	}
+	
+	private void attachToDataset(Dataset ds) {
+		rowsModificationCounts.put(ds, ds.getRowsModificationCount());
+		nameExtractors.put(ds, ds.getNameExtractorsAsString());
+		
+		List<Runnable> dsDetachers = datasetDetachers.computeIfAbsent(ds, d -> new ArrayList<>());
+		
+		InvalidationListener datasetListener = obs -> datasetEdited(ds);
+		List<Observable> observables = new ArrayList<>();
+		observables.add(ds.nameProperty());
+		observables.add(ds.dateProperty());
+		observables.add(ds.typeProperty());
+		observables.add(ds.propertiesProperty());
+		for(Observable obs: observables) {
+			obs.addListener(datasetListener);
+			dsDetachers.add(() -> obs.removeListener(datasetListener));
+		}
+		
+		ListChangeListener<Change> changesListener = c -> explicitChangesEdited(ds, c);
+		ds.explicitChangesProperty().addListener(changesListener);
+		dsDetachers.add(() -> ds.explicitChangesProperty().removeListener(changesListener));
+		
+		for(Change ch: ds.explicitChangesProperty()) {
+			attachToChange(ch);
+		}
+	}
+	
+	private void detachFromDataset(Dataset ds) {
+		List<Runnable> dsDetachers = datasetDetachers.remove(ds);
+		if(dsDetachers != null)
+			dsDetachers.forEach(Runnable::run);
+		
+		for(Change ch: ds.explicitChangesProperty()) {
+			detachFromChange(ch);
+		}
+		
+		rowsModificationCounts.remove(ds);
+		nameExtractors.remove(ds);
+	}
+	
+	private void attachToChange(Change ch) {
+		if(changeListeners.containsKey(ch))
+			return;
+		
+		InvalidationListener listener = obs -> changeEdited(ch);
+		ch.typeProperty().addListener(listener);
+		ch.fromProperty().addListener(listener);
+		ch.toProperty().addListener(listener);
+		ch.citationsProperty().addListener(listener);
+		ch.propertiesProperty().addListener(listener);
+		changeListeners.put(ch, listener);
+	}
+	
+	private void detachFromChange(Change ch) {
+		InvalidationListener listener = changeListeners.remove(ch);
+		if(listener != null)
+			removeChangeListener(ch, listener);
+	}
+	
+	private void removeChangeListener(Change ch, InvalidationListener listener) {
+		ch.typeProperty().removeListener(listener);
+		ch.fromProperty().removeListener(listener);
+		ch.toProperty().removeListener(listener);
+		ch.citationsProperty().removeListener(listener);
+		ch.propertiesProperty().removeListener(listener);
+	}
+	
+	private synchronized void projectEdited() {
+		projectEdited = true;
+	}
+	
+	private synchronized void fullSaveRequired() {
+		fullSaveRequired = true;
+	}
+	
+	private synchronized void datasetEdited(Dataset ds) {
+		datasetsEdited.add(ds);
+	}
+	
+	private synchronized void changeEdited(Change ch) {
+		changesEdited.add(ch);
+	}
+	
+	private synchronized void datasetsChanged(ListChangeListener.Change<? extends Dataset> c) {
+		while(c.next()) {
+			for(Dataset ds: c.getRemoved()) {
+				// Datasets that are only being moved are still in the project.
+				if(!project.getDatasets().contains(ds))
+					detachFromDataset(ds);
+			}
+		}
+	}
+	
+	private synchronized void explicitChangesEdited(Dataset ds, ListChangeListener.Change<? extends Change> c) {
+		// Stop listening to removed changes; any that are being moved will be 
+		// attached to again when they're added.
+		while(c.next()) {
+			for(Change ch: c.getRemoved()) {
+				detachFromChange(ch);
+			}
+		}
+		c.reset();
+		
+		int datasetIndex = project.getDatasets().indexOf(ds);
+		if(datasetIndex == -1) {
+			fullSaveRequired = true;
+			return;
+		}
+		
+		while(c.next()) {
+			int from = c.getFrom();
+			
+			if(c.wasPermutated()) {
+				int[] permutation = new int[c.getTo() - from];
+				for(int x = 0; x < permutation.length; x++) {
+					permutation[x] = c.getPermutation(from + x);
+				}
+				
+				pendingRecords.add(out -> {
+					out.writeByte(RECORD_CHANGES_REORDERED);
+					out.writeInt(datasetIndex);
+					out.writeInt(from);
+					out.writeInt(permutation.length);
+					for(int newIndex: permutation) {
+						out.writeInt(newIndex);
+					}
+				});
+				continue;
+			}
+			
+			// Removals come before additions, as they do in the list change.
+			for(int x = 0; x < c.getRemovedSize(); x++) {
+				pendingRecords.add(out -> {
+					out.writeByte(RECORD_CHANGE_REMOVED);
+					out.writeInt(datasetIndex);
+					out.writeInt(from);
+				});
+			}
+			
+			int index = from;
+			for(Change ch: c.getAddedSubList()) {
+				int changeIndex = index++;
+				
+				// Changes are written out as they are when we flush, so we don't 
+				// need to record their edits separately.
+				attachToChange(ch);
+				changesAdded.add(ch);
+				pendingRecords.add(out -> {
+					out.writeByte(RECORD_CHANGE_ADDED);
+					out.writeInt(datasetIndex);
+					out.writeInt(changeIndex);
+					writeChange(out, ch);
+				});
+			}
+		}
+	}
+	
+	private void forgetPendingEdits() {
+		pendingRecords.clear();
+		changesAdded.clear();
+		changesEdited.clear();
+		datasetsEdited.clear();
+		projectEdited = false;
+	}
+	
+	private void forgetUnwrittenRecords() {
+		unwrittenRecords.reset();
+		unwrittenRecordCount = 0;
+	}
+	
+	/**
+	 * Write out every edit made since the last flush to the end of the journal.
+	 * Once this returns, those edits will survive a crash. This is prepareFlush()
+	 * followed by writePrepared(), so it must be called on the thread that edits
+	 * our project.
+	 * 
+	 * @return False if edits have been made that can't be journaled, in which case
+	 * 	nothing is written and the project needs to be saved in full; true otherwise.
+	 * @throws IOException If the journal could not be written.
+	 */
+	public boolean flush() throws IOException {
+		if(!prepareFlush())
+			return false;
+		
+		writePrepared();
+		return true;
+	}
+	
+	/**
+	 * Record every edit made since the last flush, ready to be written to the journal
+	 * by writePrepared(). This reads our project, so it must be called on the thread 
+	 * that edits it (usually the JavaFX application thread); once it returns, further
+	 * edits won't change what gets written.
+	 * 
+	 * @return False if edits have been made that can't be journaled, in which case
+	 * 	nothing is recorded and the project needs to be saved in full; true otherwise.
+	 * @throws IOException If the edits could not be recorded.
+	 */
+	public synchronized boolean prepareFlush() throws IOException {
+		if(fullSaveRequired)
+			return false;
+		
+		long startTime = System.nanoTime();
+		
+		List<Record> records = new ArrayList<>(pendingRecords);
+		Map<Dataset, Long> rowCounts = new HashMap<>();
+		Map<Dataset, String> extractors = new HashMap<>();
+		
+		if(projectEdited) {
+			records.add(out -> {
+				out.writeByte(RECORD_PROJECT);
+				writeString(out, project.getName());
+				writeMap(out, project.propertiesProperty());
+			});
+		}
+		
+		List<Dataset> datasets = project.getDatasets();
+		for(int x = 0; x < datasets.size(); x++) {
+			Dataset ds = datasets.get(x);
+			int datasetIndex = x;
+			
+			String dsExtractors = ds.getNameExtractorsAsString();
+			if(datasetsEdited.contains(ds) || !dsExtractors.equals(nameExtractors.get(ds))) {
+				extractors.put(ds, dsExtractors);
+				records.add(out -> {
+					out.writeByte(RECORD_DATASET);
+					out.writeInt(datasetIndex);
+					writeString(out, ds.getName());
+					writeString(out, ds.getType());
+					writeDate(out, ds.getDate());
+					writeString(out, dsExtractors);
+					writeMap(out, ds.getProperties());
+				});
+			}
+			
+			long rowsModificationCount = ds.getRowsModificationCount();
+			Long lastRowsModificationCount = rowsModificationCounts.get(ds);
+			if(lastRowsModificationCount == null || rowsModificationCount != lastRowsModificationCount) {
+				rowCounts.put(ds, rowsModificationCount);
+				records.add(out -> {
+					out.writeByte(RECORD_ROWS);
+					out.writeInt(datasetIndex);
+					writeRows(out, ds);
+				});
+			}
+		}
+		
+		for(Change ch: changesEdited) {
+			// Changes added since the last flush are written out as they are now.
+			if(changesAdded.contains(ch))
+				continue;
+			
+			int datasetIndex = datasets.indexOf(ch.getDataset());
+			int changeIndex = (datasetIndex == -1) ? -1 : ch.getDataset().explicitChangesProperty().indexOf(ch);
+			if(changeIndex == -1)
+				continue;
+			
+			records.add(out -> {
+				out.writeByte(RECORD_CHANGE_EDITED);
+				out.writeInt(datasetIndex);
+				out.writeInt(changeIndex);
+				writeChange(out, ch);
+			});
+		}
+		
+		if(records.isEmpty())
+			return true;
+		
+		// Frame every record with its length and checksum.
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream framed = new DataOutputStream(buffer);
+		ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+		CRC32 crc = new CRC32();
+		for(Record record: records) {
+			recordBuffer.reset();
+			DataOutputStream out = new DataOutputStream(recordBuffer);
+			record.write(out);
+			out.flush();
+			
+			byte[] bytes = recordBuffer.toByteArray();
+			crc.reset();
+			crc.update(bytes);
+			framed.writeInt(bytes.length);
+			framed.writeInt((int) crc.getValue());
+			framed.write(bytes);
+		}
+		framed.flush();
+		buffer.writeTo(unwrittenRecords);
+		unwrittenRecordCount += records.size();
+		
+		forgetPendingEdits();
+		rowsModificationCounts.putAll(rowCounts);
+		nameExtractors.putAll(extractors);
+		
+		LOGGER.log(Level.FINE, "Prepared {0} records for journal {1} in {2} ms", new Object[] {
+			records.size(),
+			journalFile,
+			(System.nanoTime() - startTime)/1e6d
+		});
+		
+		return true;
+	}
+	
+	/**
+	 * Write the records prepared by prepareFlush() to the end of the journal. Once
+	 * this returns, those edits will survive a crash. This only writes to the journal
+	 * file, so it can be called from a background thread. If it fails, the records
+	 * are kept, and will be written by the next call.
+	 * 
+	 * @throws IOException If the journal could not be written.
+	 */
+	public void writePrepared() throws IOException {
+		synchronized(fileLock) {
+			byte[] bytes;
+			int recordCount;
+			long length;
+			synchronized(this) {
+				if(unwrittenRecordCount == 0)
+					return;
+				
+				bytes = unwrittenRecords.toByteArray();
+				recordCount = unwrittenRecordCount;
+				length = journalLength;
+			}
+			
+			long startTime = System.nanoTime();
+			
+			try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+				if(length < 0 || !JournalHeader.of(projectFile).matches(raf)) {
+					// Start a new journal for the project file as it is now.
+					raf.setLength(0);
+					raf.seek(0);
+					JournalHeader.of(projectFile).write(raf);
+					length = HEADER_LENGTH;
+				}
+				
+				// Drop anything after the last complete record, such as a torn write.
+				raf.setLength(length);
+				raf.seek(length);
+				raf.write(bytes);
+				raf.getFD().sync();
+			}
+			
+			// More records may have been prepared while we were writing, but only
+			// after the ones we've written.
+			synchronized(this) {
+				byte[] all = unwrittenRecords.toByteArray();
+				unwrittenRecords.reset();
+				unwrittenRecords.write(all, bytes.length, all.length - bytes.length);
+				unwrittenRecordCount -= recordCount;
+				journalLength = length + bytes.length;
+			}
+			
+			LOGGER.log(Level.INFO, "Wrote {0} records to journal {1} in {2} ms", new Object[] {
+				recordCount,
+				journalFile,
+				(System.nanoTime() - startTime)/1e6d
+			});
+		}
+	}
+	
+	/**
+	 * Our project has just been saved in full, so the edits in the journal are no 
+	 * longer needed: delete it, and start recording edits afresh.
+	 */
+	public void discard() {
+		synchronized(fileLock) {
+			synchronized(this) {
+				if(journalFile.exists() && !journalFile.delete())
+					LOGGER.warning("Could not delete journal " + journalFile + "; it will be ignored as it is out of date");
+				
+				journalLength = -1;
+				forgetPendingEdits();
+				forgetUnwrittenRecords();
+				fullSaveRequired = false;
+				
+				for(Dataset ds: project.getDatasets()) {
+					rowsModificationCounts.put(ds, ds.getRowsModificationCount());
+					nameExtractors.put(ds, ds.getNameExtractorsAsString());
+				}
+			}
+		}
+	}
+	
+	/* Replaying edits */
+	
+	/**
+	 * Apply the edits in the journal to our project, which should have just been 
+	 * loaded from our project file. This should be called before attach(), or the 
+	 * replayed edits will be journaled again.
+	 * 
+	 * @return The number of records replayed.
+	 * @throws IOException If the journal could not be read.
+	 */
+	public synchronized int replay() throws IOException {
+		journalLength = -1;
+		if(!journalFile.exists())
+			return 0;
+		
+		long startTime = System.nanoTime();
+		int count = 0;
+		
+		BulkUpdate bulk = project.beginBulkUpdate();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 65536))) {
+			try {
+				if(!JournalHeader.of(projectFile).matches(in)) {
+					LOGGER.warning("Journal " + journalFile + " does not match project file " + projectFile + ", ignoring");
+					return 0;
+				}
+			} catch(EOFException ex) {
+				LOGGER.warning("Journal " + journalFile + " is incomplete, ignoring");
+				return 0;
+			}
+			
+			long length = HEADER_LENGTH;
+			CRC32 crc = new CRC32();
+			while(true) {
+				byte[] bytes;
+				try {
+					int recordLength = in.readInt();
+					int checksum = in.readInt();
+					if(recordLength < 0 || recordLength > MAX_RECORD_LENGTH)
+						break;
+					
+					bytes = new byte[recordLength];
+					in.readFully(bytes);
+					
+					crc.reset();
+					crc.update(bytes);
+					if((int) crc.getValue() != checksum)
+						break;
+				} catch(EOFException ex) {
+					break;
+				}
+				
+				try {
+					replayRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+				} catch(IOException | RuntimeException ex) {
+					// The journal doesn't fit our project: don't add anything more to it.
+					LOGGER.log(Level.WARNING, "Could not replay record " + count + " from journal " + journalFile + ", stopping", ex);
+					fullSaveRequired = true;
+					break;
+				}
+				
+				length += 8 + bytes.length;
+				count++;
+			}
+			
+			if(length < journalFile.length())
+				LOGGER.warning("Journal " + journalFile + " ends with an incomplete or corrupt record, which was ignored");
+			
+			journalLength = length;
+		} finally {
+			bulk.close();
+		}
+		
+		// Implicit changes depend on explicit changes, so recalculate them for the
+		// datasets we changed and those after them. This is usually done when the 
+		// bulk update closes, in which case this won't recalculate anything.
+		project.updateImplicitChanges();
+		
+		LOGGER.log(Level.INFO, "Replayed {0} records from journal {1} in {2} ms", new Object[] {
+			count,
+			journalFile,
+			(System.nanoTime() - startTime)/1e6d
+		});
+		
+		return count;
+	}
+	
+	private void replayRecord(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		
+		if(type == RECORD_PROJECT) {
+			project.setName(readString(in));
+			Map<String, String> properties = readMap(in);
+			project.propertiesProperty().clear();
+			project.propertiesProperty().putAll(properties);
+			return;
+		}
+		
+		Dataset ds = project.getDatasets().get(in.readInt());
+		
+		switch(type) {
+			case RECORD_DATASET:
+				ds.setName(readString(in));
+				ds.typeProperty().set(readString(in));
+				ds.setDate(readDate(in));
+				
+				String extractors = readString(in);
+				try {
+					ds.setNameExtractorsString(extractors);
+				} catch(NameExtractorParseException ex) {
+					LOGGER.warning("Could not set name extractors on " + ds + " to " + extractors + ": " + ex);
+				}
+				
+				Map<String, String> properties = readMap(in);
+				ds.propertiesProperty().clear();
+				ds.propertiesProperty().putAll(properties);
+				break;
+				
+			case RECORD_CHANGE_ADDED: {
+				int index = in.readInt();
+				
+				Change ch = new Change(ds, ChangeType.of(readString(in)), readNames(in).stream(), readNames(in).stream(), false);
+				readChangeDetails(in, ch);
+				ch.registerToDataset();
+				ds.explicitChangesProperty().add(index, ch);
+				break;
+			}
+				
+			case RECORD_CHANGE_REMOVED:
+				ds.explicitChangesProperty().remove(in.readInt());
+				break;
+				
+			case RECORD_CHANGES_REORDERED: {
+				int from = in.readInt();
+				int count = in.readInt();
+				
+				List<Change> changes = new ArrayList<>(ds.explicitChangesProperty());
+				for(int x = 0; x < count; x++) {
+					changes.set(in.readInt(), ds.explicitChangesProperty().get(from + x));
+				}
+				ds.explicitChangesProperty().setAll(changes);
+				break;
+			}
+				
+			case RECORD_CHANGE_EDITED: {
+				Change ch = ds.explicitChangesProperty().get(in.readInt());
+				
+				// Don't let the dataset recalculate itself for every property we set.
+				ch.unregisterFromDataset();
+				try {
+					ch.typeProperty().set(ChangeType.of(readString(in)));
+					List<Name> from = readNames(in);
+					ch.getFrom().retainAll(from);
+					ch.getFrom().addAll(from);
+					List<Name> to = readNames(in);
+					ch.getTo().retainAll(to);
+					ch.getTo().addAll(to);
+					ch.getProperties().clear();
+					ch.getCitations().clear();
+					readChangeDetails(in, ch);
+				} finally {
+					ch.registerToDataset();
+				}
+				break;
+			}
+				
+			case RECORD_ROWS:
+				readRows(in, ds);
+				break;
+				
+			default:
+				throw new IOException("Unknown record type " + type);
+		}
+	}
+	
+	/* Changes */
+	
+	private static void writeChange(DataOutputStream out, Change ch) throws IOException {
+		writeString(out, ch.getType().getType());
+		writeNames(out, ch.getFrom());
+		writeNames(out, ch.getTo());
+		writeMap(out, ch.getProperties());
+		
+		out.writeInt(ch.getCitations().size());
+		for(Citation citation: ch.getCitations()) {
+			writeString(out, citation.getCitation());
+			writeDate(out, citation.getDate());
+			writeMap(out, citation.getProperties());
+			
+			out.writeInt(citation.getTags().size());
+			for(Tag tag: citation.getTags()) {
+				writeString(out, tag.getName());
+			}
+		}
+	}
+	
+	/* Reads everything after the 'to' names. */
+	private static void readChangeDetails(DataInputStream in, Change ch) throws IOException {
+		ch.getProperties().putAll(readMap(in));
+		
+		int citationCount = in.readInt();
+		for(int x = 0; x < citationCount; x++) {
+			Citation citation = new Citation(readString(in), readDate(in));
+			citation.getProperties().clear();
+			citation.getProperties().putAll(readMap(in));
+			
+			int tagCount = in.readInt();
+			for(int y = 0; y < tagCount; y++) {
+				citation.getTags().add(Tag.fromName(readString(in)));
+			}
+			ch.getCitations().add(citation);
+		}
+	}
+	
+	/* Rows */
+	
+	private static void writeRows(DataOutputStream out, Dataset ds) throws IOException {
+		out.writeInt(ds.getColumns().size());
+		for(DatasetColumn col: ds.getColumns()) {
+			writeString(out, col.getName());
+		}
+		
+		List<DatasetRow> rows = ds.rowsProperty();
+		out.writeInt(rows.size());
+		for(DatasetRow row: rows) {
+			Map<DatasetColumn, String> values = row.asMap();
+			out.writeInt(values.size());
+			for(DatasetColumn col: values.keySet()) {
+				writeString(out, col.getName());
+				writeString(out, values.get(col));
+			}
+		}
+	}
+	
+	private static void readRows(DataInputStream in, Dataset ds) throws IOException {
+		int columnCount = in.readInt();
+		List<DatasetColumn> columns = new ArrayList<>(columnCount);
+		for(int x = 0; x < columnCount; x++) {
+			columns.add(DatasetColumn.of(readString(in)));
+		}
+		
+		int rowCount = in.readInt();
+		List<DatasetRow> rows = new ArrayList<>(rowCount);
+		for(int x = 0; x < rowCount; x++) {
+			Map<DatasetColumn, String> values = new LinkedHashMap<>();
+			int valueCount = in.readInt();
+			for(int y = 0; y < valueCount; y++) {
+				DatasetColumn col = DatasetColumn.of(readString(in));
+				values.put(col, readString(in));
+			}
+			rows.add(new DatasetRow(ds, values));
+		}
+		
+		BulkUpdate bulk = ds.beginBulkUpdate();
+		try {
+			ds.setColumns(columns);
+			ds.rowsProperty().setAll(rows);
+		} finally {
+			bulk.close();
+		}
+	}
+	
+	/* Values */
+	
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if(str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for(String key: map.keySet()) {
+			writeString(out, key);
+			writeString(out, map.get(key));
+		}
+	}
+	
+	private static Map<String, String> readMap(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Map<String, String> map = new HashMap<>();
+		for(int x = 0; x < count; x++) {
+			String key = readString(in);
+			map.put(key, readString(in));
+		}
+		return map;
+	}
+	
+	private static void writeDate(DataOutputStream out, SimplifiedDate date) throws IOException {
+		out.writeInt(date.getYear());
+		out.writeInt(date.getMonth());
+		out.writeInt(date.getDay());
+	}
+	
+	private static SimplifiedDate readDate(DataInputStream in) throws IOException {
+		int year = in.readInt();
+		int month = in.readInt();
+		int day = in.readInt();
+		return new SimplifiedDate(year, month, day);
+	}
+	
+	/* Names are written as their genus and epithets, as in ProjectSnapshot. */
+	private static void writeNames(DataOutputStream out, Set<Name> names) throws IOException {
+		out.writeInt(names.size());
+		for(Name n: names) {
+			String infraspecificEpithets = n.getInfraspecificEpithetsAsString();
+			
+			writeString(out, n.getGenus());
+			writeString(out, n.hasSpecificEpithet() ? n.getSpecificEpithet() : null);
+			writeString(out, (infraspecificEpithets == null || infraspecificEpithets.isEmpty()) ? null : infraspecificEpithets);
+		}
+	}
+	
+	private static List<Name> readNames(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<Name> names = new ArrayList<>(count);
+		for(int x = 0; x < count; x++) {
+			String genus = readString(in);
+			String specificEpithet = readString(in);
+			String infraspecificEpithets = readString(in);
+			
+			if(infraspecificEpithets != null)
+				names.add(Name.get(genus, specificEpithet, infraspecificEpithets));
+			else if(specificEpithet == null)
+				names.add(Name.getFromGenus(genus));
+			else
+				names.add(Name.get(genus, specificEpithet));
+		}
+		return names;
+	}
+	
+	/**
+	 * A record waiting to be written to the journal.
+	 */
+	@FunctionalInterface
+	private interface Record {
+		public void write(DataOutputStream out) throws IOException;
+	}
+	
+	/**
+	 * The length and modification time of the project file a journal applies to,
+	 * as recorded in the journal's header.
+	 */
+	private static final class JournalHeader {
+		private final long projectFileLength;
+		private final long projectFileLastModified;
+		
+		private JournalHeader(long projectFileLength, long projectFileLastModified) {
+			this.projectFileLength = projectFileLength;
+			this.projectFileLastModified = projectFileLastModified;
+		}
+		
+		public static JournalHeader of(File projectFile) {
+			return new JournalHeader(projectFile.length(), projectFile.lastModified());
+		}
+		
+		public void write(RandomAccessFile raf) throws IOException {
+			raf.writeLong(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeLong(projectFileLength);
+			raf.writeLong(projectFileLastModified);
+		}
+		
+		public boolean matches(DataInput in) throws IOException {
+			return in.readLong() == MAGIC 
+				&& in.readInt() == VERSION 
+				&& in.readLong() == projectFileLength
+				&& in.readLong() == projectFileLastModified;
+		}
+		
+		public boolean matches(RandomAccessFile raf) throws IOException {
+			if(raf.length() < HEADER_LENGTH)
+				return false;
+			
+			raf.seek(0);
+			return matches((DataInput) raf);
+		}
+	}
+}
@@ -0,0 +1,839 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import com.ggvaidya.scinames.model.Change;
+import com.ggvaidya.scinames.model.ChangeType;
+import com.ggvaidya.scinames.model.Citation;
+import com.ggvaidya.scinames.model.Dataset;
+import com.ggvaidya.scinames.model.DatasetColumn;
+import com.ggvaidya.scinames.model.DatasetRow;
+import com.ggvaidya.scinames.model.DatasetRowSource;
+import com.ggvaidya.scinames.model.Name;
+import com.ggvaidya.scinames.model.Project;
+import com.ggvaidya.scinames.model.Tag;
+import com.ggvaidya.scinames.model.filters.ChangeFilter;
+import com.ggvaidya.scinames.model.filters.ChangeFilterFactory;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorParseException;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.RowPin;
+import com.ggvaidya.scinames.util.SimplifiedDate;
+
+/**
+ * A compact binary snapshot of a project, stored next to its XML file, which
+ * can be loaded much faster than the XML. Snapshots are rebuilt every time the
+ * project is saved, and are only used if they were written after the XML file
+ * they were made from was last modified.
+ * 
+ * A snapshot consists of:
+ *  - A header: the magic number, the format version, the length and modification
+ *    time of the XML file it was made from, and the offset of the string table.
+ *  - The body: the project, its filters and its datasets. Every string is stored
+ *    as an index into the string table, and every name as an index into the name
+ *    dictionary. Each dataset includes its row count and the names in its rows,
+ *    so it can be used without reading its rows at all.
+ *  - The rows of each dataset, stored in a self-contained section within that
+ *    dataset, so they can be read (and reread) on their own. Rows are stored by 
+ *    column: for each column, a dictionary of its distinct values, and then the 
+ *    code of every row's value in that dictionary.
+ *  - The name dictionary, the string table and the dataset index, which are written
+ *    last, since we only know what's in them once the body has been written. 
+ *    Strings are stored as length-prefixed UTF-8. The dataset index records the
+ *    offset and length of every dataset's rows.
+ * 
+ * Datasets read from a snapshot page their rows in from it only when they're 
+ * needed (see Dataset.pageRowsFrom()).
+ * 
+ * All counts and indexes are written as variable-length integers, so small 
+ * numbers only take up a single byte.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class ProjectSnapshot {
+	private static final Logger LOGGER = Logger.getLogger(ProjectSnapshot.class.getSimpleName());
+	
+	private static final long MAGIC = 0x53434E534E415031L; // "SCNSNAP1"
+	private static final int VERSION = 2;
+	
+	/** Snapshot files are named after the project file, with this suffix. */
+	public static final String SNAPSHOT_SUFFIX = ".snapshot";
+	
+	/* Offsets into the header. */
+	private static final long HEADER_TABLES_OFFSET = 8 + 4 + 8 + 8;
+	private static final int HEADER_LENGTH = 8 + 4 + 8 + 8 + 8;
+	
+	/**
+	 * @param projectFile A project file.
+	 * @return The snapshot file for that project file. It may not exist.
+	 */
+	public static File getSnapshotFile(File projectFile) {
+		return new File(projectFile.getPath() + SNAPSHOT_SUFFIX);
+	}
+	
+	/**
+	 * Is there a snapshot of this project file that's at least as new as the file itself?
+	 * 
+	 * @param projectFile A project file.
+	 * @return True if a usable snapshot exists for this project file.
+	 */
+	public static boolean hasUpToDateSnapshot(File projectFile) {
+		File snapshotFile = getSnapshotFile(projectFile);
+		if(!snapshotFile.canRead() || snapshotFile.lastModified() < projectFile.lastModified())
+			return false;
+		
+		try (DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile))) {
+			return SnapshotHeader.of(projectFile).matches(in);
+		} catch(IOException ex) {
+			return false;
+		}
+	}
+	
+	/* Writing */
+	
+	/**
+	 * Write a snapshot of a project that has just been saved to a project file.
+	 * 
+	 * @param project The project to write.
+	 * @param projectFile The file the project was just saved to.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	public static void write(Project project, File projectFile) throws IOException {
+		long startTime = System.nanoTime();
+		File snapshotFile = getSnapshotFile(projectFile);
+		
+		// Datasets might be paging their rows in from our current snapshot (and we 
+		// might copy rows out of it), so write the new snapshot next to it and only
+		// replace it once we're done.
+		File newSnapshotFile = new File(snapshotFile.getPath() + ".new");
+		
+		Writer writer;
+		try (FileOutputStream fos = new FileOutputStream(newSnapshotFile)) {
+			CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fos, 65536));
+			DataOutputStream out = new DataOutputStream(counter);
+			writer = new Writer(counter);
+			
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(projectFile.length());
+			out.writeLong(projectFile.lastModified());
+			out.writeLong(0); // Offset of the tables, filled in below.
+			
+			writer.writeProject(out, project);
+			
+			// Now that we know every name and string, write them out.
+			out.flush();
+			long tablesOffset = counter.getByteCount();
+			writer.writeTables(out);
+			out.flush();
+			
+			// Go back and fill in the offset of the tables.
+			fos.getChannel().position(HEADER_TABLES_OFFSET);
+			DataOutputStream header = new DataOutputStream(fos);
+			header.writeLong(tablesOffset);
+			header.flush();
+		} catch(IOException | RuntimeException ex) {
+			// Don't leave a broken snapshot lying around.
+			newSnapshotFile.delete();
+			throw ex;
+		}
+		
+		Files.move(newSnapshotFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		// Our datasets can now page their rows in from the new snapshot, unless 
+		// they were edited after we wrote them out.
+		SnapshotHeader header = SnapshotHeader.of(projectFile);
+		List<Dataset> datasets = writer.datasets;
+		for(int x = 0; x < datasets.size(); x++) {
+			Dataset ds = datasets.get(x);
+			if(ds.getRowsModificationCount() == writer.rowModifications.get(x))
+				ds.setRowSource(new SnapshotRowSource(snapshotFile, header, writer.rowOffsets.get(x), writer.rowLengths.get(x)));
+			else
+				ds.setRowSource(null);
+		}
+		
+		LOGGER.log(Level.INFO, "Wrote project snapshot to {0} in {1} ms", new Object[] {
+			snapshotFile,
+			(System.nanoTime() - startTime)/1e6d
+		});
+	}
+	
+	/**
+	 * Keeps track of the strings and names written so far, so we can write out
+	 * their tables once we're done.
+	 */
+	private static class Writer {
+		private final Map<String, Integer> stringIndexes = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+		private final Map<Name, Integer> nameIndexes = new HashMap<>();
+		private final List<Name> names = new ArrayList<>();
+		private final CountingOutputStream counter;
+		private final List<Dataset> datasets = new ArrayList<>();
+		private final List<Long> rowOffsets = new ArrayList<>();
+		private final List<Long> rowLengths = new ArrayList<>();
+		private final List<Long> rowModifications = new ArrayList<>();
+		private Document doc = null;
+		
+		public Writer(CountingOutputStream counter) {
+			this.counter = counter;
+		}
+		
+		/* Strings are written as their index in the string table plus one, so that null can be zero. */
+		private void writeString(DataOutputStream out, String str) throws IOException {
+			if(str == null) {
+				writeVarInt(out, 0);
+				return;
+			}
+			
+			Integer index = stringIndexes.get(str);
+			if(index == null) {
+				index = strings.size();
+				strings.add(str);
+				stringIndexes.put(str, index);
+			}
+			writeVarInt(out, index + 1);
+		}
+		
+		private void writeName(DataOutputStream out, Name name) throws IOException {
+			Integer index = nameIndexes.get(name);
+			if(index == null) {
+				index = names.size();
+				names.add(name);
+				nameIndexes.put(name, index);
+			}
+			writeVarInt(out, index);
+		}
+		
+		private void writeNames(DataOutputStream out, Set<Name> namesToWrite) throws IOException {
+			writeVarInt(out, namesToWrite.size());
+			for(Name n: namesToWrite) {
+				writeName(out, n);
+			}
+		}
+		
+		private void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+			writeVarInt(out, map.size());
+			for(String key: map.keySet()) {
+				writeString(out, key);
+				writeString(out, map.get(key));
+			}
+		}
+		
+		private void writeDate(DataOutputStream out, SimplifiedDate date) throws IOException {
+			writeVarInt(out, date.getYear());
+			writeVarInt(out, date.getMonth());
+			writeVarInt(out, date.getDay());
+		}
+		
+		public void writeProject(DataOutputStream out, Project project) throws IOException {
+			writeString(out, project.getName());
+			writeMap(out, project.propertiesProperty());
+			
+			// Filters are written as the attributes of the elements they would be saved as in XML.
+			List<ChangeFilter> filters = new ArrayList<>(project.getChangeFiltersToSerialize());
+			writeVarInt(out, filters.size());
+			for(ChangeFilter cf: filters) {
+				Element filter = cf.serializeToElement(getDocument());
+				NamedNodeMap attributes = filter.getAttributes();
+				
+				Map<String, String> attrs = new HashMap<>();
+				for(int x = 0; x < attributes.getLength(); x++) {
+					attrs.put(attributes.item(x).getNodeName(), attributes.item(x).getNodeValue());
+				}
+				writeMap(out, attrs);
+			}
+			
+			writeVarInt(out, project.getDatasets().size());
+			for(Dataset ds: project.getDatasets()) {
+				writeDataset(out, ds);
+			}
+		}
+		
+		private Document getDocument() throws IOException {
+			if(doc == null) {
+				try {
+					doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+				} catch(ParserConfigurationException ex) {
+					throw new IOException("Could not create document for change filters: " + ex, ex);
+				}
+			}
+			return doc;
+		}
+		
+		private void writeDataset(DataOutputStream out, Dataset ds) throws IOException {
+			writeString(out, ds.getName());
+			writeString(out, ds.getType());
+			writeDate(out, ds.getDate());
+			writeString(out, ds.getNameExtractorsAsString());
+			writeMap(out, ds.getProperties());
+			
+			writeVarInt(out, ds.explicitChangesProperty().size());
+			for(Change ch: ds.explicitChangesProperty()) {
+				writeString(out, ch.getType().getType());
+				writeNames(out, ch.getFrom());
+				writeNames(out, ch.getTo());
+				writeMap(out, ch.getProperties());
+				
+				writeVarInt(out, ch.getCitations().size());
+				for(Citation citation: ch.getCitations()) {
+					writeString(out, citation.getCitation());
+					writeDate(out, citation.getDate());
+					writeMap(out, citation.getProperties());
+					
+					writeVarInt(out, citation.getTags().size());
+					for(Tag tag: citation.getTags()) {
+						writeString(out, tag.getName());
+					}
+				}
+			}
+			
+			writeVarInt(out, ds.getColumns().size());
+			for(DatasetColumn col: ds.getColumns()) {
+				writeString(out, col.getName());
+			}
+			
+			writeVarInt(out, ds.getRowCount());
+			writeNames(out, ds.getNamesInAllRows());
+			
+			// Our DataOutputStream doesn't buffer, so the counter is up to date.
+			long rowOffset = counter.getByteCount();
+			long modifications = ds.getRowsModificationCount();
+			
+			// Rows that are paged out of a snapshot can be copied from it as they are,
+			// without paging them in. Otherwise, make sure our rows don't get paged 
+			// out while we write them.
+			SnapshotRowSource source = ds.getRowSource()
+				.filter(src -> src instanceof SnapshotRowSource)
+				.map(src -> (SnapshotRowSource) src)
+				.orElse(null);
+			
+			if(!ds.areRowsLoaded() && source != null) {
+				source.copyRowsTo(out);
+			} else {
+				RowPin pin = ds.pinRows();
+				try {
+					modifications = ds.getRowsModificationCount();
+					writeRows(out, ds);
+				} finally {
+					pin.close();
+				}
+			}
+			
+			datasets.add(ds);
+			rowOffsets.add(rowOffset);
+			rowLengths.add(counter.getByteCount() - rowOffset);
+			rowModifications.add(modifications);
+		}
+		
+		/* Rows don't use the string table, so they can be read on their own. */
+		private void writeRows(DataOutputStream out, Dataset ds) throws IOException {
+			// Rows might have values in columns that aren't in the list of columns.
+			List<DatasetRow> rows = ds.rowsProperty();
+			Set<DatasetColumn> rowColumns = new LinkedHashSet<>(ds.getColumns());
+			for(DatasetRow row: rows) {
+				rowColumns.addAll(row.getColumns());
+			}
+			
+			writeVarInt(out, rows.size());
+			writeVarInt(out, rowColumns.size());
+			int[] codes = new int[rows.size()];
+			for(DatasetColumn col: rowColumns) {
+				writeUTF8(out, col.getName());
+				
+				// Code zero means a blank value, which (as in the XML) isn't saved.
+				Map<String, Integer> dictionary = new LinkedHashMap<>();
+				int index = 0;
+				for(DatasetRow row: rows) {
+					String val = row.get(col);
+					codes[index++] = (val == null || val.equals("")) ? 0 : dictionary.computeIfAbsent(val, v -> dictionary.size() + 1);
+				}
+				
+				writeVarInt(out, dictionary.size());
+				for(String val: dictionary.keySet()) {
+					writeUTF8(out, val);
+				}
+				for(int code: codes) {
+					writeVarInt(out, code);
+				}
+			}
+		}
+		
+		public void writeTables(DataOutputStream out) throws IOException {
+			// Names refer to strings, so write them out first.
+			writeVarInt(out, names.size());
+			for(Name n: names) {
+				writeString(out, n.getGenus());
+				writeString(out, n.hasSpecificEpithet() ? n.getSpecificEpithet() : null);
+				
+				// As in the XML, names without infraspecific epithets don't store them.
+				String infraspecificEpithets = n.getInfraspecificEpithetsAsString();
+				writeString(out, (infraspecificEpithets == null || infraspecificEpithets.isEmpty()) ? null : infraspecificEpithets);
+			}
+			
+			writeVarInt(out, strings.size());
+			for(String str: strings) {
+				writeUTF8(out, str);
+			}
+			
+			writeVarInt(out, rowOffsets.size());
+			for(int x = 0; x < rowOffsets.size(); x++) {
+				out.writeLong(rowOffsets.get(x));
+				out.writeLong(rowLengths.get(x));
+			}
+		}
+	}
+	
+	/* Reading */
+	
+	/**
+	 * Read a project from a snapshot. The project file isn't read, but the 
+	 * snapshot must have been written from it. Datasets will page their rows 
+	 * in from the snapshot when they're first needed.
+	 * 
+	 * @param projectFile The project file whose snapshot should be read.
+	 * @return The project read from the snapshot.
+	 * @throws IOException If the snapshot could not be read, or is out of date.
+	 */
+	public static Project read(File projectFile) throws IOException {
+		return read(projectFile, true);
+	}
+	
+	/**
+	 * Read a project from a snapshot. The project file isn't read, but the 
+	 * snapshot must have been written from it.
+	 * 
+	 * @param projectFile The project file whose snapshot should be read.
+	 * @param pageRows If true, datasets page their rows in from the snapshot when 
+	 * 	they're first needed; otherwise, every row is read right away.
+	 * @return The project read from the snapshot.
+	 * @throws IOException If the snapshot could not be read, or is out of date.
+	 */
+	public static Project read(File projectFile, boolean pageRows) throws IOException {
+		long startTime = System.nanoTime();
+		File snapshotFile = getSnapshotFile(projectFile);
+		
+		if(!hasUpToDateSnapshot(projectFile))
+			throw new IOException("Snapshot '" + snapshotFile + "' is missing or out of date");
+		
+		Reader reader = new Reader(snapshotFile, SnapshotHeader.of(projectFile), pageRows);
+		
+		// Read the tables first.
+		try (RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r")) {
+			raf.seek(HEADER_TABLES_OFFSET);
+			long tablesOffset = raf.readLong();
+			raf.seek(tablesOffset);
+			
+			reader.readTables(new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), 65536)));
+		}
+		
+		Project project;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 65536))) {
+			in.skipBytes(HEADER_LENGTH);
+			project = reader.readProject(in);
+		} catch(EOFException | IndexOutOfBoundsException | IllegalArgumentException ex) {
+			throw new IOException("Snapshot '" + snapshotFile + "' is corrupt: " + ex, ex);
+		}
+		
+		LOGGER.log(Level.INFO, "Read project from snapshot {0} in {1} ms", new Object[] {
+			snapshotFile,
+			(System.nanoTime() - startTime)/1e6d
+		});
+		
+		return project;
+	}
+	
+	private static class Reader {
+		private final File snapshotFile;
+		private final SnapshotHeader header;
+		private final boolean pageRows;
+		private String[] strings;
+		private Name[] names;
+		private long[] rowOffsets;
+		private long[] rowLengths;
+		
+		public Reader(File snapshotFile, SnapshotHeader header, boolean pageRows) {
+			this.snapshotFile = snapshotFile;
+			this.header = header;
+			this.pageRows = pageRows;
+		}
+		
+		private String readString(DataInputStream in) throws IOException {
+			int index = readVarInt(in);
+			return (index == 0) ? null : strings[index - 1];
+		}
+		
+		private List<Name> readNames(DataInputStream in) throws IOException {
+			int count = readVarInt(in);
+			List<Name> results = new ArrayList<>(count);
+			for(int x = 0; x < count; x++) {
+				results.add(names[readVarInt(in)]);
+			}
+			return results;
+		}
+		
+		private Map<String, String> readMap(DataInputStream in) throws IOException {
+			int count = readVarInt(in);
+			Map<String, String> map = new HashMap<>();
+			for(int x = 0; x < count; x++) {
+				String key = readString(in);
+				map.put(key, readString(in));
+			}
+			return map;
+		}
+		
+		private SimplifiedDate readDate(DataInputStream in) throws IOException {
+			int year = readVarInt(in);
+			int month = readVarInt(in);
+			int day = readVarInt(in);
+			return new SimplifiedDate(year, month, day);
+		}
+		
+		public void readTables(DataInputStream in) throws IOException {
+			// The name table refers to the string table, which comes after it, so
+			// hold on to the string indexes until we've read the strings.
+			int nameCount = readVarInt(in);
+			int[] nameStrings = new int[nameCount * 3];
+			for(int x = 0; x < nameStrings.length; x++) {
+				nameStrings[x] = readVarInt(in);
+			}
+			
+			int stringCount = readVarInt(in);
+			strings = new String[stringCount];
+			for(int x = 0; x < stringCount; x++) {
+				strings[x] = readUTF8(in);
+			}
+			
+			int datasetCount = readVarInt(in);
+			rowOffsets = new long[datasetCount];
+			rowLengths = new long[datasetCount];
+			for(int x = 0; x < datasetCount; x++) {
+				rowOffsets[x] = in.readLong();
+				rowLengths[x] = in.readLong();
+			}
+			
+			names = new Name[nameCount];
+			for(int x = 0; x < nameCount; x++) {
+				String genus = stringAt(nameStrings[x * 3]);
+				String specificEpithet = stringAt(nameStrings[x * 3 + 1]);
+				String infraspecificEpithets = stringAt(nameStrings[x * 3 + 2]);
+				
+				// Recreate names in the same way as ProjectXMLReader.
+				if(infraspecificEpithets != null)
+					names[x] = Name.get(genus, specificEpithet, infraspecificEpithets);
+				else if(specificEpithet == null)
+					names[x] = Name.getFromGenus(genus);
+				else
+					names[x] = Name.get(genus, specificEpithet);
+			}
+		}
+		
+		private String stringAt(int index) {
+			return (index == 0) ? null : strings[index - 1];
+		}
+		
+		public Project readProject(DataInputStream in) throws IOException {
+			Project project = new Project();
+			project.setName(readString(in));
+			project.propertiesProperty().putAll(readMap(in));
+			
+			int filterCount = readVarInt(in);
+			for(int x = 0; x < filterCount; x++) {
+				ProjectXMLReader.XMLKeyValue filter = new ProjectXMLReader.XMLKeyValue();
+				filter.setAttributes(readMap(in));
+				
+				try {
+					project.addChangeFilter(ChangeFilterFactory.createFilterFromXMLKeyView(project, filter));
+				} catch(XMLStreamException ex) {
+					throw new IOException("Could not recreate change filter " + filter.getAttributes() + ": " + ex, ex);
+				}
+			}
+			
+			int datasetCount = readVarInt(in);
+			BulkUpdate bulk = project.beginBulkUpdate();
+			try {
+				for(int x = 0; x < datasetCount; x++) {
+					project.addDataset(readDataset(in, x));
+				}
+			} finally {
+				bulk.close();
+			}
+			
+			return project;
+		}
+		
+		private Dataset readDataset(DataInputStream in, int index) throws IOException {
+			String name = readString(in);
+			String type = readString(in);
+			SimplifiedDate date = readDate(in);
+			
+			Dataset dataset = new Dataset(name, date, type);
+			
+			String nameExtractors = readString(in);
+			try {
+				dataset.setNameExtractorsString(nameExtractors);
+			} catch(NameExtractorParseException ex) {
+				LOGGER.warning("WARNING: could not set name parser extracter on " + dataset + " to " + nameExtractors + ", " + ex);
+			}
+			
+			int rowCount;
+			Set<Name> namesInRows;
+			BulkUpdate bulk = dataset.beginBulkUpdate();
+			try {
+				dataset.propertiesProperty().putAll(readMap(in));
+				
+				int changeCount = readVarInt(in);
+				List<Change> changes = new ArrayList<>(changeCount);
+				for(int x = 0; x < changeCount; x++) {
+					ChangeType changeType = ChangeType.of(readString(in));
+					List<Name> from = readNames(in);
+					List<Name> to = readNames(in);
+					
+					// Don't register the change until we've finished setting it up,
+					// or the dataset will think it's been modified.
+					Change ch = new Change(dataset, changeType, from.stream(), to.stream(), false);
+					ch.getProperties().putAll(readMap(in));
+					
+					int citationCount = readVarInt(in);
+					for(int y = 0; y < citationCount; y++) {
+						Citation citation = new Citation(readString(in), readDate(in));
+						citation.getProperties().clear();
+						citation.getProperties().putAll(readMap(in));
+						
+						int tagCount = readVarInt(in);
+						for(int z = 0; z < tagCount; z++) {
+							citation.getTags().add(Tag.fromName(readString(in)));
+						}
+						ch.getCitations().add(citation);
+					}
+					
+					ch.registerToDataset();
+					changes.add(ch);
+				}
+				dataset.explicitChangesProperty().setAll(changes);
+				
+				int columnCount = readVarInt(in);
+				DatasetColumn[] columns = new DatasetColumn[columnCount];
+				for(int x = 0; x < columnCount; x++) {
+					columns[x] = DatasetColumn.of(readString(in));
+				}
+				dataset.setColumns(Arrays.asList(columns));
+				
+				rowCount = readVarInt(in);
+				namesInRows = new HashSet<>(readNames(in));
+				
+				if(pageRows)
+					IOUtils.skipFully(in, rowLengths[index]);
+				else
+					dataset.rowsProperty().addAll(readRows(in, dataset));
+			} finally {
+				bulk.close();
+			}
+			
+			// Either way, rows can be paged in from the snapshot from now on.
+			SnapshotRowSource rowSource = new SnapshotRowSource(snapshotFile, header, rowOffsets[index], rowLengths[index]);
+			if(pageRows)
+				dataset.pageRowsFrom(rowSource, rowCount, namesInRows);
+			else
+				dataset.setRowSource(rowSource);
+			
+			LOGGER.fine("Added dataset from snapshot: " + dataset);
+			return dataset;
+		}
+	}
+	
+	/**
+	 * Read the rows of a dataset from its section of a snapshot.
+	 */
+	private static List<DatasetRow> readRows(DataInputStream in, Dataset dataset) throws IOException {
+		int rowCount = readVarInt(in);
+		List<DatasetRow> rows = new ArrayList<>(rowCount);
+		for(int x = 0; x < rowCount; x++) {
+			rows.add(new DatasetRow(dataset));
+		}
+		
+		int rowColumnCount = readVarInt(in);
+		for(int x = 0; x < rowColumnCount; x++) {
+			DatasetColumn col = DatasetColumn.of(readUTF8(in));
+			
+			String[] dictionary = new String[readVarInt(in)];
+			for(int y = 0; y < dictionary.length; y++) {
+				dictionary[y] = readUTF8(in);
+			}
+			
+			for(DatasetRow row: rows) {
+				int code = readVarInt(in);
+				if(code != 0)
+					row.put(col, dictionary[code - 1]);
+			}
+		}
+		
+		return rows;
+	}
+	
+	/**
+	 * The length and modification time of the project file a snapshot was written
+	 * from, as recorded in the snapshot's header.
+	 */
+	private static final class SnapshotHeader {
+		private final long projectFileLength;
+		private final long projectFileLastModified;
+		
+		private SnapshotHeader(long projectFileLength, long projectFileLastModified) {
+			this.projectFileLength = projectFileLength;
+			this.projectFileLastModified = projectFileLastModified;
+		}
+		
+		public static SnapshotHeader of(File projectFile) {
+			return new SnapshotHeader(projectFile.length(), projectFile.lastModified());
+		}
+		
+		public boolean matches(DataInput in) throws IOException {
+			return in.readLong() == MAGIC 
+				&& in.readInt() == VERSION 
+				&& in.readLong() == projectFileLength
+				&& in.readLong() == projectFileLastModified;
+		}
+	}
+	
+	/**
+	 * Pages the rows of a dataset in from a snapshot.
+	 */
+	private static final class SnapshotRowSource implements DatasetRowSource {
+		private final File snapshotFile;
+		private final SnapshotHeader header;
+		private final long rowOffset;
+		private final long rowLength;
+		
+		public SnapshotRowSource(File snapshotFile, SnapshotHeader header, long rowOffset, long rowLength) {
+			this.snapshotFile = snapshotFile;
+			this.header = header;
+			this.rowOffset = rowOffset;
+			this.rowLength = rowLength;
+		}
+		
+		private RandomAccessFile openRows() throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r");
+			
+			// Make sure nobody's rewritten the snapshot since we read it.
+			if(!header.matches(raf)) {
+				raf.close();
+				throw new IOException("Snapshot '" + snapshotFile + "' has changed since it was read");
+			}
+			
+			raf.seek(rowOffset);
+			return raf;
+		}
+		
+		@Override
+		public List<DatasetRow> loadRows(Dataset dataset) throws IOException {
+			try (RandomAccessFile raf = openRows()) {
+				return readRows(new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), 65536)), dataset);
+			} catch(EOFException | IndexOutOfBoundsException ex) {
+				throw new IOException("Snapshot '" + snapshotFile + "' is corrupt: " + ex, ex);
+			}
+		}
+		
+		/**
+		 * Copy our rows, exactly as they were written, into another snapshot.
+		 */
+		public void copyRowsTo(DataOutputStream out) throws IOException {
+			try (RandomAccessFile raf = openRows()) {
+				long copied = IOUtils.copyLarge(new FileInputStream(raf.getFD()), out, 0, rowLength);
+				if(copied != rowLength)
+					throw new IOException("Snapshot '" + snapshotFile + "' is corrupt: expected " + rowLength + " bytes of rows at offset " + rowOffset + ", but only found " + copied);
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return "snapshot '" + snapshotFile + "' at offset " + rowOffset;
+		}
+	}
+	
+	/* Strings outside the string table are written as length-prefixed UTF-8. */
+	
+	private static void writeUTF8(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readUTF8(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/* Variable-length integers: seven bits at a time, lowest first, high bit set if more follow. */
+	
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		if(value < 0)
+			throw new IllegalArgumentException("Cannot write negative value " + value + " to snapshot");
+		
+		while((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+	
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable-length integer in snapshot");
+	}
+}
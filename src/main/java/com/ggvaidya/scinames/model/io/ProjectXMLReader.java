@@ -16,20 +16,32 @@
  */
 package com.ggvaidya.scinames.model.io;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.StartElement;
@@ -46,6 +58,7 @@ import com.ggvaidya.scinames.model.Project;
 import com.ggvaidya.scinames.model.Tag;
 import com.ggvaidya.scinames.model.filters.ChangeFilterFactory;
 import com.ggvaidya.scinames.model.rowextractors.NameExtractorParseException;
+import com.ggvaidya.scinames.util.BulkUpdate;
 import com.ggvaidya.scinames.util.SimplifiedDate;
 
 /**
@@ -222,56 +235,359 @@ public class ProjectXMLReader {
 					break;
 					
 				case "datasets":
-					while(reader.hasNext()) {
-						nextTag = reader.nextTag();
-						
-						if(nextTag.isEndElement())
-							break;
-
-						if(!nextTag.isStartElement() || !nextTag.asStartElement().getName().getLocalPart().equals("dataset"))
-							throw new XMLStreamException("Unexpected content, expected 'dataset': " + nextTag);
+					readDatasets(newProject, reader);
+					continue;
+			}
+		}
+		
+		return newProject;
+	}
+	
+	/** The most datasets we'll read ahead of the ones that have been added to the project. */
+	public static final int MAX_DATASETS_IN_FLIGHT = Runtime.getRuntime().availableProcessors();
+	
+	/** The most characters of XML we'll buffer for datasets that haven't been added to the project. */
+	public static final long MAX_BUFFERED_CHARS = 32 * 1024 * 1024;
+	
+	/**
+	 * Read every dataset in the 'datasets' element into a project. This is done as a 
+	 * pipeline: we scan the XML for one dataset at a time, buffering its events; the
+	 * buffered datasets are parsed and have their names extracted on the ForkJoin 
+	 * pool; and as they finish, they're added to the project in the order in which
+	 * they appeared. At most MAX_DATASETS_IN_FLIGHT datasets, and MAX_BUFFERED_CHARS
+	 * characters of XML, are buffered or being parsed at once. A dataset too large to
+	 * buffer is parsed straight from the reader once every dataset before it has been
+	 * added, so we never hold much more of the file in memory than we would if we 
+	 * read it one dataset at a time.
+	 * 
+	 * @param newProject The project to add datasets to.
+	 * @param reader The reader, just after the start of the 'datasets' element.
+	 * @throws XMLStreamException If any of the datasets could not be read.
+	 */
+	private static void readDatasets(Project newProject, XMLEventReader reader) throws XMLStreamException {
+		Deque<CompletableFuture<Dataset>> parsing = new ArrayDeque<>();
+		Deque<Long> parsingChars = new ArrayDeque<>();
+		long bufferedChars = 0;
+		
+		// Rearrange datasets and fire modification events once, after all
+		// datasets have been read. This is also where every dataset is linked
+		// to the one before it.
+		BulkUpdate bulk = newProject.beginBulkUpdate();
+		try {
+			while(reader.hasNext()) {
+				XMLEvent nextTag = reader.nextTag();
+			
+				if(nextTag.isEndElement())
+					break;
 
-						Map<String, String> attributes = getAllAttributes(nextTag, "name", "type", "is_checklist", "year", "month", "day", "nameExtractors");
-						SimplifiedDate date = new SimplifiedDate(attributes);
-						
-						// What type is it? 
-						String datasetType = Dataset.TYPE_DATASET;
-						
-						// We support both the old style:
-						//		is_checklist: yes or anything else
-						if(attributes.containsKey("is_checklist") && attributes.get("is_checklist").equalsIgnoreCase("yes")) {
-							datasetType = Dataset.TYPE_CHECKLIST;
-						}
-						// as well as the new style:
-						//		type: (type string)
-						else if(attributes.containsKey("type")) {
-							datasetType = attributes.get("type");
-						}
+				if(!nextTag.isStartElement() || !nextTag.asStartElement().getName().getLocalPart().equals("dataset"))
+					throw new XMLStreamException("Unexpected content, expected 'dataset': " + nextTag);
 
-						Dataset dataset = new Dataset(
-							attributes.get("name"), 
-							date, 
-							datasetType
-						);
-						if(attributes.containsKey("nameExtractors")) {
-							try {
-							    dataset.setNameExtractorsString(attributes.get("nameExtractors"));
-							} catch(NameExtractorParseException ex) {
-								// TODO set up some kind of warnings system
-								LOGGER.warning("WARNING: could not set name parser extracter on " + dataset + " to " + attributes.get("nameExtractors") + ", " + ex);
-							}
-						}
-							
-						readDataset(dataset, reader);
-						LOGGER.info("Added dataset: " + dataset);
-						newProject.addDataset(dataset);
+				Map<String, String> attributes = getAllAttributes(nextTag, "name", "type", "is_checklist", "year", "month", "day", "nameExtractors");
+				BufferedElement element = bufferElement(reader, MAX_BUFFERED_CHARS);
+				
+				if(!element.isComplete()) {
+					// Too large to buffer: finish every dataset before this one, then parse
+					// the rest of it straight from the reader.
+					while(!parsing.isEmpty()) {
+						addDataset(newProject, join(parsing.removeFirst()));
 					}
-						
+					parsingChars.clear();
+					bufferedChars = 0;
+					
+					addDataset(newProject, parseDataset(attributes, new BufferedEventReader(element.getEvents(), reader)));
 					continue;
+				}
+				
+				while(!parsing.isEmpty() && (parsing.size() >= MAX_DATASETS_IN_FLIGHT || bufferedChars + element.getChars() > MAX_BUFFERED_CHARS)) {
+					addDataset(newProject, join(parsing.removeFirst()));
+					bufferedChars -= parsingChars.removeFirst();
+				}
+				
+				List<XMLEvent> events = element.getEvents();
+				parsing.addLast(CompletableFuture.supplyAsync(() -> {
+					try {
+						return parseDataset(attributes, new BufferedEventReader(events));
+					} catch(XMLStreamException ex) {
+						throw new CompletionException(ex);
+					}
+				}, ForkJoinPool.commonPool()));
+				parsingChars.addLast(element.getChars());
+				bufferedChars += element.getChars();
+			}
+			
+			while(!parsing.isEmpty()) {
+				addDataset(newProject, join(parsing.removeFirst()));
 			}
+		} finally {
+			// If something went wrong, don't leave any datasets being parsed.
+			parsing.forEach(future -> future.cancel(false));
+			bulk.close();
+		}
+	}
+	
+	/**
+	 * Read a single dataset straight out of a block-gzipped project file, without 
+	 * reading anything before it. The dataset isn't linked to a project.
+	 * 
+	 * Project loading doesn't use this yet: Project.loadFromFile() reads the whole
+	 * file (or its snapshot). This is here so that a single dataset can be read 
+	 * from the index that BlockGzipOutputStream writes, e.g. to reload its rows 
+	 * from the project file instead of from a snapshot.
+	 * 
+	 * @param projectFile The project file to read.
+	 * @param entry The index entry at which the dataset starts (see BlockGzipInputStream.readIndex()).
+	 * @return The dataset.
+	 * @throws IOException If the dataset could not be read.
+	 */
+	public static Dataset readDataset(File projectFile, BlockGzipInputStream.IndexEntry entry) throws IOException {
+		try (InputStream input = new BlockGzipInputStream(projectFile, entry.getCompressedOffset(), BlockGzipInputStream.DEFAULT_MAX_BLOCKS_IN_FLIGHT)) {
+			XMLEventReader reader = XMLInputFactory.newFactory().createXMLEventReader(input, "UTF-8");
+			
+			XMLEvent start = reader.nextTag();
+			if(!getElementName(start).equals("dataset"))
+				throw new XMLStreamException("Expected 'dataset' at " + entry + ", found: " + start);
+			
+			Dataset dataset = parseDataset(getAllAttributes(start, "name", "type", "is_checklist", "year", "month", "day", "nameExtractors"), reader);
+			reader.close();
+			
+			return dataset;
+		} catch(XMLStreamException ex) {
+			throw new IOException("Could not read dataset at " + entry + " from project file '" + projectFile + "': " + ex, ex);
 		}
+	}
+	
+	private static void addDataset(Project newProject, Dataset dataset) {
+		LOGGER.info("Added dataset: " + dataset);
+		newProject.addDataset(dataset);
+	}
+	
+	private static Dataset join(CompletableFuture<Dataset> future) throws XMLStreamException {
+		try {
+			return future.join();
+		} catch(CompletionException ex) {
+			if(ex.getCause() instanceof XMLStreamException)
+				throw (XMLStreamException) ex.getCause();
+			if(ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException) ex.getCause();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Buffer every event up to and including the end of the element that has just
+	 * started, so it can be read later (and on another thread). We stop early if the
+	 * events buffered add up to more than maxChars characters of XML, in which case 
+	 * the rest of the element is left in the reader.
+	 */
+	private static BufferedElement bufferElement(XMLEventReader reader, long maxChars) throws XMLStreamException {
+		List<XMLEvent> events = new ArrayList<>();
+		long chars = 0;
+		int depth = 1;
 		
-		return newProject;
+		while(depth > 0) {
+			if(chars > maxChars)
+				return new BufferedElement(events, chars, false);
+			
+			if(!reader.hasNext()) {
+				if(events.isEmpty())
+					throw new XMLStreamException("Document ended immediately after the start of an element");
+				throw new XMLStreamException("Document ended mid-element, after: " + events.get(events.size() - 1));
+			}
+			
+			XMLEvent event = reader.nextEvent();
+			if(event.isStartElement()) {
+				depth++;
+				
+				StartElement start = event.asStartElement();
+				chars += start.getName().getLocalPart().length();
+				for(Iterator<?> attrs = start.getAttributes(); attrs.hasNext(); ) {
+					Attribute attr = (Attribute) attrs.next();
+					chars += attr.getName().getLocalPart().length() + attr.getValue().length();
+				}
+			} else if(event.isEndElement()) {
+				depth--;
+				chars += event.asEndElement().getName().getLocalPart().length();
+			} else if(event.isCharacters())
+				chars += event.asCharacters().getData().length();
+			events.add(event);
+		}
+		
+		return new BufferedElement(events, chars, true);
+	}
+	
+	/**
+	 * The events buffered by bufferElement(), and roughly how many characters of XML 
+	 * they were read from.
+	 */
+	private static final class BufferedElement {
+		private final List<XMLEvent> events;
+		private final long chars;
+		private final boolean complete;
+		
+		public BufferedElement(List<XMLEvent> events, long chars, boolean complete) {
+			this.events = events;
+			this.chars = chars;
+			this.complete = complete;
+		}
+		
+		public List<XMLEvent> getEvents() { return events; }
+		public long getChars() { return chars; }
+		
+		/** @return True if every event up to the end of the element was buffered. */
+		public boolean isComplete() { return complete; }
+	}
+	
+	/**
+	 * Parse a dataset from its attributes and the contents of its element, and extract
+	 * its names, so that adding it to the project doesn't have to.
+	 * 
+	 * @param attributes The attributes of the 'dataset' element.
+	 * @param reader A reader for the contents of the 'dataset' element.
+	 * @return The dataset.
+	 * @throws XMLStreamException If the dataset could not be read.
+	 */
+	private static Dataset parseDataset(Map<String, String> attributes, XMLEventReader reader) throws XMLStreamException {
+		SimplifiedDate date = new SimplifiedDate(attributes);
+	
+		// What type is it? 
+		String datasetType = Dataset.TYPE_DATASET;
+	
+		// We support both the old style:
+		//		is_checklist: yes or anything else
+		if(attributes.containsKey("is_checklist") && attributes.get("is_checklist").equalsIgnoreCase("yes")) {
+			datasetType = Dataset.TYPE_CHECKLIST;
+		}
+		// as well as the new style:
+		//		type: (type string)
+		else if(attributes.containsKey("type")) {
+			datasetType = attributes.get("type");
+		}
+
+		Dataset dataset = new Dataset(
+			attributes.get("name"), 
+			date, 
+			datasetType
+		);
+		if(attributes.containsKey("nameExtractors")) {
+			try {
+			    dataset.setNameExtractorsString(attributes.get("nameExtractors"));
+			} catch(NameExtractorParseException ex) {
+				// TODO set up some kind of warnings system
+				LOGGER.warning("WARNING: could not set name parser extracter on " + dataset + " to " + attributes.get("nameExtractors") + ", " + ex);
+			}
+		}
+		
+		// Reset the names caches once, after all rows have been read.
+		BulkUpdate datasetBulk = dataset.beginBulkUpdate();
+		try {
+			readDataset(dataset, reader);
+		} finally {
+			datasetBulk.close();
+		}
+		
+		// Extract names now, while we're still on a worker thread.
+		dataset.getNamesByRow();
+		
+		return dataset;
+	}
+	
+	/**
+	 * An XMLEventReader for events buffered by bufferElement(), followed by any events
+	 * left in the reader they were buffered from.
+	 */
+	private static final class BufferedEventReader implements XMLEventReader {
+		private final List<XMLEvent> events;
+		private final XMLEventReader rest;
+		private int position = 0;
+		
+		public BufferedEventReader(List<XMLEvent> events) {
+			this(events, null);
+		}
+		
+		public BufferedEventReader(List<XMLEvent> events, XMLEventReader rest) {
+			this.events = events;
+			this.rest = rest;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return position < events.size() || (rest != null && rest.hasNext());
+		}
+		
+		@Override
+		public XMLEvent nextEvent() throws XMLStreamException {
+			if(position < events.size())
+				return events.get(position++);
+			
+			if(rest == null)
+				throw new NoSuchElementException("No more buffered events");
+			
+			return rest.nextEvent();
+		}
+		
+		@Override
+		public Object next() {
+			if(position < events.size())
+				return events.get(position++);
+			
+			if(rest == null)
+				throw new NoSuchElementException("No more buffered events");
+			
+			return rest.next();
+		}
+		
+		@Override
+		public XMLEvent peek() throws XMLStreamException {
+			if(position < events.size())
+				return events.get(position);
+			
+			return (rest == null) ? null : rest.peek();
+		}
+		
+		@Override
+		public String getElementText() throws XMLStreamException {
+			StringBuilder text = new StringBuilder();
+			
+			while(hasNext()) {
+				XMLEvent event = nextEvent();
+				
+				if(event.isEndElement())
+					return text.toString();
+				else if(event.isCharacters())
+					text.append(event.asCharacters().getData());
+				else if(event.getEventType() != XMLStreamConstants.COMMENT && event.getEventType() != XMLStreamConstants.PROCESSING_INSTRUCTION)
+					throw new XMLStreamException("Unexpected content in text-only element: " + event);
+			}
+			
+			throw new XMLStreamException("Buffered events ended mid-element");
+		}
+		
+		@Override
+		public XMLEvent nextTag() throws XMLStreamException {
+			while(hasNext()) {
+				XMLEvent event = nextEvent();
+				
+				if(event.isStartElement() || event.isEndElement())
+					return event;
+				else if(event.isCharacters() && event.asCharacters().isWhiteSpace())
+					continue;
+				else if(event.getEventType() != XMLStreamConstants.COMMENT && event.getEventType() != XMLStreamConstants.PROCESSING_INSTRUCTION)
+					throw new XMLStreamException("Expected start or end tag, found: " + event);
+			}
+			
+			throw new XMLStreamException("Expected start or end tag, but buffered events have ended");
+		}
+		
+		@Override
+		public Object getProperty(String name) throws IllegalArgumentException {
+			throw new IllegalArgumentException("Buffered event readers have no properties");
+		}
+		
+		@Override
+		public void close() throws XMLStreamException {
+			// Nothing to close.
+		}
 	}
 	
 	/**
@@ -24,6 +24,7 @@
 package com.ggvaidya.scinames.model.rowextractors;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -167,6 +168,23 @@ public class NameExtractor {
 	public String[] getArguments()			{ return arguments; }
 	public void setArguments(String[] a)	{ arguments = a; }
 	
+	/**
+	 * Could this name extractor extract any names from a dataset with these columns? 
+	 * Every extractor needs its first column, except for concatenate(), which can 
+	 * use any of them.
+	 * 
+	 * @param columns The columns in a dataset.
+	 * @return False if this extractor can't extract any names from those columns.
+	 */
+	public boolean canExtractFrom(Collection<DatasetColumn> columns) {
+		if(arguments.length == 0) return false;
+		
+		if(name.equals("concatenate"))
+			return Arrays.stream(arguments).anyMatch(arg -> columns.contains(DatasetColumn.of(arg)));
+		
+		return columns.contains(DatasetColumn.of(arguments[0]));
+	}
+	
 	public String serializeToString() {
 		return getName() + "(" + String.join(", ", arguments) + ")";
 	}
@@ -0,0 +1,228 @@
+
+/*
+ *
+ *  NameExtractorDetector
+ *  Copyright (C) 2017 Gaurav Vaidya
+ *
+ *  This file is part of SciNames.
+ *
+ *  SciNames is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  SciNames is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with SciNames.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package com.ggvaidya.scinames.model.rowextractors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import com.ggvaidya.scinames.model.Dataset;
+import com.ggvaidya.scinames.model.DatasetColumn;
+import com.ggvaidya.scinames.model.DatasetRow;
+
+/**
+ * Figures out which set of name extractors works best on a new dataset, i.e. which
+ * one extracts the most distinct names from it.
+ * 
+ * Rather than trying every candidate on every row, we:
+ *  1. Rule out candidates that couldn't extract anything from the dataset's columns.
+ *  2. Score the remaining candidates in parallel on an evenly spaced sample of rows.
+ *  3. Only if the leading candidates are within CLOSE_MARGIN of each other on the
+ *     sample do we score them on every row.
+ * 
+ * The result is remembered by header signature (the dataset's column names, in order)
+ * and the candidates it was chosen from, so importing another file from the same 
+ * source with the same candidates skips detection entirely.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NameExtractorDetector {
+	private static final Logger LOGGER = Logger.getLogger(NameExtractorDetector.class.getSimpleName());
+	
+	/** The number of rows used to score candidates. */
+	public static final int SAMPLE_SIZE = 1000;
+	
+	/** Candidates scoring within this fraction of the best candidate on the sample are rescored on every row. */
+	public static final double CLOSE_MARGIN = 0.05;
+	
+	/* Serialized name extractors detected previously, by header signature and candidates (see getCacheKey()). */
+	private static final Map<String, String> detectedByKey = new ConcurrentHashMap<>();
+	
+	/**
+	 * Forget every name extractor detected so far.
+	 */
+	public static void forgetDetectedExtractors() {
+		detectedByKey.clear();
+	}
+	
+	/**
+	 * @return The header signature of a dataset: its column names, in order.
+	 */
+	public static String getHeaderSignature(Dataset ds) {
+		return ds.getColumns().stream().map(col -> col.getName()).collect(Collectors.joining("\t"));
+	}
+	
+	/**
+	 * @return The key under which we remember the extractors detected for a dataset:
+	 * 	its header signature and the serialized candidates, in order.
+	 */
+	private static String getCacheKey(Dataset ds, Collection<List<NameExtractor>> candidates) {
+		return getHeaderSignature(ds) + "\n" + candidates.stream()
+			.map(extractors -> NameExtractorFactory.serializeExtractorsToString(extractors))
+			.collect(Collectors.joining("\n"));
+	}
+	
+	/**
+	 * Detect the best name extractors for a dataset.
+	 * 
+	 * @param ds The dataset to extract names from.
+	 * @param candidates The sets of name extractors to choose between, in order of preference
+	 * 	if they score the same.
+	 * @return The best set of name extractors from the candidates, or the default 
+	 * 	extractors if none of the candidates can extract any names at all.
+	 */
+	public static List<NameExtractor> detect(Dataset ds, Collection<List<NameExtractor>> candidates) {
+		String key = getCacheKey(ds, candidates);
+		
+		String remembered = detectedByKey.get(key);
+		if(remembered != null) {
+			// Return the candidate itself, so the dataset can tell that names extracted
+			// with it were extracted with its own name extractors.
+			for(List<NameExtractor> candidate: candidates) {
+				if(NameExtractorFactory.serializeExtractorsToString(candidate).equals(remembered)) {
+					LOGGER.log(Level.INFO, "Reusing name extractors {0} detected for identical header", remembered);
+					return candidate;
+				}
+			}
+			
+			// The defaults are used when none of these candidates can extract any names.
+			if(remembered.equals(NameExtractorFactory.getDefaultExtractorsAsString()))
+				return NameExtractorFactory.getDefaultExtractors();
+			
+			// Shouldn't happen, since the candidates are part of the key. Detect it again.
+			detectedByKey.remove(key);
+		}
+		
+		// Step 1. Rule out candidates that can't extract anything from these columns.
+		List<DatasetColumn> columns = ds.getColumns();
+		List<List<NameExtractor>> viable = candidates.stream()
+			.filter(extractors -> extractors.stream().anyMatch(ex -> ex.canExtractFrom(columns)))
+			.collect(Collectors.toList());
+		
+		List<NameExtractor> best;
+		if(viable.isEmpty()) {
+			LOGGER.log(Level.INFO, "No name extractors can extract names from columns {0}, using defaults", columns);
+			best = NameExtractorFactory.getDefaultExtractors();
+		} else if(viable.size() == 1) {
+			best = viable.get(0);
+		} else {
+			best = scoreCandidates(ds, viable);
+		}
+		
+		detectedByKey.put(key, NameExtractorFactory.serializeExtractorsToString(best));
+		return best;
+	}
+	
+	/**
+	 * Steps 2 and 3: score candidates on a sample of rows, then on every row if 
+	 * the leaders are close.
+	 */
+	private static List<NameExtractor> scoreCandidates(Dataset ds, List<List<NameExtractor>> viable) {
+		List<DatasetRow> rows = ds.rowsProperty();
+		boolean sampled = rows.size() > SAMPLE_SIZE;
+		
+		List<DatasetRow> sample = rows;
+		if(sampled) {
+			sample = new ArrayList<>(SAMPLE_SIZE);
+			double stride = (double) rows.size() / SAMPLE_SIZE;
+			for(int x = 0; x < SAMPLE_SIZE; x++) {
+				sample.add(rows.get((int)(x * stride)));
+			}
+		}
+		
+		List<Candidate> scored = score(viable, sample);
+		Candidate leader = scored.get(0);
+		
+		LOGGER.log(Level.INFO, "Best name extractor on {0} rows was {1} with {2} names", new Object[] {
+			sample.size(),
+			leader,
+			leader.score
+		});
+		
+		if(!sampled)
+			return leader.extractors;
+		
+		// Are there any candidates close enough to the leader to need a full scan?
+		long threshold = (long) Math.floor(leader.score * (1 - CLOSE_MARGIN));
+		List<List<NameExtractor>> close = scored.stream()
+			.filter(c -> c.score >= threshold)
+			.map(c -> c.extractors)
+			.collect(Collectors.toList());
+		
+		if(close.size() == 1)
+			return leader.extractors;
+		
+		LOGGER.log(Level.INFO, "{0} name extractors within {1} of the best, scoring on all {2} rows", new Object[] {
+			close.size(),
+			CLOSE_MARGIN,
+			rows.size()
+		});
+		return score(close, rows).get(0).extractors;
+	}
+	
+	/**
+	 * Score each candidate by the number of distinct names it extracts from some rows,
+	 * in parallel.
+	 * 
+	 * @return The candidates, best first. Candidates with equal scores stay in order.
+	 */
+	private static List<Candidate> score(List<List<NameExtractor>> candidates, List<DatasetRow> rows) {
+		List<Candidate> scored = new ArrayList<>(candidates.size());
+		for(int x = 0; x < candidates.size(); x++) {
+			scored.add(new Candidate(x, candidates.get(x)));
+		}
+		
+		scored.parallelStream().forEach(c -> c.score = rows.stream()
+			.flatMap(row -> NameExtractorFactory.extractNamesUsingExtractors(c.extractors, row).stream())
+			.distinct()
+			.count()
+		);
+		
+		scored.sort(Comparator.comparingLong((Candidate c) -> c.score).reversed().thenComparingInt(c -> c.order));
+		return scored;
+	}
+	
+	private static class Candidate {
+		private final int order;
+		private final List<NameExtractor> extractors;
+		private volatile long score;
+		
+		public Candidate(int order, List<NameExtractor> extractors) {
+			this.order = order;
+			this.extractors = extractors;
+		}
+		
+		@Override
+		public String toString() {
+			return NameExtractorFactory.serializeExtractorsToString(extractors);
+		}
+	}
+}
@@ -27,8 +27,10 @@ import com.ggvaidya.scinames.model.filters.ChangeFilter;
 import com.ggvaidya.scinames.tabulardata.TabularDataViewController;
 import com.ggvaidya.scinames.ui.ProjectView;
 
-import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Function;
+
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.Scene;
@@ -71,7 +73,7 @@ public final class ChangeFiltersView {
 		
 		// Setup headertext.
 		controller.getHeaderTextEditableProperty().set(false);
-		controller.getHeaderTextProperty().set("The following filters are currently active.");		
+		controller.getHeaderTextProperty().set("The following filters are currently active, in the order they are run.");		
 		
 		// Setup table.
 		controller.getTableEditableProperty().set(false);
@@ -96,15 +98,23 @@ public final class ChangeFiltersView {
 		colBreakdown.setPrefWidth(100.0);
 		cols.add(colBreakdown);
 		
+		// How much work has each filter done?
+		cols.add(createTableColumnFromFilter("Accepted", 20.0, cf -> String.valueOf(cf.getAcceptedCount())));
+		cols.add(createTableColumnFromFilter("Rejected", 20.0, cf -> String.valueOf(cf.getRejectedCount())));
+		cols.add(createTableColumnFromFilter("Total time (ms)", 20.0, cf -> String.format("%.3f", cf.getFilterTimeNanos() / 1e6d)));
+		cols.add(createTableColumnFromFilter("Time per change (ns)", 20.0, cf -> String.format("%.1f", cf.getMeanFilterTimeNanos())));
+		
 		// Set table items.
-		List<ChangeFilter> listChangeFilters = new LinkedList<>();
-		ChangeFilter cf = projectView.getProject().getChangeFilter();
-		while(cf != null) {
-			listChangeFilters.add(cf);
-			cf = cf.getPrevChangeFilter();
-		}
+		List<ChangeFilter> listChangeFilters = projectView.getProject().getChangeFilter().getPipeline().getStages();
 		controller.getTableItemsProperty().set(
 			FXCollections.observableArrayList(listChangeFilters)
 		);
 	}
+	
+	private TableColumn<ChangeFilter, String> createTableColumnFromFilter(String name, double prefWidth, Function<ChangeFilter, String> func) {
+		TableColumn<ChangeFilter, String> col = new TableColumn<>(name);
+		col.setCellValueFactory(cvf -> new ReadOnlyStringWrapper(func.apply(cvf.getValue())));
+		col.setPrefWidth(prefWidth);
+		return col;
+	}
 }
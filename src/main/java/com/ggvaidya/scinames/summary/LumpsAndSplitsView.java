@@ -143,7 +143,7 @@ public final class LumpsAndSplitsView {
 			index++;
 			
 			precalc.put(change, "index", String.valueOf(index));
-			precalc.put(change, "id", change.getId().toString());
+			precalc.put(change, "id", String.valueOf(change.getId()));
 			precalc.put(change, "type", change.getType().toString());
 			precalc.put(change, "from", change.getFromStream().map(n -> n.getFullName()).collect(Collectors.joining(", ")));
 			precalc.put(change, "to", change.getToStream().map(n -> n.getFullName()).collect(Collectors.joining(", ")));
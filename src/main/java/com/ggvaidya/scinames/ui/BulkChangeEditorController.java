@@ -45,6 +45,7 @@ import com.ggvaidya.scinames.model.change.RenamesFromIdsInChanges;
 import com.ggvaidya.scinames.model.change.RenamesFromIdsInData;
 import com.ggvaidya.scinames.model.change.SynonymsFromColumnChangeGenerator;
 import com.ggvaidya.scinames.model.filters.ChangeFilter;
+import com.ggvaidya.scinames.util.BulkUpdate;
 import com.ggvaidya.scinames.util.SimplifiedDate;
 
 import javafx.beans.property.ReadOnlyStringWrapper;
@@ -334,9 +335,13 @@ public class BulkChangeEditorController {
 	
 	@FXML
 	private void addSelectedChanges(ActionEvent evt) {
-		foundChanges.stream().forEach(ch -> {
-			ch.getDataset().explicitChangesProperty().add(ch);
-		});
+		// Add all the changes, but only recalculate the project once.
+		BulkUpdate bulk = project.beginBulkUpdate();
+		try {
+			foundChanges.stream().forEach(ch -> ch.submit());
+		} finally {
+			bulk.close();
+		}
 		
 		new Alert(Alert.AlertType.INFORMATION, foundChanges.size() + " changes added to the project!")
 			.showAndWait();
@@ -47,6 +47,7 @@ import com.ggvaidya.scinames.model.Name;
 import com.ggvaidya.scinames.model.NameCluster;
 import com.ggvaidya.scinames.model.Project;
 import com.ggvaidya.scinames.model.TaxonConcept;
+import com.ggvaidya.scinames.util.RowPin;
 import com.ggvaidya.scinames.util.SimplifiedDate;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
@@ -379,9 +380,12 @@ public class DataReconciliatorController implements Initializable {
 		
 		existingColNames.add("reconciliation_duplicate_of");
 		
-		// Precalculate all dataset rows.
+		// Precalculate all dataset rows. We hang on to these rows until we've
+		// finished reconciling, so make sure they stay loaded until then.
 		Map<Name, Set<DatasetRow>> datasetRowsByName = new HashMap<>();
+		List<RowPin> rowPins = new ArrayList<>();
 		for(Dataset ds: datasets) {
+			rowPins.add(ds.pinRows());
 			Map<Name, Set<DatasetRow>> rowsByName = ds.getRowsByName();
 			
 			// Merge into the main list.
@@ -638,6 +642,7 @@ public class DataReconciliatorController implements Initializable {
 			
 			precalc.put(clusterID, "dataset_rows_for_name", getOneElementSet(allDatasetRowsCombined.size()));
 		}
+		rowPins.forEach(RowPin::close);
 		
 		// Set up table items.
 		dataTableView.setItems(FXCollections.observableList(nameClusterIDs));
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 import java.util.stream.Stream;
 
 import org.apache.commons.csv.CSVFormat;
+import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 
@@ -100,6 +101,7 @@ public class DatasetImporterController implements Initializable {
 				imp = new ExcelImporter(currentFile);
 				List<Sheet> sheets = imp.getWorksheets();
 				
+				DataFormatter formatter = new DataFormatter();
 				StringBuffer preview = new StringBuffer();
 				preview.append("Excel file version " + imp.getWorkbook().getSpreadsheetVersion() + " containing " + sheets.size() + " sheets.\n");
 				for(Sheet sh: sheets) {
@@ -118,10 +120,10 @@ public class DatasetImporterController implements Initializable {
 						Row row = sh.getRow(rowIndex);
 						
 						if(!headerEmitted) {
-							preview.append("  - " + String.join("\t", ExcelImporter.getCellsAsValues(headerRow)) + "\n");
+							preview.append("  - " + String.join("\t", ExcelImporter.getCellsAsValues(headerRow, formatter)) + "\n");
 							headerEmitted = true;
 						}
-						preview.append("  - " + String.join("\t", ExcelImporter.getCellsAsValues(row)) + "\n");
+						preview.append("  - " + String.join("\t", ExcelImporter.getCellsAsValues(row, formatter)) + "\n");
 					}
 			
 					preview.append("\n");
@@ -224,7 +226,7 @@ public class DatasetImporterController implements Initializable {
 				case "Oracle MySQL CSV": 	csvFormat = CSVFormat.MYSQL; break;
 				case "Tab-delimited file": 	csvFormat = CSVFormat.TDF; break;
 				case "TaxDiff file":		return ChecklistDiff.fromTaxDiffFile(currentFile);
-				case "Excel file":			return new ExcelImporter(currentFile).asDataset(0);
+				case "Excel file":			return ExcelImporter.loadDataset(currentFile, 0);
 			}
 		}
 		
@@ -19,6 +19,10 @@ package com.ggvaidya.scinames.ui;
 import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ggvaidya.scinames.SciNames;
@@ -26,8 +30,12 @@ import com.ggvaidya.scinames.dataset.DatasetChangesView;
 import com.ggvaidya.scinames.model.Change;
 import com.ggvaidya.scinames.model.Dataset;
 import com.ggvaidya.scinames.model.Name;
+import com.ggvaidya.scinames.model.NamePool;
 import com.ggvaidya.scinames.model.Project;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -46,6 +54,7 @@ import javafx.scene.input.TransferMode;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 
 /**
  * Provides a view (in tandem with ProjectSceneController) on a particular Project.
@@ -82,6 +91,69 @@ public class ProjectView {
 		getProject().addDataset(tp);
 	}
 	
+	/* Autosave */
+	
+	private static final Duration AUTOSAVE_INTERVAL = Duration.minutes(1);
+	
+	// Journal writes run one at a time, off the JavaFX application thread.
+	private static final ExecutorService AUTOSAVE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Autosave");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicBoolean autosaving = new AtomicBoolean(false);
+	
+	private void autosaveProject() {
+		Project project = projectProperty.get();
+		if(project == null || project.getFile() == null || !project.isModified())
+			return;
+		
+		// Work out what needs saving here, so the project can't be edited while
+		// we read it. If the whole project needs saving, that's done right away.
+		try {
+			if(!project.prepareAutosave())
+				return;
+		} catch(IOException ex) {
+			LOGGER.log(Level.WARNING, "Could not autosave project " + project, ex);
+			return;
+		}
+		
+		// Only writing to the journal happens in the background. If the last write
+		// is still running, these edits will be written along with the next ones.
+		if(!autosaving.compareAndSet(false, true))
+			return;
+		
+		AUTOSAVE_EXECUTOR.execute(() -> {
+			try {
+				project.writeJournal();
+			} catch(IOException ex) {
+				// Unwritten edits are kept, so we'll try again next time.
+				LOGGER.log(Level.WARNING, "Could not write journal for project " + project, ex);
+			} finally {
+				autosaving.set(false);
+			}
+		});
+	}
+	
+	/* Reclaiming names */
+	
+	// Names are reclaimed off the JavaFX application thread, one project switch at a time.
+	private static final ExecutorService RECLAIM_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Reclaim names");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private void reclaimNames() {
+		RECLAIM_EXECUTOR.execute(() -> {
+			try {
+				NamePool.getDefault().reclaim();
+			} catch(RuntimeException ex) {
+				LOGGER.log(Level.WARNING, "Could not reclaim names", ex);
+			}
+		});
+	}
+	
 	/* Constructor */
 	
 	public ProjectView(Stage stage) throws IOException {
@@ -96,6 +168,7 @@ public class ProjectView {
 		// Do stuff if the current project changes.
 		this.projectModifiedChangeListener = (ObservableValue<? extends Instant> observable, Instant oldValue, Instant newValue) -> {
 			// System.err.println("projectModifiedChangeListener: " + newValue + " on " + getProject());
+			
 			try {
 				stage.setTitle(SciNames.APPNAME + ": " + this.getProject().toString());
 			} catch(NullPointerException e) {
@@ -107,8 +180,12 @@ public class ProjectView {
 		
 		// If the project changes, update the window title.
 		projectProperty.addListener((ObservableValue<? extends Project> observable, Project oldValue, Project newValue) -> {
-			if(oldValue != null)
+			if(oldValue != null) {
 				oldValue.lastModifiedProperty().removeListener(projectModifiedChangeListener);
+				
+				// Names only used by the old project can now be reclaimed.
+				NamePool.getDefault().unregister(oldValue);
+			}
 			
 			if(newValue != null) {
 				newValue.lastModifiedProperty().addListener(projectModifiedChangeListener);
@@ -120,6 +197,10 @@ public class ProjectView {
 						((TextField)projectName).setText(newValue.getName());
 				}
 			}
+			
+			// Reclaiming names doesn't need to hold up the switch.
+			if(oldValue != null)
+				reclaimNames();
 		});
 		
 		// On exit.
@@ -145,6 +226,12 @@ public class ProjectView {
 			}
 		});
 		
+		// Autosave the current project every so often. This usually only appends
+		// our edits to the project's journal, which is written in the background.
+		Timeline autosave = new Timeline(new KeyFrame(AUTOSAVE_INTERVAL, evt -> autosaveProject()));
+		autosave.setCycleCount(Animation.INDEFINITE);
+		autosave.play();
+		
 		/*
 		// Add menubar.
 		if(!System.getProperty("os.name").startsWith("Windows")) {
@@ -309,7 +309,7 @@ public final class SearchViewController implements Initializable {
 				searchResults = names.stream().sorted().map(key -> 
 					new SearchResult<Change>(
 						key.getFullName(),
-						() -> project.getAllChanges().filter(ch -> ch.getAllNames().contains(key)).collect(Collectors.toList()),
+						() -> project.getNameIndex().getAllChanges(key),
 						str -> (
 							key.getFullName().contains(str)
 						)
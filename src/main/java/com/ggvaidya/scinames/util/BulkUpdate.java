@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.util;
+
+/**
+ * A bulk update on a Dataset or Project. While a bulk update is open, modification
+ * events and cache invalidation are deferred; closing it emits a single coalesced
+ * change. Bulk updates may be nested, in which case only closing the outermost one
+ * has any effect.
+ * 
+ * Close them in a finally block:
+ * 	BulkUpdate bulk = dataset.beginBulkUpdate();
+ * 	try {
+ * 		// add lots of rows
+ * 	} finally {
+ * 		bulk.close();
+ * 	}
+ * 
+ * A try-with-resources statement would work too, but as the body never uses the
+ * bulk update, it causes an "auto-closeable resource is never referenced" warning.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public interface BulkUpdate extends AutoCloseable {
+	/**
+	 * Finish this bulk update.
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A node in a graph of dependencies between the things we know about a project 
+ * (its rows, name extractors, changes, filters and so on) and the things we work
+ * out from them. Invalidating a dependency invalidates every dependency that 
+ * depends on it, directly or indirectly, but nothing else.
+ * 
+ * Caches can either listen for invalidation and throw away what they know, or
+ * remember the version of the dependency they were calculated from and check
+ * whether it has changed the next time they're used.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public final class Dependency {
+	private final String name;
+	private final AtomicLong version = new AtomicLong();
+	private final List<Dependency> dependsOn = new CopyOnWriteArrayList<>();
+	private final List<Dependency> dependents = new CopyOnWriteArrayList<>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Create a dependency.
+	 * 
+	 * @param name A name for this dependency, used for debugging.
+	 * @param dependsOn The dependencies this dependency is worked out from.
+	 */
+	public Dependency(String name, Dependency... dependsOn) {
+		this.name = name;
+		
+		for(Dependency dep: dependsOn) {
+			dependOn(dep);
+		}
+	}
+	
+	public String getName() { return name; }
+	
+	/**
+	 * @return A number that goes up whenever this dependency is invalidated.
+	 */
+	public long getVersion() { return version.get(); }
+	
+	/**
+	 * Invalidate this dependency whenever another dependency is invalidated.
+	 * 
+	 * @param dep The dependency this dependency is worked out from.
+	 */
+	public void dependOn(Dependency dep) {
+		if(dep == this || dependsOn.contains(dep))
+			return;
+		
+		dependsOn.add(dep);
+		dep.dependents.add(this);
+	}
+	
+	/**
+	 * Stop invalidating this dependency when another dependency is invalidated.
+	 * 
+	 * @param dep A dependency this dependency used to be worked out from.
+	 */
+	public void stopDependingOn(Dependency dep) {
+		if(dependsOn.remove(dep))
+			dep.dependents.remove(this);
+	}
+	
+	/**
+	 * Stop depending on anything at all.
+	 */
+	public void stopDependingOnAll() {
+		for(Dependency dep: dependsOn) {
+			stopDependingOn(dep);
+		}
+	}
+	
+	/**
+	 * @return The dependencies this dependency is worked out from.
+	 */
+	public List<Dependency> getDependencies() {
+		return Collections.unmodifiableList(dependsOn);
+	}
+	
+	/**
+	 * Call a listener whenever this dependency is invalidated.
+	 * 
+	 * @param listener The listener to call.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Invalidate this dependency and everything that depends on it. Each dependency
+	 * is only invalidated once, even if it depends on this one in several ways.
+	 */
+	public void invalidate() {
+		Set<Dependency> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Dependency> invalidated = new ArrayList<>();
+		Deque<Dependency> toInvalidate = new ArrayDeque<>();
+		toInvalidate.add(this);
+		
+		while(!toInvalidate.isEmpty()) {
+			Dependency dep = toInvalidate.remove();
+			if(!seen.add(dep))
+				continue;
+			
+			dep.version.incrementAndGet();
+			invalidated.add(dep);
+			toInvalidate.addAll(dep.dependents);
+		}
+		
+		// Only call listeners once every version has been updated, so that they
+		// see a consistent graph.
+		for(Dependency dep: invalidated) {
+			for(Runnable listener: dep.listeners) {
+				listener.run();
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "Dependency " + name + " (version " + version.get() + ")";
+	}
+}
@@ -2,27 +2,47 @@ package com.ggvaidya.scinames.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import javax.xml.parsers.ParserConfigurationException;
+
 import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import com.ggvaidya.scinames.model.Dataset;
 import com.ggvaidya.scinames.model.DatasetColumn;
-import com.ggvaidya.scinames.model.DatasetRow;;
+import com.ggvaidya.scinames.model.DatasetRow;
 
 /**
  * A helper class to import data from Excel files, either XLS or XLSX.
  * Uses the Apache POI libraries: http://poi.apache.org/spreadsheet/
  * 
+ * Creating an ExcelImporter loads the entire workbook into memory. To load
+ * a single sheet as a dataset, use loadDataset(), which streams XLSX files 
+ * row by row with POI's event API instead.
+ * 
  * @author Gaurav Vaidya <gaurav@ggvaidya.com>
  */
 public class ExcelImporter {
@@ -55,8 +75,10 @@ public class ExcelImporter {
 	}
 	
 	public static List<String> getCellsAsValues(Row row) {
-		DataFormatter formatter = new DataFormatter();
-		
+		return getCellsAsValues(row, new DataFormatter());
+	}
+	
+	public static List<String> getCellsAsValues(Row row, DataFormatter formatter) {
 		return getCells(row).stream()
 			.map(cell -> {
 				if(cell == null) return "";
@@ -84,9 +106,42 @@ public class ExcelImporter {
 		
 		// Step 1. Load sheet into dataset.
 		Row headerRow = sheet.getRow(minRow);
-		List<String> headers = getCellsAsValues(headerRow);
+		DataFormatter formatter = new DataFormatter();
+		List<String> headers = getCellsAsValues(headerRow, formatter);
 		
 		// Fill in all headers.
+		for(String colName: makeHeadersUnique(headers)) {
+			ds.getColumns().add(DatasetColumn.of(colName));
+		}
+		
+		// Extract all the rows, resetting the dataset's caches only once we're done.
+		BulkUpdate bulk = ds.beginBulkUpdate();
+		try {
+			for(int x = (minRow + 1); x <= lastRow; x++) {
+				DatasetRow dsRow = new DatasetRow(ds);
+				List<String> row = getCellsAsValues(sheet.getRow(x), formatter);
+				
+				for(int y = 0; y < row.size(); y++) {
+					dsRow.put(headers.get(y), row.get(y));
+				}
+				
+				ds.rowsProperty().add(dsRow);
+			}
+		} finally {
+			bulk.close();
+		}
+		
+		return ds;
+	}
+		
+	/**
+	 * Replace blank column names with "column_N" and make duplicate column names
+	 * unique by adding "_1", "_2" and so on to them. Modifies the list in place.
+	 * 
+	 * @param headers The column names as read from the header row.
+	 * @return The same list, with unique column names.
+	 */
+	private static List<String> makeHeadersUnique(List<String> headers) {
 		for(int colIndex = 0; colIndex < headers.size(); colIndex++) {
 			String colName = headers.get(colIndex);
 			if(colName == null || colName.equals("")) {
@@ -102,25 +157,140 @@ public class ExcelImporter {
 				headers.set(colIndex, colName);
 				uniq++;
 			}
-			
-			ds.getColumns().add(DatasetColumn.of(colName));
 		}
 		
-		// Extract all the rows.
-		for(int x = (minRow + 1); x <= lastRow; x++) {
-			DatasetRow dsRow = new DatasetRow(ds);
-			List<String> row = getCellsAsValues(sheet.getRow(x));
+		return headers;
+	}
+	
+	/**
+	 * Load a sheet from an Excel file as a dataset. XLSX files are streamed: rows are
+	 * added to the dataset as they're parsed, so the workbook is never loaded into 
+	 * memory. Older XLS files are loaded in full.
+	 * 
+	 * @param f The Excel file to load.
+	 * @param sheetIndex The index of the sheet to load.
+	 * @return The dataset loaded from that sheet.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static Dataset loadDataset(File f, int sheetIndex) throws IOException {
+		if(f.getName().toLowerCase().endsWith(".xlsx"))
+			return streamXLSX(f, sheetIndex);
+		
+		return new ExcelImporter(f).asDataset(sheetIndex);
+	}
+	
+	/**
+	 * Stream a sheet from an XLSX file into a dataset using POI's event API.
+	 * 
+	 * @param f The XLSX file to load.
+	 * @param sheetIndex The index of the sheet to load.
+	 * @return The dataset loaded from that sheet.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static Dataset streamXLSX(File f, int sheetIndex) throws IOException {
+		Dataset ds = new Dataset();
+		ds.setName(f.getName());
+		
+		OPCPackage pkg;
+		try {
+			pkg = OPCPackage.open(f, PackageAccess.READ);
+		} catch(InvalidFormatException ex) {
+			throw new IOException("Invalid format exception opening '" + f + "': " + ex);
+		}
+		
+		try {
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			XSSFReader reader = new XSSFReader(pkg);
+			StylesTable styles = reader.getStylesTable();
 			
-			for(int y = 0; y < row.size(); y++) {
-				dsRow.put(headers.get(y), row.get(y));
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+			for(int x = 0; sheets.hasNext(); x++) {
+				try(InputStream sheet = sheets.next()) {
+					if(x < sheetIndex) continue;
+					
+					// One formatter for the entire sheet.
+					DataFormatter formatter = new DataFormatter();
+					XMLReader parser = SAXHelper.newXMLReader();
+					
+					BulkUpdate bulk = ds.beginBulkUpdate();
+					try {
+						StreamingSheetHandler handler = new StreamingSheetHandler(ds);
+						parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, handler, formatter, false));
+						parser.parse(new InputSource(sheet));
+					} finally {
+						bulk.close();
+					}
+					break;
+				}
 			}
-			
-			ds.rowsProperty().add(dsRow);
+		} catch(OpenXML4JException | SAXException | ParserConfigurationException ex) {
+			throw new IOException("Could not read '" + f + "' as an XLSX file: " + ex);
+		} finally {
+			// We opened this package read-only, so there's nothing to save.
+			pkg.revert();
 		}
 		
 		return ds;
 	}
+	
+	/**
+	 * Receives cells from POI as a sheet is parsed. The first row with any cells 
+	 * becomes the header; every other row is added to the dataset once it ends.
+	 */
+	private static class StreamingSheetHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+		private final Dataset ds;
+		private List<String> headers = null;
+		private List<DatasetColumn> columns = null;
+		private DatasetRow currentRow = null;
+		
+		public StreamingSheetHandler(Dataset ds) {
+			this.ds = ds;
+		}
+		
+		@Override
+		public void startRow(int rowNum) {
+			currentRow = null;
+		}
+		
+		@Override
+		public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+			int col = new CellReference(cellReference).getCol();
+			
+			if(columns == null) {
+				// Still reading the header row.
+				if(headers == null) headers = new ArrayList<>();
+				while(headers.size() < col) headers.add("");
+				headers.add(formattedValue);
+				return;
+			}
+			
+			if(col >= columns.size()) return;
+			
+			if(currentRow == null)
+				currentRow = new DatasetRow(ds);
+			currentRow.put(columns.get(col), formattedValue);
+		}
 		
+		@Override
+		public void endRow(int rowNum) {
+			if(columns == null && headers != null) {
+				columns = makeHeadersUnique(headers).stream().map(DatasetColumn::of).collect(Collectors.toList());
+				ds.getColumns().addAll(columns);
+			}
+			
+			// Rows without any cells in our columns are skipped.
+			if(currentRow != null) {
+				ds.rowsProperty().add(currentRow);
+				currentRow = null;
+			}
+		}
+		
+		@Override
+		public void headerFooter(String text, boolean isHeader, String tagName) {
+			// We don't need headers or footers.
+		}
+	}
+	
 	public ExcelImporter(File f) throws IOException {
 		file = f;
 		try {
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.util;
+
+/**
+ * Keeps the rows of a Dataset loaded until it's closed, even if memory runs low.
+ * Pins may be nested: rows can only be paged out once every pin on them has been
+ * closed.
+ * 
+ * Use these with try-with-resources, or close them when the view that needs the
+ * rows is closed:
+ * 	try(RowPin pin = dataset.pinRows()) {
+ * 		// display rows
+ * 	}
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public interface RowPin extends AutoCloseable {
+	/**
+	 * Release this pin.
+	 */
+	@Override
+	public void close();
+}
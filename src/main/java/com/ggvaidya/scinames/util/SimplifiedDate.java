@@ -29,6 +29,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -89,6 +92,25 @@ public class SimplifiedDate implements Comparable<SimplifiedDate> {
 		}
 	}
 	
+	/**
+	 * Write the same attributes as setDateAttributesOnElement() to the element
+	 * currently being written to an XML stream.
+	 * 
+	 * @param writer The XML stream to write to.
+	 * @throws XMLStreamException If the attributes could not be written.
+	 */
+	public void writeDateAttributes(XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeAttribute("year", Integer.toString(year));
+		if(day == 0) {
+			if(month != 0) {
+				writer.writeAttribute("month", Integer.toString(month));
+			}
+		} else {
+			writer.writeAttribute("month", Integer.toString(month));
+			writer.writeAttribute("day", Integer.toString(day));
+		}
+	}
+	
 	/**
 	 * Return this simplified date as a LocalDate, which might be more
 	 * convenient for comparisons. The date will be to the first day of the
@@ -80,7 +80,7 @@ public class DatasetValidator implements Validator {
 			prevRecognizedNames = new HashSet<>();
 		
 		List<ValidationError<Change>> errors = new LinkedList<>();
-		for(Change ch: ds.getChanges(p).collect(Collectors.toList())) {
+		for(Change ch: ds.getFilteredChanges(p)) {
 			if(ch.getType().equals(ChangeType.RENAME)) {
 				// Any subspecies in source?
 				boolean speciesInFrom = ch.getFromStream().anyMatch(n -> !n.hasSubspecificEpithet());
@@ -117,7 +117,7 @@ public class DatasetValidator implements Validator {
 			prevRecognizedBinomials = null;
 		
 		List<ValidationError<Change>> errors = new LinkedList<>();
-		for(Change ch: ds.getChanges(p).collect(Collectors.toList())) {
+		for(Change ch: ds.getFilteredChanges(p)) {
 			if(ch.getType().equals(ChangeType.RENAME)) {
 				// Any subspecies in source?
 				boolean infraspecificsInFrom = ch.getFromStream().anyMatch(n -> n.hasSubspecificEpithet());
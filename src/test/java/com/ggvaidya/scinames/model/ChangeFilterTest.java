@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ggvaidya.scinames.model.filters.ChangeFilter;
+import com.ggvaidya.scinames.model.filters.ChangeFilterFactory;
+import com.ggvaidya.scinames.model.filters.ChangeFilterPipeline;
+import com.ggvaidya.scinames.model.filters.IgnoreErrorChangeTypeFilter;
+import com.ggvaidya.scinames.model.filters.IgnoreIgnoredFilterChangeFilter;
+import com.ggvaidya.scinames.model.filters.SkipChangesUnlessAddedBeforeChangeFilter;
+import com.ggvaidya.scinames.util.SimplifiedDate;
+
+/**
+ * Tests for change filters and the pipelines they're compiled into.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class ChangeFilterTest {
+	
+	/**
+	 * A filter that rejects everything, and claims to be expensive.
+	 */
+	private static class ExpensiveFilter extends ChangeFilter {
+		private int calls = 0;
+		
+		@Override public String getShortName() { return "expensive"; }
+		@Override public int getCost() { return 1000; }
+		@Override public Element serializeToElement(Document doc) { return doc.createElement("filter"); }
+		
+		@Override
+		public boolean filter(Change ch) {
+			calls++;
+			return false;
+		}
+	}
+	
+	/**
+	 * Filter chains should be run cheapest first, and record what each filter did.
+	 */
+	@Test
+	public void testPipeline() {
+		Project project = new Project();
+		Dataset ds = new Dataset("filters", new SimplifiedDate(1930), Dataset.TYPE_DATASET);
+		Change error = new Change(ds, ChangeType.ERROR, Stream.empty(), Stream.of(Name.get("Filterus", "erratus")), false);
+		Change addition = new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Filterus", "additus")), false);
+		
+		ChangeFilter chain = ChangeFilterFactory.getNullChangeFilter();
+		ExpensiveFilter expensive = new ExpensiveFilter();
+		IgnoreErrorChangeTypeFilter ignoreErrors = new IgnoreErrorChangeTypeFilter(project, true);
+		IgnoreIgnoredFilterChangeFilter ignoreIgnored = new IgnoreIgnoredFilterChangeFilter(project, true);
+		chain.addChangeFilter(expensive);
+		chain.addChangeFilter(ignoreErrors);
+		chain.addChangeFilter(ignoreIgnored);
+		
+		// The expensive filter runs last, wherever it is in the chain.
+		ChangeFilterPipeline pipeline = chain.getPipeline();
+		assertEquals(Arrays.asList(chain, ignoreIgnored, ignoreErrors, expensive), pipeline.getStages());
+		assertSame(pipeline, chain.getPipeline());
+		
+		// Errors are rejected before the expensive filter sees them.
+		assertFalse(chain.test(error));
+		assertEquals(0, expensive.calls);
+		assertFalse(chain.test(addition));
+		assertEquals(1, expensive.calls);
+		
+		assertEquals(2, ignoreIgnored.getAcceptedCount());
+		assertEquals(0, ignoreIgnored.getRejectedCount());
+		assertEquals(1, ignoreErrors.getAcceptedCount());
+		assertEquals(1, ignoreErrors.getRejectedCount());
+		assertEquals(1, ignoreErrors.getChangesFilteredCount());
+		assertEquals(Collections.singletonMap(ChangeType.ERROR, 1L), ignoreErrors.getChangesFilteredByType());
+		assertEquals(Collections.singletonMap(ChangeType.ADDITION, 1L), expensive.getChangesFilteredByType());
+		assertTrue(expensive.getFilterTimeNanos() >= 0);
+		
+		// Reconfiguring any filter in the chain compiles it again.
+		ignoreErrors.setActive(false);
+		assertNotSame(pipeline, chain.getPipeline());
+		assertFalse(chain.test(error));
+		assertEquals(2, expensive.calls);
+		
+		// Rejections are counted by change type.
+		Map<ChangeType, Long> rejectedByExpensive = new HashMap<>();
+		rejectedByExpensive.put(ChangeType.ADDITION, 1L);
+		rejectedByExpensive.put(ChangeType.ERROR, 1L);
+		assertEquals(rejectedByExpensive, expensive.getChangesFilteredByType());
+		assertEquals(2, expensive.getChangesFilteredCount());
+		
+		ignoreErrors.resetStatistics();
+		assertEquals(0, ignoreErrors.getAcceptedCount());
+		assertEquals(0, ignoreErrors.getChangesFilteredCount());
+		assertTrue(ignoreErrors.getChangesFilteredByType().isEmpty());
+	}
+	
+	/**
+	 * The skip filter should only be invalidated by the name clusters while it's
+	 * active, and only when the clusters actually change.
+	 */
+	@Test
+	public void testSkipFilterDependency() {
+		Project project = new Project();
+		Dataset ds = new Dataset("skipping", new SimplifiedDate(1930), Dataset.TYPE_DATASET);
+		project.addDataset(ds);
+		
+		SkipChangesUnlessAddedBeforeChangeFilter skip = new SkipChangesUnlessAddedBeforeChangeFilter(project, 1950, false);
+		project.addChangeFilter(skip);
+		project.getNameClusterManager();
+		
+		// While inactive, editing a dataset doesn't invalidate the change filter.
+		long version = project.getChangeFilterDependency().getVersion();
+		ds.explicitChangesProperty().add(new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Skippus", "primus")), false));
+		project.getNameClusterManager();
+		assertEquals(version, project.getChangeFilterDependency().getVersion());
+		
+		skip.setActive(true);
+		assertNotEquals(version, project.getChangeFilterDependency().getVersion());
+		
+		// While active, an edit invalidates it, but updating the clusters only does
+		// so again if they changed.
+		version = project.getChangeFilterDependency().getVersion();
+		ds.explicitChangesProperty().add(new Change(ds, ChangeType.ERROR, Stream.empty(), Stream.of(Name.get("Skippus", "primus")), false));
+		assertNotEquals(version, project.getChangeFilterDependency().getVersion());
+		
+		version = project.getChangeFilterDependency().getVersion();
+		project.getNameClusterManager();
+		assertEquals(version, project.getChangeFilterDependency().getVersion());
+		
+		ds.explicitChangesProperty().add(new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Skippus", "secundus")), false));
+		version = project.getChangeFilterDependency().getVersion();
+		project.getNameClusterManager();
+		assertNotEquals(version, project.getChangeFilterDependency().getVersion());
+	}
+}
@@ -18,10 +18,40 @@ package com.ggvaidya.scinames.model;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import com.ggvaidya.scinames.model.filters.ChangeFilter;
+import com.ggvaidya.scinames.model.filters.IgnoreIgnoredFilterChangeFilter;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractor;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorDetector;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorFactory;
+import com.ggvaidya.scinames.model.rowextractors.NameExtractorParseException;
+import com.ggvaidya.scinames.util.BulkUpdate;
+import com.ggvaidya.scinames.util.ExcelImporter;
 import com.ggvaidya.scinames.util.SimplifiedDate;
 
+import javafx.beans.Observable;
+
 /**
  * Tests for the Change class.
  * 
@@ -45,4 +75,590 @@ public class DatasetTest {
 		Dataset ds4 = new Dataset("ds1", new SimplifiedDate(1930), Dataset.TYPE_DATASET);
 		assertTrue(ds1.compareTo(ds4) != 0);
 	}
+	
+	/**
+	 * Names extracted in parallel should be indexed the same way as names extracted
+	 * one row at a time.
+	 */
+	@Test
+	public void testParallelNameExtraction() {
+		Dataset ds = new Dataset("parallel", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		DatasetColumn col = DatasetColumn.of("scientificName");
+		ds.getColumns().add(col);
+		
+		int rowCount = Dataset.PARALLEL_EXTRACTION_MIN_ROWS * 2 + 17;
+		List<DatasetRow> rows = new ArrayList<>();
+		for(int x = 0; x < rowCount; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			
+			// Every species appears in three rows.
+			row.put(col, "Parallelus species" + (x / 3));
+			rows.add(row);
+		}
+		ds.rowsProperty().addAll(rows);
+		
+		Map<DatasetRow, Set<Name>> namesByRow = ds.getNamesByRow();
+		assertEquals(rowCount, namesByRow.size());
+		assertEquals((rowCount + 2) / 3, ds.getNamesInAllRows().size());
+		
+		for(int x = 0; x < rowCount; x++) {
+			Name expected = Name.get("Parallelus", "species" + (x / 3));
+			
+			assertEquals(Collections.singleton(expected), namesByRow.get(rows.get(x)));
+			assertTrue(ds.getRowsByName(expected).contains(rows.get(x)));
+		}
+		assertEquals(rowCount, ds.getRowsByName().values().stream().mapToInt(r -> r.size()).sum());
+	}
+	
+	/**
+	 * Rows should behave like maps, even though their values are stored in columns.
+	 */
+	@Test
+	public void testColumnarRows() {
+		Dataset ds = new Dataset("columnar", new SimplifiedDate(1930), Dataset.TYPE_DATASET);
+		DatasetColumn genus = DatasetColumn.of("genus");
+		DatasetColumn species = DatasetColumn.of("specificEpithet");
+		
+		DatasetRow row1 = new DatasetRow(ds);
+		row1.put(genus, "Panthera");
+		row1.put(species, "tigris");
+		
+		DatasetRow row2 = new DatasetRow(ds);
+		row2.put("genus", "Panthera");
+		row2.put(species, null);
+		
+		assertEquals("Panthera", row1.get("genus"));
+		assertEquals("tigris", row1.get(species));
+		assertEquals("Panthera", row2.get(genus));
+		
+		// A null value is still a value.
+		assertTrue(row2.hasColumn(species));
+		assertEquals(null, row2.get(species));
+		assertFalse(row2.hasColumn("subspecificEpithet"));
+		assertEquals(null, row2.get("subspecificEpithet"));
+		
+		row1.remove(species);
+		assertFalse(row1.hasColumn(species));
+		assertEquals(Collections.singleton(genus), row1.getColumns());
+		
+		// Repeated values are only stored once.
+		assertEquals(Arrays.asList("Panthera"), ds.getColumnStore().getDistinctValues(genus));
+	}
+	
+	/**
+	 * Replacing every row in a dataset shouldn't leave the old rows in its column store.
+	 */
+	@Test
+	public void testColumnStoreCompaction() {
+		Dataset ds = new Dataset("compacted", new SimplifiedDate(1930), Dataset.TYPE_DATASET);
+		DatasetColumn name = DatasetColumn.of("scientificName");
+		int rowCount = Dataset.COMPACT_COLUMN_STORE_MIN_ROWS;
+		
+		List<DatasetRow> oldRows = new ArrayList<>();
+		for(int x = 0; x < rowCount; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put(name, "Compactus old" + x);
+			oldRows.add(row);
+		}
+		ds.rowsProperty().setAll(oldRows);
+		ColumnStore oldStore = ds.getColumnStore();
+		
+		List<DatasetRow> newRows = new ArrayList<>();
+		for(int x = 0; x < rowCount; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put(name, "Compactus new" + x);
+			newRows.add(row);
+		}
+		ds.rowsProperty().setAll(newRows);
+		
+		// Only the rows still in the dataset (and their values) are in its new store.
+		assertNotSame(oldStore, ds.getColumnStore());
+		assertEquals(rowCount, ds.getColumnStore().getRowCount());
+		assertEquals(rowCount, ds.getColumnStore().getDistinctValues(name).size());
+		assertEquals("Compactus new10", newRows.get(10).get(name));
+		
+		// Rows we replaced can still be read, and rows we kept can still be edited.
+		assertEquals("Compactus old10", oldRows.get(10).get(name));
+		newRows.get(10).put(name, "Compactus edited");
+		assertEquals("Compactus edited", ds.rowsProperty().get(10).get(name));
+		assertEquals(Collections.singleton(Name.get("Compactus", "edited")), ds.getNamesByRow().get(newRows.get(10)));
+	}
+	
+	/**
+	 * A bulk update should fire one modification event, however many rows are added.
+	 */
+	@Test
+	public void testBulkUpdate() {
+		Dataset ds = new Dataset("bulk", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		DatasetColumn col = DatasetColumn.of("scientificName");
+		ds.getColumns().add(col);
+		assertEquals(0, ds.getNamesInAllRows().size());
+		
+		int[] modifications = new int[1];
+		ds.lastModifiedProperty().addListener((a, b, c) -> modifications[0]++);
+		
+		BulkUpdate bulk = ds.beginBulkUpdate();
+		try {
+			for(int x = 0; x < 100; x++) {
+				DatasetRow row = new DatasetRow(ds);
+				row.put(col, "Bulkus species" + x);
+				ds.rowsProperty().add(row);
+			}
+			assertTrue(ds.isInBulkUpdate());
+			assertEquals(0, modifications[0]);
+		} finally {
+			bulk.close();
+		}
+		
+		assertFalse(ds.isInBulkUpdate());
+		assertTrue(modifications[0] <= 1);
+		assertEquals(100, ds.getNamesInAllRows().size());
+	}
+	
+	/**
+	 * Streaming imports should load the same rows whether or not records are parsed
+	 * in parallel, and extract names while doing so.
+	 */
+	@Test
+	public void testStreamingImport() throws IOException {
+		int rowCount = 1000;
+		
+		File tsv = File.createTempFile("streaming", ".tsv");
+		File csv = File.createTempFile("streaming", ".csv");
+		tsv.deleteOnExit();
+		csv.deleteOnExit();
+		
+		try(PrintWriter tsvOut = new PrintWriter(tsv, "UTF-8"); PrintWriter csvOut = new PrintWriter(csv, "UTF-8")) {
+			tsvOut.println("scientificName\tfamily\tnotes");
+			csvOut.println("scientificName,family,notes");
+			for(int x = 0; x < rowCount; x++) {
+				tsvOut.println("Streamus species" + x + "\tStreamidae\t" + (x % 2 == 0 ? "" : "note " + x));
+				csvOut.println("Streamus species" + x + ",Streamidae,\"note, " + x + "\"");
+			}
+		}
+		
+		DelimitedFileImporter tsvImporter = new DelimitedFileImporter(CSVFormat.TDF.withQuote(null), tsv);
+		tsvImporter.setChunkSize(64);
+		tsvImporter.setMaxChunksInFlight(3);
+		assertTrue(tsvImporter.canParseInParallel());
+		
+		DelimitedFileImporter csvImporter = new DelimitedFileImporter(CSVFormat.DEFAULT, csv);
+		csvImporter.setChunkSize(64);
+		assertFalse(csvImporter.canParseInParallel());
+		
+		for(DelimitedFileImporter importer: Arrays.asList(tsvImporter, csvImporter)) {
+			Dataset ds = importer.importDataset();
+			
+			assertEquals(Arrays.asList(DatasetColumn.of("scientificName"), DatasetColumn.of("family"), DatasetColumn.of("notes")), ds.getColumns());
+			assertEquals(rowCount, ds.getRowCount());
+			assertEquals(rowCount, importer.rowsReadProperty().get());
+			assertEquals(1.0, importer.progressProperty().get());
+			
+			for(int x = 0; x < rowCount; x++) {
+				DatasetRow row = ds.rowsProperty().get(x);
+				assertEquals("Streamus species" + x, row.get("scientificName"));
+				assertEquals("Streamidae", row.get("family"));
+				assertEquals(Collections.singleton(Name.get("Streamus", "species" + x)), ds.getNamesByRow().get(row));
+			}
+			assertEquals(rowCount, ds.getNamesInAllRows().size());
+		}
+	}
+	
+	/**
+	 * XLSX files should be streamed into datasets with the same columns and values
+	 * as loading the whole workbook.
+	 */
+	@Test
+	public void testStreamingExcelImport() throws IOException {
+		File xlsx = File.createTempFile("streaming", ".xlsx");
+		xlsx.deleteOnExit();
+		
+		try(XSSFWorkbook wb = new XSSFWorkbook(); FileOutputStream out = new FileOutputStream(xlsx)) {
+			Sheet sheet = wb.createSheet("names");
+			
+			Row header = sheet.createRow(0);
+			header.createCell(0).setCellValue("scientificName");
+			header.createCell(1).setCellValue("year");
+			header.createCell(2).setCellValue("year");
+			
+			for(int x = 1; x <= 100; x++) {
+				Row row = sheet.createRow(x);
+				row.createCell(0).setCellValue("Excelsus species" + x);
+				row.createCell(1).setCellValue(1900 + x);
+				
+				// Leave some cells blank.
+				if(x % 2 == 0) row.createCell(2).setCellValue("even");
+			}
+			
+			wb.write(out);
+		}
+		
+		Dataset ds = ExcelImporter.streamXLSX(xlsx, 0);
+		assertEquals(xlsx.getName(), ds.getName());
+		assertEquals(Arrays.asList(DatasetColumn.of("scientificName"), DatasetColumn.of("year"), DatasetColumn.of("year_1")), ds.getColumns());
+		assertEquals(100, ds.getRowCount());
+		
+		for(int x = 1; x <= 100; x++) {
+			DatasetRow row = ds.rowsProperty().get(x - 1);
+			assertEquals("Excelsus species" + x, row.get("scientificName"));
+			assertEquals(String.valueOf(1900 + x), row.get("year"));
+			assertEquals(x % 2 == 0 ? "even" : null, row.get("year_1"));
+		}
+		assertEquals(100, ds.getNamesInAllRows().size());
+	}
+	
+	/**
+	 * Name extractor detection should pick the extractors that find the most names,
+	 * and remember them for datasets with the same header.
+	 */
+	@Test
+	public void testNameExtractorDetection() throws NameExtractorParseException {
+		NameExtractorDetector.forgetDetectedExtractors();
+		
+		List<NameExtractor> byGenus = NameExtractorFactory.getExtractors("genusAndEpithets(detectGenus, detectEpithet)");
+		List<NameExtractor> byName = NameExtractorFactory.getExtractors("scientificName(detectName)");
+		List<NameExtractor> missing = NameExtractorFactory.getExtractors("scientificName(detectMissing)");
+		List<List<NameExtractor>> candidates = Arrays.asList(missing, byGenus, byName);
+		
+		Dataset ds = new Dataset("detect", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		ds.getColumns().addAll(DatasetColumn.of("detectName"), DatasetColumn.of("detectGenus"), DatasetColumn.of("detectEpithet"));
+		for(int x = 0; x < NameExtractorDetector.SAMPLE_SIZE * 3; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put("detectName", "Detectus species" + x);
+			row.put("detectGenus", "Detectus");
+			row.put("detectEpithet", "species" + (x % 10));
+			ds.rowsProperty().add(row);
+		}
+		
+		assertSame(byName, NameExtractorDetector.detect(ds, candidates));
+		
+		// The same header should get the same extractors without any detection.
+		Dataset ds2 = new Dataset("detect2", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		ds2.getColumns().addAll(ds.getColumns());
+		assertSame(byName, NameExtractorDetector.detect(ds2, candidates));
+		
+		// But not if the extractors detected before aren't among the candidates.
+		for(int x = 0; x < 10; x++) {
+			DatasetRow row = new DatasetRow(ds2);
+			row.put("detectGenus", "Detectus");
+			row.put("detectEpithet", "species" + x);
+			ds2.rowsProperty().add(row);
+		}
+		assertSame(byGenus, NameExtractorDetector.detect(ds2, Arrays.asList(missing, byGenus)));
+		
+		// Nothing can extract names from a dataset without any of these columns.
+		Dataset ds3 = new Dataset("detect3", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		ds3.getColumns().add(DatasetColumn.of("detectNothing"));
+		assertEquals(
+			NameExtractorFactory.getDefaultExtractorsAsString(), 
+			NameExtractorFactory.serializeExtractorsToString(NameExtractorDetector.detect(ds3, candidates))
+		);
+		
+		NameExtractorDetector.forgetDetectedExtractors();
+	}
+	
+	/**
+	 * The changes accepted by a project's change filter should be worked out once,
+	 * and worked out again only when the changes or the filters change.
+	 */
+	@Test
+	public void testFilteredChangesCache() {
+		Project project = new Project();
+		Dataset ds = new Dataset("filtered", new SimplifiedDate(1930), Dataset.TYPE_CHECKLIST);
+		ds.getColumns().add(DatasetColumn.of("scientificName"));
+		for(int x = 0; x < 10; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put("scientificName", "Filterus species" + x);
+			ds.rowsProperty().add(row);
+		}
+		Change rename = new Change(ds, ChangeType.RENAME, Stream.of(Name.get("Filterus", "old")), Stream.of(Name.get("Filterus", "species0")));
+		ds.explicitChangesProperty().add(rename);
+		project.addDataset(ds);
+		
+		int[] filterCalls = { 0 };
+		IgnoreIgnoredFilterChangeFilter ignoreIgnored = new IgnoreIgnoredFilterChangeFilter(project, true);
+		project.addChangeFilter(ignoreIgnored);
+		project.addChangeFilter(new ChangeFilter() {
+			@Override public String getShortName() { return "counting"; }
+			@Override public boolean filter(Change ch) { filterCalls[0]++; return true; }
+			@Override public Element serializeToElement(Document doc) { return doc.createElement("filter"); }
+		});
+		
+		// Nine implicit additions, and our explicit rename.
+		List<Change> changes = ds.getFilteredChanges(project);
+		assertEquals(10, changes.size());
+		assertEquals(Arrays.asList(rename), ds.getExplicitChanges(project).collect(Collectors.toList()));
+		assertEquals(9, ds.getImplicitChanges(project).count());
+		
+		// Asking again doesn't filter again.
+		int calls = filterCalls[0];
+		assertEquals(10, calls);
+		assertEquals(changes, ds.getChanges(project).collect(Collectors.toList()));
+		assertEquals("1 explicit changes (1 rename)", ds.getExplicitChangesCountSummary(project));
+		assertEquals(calls, filterCalls[0]);
+		
+		// Editing a change filters again.
+		rename.getProperties().put("ignored", "yes");
+		assertEquals(9, ds.getFilteredChanges(project).size());
+		assertEquals(0, ds.getExplicitChanges(project).count());
+		
+		// So does reconfiguring a filter.
+		ignoreIgnored.setActive(false);
+		assertEquals(10, ds.getFilteredChanges(project).size());
+	}
+	
+	private static Dataset checklistOf(String name, int year, String... names) {
+		Dataset ds = new Dataset(name, new SimplifiedDate(year), Dataset.TYPE_CHECKLIST);
+		ds.getColumns().add(DatasetColumn.of("scientificName"));
+		for(String n: names) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put("scientificName", n);
+			ds.rowsProperty().add(row);
+		}
+		return ds;
+	}
+	
+	/**
+	 * Inserting or editing a dataset should only recalculate implicit changes for that 
+	 * dataset and the datasets after it whose previous dataset's names have changed.
+	 */
+	@Test
+	public void testDownstreamImplicitChanges() {
+		Project project = new Project();
+		Dataset c1 = checklistOf("c1", 1930, "Implicitus a", "Implicitus b");
+		Dataset c2 = checklistOf("c2", 1940, "Implicitus a", "Implicitus b", "Implicitus c");
+		Dataset c3 = checklistOf("c3", 1950, "Implicitus a", "Implicitus b", "Implicitus c");
+		Dataset c4 = checklistOf("c4", 1960, "Implicitus a", "Implicitus b", "Implicitus c", "Implicitus d");
+		Stream.of(c1, c2, c3, c4).forEach(project::addDataset);
+		
+		assertEquals(2, c1.getImplicitChanges(project).count());
+		assertEquals(1, c2.getImplicitChanges(project).count());
+		assertEquals(0, c3.getImplicitChanges(project).count());
+		assertEquals(1, c4.getImplicitChanges(project).count());
+		
+		List<Change> c1Changes = c1.getImplicitChanges(project).collect(Collectors.toList());
+		List<Change> c2Changes = c2.getImplicitChanges(project).collect(Collectors.toList());
+		List<Change> c4Changes = c4.getImplicitChanges(project).collect(Collectors.toList());
+		
+		// Insert a dataset that adds a name between c2 and c3: only c3 needs to delete it.
+		Name added = Name.get("Implicitus", "e");
+		Dataset d = new Dataset("d", new SimplifiedDate(1945), Dataset.TYPE_DATASET);
+		Change addition = new Change(d, ChangeType.ADDITION, Stream.empty(), Stream.of(added));
+		d.explicitChangesProperty().add(addition);
+		
+		long[] recalculations = recalculationsOf(c1, c2, d, c3, c4);
+		project.getDatasets().add(2, d);
+		
+		// d is new, and c3 follows a new dataset; c3 still recognizes the same names, so c4 isn't recalculated.
+		assertArrayEquals(new long[] { 0, 0, 1, 1, 0 }, recalculationsSince(recalculations, c1, c2, d, c3, c4));
+		assertEquals(Optional.of(d), c3.getPreviousDataset());
+		assertEquals(
+			Arrays.asList(added), 
+			c3.getImplicitChanges(project).flatMap(ch -> ch.getFromStream()).collect(Collectors.toList())
+		);
+		assertSameChanges(c1Changes, c1.getImplicitChanges(project).collect(Collectors.toList()));
+		assertSameChanges(c2Changes, c2.getImplicitChanges(project).collect(Collectors.toList()));
+		assertSameChanges(c4Changes, c4.getImplicitChanges(project).collect(Collectors.toList()));
+		
+		// Editing c2 recalculates c2, and d and c3 after it, but c3 still recognizes the same names.
+		recalculations = recalculationsOf(c1, c2, d, c3, c4);
+		DatasetRow row = new DatasetRow(c2);
+		row.put("scientificName", "Implicitus f");
+		c2.rowsProperty().add(row);
+		
+		assertArrayEquals(new long[] { 0, 1, 1, 1, 0 }, recalculationsSince(recalculations, c1, c2, d, c3, c4));
+		assertEquals(2, c2.getImplicitChanges(project).count());
+		assertEquals(2, c3.getImplicitChanges(project).count());
+		assertSameChanges(c1Changes, c1.getImplicitChanges(project).collect(Collectors.toList()));
+		assertSameChanges(c4Changes, c4.getImplicitChanges(project).collect(Collectors.toList()));
+		
+		// However many times datasets were rearranged, editing one only modifies the project 
+		// once, and renaming a dataset doesn't recalculate any implicit changes.
+		// Modifications close together can have the same timestamp, so count invalidations.
+		int[] modifications = { 0 };
+		project.lastModifiedProperty().addListener((Observable obs) -> {
+			modifications[0]++;
+			project.lastModifiedProperty().get();
+		});
+		project.lastModifiedProperty().get();
+		recalculations = recalculationsOf(c1, c2, d, c3, c4);
+		c1.setName("c1 renamed");
+		assertEquals(1, modifications[0]);
+		assertArrayEquals(new long[] { 0, 0, 0, 0, 0 }, recalculationsSince(recalculations, c1, c2, d, c3, c4));
+		
+		// Datasets removed from the project no longer modify it.
+		project.getDatasets().remove(d);
+		assertEquals(Optional.of(c2), c3.getPreviousDataset());
+		assertEquals(1, c3.getImplicitChanges(project).count());
+		modifications[0] = 0;
+		d.setName("d renamed");
+		assertEquals(0, modifications[0]);
+	}
+	
+	private static long[] recalculationsOf(Dataset... datasets) {
+		return Stream.of(datasets).mapToLong(Dataset::getImplicitChangesRecalculations).toArray();
+	}
+	
+	private static long[] recalculationsSince(long[] before, Dataset... datasets) {
+		long[] now = recalculationsOf(datasets);
+		for(int x = 0; x < now.length; x++) {
+			now[x] -= before[x];
+		}
+		return now;
+	}
+	
+	private static void assertSameChanges(List<Change> expected, List<Change> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int x = 0; x < expected.size(); x++) {
+			assertSame(expected.get(x), actual.get(x));
+		}
+	}
+	
+	/**
+	 * Editing a dataset's name, date or properties shouldn't invalidate anything worked 
+	 * out from it. Editing its rows or changes should only invalidate what depends on them.
+	 */
+	@Test
+	public void testInvalidation() {
+		Project project = new Project();
+		Dataset c1 = checklistOf("c1", 1930, "Invalidus a", "Invalidus b");
+		Dataset c2 = checklistOf("c2", 1940, "Invalidus a", "Invalidus c");
+		project.addDataset(c1);
+		project.addDataset(c2);
+		
+		Map<DatasetRow, Set<Name>> namesByRow = c1.getNamesByRow();
+		Set<Name> c1Names = project.getRecognizedNames(c1);
+		Set<Name> c2Names = project.getRecognizedNames(c2);
+		NameClusterManager clusters = project.getNameClusterManager();
+		long clustersVersion = project.getNameClustersDependency().getVersion();
+		
+		c1.setName("c1 renamed");
+		c1.setDate(new SimplifiedDate(1931));
+		c1.getProperties().put("note", "Only a note");
+		
+		assertSame(namesByRow, c1.getNamesByRow());
+		assertSame(c1Names, project.getRecognizedNames(c1));
+		assertSame(c2Names, project.getRecognizedNames(c2));
+		assertSame(clusters, project.getNameClusterManager());
+		assertEquals(clustersVersion, project.getNameClustersDependency().getVersion());
+		
+		// Changes in c2 don't affect the names recognized by c1.
+		Change rename = new Change(c2, ChangeType.RENAME, Stream.of(Name.get("Invalidus", "b")), Stream.of(Name.get("Invalidus", "c")));
+		c2.explicitChangesProperty().add(rename);
+		assertSame(c1Names, project.getRecognizedNames(c1));
+		assertNotSame(c2Names, project.getRecognizedNames(c2));
+		assertEquals(c2Names, project.getRecognizedNames(c2));
+		assertTrue(project.getNameClustersDependency().getVersion() > clustersVersion);
+		
+		// Editing a value in a row of c1 changes its names.
+		c1.rowsProperty().get(1).put("scientificName", "Invalidus d");
+		assertNotSame(namesByRow, c1.getNamesByRow());
+		assertTrue(c1.getNamesInAllRows().contains(Name.get("Invalidus", "d")));
+		
+		// A dataset that is removed and added again still notices its own changes.
+		project.datasetsProperty().remove(c2);
+		project.addDataset(c2);
+		assertFalse(project.getRecognizedNames(c2).contains(Name.get("Invalidus", "e")));
+		c2.explicitChangesProperty().add(new Change(c2, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Invalidus", "e"))));
+		assertTrue(project.getRecognizedNames(c2).contains(Name.get("Invalidus", "e")));
+	}
+	
+	/**
+	 * Implicit changes are only created when they're asked for, and an implicit change
+	 * that is edited becomes an explicit change without the others being recreated.
+	 */
+	@Test
+	public void testImplicitChanges() {
+		Project project = new Project();
+		String[] names = new String[1000];
+		for(int x = 0; x < names.length; x++) {
+			names[x] = "Implicitus species" + x;
+		}
+		Dataset ds = checklistOf("implicit", 1930, names);
+		project.addDataset(ds);
+		
+		List<Change> changes = ds.getImplicitChanges(project).collect(Collectors.toList());
+		assertEquals(1000, changes.size());
+		assertTrue(changes.stream().allMatch(ch -> ch.getType().equals(ChangeType.ADDITION) && ds.isChangeImplicit(ch)));
+		assertSameChanges(changes, ds.getImplicitChanges(project).collect(Collectors.toList()));
+		
+		// Change IDs are sequential.
+		Change ch1 = new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Implicitus", "one")), false);
+		Change ch2 = new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Implicitus", "two")), false);
+		assertEquals(ch1.getId() + 1, ch2.getId());
+		
+		// Editing an implicit change makes it explicit.
+		Change edited = changes.get(10);
+		edited.getProperties().put("note", "Checked");
+		assertFalse(ds.isChangeImplicit(edited));
+		assertEquals(Arrays.asList(edited), ds.explicitChangesProperty());
+		
+		List<Change> remaining = new ArrayList<>(changes);
+		remaining.remove(edited);
+		assertSameChanges(remaining, ds.getImplicitChanges(project).collect(Collectors.toList()));
+		assertEquals(1000, project.getRecognizedNames(ds).size());
+	}
+	
+	/**
+	 * The project's name index should follow rows and changes as they're edited.
+	 */
+	@Test
+	public void testNameIndex() {
+		Project project = new Project();
+		Dataset c1 = checklistOf("c1", 1930, "Indexus a", "Indexus b");
+		Dataset c2 = checklistOf("c2", 1940, "Indexus a", "Indexus c");
+		Stream.of(c1, c2).forEach(project::addDataset);
+		
+		NameIndex index = project.getNameIndex();
+		Name a = Name.get("Indexus", "a");
+		Name b = Name.get("Indexus", "b");
+		Name c = Name.get("Indexus", "c");
+		Name d = Name.get("Indexus", "d");
+		
+		assertEquals(Arrays.asList(c1, c2), index.getDatasets(a));
+		assertEquals(2, project.getRowsForName(a).size());
+		
+		// Names deleted implicitly are indexed too.
+		assertEquals(Arrays.asList(c1, c2), index.getDatasets(b));
+		assertEquals(
+			Arrays.asList(ChangeType.ADDITION, ChangeType.DELETION), 
+			index.getChanges(b).stream().map(ch -> ch.getType()).collect(Collectors.toList())
+		);
+		
+		// Adding a row adds its name.
+		assertTrue(index.getDatasets(d).isEmpty());
+		DatasetRow row = new DatasetRow(c2);
+		row.put("scientificName", "Indexus d");
+		c2.rowsProperty().add(row);
+		
+		assertEquals(Arrays.asList(c2), index.getDatasets(d));
+		assertEquals(Collections.singleton(c2), project.getRowsForName(d).get(row));
+		assertEquals(1, index.getChanges(d).size());
+		
+		// Adding an explicit rename replaces the implicit changes it explains.
+		Change rename = new Change(c2, ChangeType.RENAME, Stream.of(b), Stream.of(c));
+		c2.explicitChangesProperty().add(rename);
+		
+		assertEquals(
+			Arrays.asList(ChangeType.ADDITION, ChangeType.RENAME), 
+			index.getChanges(b).stream().map(ch -> ch.getType()).collect(Collectors.toList())
+		);
+		assertEquals(Arrays.asList(rename), index.getAllChanges(c));
+		
+		// Changes to trinomials are rolled up into their binomial's cluster.
+		DatasetRow trinomialRow = new DatasetRow(c2);
+		trinomialRow.put("scientificName", "Indexus c minor");
+		c2.rowsProperty().add(trinomialRow);
+		
+		NameCluster cluster = project.getNameClusterManager().getCluster(c).get();
+		assertTrue(cluster.contains(b));
+		List<Change> clusterChanges = index.getChanges(c2, cluster);
+		assertTrue(clusterChanges.contains(rename));
+		assertTrue(clusterChanges.stream().anyMatch(ch -> ch.getToStream().anyMatch(n -> n.getFullName().equals("Indexus c minor"))));
+		
+		// Removed datasets are no longer indexed.
+		project.getDatasets().remove(c2);
+		assertTrue(index.getDatasets(d).isEmpty());
+		assertEquals(Arrays.asList(c1), index.getDatasets(b));
+	}
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the operations we do most often on Names: putting them into
+ * sets and sorting them. These aren't run as part of the tests; run them with:
+ * 
+ * 	java -cp (test classpath) org.openjdk.jmh.Main NameBenchmark
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameBenchmark {
+	@Param({"10000"})
+	public int nameCount;
+	
+	private List<Name> names;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(1859);
+		names = new ArrayList<>(nameCount);
+		
+		for(int x = 0; x < nameCount; x++) {
+			String genus = "Genus" + (char)('a' + random.nextInt(26)) + (char)('a' + random.nextInt(26));
+			String epithet = "epithet" + (char)('a' + random.nextInt(26)) + (char)('a' + random.nextInt(26)) + (char)('a' + random.nextInt(26));
+			
+			if(random.nextInt(4) == 0)
+				names.add(Name.get(genus, epithet, "subsp. " + epithet));
+			else
+				names.add(Name.get(genus, epithet));
+		}
+	}
+	
+	@Benchmark
+	public Set<Name> buildSet() {
+		return new HashSet<>(names);
+	}
+	
+	@Benchmark
+	public List<Name> sortNames() {
+		List<Name> copy = new ArrayList<>(names);
+		Collections.sort(copy);
+		return copy;
+	}
+}
@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 
@@ -114,4 +115,161 @@ public class NameClusterManagerTest {
 		
 		assertEquals(cluster.getFoundInSorted().get(0), ds1);
 	}
+	
+	/**
+	 * Test that adding names and synonymies directly gives the same clusters
+	 * as adding NameClusters and Synonymies.
+	 */
+	@Test
+	public void testAddNamesAndSynonymies() {
+		NameClusterManager ncm = new NameClusterManager();
+		
+		ncm.addNames(ds1, Arrays.asList(
+			Name.get("Ornithorhynchus", "anatinus"),
+			Name.get("Platypus", "anatinus"),
+			Name.get("Tachyglossus", "aculeatus", "setosus")
+		));
+		ncm.addNames(ds2, Arrays.asList(Name.get("Ornithorhynchus", "paradoxus")));
+		
+		// The subspecies is clustered with its binomial name.
+		assertEquals(4, ncm.getClusterCount());
+		assertTrue(ncm.hasCluster(Name.get("Tachyglossus", "aculeatus")));
+		assertEquals(
+			Name.get("Tachyglossus", "aculeatus"), 
+			ncm.getCluster(Name.get("Tachyglossus", "aculeatus", "setosus")).get().getBinomialNameForDataset(ds1).get()
+		);
+		
+		ncm.addSynonymy(Name.get("Ornithorhynchus", "anatinus"), Name.get("Platypus", "anatinus"), ds1);
+		ncm.addSynonymy(Name.get("Ornithorhynchus", "paradoxus"), Name.get("Platypus", "anatinus"), ds3);
+		assertEquals(2, ncm.getClusterCount());
+		
+		NameCluster cluster = ncm.getCluster(Name.get("Ornithorhynchus", "paradoxus")).get();
+		assertEquals(3, cluster.size());
+		assertEquals(Arrays.asList(ds1, ds2, ds3), cluster.getFoundInSorted());
+		
+		// Every name in a cluster returns the same NameCluster.
+		assertTrue(cluster == ncm.getCluster(Name.get("Ornithorhynchus", "anatinus")).get());
+		assertEquals(false, ncm.hasCluster(Name.get("Alpha", "beta")));
+	}
+	
+	/**
+	 * Test that removing a rename from a dataset splits only the cluster it created.
+	 */
+	@Test
+	public void testIncrementalUpdates() {
+		NameClusterManager ncm = new NameClusterManager();
+		
+		Name ornithorhynchus = Name.get("Ornithorhynchus", "anatinus");
+		Name platypus = Name.get("Platypus", "anatinus");
+		Name alpha = Name.get("Alpha", "beta");
+		Name gamma = Name.get("Gamma", "delta");
+		
+		Change rename = new Change(ds2, ChangeType.RENAME, Stream.of(ornithorhynchus), Stream.of(platypus), false);
+		Change otherRename = new Change(ds2, ChangeType.RENAME, Stream.of(alpha), Stream.of(gamma), false);
+		
+		ncm.updateDatasetNames(ds1, Arrays.asList(ornithorhynchus, alpha));
+		ncm.updateDatasetNames(ds2, Arrays.asList(ornithorhynchus, platypus, alpha, gamma));
+		ncm.updateDatasetRenames(ds2, Arrays.asList(rename, otherRename));
+		assertEquals(2, ncm.getClusterCount());
+		
+		NameCluster unaffected = ncm.getCluster(alpha).get();
+		
+		// Remove the first rename.
+		ncm.updateDatasetRenames(ds2, Arrays.asList(otherRename));
+		assertEquals(3, ncm.getClusterCount());
+		assertEquals(Arrays.asList(ds1, ds2), ncm.getCluster(ornithorhynchus).get().getFoundInSorted());
+		assertEquals(Arrays.asList(ds2), ncm.getCluster(platypus).get().getFoundInSorted());
+		assertEquals(unaffected.getNames(), ncm.getCluster(gamma).get().getNames());
+		
+		// Remove ds1 entirely.
+		ncm.removeDataset(ds1);
+		assertEquals(Arrays.asList(ds2), ncm.getCluster(ornithorhynchus).get().getFoundInSorted());
+		assertEquals(Arrays.asList(ds2), ncm.getCluster(alpha).get().getFoundInSorted());
+		
+		// Add the rename back.
+		ncm.updateDatasetRenames(ds2, Arrays.asList(rename, otherRename));
+		assertEquals(2, ncm.getClusterCount());
+		assertTrue(ncm.getCluster(ornithorhynchus).get() == ncm.getCluster(platypus).get());
+	}
+	
+	/**
+	 * The earliest dataset each cluster was found in should be kept up to date as 
+	 * clusters are merged, split and as datasets change.
+	 */
+	@Test
+	public void testEarliestTimepoint() {
+		NameClusterManager ncm = new NameClusterManager();
+		Dataset ds = new Dataset("changing", new SimplifiedDate(1970), Dataset.TYPE_DATASET);
+		
+		Name ornithorhynchus = Name.get("Ornithorhynchus", "anatinus");
+		Name platypus = Name.get("Platypus", "anatinus");
+		Change rename = new Change(ds2, ChangeType.RENAME, Stream.of(ornithorhynchus), Stream.of(platypus), false);
+		
+		ncm.updateDatasetNames(ds3, Arrays.asList(ornithorhynchus));
+		ncm.updateDatasetNames(ds1, Arrays.asList(platypus));
+		ncm.updateDatasetNames(ds, Arrays.asList(ornithorhynchus));
+		assertEquals(Optional.of(ds3), ncm.getEarliestTimepoint(ornithorhynchus));
+		assertEquals(Optional.of(ds1), ncm.getEarliestTimepoint(platypus));
+		assertEquals(Optional.empty(), ncm.getEarliestTimepoint(Name.get("Alpha", "beta")));
+		
+		// Merging clusters keeps the earliest dataset from either of them.
+		ncm.updateDatasetNames(ds2, Arrays.asList(ornithorhynchus, platypus));
+		ncm.updateDatasetRenames(ds2, Arrays.asList(rename));
+		assertEquals(Optional.of(ds1), ncm.getEarliestTimepoint(ornithorhynchus));
+		assertEquals(ds1, ncm.getCluster(ornithorhynchus).get().getEarliestTimepoint());
+		
+		// Splitting them works it out again.
+		ncm.updateDatasetRenames(ds2, Arrays.asList());
+		assertEquals(Optional.of(ds2), ncm.getEarliestTimepoint(ornithorhynchus));
+		
+		// As does changing a dataset's date.
+		ds.setDate(new SimplifiedDate(1920));
+		ncm.updateDatasetNames(ds, Arrays.asList(ornithorhynchus));
+		assertEquals(Optional.of(ds), ncm.getEarliestTimepoint(ornithorhynchus));
+		assertEquals(ds, ncm.getCluster(ornithorhynchus).get().getEarliestTimepoint());
+		
+		// Clusters built outside a manager work it out themselves.
+		NameCluster cluster = new NameCluster(ds3, platypus);
+		cluster.addName(ornithorhynchus, ds2);
+		assertEquals(ds2, cluster.getEarliestTimepoint());
+	}
+	
+	/**
+	 * The modification count should only change when names move between clusters
+	 * or a cluster's earliest dataset changes.
+	 */
+	@Test
+	public void testModificationCount() {
+		NameClusterManager ncm = new NameClusterManager();
+		
+		Name ornithorhynchus = Name.get("Ornithorhynchus", "anatinus");
+		Name platypus = Name.get("Platypus", "anatinus");
+		Change rename = new Change(ds2, ChangeType.RENAME, Stream.of(ornithorhynchus), Stream.of(platypus), false);
+		
+		ncm.updateDatasetNames(ds1, Arrays.asList(ornithorhynchus));
+		long count = ncm.getModificationCount();
+		
+		// Updating a dataset with the same names changes nothing.
+		ncm.updateDatasetNames(ds1, Arrays.asList(ornithorhynchus));
+		assertEquals(count, ncm.getModificationCount());
+		
+		// Nor does finding a cluster in a later dataset.
+		ncm.updateDatasetNames(ds2, Arrays.asList(ornithorhynchus));
+		assertEquals(count, ncm.getModificationCount());
+		
+		// But finding it in an earlier one does.
+		ncm.updateDatasetNames(ds3, Arrays.asList(platypus));
+		count = ncm.getModificationCount();
+		ncm.updateDatasetNames(ds2, Arrays.asList(ornithorhynchus, platypus));
+		assertTrue(ncm.getModificationCount() > count);
+		
+		// As does merging two clusters.
+		count = ncm.getModificationCount();
+		ncm.updateDatasetRenames(ds2, Arrays.asList(rename));
+		assertTrue(ncm.getModificationCount() > count);
+		
+		count = ncm.getModificationCount();
+		ncm.updateDatasetRenames(ds2, Arrays.asList(rename));
+		assertEquals(count, ncm.getModificationCount());
+	}
 }
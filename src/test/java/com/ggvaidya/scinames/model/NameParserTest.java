@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the NameParser class.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NameParserTest {
+	
+	/**
+	 * The regular expression-based parser NameParser replaced. We check that
+	 * NameParser produces exactly the same names.
+	 */
+	private static Optional<Name> parseWithRegex(String name) {
+		if(name == null || name.equals("")) return Optional.empty();
+		
+		name = name.trim();
+		
+		Pattern surroundedByQuotes = Pattern.compile("^(['\"])\\s*(.*)\\s*\\1$");
+		Matcher matcherSurroundedByQuotes = surroundedByQuotes.matcher(name);
+		if(matcherSurroundedByQuotes.matches()) {
+			name = matcherSurroundedByQuotes.group(2);
+		}
+		
+		String[] components = name.split("\\s+");
+		if(components.length > 0 && !components[0].matches("^[\\p{IsAlphabetic}_\\.]+$")) {
+			return Optional.empty();
+		}
+		
+		if(components.length > 3) {
+			String infraspecificEpithets = Arrays.asList(components)
+				.subList(2, components.length)
+				.stream().collect(Collectors.joining(Name.SEPARATOR))
+				.trim();
+			return Optional.ofNullable(Name.get(components[0], components[1], infraspecificEpithets));
+		} else if(components.length == 3) {
+			return Optional.ofNullable(Name.get(components[0], components[1], components[2]));
+		} else if(components.length == 2) {
+			return Optional.ofNullable(Name.get(components[0], components[1]));
+		} else if(components.length == 1) {
+			return Optional.ofNullable(Name.getFromGenus(components[0]));
+		} else {
+			return Optional.empty();
+		}
+	}
+	
+	@Test
+	public void testSameAsRegexParser() {
+		List<String> inputs = Arrays.asList(
+			"", " ", "\t\n", "Alpha", "Alpha beta", "  Alpha   beta  ", "Alpha beta gamma",
+			"Alpha beta subsp. gamma", "Alpha beta\tsubsp.  gamma var. delta", "Alpha beta gamma delta epsilon ",
+			"Alpha sp", "Alpha sp.", "Alpha cf. beta", "Alpha Beta", "Alpha beta-gamma", "Alpha 1234",
+			"alpha beta", "Unknown beta", "NA", "null beta gamma", "Undetermined sp. 1",
+			"'Alpha'", "'Alpha beta'", "\"Alpha beta\"", "' Alpha beta '", "'Alpha' beta", "''", "'", "\"'",
+			"'Alpha\nbeta'", "'Alpha beta\n'", "'\n Alpha beta'", "'Alpha beta\n x'",
+			"Anabaena füllebornii", "Ægithalos caudatus", "Homo_sapiens", "H. sapiens", "(Alpha) beta",
+			"123 Alpha", "Alpha\u000Bbeta", "Alpha\u0001 beta", "Alpha beta \u0001gamma", "Alpha beta gamma\u0001",
+			"Alpha beta", "Alpha beta gamma", "'Alpha '"
+		);
+		
+		for(String input: inputs) {
+			Optional<Name> expected = parseWithRegex(input);
+			Optional<Name> actual = NameParser.parse(input);
+			
+			assertEquals(expected, actual, "Parsing '" + input + "'");
+			if(expected.isPresent())
+				assertSame(expected.get(), actual.get(), "Parsing '" + input + "'");
+		}
+	}
+	
+	@Test
+	public void testMemoization() {
+		Optional<Name> first = Name.getFromFullName("Memoria repetita");
+		Optional<Name> second = Name.getFromFullName("Memoria repetita");
+		
+		assertSame(first, second);
+		assertEquals(Name.get("Memoria", "repetita"), first.get());
+		
+		// Unparseable names are memoized too.
+		assertSame(Name.getFromFullName("1234"), Name.getFromFullName("1234"));
+		assertEquals(Optional.empty(), Name.getFromFullName("1234"));
+	}
+}
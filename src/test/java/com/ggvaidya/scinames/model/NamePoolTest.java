@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.ggvaidya.scinames.util.SimplifiedDate;
+
+/**
+ * Tests for the NamePool class.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class NamePoolTest {
+	
+	/**
+	 * Interning the same names from many threads should give us one Name per full name,
+	 * each with its own ID.
+	 */
+	@Test
+	public void testConcurrentInterning() {
+		List<Name> names = IntStream.range(0, 20000).parallel()
+			.mapToObj(x -> Name.get("Concurrus", "epithet" + (char)('a' + (x % 26)) + (char)('a' + (x / 26 % 26))))
+			.collect(Collectors.toList());
+		
+		Set<String> fullNames = names.stream().map(n -> n.getFullName()).collect(Collectors.toSet());
+		Set<Integer> ids = names.stream().map(n -> n.getId()).collect(Collectors.toSet());
+		assertEquals(fullNames.size(), ids.size());
+		
+		for(Name n: names) {
+			assertSame(n, Name.getFromFullName(n.getFullName()).get());
+			assertSame(n, NamePool.getDefault().getById(n.getId()));
+			assertTrue(n.getId() < NamePool.getDefault().getIdCapacity());
+		}
+	}
+	
+	@Test
+	public void testEmptyName() {
+		assertEquals(NamePool.EMPTY_ID, Name.EMPTY.getId());
+		assertSame(Name.EMPTY, NamePool.getDefault().getById(NamePool.EMPTY_ID));
+		assertSame(Name.EMPTY, Name.get("  ", "beta"));
+	}
+	
+	/**
+	 * Names used by a registered project survive reclamation; others don't. We use 
+	 * our own pool, so we don't reclaim names other tests are still using.
+	 */
+	@Test
+	public void testReclaim() {
+		NamePool pool = new NamePool();
+		Project project = new Project();
+		pool.register(project);
+		
+		Dataset ds = new Dataset("ds", new SimplifiedDate(1950), Dataset.TYPE_DATASET);
+		Name kept = pool.intern(new Name("Reclaimus", "keptii", null));
+		ds.explicitChangesProperty().add(new Change(ds, ChangeType.ADDITION, Stream.empty(), Stream.of(kept)));
+		project.addDataset(ds);
+		
+		Name unused = pool.intern(new Name("Reclaimus", "unusedii", null));
+		int keptId = kept.getId();
+		
+		pool.reclaim();
+		
+		assertSame(kept, pool.getByFullName("Reclaimus keptii"));
+		assertEquals(keptId, kept.getId());
+		assertNull(pool.getByFullName("Reclaimus unusedii"));
+		assertEquals(Name.NO_ID, unused.getId());
+		
+		// Reclaimed names are still equal to their replacements.
+		Name replacement = pool.intern(new Name("Reclaimus", "unusedii", null));
+		assertEquals(unused, replacement);
+		assertNotEquals(Name.NO_ID, replacement.getId());
+		
+		// Once the project is gone, its names can be reclaimed too.
+		pool.unregister(project);
+		pool.reclaim();
+		assertNull(pool.getByFullName("Reclaimus keptii"));
+	}
+	
+	/**
+	 * Reclaiming names only looks at the names already extracted from rows, but keeps
+	 * them even once those rows have been edited.
+	 */
+	@Test
+	public void testKnownReferencedNames() {
+		Dataset ds = new Dataset("checklist", new SimplifiedDate(1950), Dataset.TYPE_CHECKLIST);
+		ds.getColumns().add(DatasetColumn.of("scientificName"));
+		DatasetRow row = new DatasetRow(ds);
+		row.put("scientificName", "Reclaimus rowii");
+		ds.rowsProperty().add(row);
+		assertEquals(0, ds.getKnownReferencedNames().count());
+		
+		Name rowName = Name.get("Reclaimus", "rowii");
+		assertTrue(ds.getNamesInAllRows().contains(rowName));
+		assertTrue(ds.getKnownReferencedNames().anyMatch(n -> n.equals(rowName)));
+		
+		row.put("scientificName", "Reclaimus editus");
+		assertTrue(ds.getKnownReferencedNames().anyMatch(n -> n.equals(rowName)));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Gaurav Vaidya <gaurav@ggvaidya.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.ggvaidya.scinames.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the PersistentNameSet class.
+ * 
+ * @author Gaurav Vaidya <gaurav@ggvaidya.com>
+ */
+public class PersistentNameSetTest {
+	
+	/**
+	 * Applying random changes should give the same results as a HashSet, and should
+	 * never modify earlier versions of the set.
+	 */
+	@Test
+	public void testChangesMatchHashSet() {
+		// Enough names to need several leaves.
+		List<Name> names = IntStream.range(0, 5000)
+			.mapToObj(x -> Name.get("Persistens", "epithet" + x))
+			.collect(Collectors.toList());
+		Random random = new Random(42);
+		
+		List<PersistentNameSet> versions = new ArrayList<>();
+		List<Set<Name>> expected = new ArrayList<>();
+		versions.add(PersistentNameSet.empty());
+		expected.add(new HashSet<>());
+		
+		for(int i = 0; i < 50; i++) {
+			Set<Name> added = new HashSet<>();
+			Set<Name> removed = new HashSet<>();
+			for(int j = 0; j < 200; j++) {
+				added.add(names.get(random.nextInt(names.size())));
+				removed.add(names.get(random.nextInt(names.size())));
+			}
+			
+			Set<Name> next = new HashSet<>(expected.get(i));
+			next.removeAll(removed);
+			next.addAll(added);
+			
+			expected.add(next);
+			versions.add(versions.get(i).withChanges(added, removed));
+		}
+		
+		for(int i = 0; i < versions.size(); i++) {
+			PersistentNameSet set = versions.get(i);
+			assertEquals(expected.get(i).size(), set.size());
+			assertEquals(expected.get(i), new HashSet<>(set));
+			assertEquals(expected.get(i), set);
+			
+			for(Name n: names) {
+				assertEquals(expected.get(i).contains(n), set.contains(n));
+			}
+		}
+	}
+	
+	@Test
+	public void testEmptyChanges() {
+		PersistentNameSet set = PersistentNameSet.of(Arrays.asList(Name.get("Alpha", "beta"), Name.get("Gamma", "delta")));
+		
+		assertEquals(2, set.size());
+		assertTrue(set.contains(Name.get("Alpha", "beta")));
+		assertFalse(set.contains(Name.get("Alpha", "gamma")));
+		assertFalse(set.contains("Alpha beta"));
+		
+		assertSame(set, set.withChanges(Collections.emptySet(), Collections.emptySet()));
+		assertSame(set, set.withChanges(Arrays.asList(Name.get("Alpha", "beta")), Arrays.asList(Name.get("Alpha", "gamma"))));
+		assertTrue(PersistentNameSet.empty().isEmpty());
+		assertFalse(PersistentNameSet.empty().iterator().hasNext());
+	}
+}
@@ -18,16 +18,40 @@ package com.ggvaidya.scinames.model;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPOutputStream;
 
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+
+import com.ggvaidya.scinames.model.io.BlockGzipInputStream;
+import com.ggvaidya.scinames.model.io.ProjectJournal;
+import com.ggvaidya.scinames.model.io.ProjectSnapshot;
+import com.ggvaidya.scinames.model.io.ProjectXMLReader;
+import com.ggvaidya.scinames.util.RowPin;
+import com.ggvaidya.scinames.util.SimplifiedDate;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -39,6 +63,24 @@ public class XMLTest {
 	private static final String BEFORE_DATASETS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><project name=\"Test\"><properties/><filters/><datasets>";
 	private static final String AFTER_DATASETS = "</datasets></project>";
 	
+	/**
+	 * Create a checklist with a row for each species from "<genus> species<from>" 
+	 * up to (but not including) "<genus> species<to>", in a "scientificName" column.
+	 */
+	private static Dataset checklistOf(String name, SimplifiedDate date, String genus, int from, int to) {
+		Dataset ds = new Dataset(name, date, Dataset.TYPE_CHECKLIST);
+		ds.getColumns().add(DatasetColumn.of("scientificName"));
+		
+		List<DatasetRow> rows = new ArrayList<>();
+		for(int x = from; x < to; x++) {
+			DatasetRow row = new DatasetRow(ds);
+			row.put("scientificName", genus + " species" + x);
+			rows.add(row);
+		}
+		ds.rowsProperty().addAll(rows);
+		return ds;
+	}
+	
 	/**
 	 * Why can't the XML import code handle certain entities?
 	 */
@@ -74,4 +116,413 @@ public class XMLTest {
 		
 		// TODO: Fix!
 	}
+	
+	/**
+	 * Projects streamed out by saveToFile() should load back in unchanged.
+	 */
+	@Test
+	public void testStreamingSave() throws IOException {
+		File tempFile = File.createTempFile("xml_streaming_test", ".xml.gz");
+		tempFile.deleteOnExit();
+		
+		Project project = new Project("Streaming <test> & \"quotes\"", tempFile);
+		Dataset ds = checklistOf("ds & <1>", new SimplifiedDate(1930, 4), "Streamus", 0, 100);
+		ds.getProperties().put("source", "A & B <http://example.org>");
+		ds.getColumns().add(DatasetColumn.of("notes"));
+		for(int x = 0; x < 100; x += 3) {
+			ds.rowsProperty().get(x).put("notes", "Note <" + x + "> & more");
+		}
+		Change ch = new Change(ds, ChangeType.RENAME, Stream.of(Name.get("Streamus", "oldus")), Stream.of(Name.get("Streamus", "novus")));
+		ds.explicitChangesProperty().add(ch);
+		ch.getProperties().put("note", "renamed & \"quoted\"");
+		project.addDataset(ds);
+		
+		project.saveToFile();
+		assertFalse(project.isModified());
+		
+		// Make sure we load the XML rather than the snapshot.
+		File snapshotFile = ProjectSnapshot.getSnapshotFile(tempFile);
+		assertTrue(ProjectSnapshot.hasUpToDateSnapshot(tempFile));
+		assertTrue(snapshotFile.delete());
+		
+		Project loaded = Project.loadFromFile(tempFile);
+		assertEquals(project.getName(), loaded.getName());
+		assertEquals(1, loaded.getDatasets().size());
+		
+		Dataset loadedDs = loaded.getDatasets().get(0);
+		assertEquals(ds.getName(), loadedDs.getName());
+		assertEquals(ds.getDate().getLocalDate(), loadedDs.getDate().getLocalDate());
+		assertEquals(ds.getProperties().get("source"), loadedDs.getProperties().get("source"));
+		assertEquals(ds.getColumns(), loadedDs.getColumns());
+		assertEquals(
+			ds.rowsProperty().stream().map(row -> row.asMap()).collect(Collectors.toList()),
+			loadedDs.rowsProperty().stream().map(row -> row.asMap()).collect(Collectors.toList())
+		);
+		
+		assertEquals(1, loadedDs.explicitChangesProperty().size());
+		Change loadedCh = loadedDs.explicitChangesProperty().get(0);
+		assertEquals(ch.getType(), loadedCh.getType());
+		assertEquals(ch.getFrom(), loadedCh.getFrom());
+		assertEquals(ch.getTo(), loadedCh.getTo());
+		assertEquals(ch.getProperties(), loadedCh.getProperties());
+	}
+	
+	/**
+	 * Datasets are parsed in parallel when loading a project from XML, but should
+	 * still end up in order, linked to the datasets before them.
+	 */
+	@Test
+	public void testParallelLoading() throws IOException {
+		File tempFile = File.createTempFile("xml_parallel_test", ".xml.gz");
+		tempFile.deleteOnExit();
+		
+		Project project = new Project("Parallel test", tempFile);
+		for(int d = 0; d < 40; d++) {
+			// Every checklist drops one species and adds another.
+			project.addDataset(checklistOf("parallel" + d, new SimplifiedDate(1900 + d, 1, 1), "Parallelus", d, d + 50 + (d % 7)));
+		}
+		project.saveToFile();
+		assertTrue(ProjectSnapshot.getSnapshotFile(tempFile).delete());
+		
+		Project loaded = Project.loadFromFile(tempFile);
+		assertEquals(project.getDatasets().size(), loaded.getDatasets().size());
+		
+		Dataset prev = null;
+		for(int d = 0; d < 40; d++) {
+			Dataset ds = project.getDatasets().get(d);
+			Dataset loadedDs = loaded.getDatasets().get(d);
+			
+			assertEquals(ds.getName(), loadedDs.getName());
+			assertEquals(Optional.ofNullable(prev), loadedDs.getPreviousDataset());
+			assertEquals(ds.getNamesInAllRows(), loadedDs.getNamesInAllRows());
+			assertEquals(ds.getChangesCountSummary(project), loadedDs.getChangesCountSummary(loaded));
+			prev = loadedDs;
+		}
+	}
+	
+	/**
+	 * A document that ends right after a dataset starts should be reported as bad XML.
+	 */
+	@Test
+	public void testTruncatedDataset() throws XMLStreamException {
+		String xml = BEFORE_DATASETS + "<dataset name=\"truncated\" type=\"Checklist\" year=\"1900\">" 
+			+ "<columns/><rows/></dataset>" + AFTER_DATASETS;
+		
+		// Pretend the document ends as soon as the dataset starts.
+		XMLEventReader reader = new EventReaderDelegate(XMLInputFactory.newFactory().createXMLEventReader(new StringReader(xml))) {
+			private boolean datasetStarted = false;
+			
+			@Override
+			public boolean hasNext() {
+				return !datasetStarted && super.hasNext();
+			}
+			
+			@Override
+			public XMLEvent nextTag() throws XMLStreamException {
+				XMLEvent event = super.nextTag();
+				if(event.isStartElement() && event.asStartElement().getName().getLocalPart().equals("dataset"))
+					datasetStarted = true;
+				return event;
+			}
+		};
+		
+		assertThrows(XMLStreamException.class, () -> ProjectXMLReader.read(reader));
+	}
+	
+	/**
+	 * Project files should be block-gzipped, readable by ordinary gzip readers, and
+	 * indexed so that any dataset can be read on its own.
+	 */
+	@Test
+	public void testBlockGzippedProjectFile() throws IOException {
+		File tempFile = File.createTempFile("xml_blockgzip_test", ".xml.gz");
+		tempFile.deleteOnExit();
+		ProjectSnapshot.getSnapshotFile(tempFile).deleteOnExit();
+		
+		Project project = new Project("Block gzip test", tempFile);
+		for(int d = 0; d < 5; d++) {
+			// Large enough to need several blocks.
+			project.addDataset(checklistOf("blocks" + d, new SimplifiedDate(1950 + d, 1, 1), "Blockus", 0, 3000 * d));
+		}
+		project.saveToFile();
+		
+		// Ordinary gzip readers see the same XML as we do.
+		assertTrue(BlockGzipInputStream.isBlockGzipped(tempFile));
+		String xml = IOUtils.toString(new GZIPInputStream(new FileInputStream(tempFile)), StandardCharsets.UTF_8);
+		try (InputStream input = BlockGzipInputStream.open(tempFile)) {
+			assertEquals(xml, IOUtils.toString(input, StandardCharsets.UTF_8));
+		}
+		
+		// Every dataset is in the index, and can be read on its own.
+		List<BlockGzipInputStream.IndexEntry> index = BlockGzipInputStream.readIndex(tempFile);
+		assertEquals(5, index.size());
+		for(int d = 0; d < 5; d++) {
+			assertTrue(xml.substring((int) index.get(d).getUncompressedOffset()).startsWith("<dataset name=\"blocks" + d + "\""));
+			
+			Dataset ds = ProjectXMLReader.readDataset(tempFile, index.get(d));
+			assertEquals("blocks" + d, ds.getName());
+			assertEquals(project.getDatasets().get(d).getNamesInAllRows(), ds.getNamesInAllRows());
+		}
+		
+		// Ordinary gzip files can still be read.
+		File plainFile = File.createTempFile("xml_plaingzip_test", ".xml.gz");
+		plainFile.deleteOnExit();
+		try (OutputStreamWriter writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(plainFile)), StandardCharsets.UTF_8)) {
+			writer.write(xml);
+		}
+		assertFalse(BlockGzipInputStream.isBlockGzipped(plainFile));
+		assertTrue(BlockGzipInputStream.readIndex(plainFile).isEmpty());
+		assertEquals(5, Project.loadFromFile(plainFile).getDatasets().size());
+	}
+	
+	/**
+	 * Saving a project should write a snapshot, which should be preferred to the XML
+	 * while it's up to date and load back the same project.
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+		File tempFile = File.createTempFile("xml_snapshot_test", ".xml.gz");
+		File snapshotFile = ProjectSnapshot.getSnapshotFile(tempFile);
+		tempFile.deleteOnExit();
+		snapshotFile.deleteOnExit();
+		
+		Project project = new Project("Snapshot test", tempFile);
+		Dataset ds = checklistOf("snapshot", new SimplifiedDate(1930, 4, 2), "Snapshotus", 0, 300);
+		ds.getProperties().put("source", "Somewhere \u00e9\u4e2d");
+		ds.getColumns().add(DatasetColumn.of("family"));
+		for(int x = 0; x < 300; x++) {
+			ds.rowsProperty().get(x).put("family", (x % 2 == 0) ? "Snapshotidae" : "");
+		}
+		
+		// A column that isn't in the list of columns.
+		ds.rowsProperty().get(299).put("extra", "extra value");
+		Change ch = new Change(ds, ChangeType.LUMP, 
+			Stream.of(Name.get("Snapshotus", "alpha"), Name.get("Snapshotus", "beta", "gamma")), 
+			Stream.of(Name.getFromGenus("Snapshotus")));
+		ds.explicitChangesProperty().add(ch);
+		ch.getProperties().put("note", "lumped");
+		project.addDataset(ds);
+		
+		project.saveToFile();
+		assertTrue(ProjectSnapshot.hasUpToDateSnapshot(tempFile));
+		
+		Project fromSnapshot = ProjectSnapshot.read(tempFile);
+		assertEquals(project.getName(), fromSnapshot.getName());
+		assertEquals(project.propertiesProperty(), fromSnapshot.propertiesProperty());
+		assertEquals(1, fromSnapshot.getDatasets().size());
+		
+		Dataset loadedDs = fromSnapshot.getDatasets().get(0);
+		assertEquals(ds.getName(), loadedDs.getName());
+		assertEquals(ds.getType(), loadedDs.getType());
+		assertEquals(ds.getDate().getLocalDate(), loadedDs.getDate().getLocalDate());
+		assertEquals(ds.getNameExtractorsAsString(), loadedDs.getNameExtractorsAsString());
+		assertEquals(ds.getProperties(), loadedDs.getProperties());
+		assertEquals(ds.getColumns(), loadedDs.getColumns());
+		assertEquals("extra value", loadedDs.rowsProperty().get(299).get("extra"));
+		
+		// Blank values aren't saved, just as in the XML.
+		assertEquals(300, loadedDs.getRowCount());
+		for(int x = 0; x < 300; x++) {
+			DatasetRow row = ds.rowsProperty().get(x);
+			DatasetRow loadedRow = loadedDs.rowsProperty().get(x);
+			
+			assertEquals(row.get("scientificName"), loadedRow.get("scientificName"));
+			assertEquals((x % 2 == 0) ? "Snapshotidae" : null, loadedRow.get("family"));
+		}
+		
+		assertEquals(1, loadedDs.explicitChangesProperty().size());
+		Change loadedCh = loadedDs.explicitChangesProperty().get(0);
+		assertEquals(ch.getType(), loadedCh.getType());
+		assertEquals(ch.getFrom(), loadedCh.getFrom());
+		assertEquals(ch.getTo(), loadedCh.getTo());
+		assertEquals(ch.getProperties(), loadedCh.getProperties());
+		
+		// Modifying the XML file makes the snapshot out of date.
+		assertTrue(tempFile.setLastModified(snapshotFile.lastModified() + 10000));
+		assertFalse(ProjectSnapshot.hasUpToDateSnapshot(tempFile));
+		assertThrows(IOException.class, () -> ProjectSnapshot.read(tempFile));
+		assertEquals(300, Project.loadFromFile(tempFile).getDatasets().get(0).getRowCount());
+	}
+	
+	/**
+	 * Datasets loaded from a snapshot should know their row count and names without
+	 * loading any rows, page their rows in when asked, and page them out again unless
+	 * they've been modified or pinned.
+	 */
+	@Test
+	public void testPagedRows() throws IOException {
+		File tempFile = File.createTempFile("xml_paging_test", ".xml.gz");
+		File snapshotFile = ProjectSnapshot.getSnapshotFile(tempFile);
+		tempFile.deleteOnExit();
+		snapshotFile.deleteOnExit();
+		
+		Project project = new Project("Paging test", tempFile);
+		for(int d = 0; d < 3; d++) {
+			Dataset ds = checklistOf("paging" + d, new SimplifiedDate(1930 + d, 1, 1), "Pagus", d, d + 100 * (d + 1));
+			ds.getColumns().add(DatasetColumn.of("family"));
+			ds.rowsProperty().forEach(row -> row.put("family", "Pagidae"));
+			project.addDataset(ds);
+		}
+		project.saveToFile();
+		
+		Project loaded = ProjectSnapshot.read(tempFile);
+		assertEquals(3, loaded.getDatasets().size());
+		for(int d = 0; d < 3; d++) {
+			Dataset ds = project.getDatasets().get(d);
+			Dataset loadedDs = loaded.getDatasets().get(d);
+			
+			// Row counts and names are available without loading any rows.
+			assertFalse(loadedDs.areRowsLoaded());
+			assertEquals(ds.getRowCount(), loadedDs.getRowCount());
+			assertEquals(ds.getNamesInAllRows(), loadedDs.getNamesInAllRows());
+			assertEquals(ds.getRecognizedNameSet(project), loadedDs.getRecognizedNameSet(loaded));
+			assertFalse(loadedDs.areRowsLoaded());
+			
+			// Rows are paged in when needed ...
+			assertEquals("Pagus species" + d, loadedDs.rowsProperty().get(0).get("scientificName"));
+			assertTrue(loadedDs.areRowsLoaded());
+			assertEquals(ds.getNamesInAllRows(), loadedDs.getNamesInAllRows());
+			
+			// ... and can be paged out and back in again.
+			assertTrue(loadedDs.pageOutRows());
+			assertFalse(loadedDs.areRowsLoaded());
+			assertEquals(ds.getRowCount(), loadedDs.getRowCount());
+			assertEquals(ds.getNamesInAllRows(), loadedDs.getNamesInAllRows());
+			assertEquals(ds.getRowCount(), loadedDs.getRowsByName().values().stream().mapToInt(Set::size).sum());
+			assertEquals("Pagidae", loadedDs.rowsProperty().get(ds.getRowCount() - 1).get("family"));
+		}
+		
+		// Pinned rows can't be paged out.
+		Dataset pinned = loaded.getDatasets().get(0);
+		DatasetRow stale = pinned.rowsProperty().get(0);
+		RowPin pin = pinned.pinRows();
+		try {
+			assertFalse(pinned.pageOutRows());
+		} finally {
+			pin.close();
+		}
+		assertTrue(pinned.pageOutRows());
+		
+		// Rows we held on to can still be read once they've been paged out.
+		assertEquals("Pagus species0", stale.get("scientificName"));
+		
+		// Modified rows can't be paged out either.
+		Dataset modified = loaded.getDatasets().get(1);
+		modified.rowsProperty().get(0).put("family", "Modifidae");
+		assertFalse(modified.pageOutRows());
+		assertEquals("Modifidae", modified.rowsProperty().get(0).get("family"));
+		
+		// Once saved, modified rows can be paged out again, and are reloaded from the new snapshot.
+		loaded.setFile(tempFile);
+		loaded.saveToFile();
+		assertTrue(modified.pageOutRows());
+		assertEquals("Modifidae", modified.rowsProperty().get(0).get("family"));
+		
+		// Saving doesn't page in rows that were paged out: they're copied into the new snapshot.
+		assertFalse(pinned.areRowsLoaded());
+		assertEquals("Pagus species0", pinned.rowsProperty().get(0).get("scientificName"));
+		
+		// Reading rows right away gives the same results.
+		Project eager = ProjectSnapshot.read(tempFile, false);
+		assertTrue(eager.getDatasets().get(1).areRowsLoaded());
+		assertEquals("Modifidae", eager.getDatasets().get(1).rowsProperty().get(0).get("family"));
+	}
+	
+	/**
+	 * Autosaving a project should append its edits to a journal instead of rewriting
+	 * the project file; the journal should be replayed when the project is next loaded,
+	 * and discarded once the project is saved in full.
+	 */
+	@Test
+	public void testJournal() throws IOException {
+		File tempFile = File.createTempFile("xml_journal_test", ".xml.gz");
+		File journalFile = ProjectJournal.getJournalFile(tempFile);
+		tempFile.deleteOnExit();
+		ProjectSnapshot.getSnapshotFile(tempFile).deleteOnExit();
+		journalFile.deleteOnExit();
+		
+		Project project = new Project("Journal test", tempFile);
+		for(int d = 0; d < 2; d++) {
+			Dataset ds = checklistOf("journal" + d, new SimplifiedDate(1940 + d, 1, 1), "Journalus", 0, 50);
+			for(int x = 0; x < 3; x++) {
+				Change ch = new Change(ds, ChangeType.RENAME, Stream.of(Name.get("Journalus", "old" + x)), Stream.of(Name.get("Journalus", "new" + x)));
+				ds.explicitChangesProperty().add(ch);
+			}
+			project.addDataset(ds);
+		}
+		project.saveToFile();
+		long savedLength = tempFile.length();
+		long savedLastModified = tempFile.lastModified();
+		
+		// Edit the project we load, and autosave it.
+		Project loaded = Project.loadFromFile(tempFile);
+		Dataset ds0 = loaded.getDatasets().get(0);
+		Dataset ds1 = loaded.getDatasets().get(1);
+		
+		ds0.explicitChangesProperty().get(1).noteProperty().set("checked");
+		ds0.explicitChangesProperty().get(2).typeProperty().set(ChangeType.LUMP);
+		ds0.explicitChangesProperty().remove(0);
+		Change added = new Change(ds1, ChangeType.ADDITION, Stream.empty(), Stream.of(Name.get("Journalus", "novus")));
+		ds1.explicitChangesProperty().add(added);
+		ds1.getProperties().put("curator", "Someone");
+		ds1.rowsProperty().get(10).put("scientificName", "Journalus editus");
+		loaded.propertiesProperty().put("autosaved", "yes");
+		
+		loaded.autosave();
+		assertTrue(journalFile.exists());
+		assertEquals(savedLength, tempFile.length());
+		assertEquals(savedLastModified, tempFile.lastModified());
+		
+		// Edits made after an autosave are appended to the journal. They're read
+		// when the autosave is prepared, so edits made before the journal is 
+		// written wait for the next autosave.
+		long journalLength = loaded.getJournal().get().getLength();
+		added.noteProperty().set("new species");
+		assertTrue(loaded.prepareAutosave());
+		loaded.propertiesProperty().put("later", "yes");
+		loaded.writeJournal();
+		assertTrue(loaded.getJournal().get().getLength() > journalLength);
+		assertNull(Project.loadFromFile(tempFile).propertiesProperty().get("later"));
+		loaded.autosave();
+		
+		// A torn record at the end of the journal is ignored.
+		try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+			out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+		}
+		
+		Project replayed = Project.loadFromFile(tempFile);
+		assertTrue(replayed.isModified());
+		assertEquals("yes", replayed.propertiesProperty().get("autosaved"));
+		assertEquals("yes", replayed.propertiesProperty().get("later"));
+		
+		Dataset replayed0 = replayed.getDatasets().get(0);
+		assertEquals(2, replayed0.explicitChangesProperty().size());
+		assertEquals(Name.get("Journalus", "old1"), replayed0.explicitChangesProperty().get(0).getFrom().iterator().next());
+		assertEquals("checked", replayed0.explicitChangesProperty().get(0).getNote().orElse(null));
+		assertEquals(ChangeType.LUMP, replayed0.explicitChangesProperty().get(1).getType());
+		
+		Dataset replayed1 = replayed.getDatasets().get(1);
+		assertEquals(4, replayed1.explicitChangesProperty().size());
+		Change replayedAdded = replayed1.explicitChangesProperty().get(3);
+		assertEquals(ChangeType.ADDITION, replayedAdded.getType());
+		assertEquals(added.getTo(), replayedAdded.getTo());
+		assertEquals("new species", replayedAdded.getNote().orElse(null));
+		assertEquals("Someone", replayed1.getProperties().get("curator"));
+		assertEquals("Journalus editus", replayed1.rowsProperty().get(10).get("scientificName"));
+		assertEquals(50, replayed1.getRowCount());
+		
+		// Edits can still be journaled after replaying a torn journal.
+		replayed1.getProperties().put("curator", "Someone else");
+		replayed.autosave();
+		assertEquals("Someone else", Project.loadFromFile(tempFile).getDatasets().get(1).getProperties().get("curator"));
+		
+		// Saving the project in full compacts the journal into the project file.
+		replayed.saveToFile();
+		assertFalse(journalFile.exists());
+		Project saved = Project.loadFromFile(tempFile);
+		assertFalse(saved.isModified());
+		assertEquals("Someone else", saved.getDatasets().get(1).getProperties().get("curator"));
+		assertEquals("Journalus editus", saved.getDatasets().get(1).rowsProperty().get(10).get("scientificName"));
+		assertEquals("new species", saved.getDatasets().get(1).explicitChangesProperty().get(3).getNote().orElse(null));
+	}
 }